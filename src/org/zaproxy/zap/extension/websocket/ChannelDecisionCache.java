@@ -0,0 +1,83 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers a decision per channel, like whether it is in scope, as the URL of
+ * a channel never changes. Decisions are made again after
+ * {@link #invalidate()}, e.g. once the scope changed. The decision of a
+ * channel is forgotten with {@link #evict(int)}, once it is closed.
+ * <p>
+ * Channels without identifier or URL (e.g. search criteria, or channels whose
+ * handshake is not known yet) are never cached.
+ */
+abstract class ChannelDecisionCache {
+
+	/**
+	 * Replaced on invalidation, such that a decision made concurrently with
+	 * the old settings is not stored in the new map.
+	 */
+	private volatile ConcurrentMap<Integer, Boolean> decisions;
+
+	ChannelDecisionCache() {
+		decisions = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param channel
+	 * @return the cached or a new decision
+	 */
+	boolean get(WebSocketChannelDTO channel) {
+		if (channel.id == null || channel.url == null || channel.url.isEmpty()) {
+			return decide(channel);
+		}
+
+		ConcurrentMap<Integer, Boolean> current = decisions;
+		Boolean decision = current.get(channel.id);
+		if (decision == null) {
+			decision = decide(channel);
+			current.put(channel.id, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * Forgets the decision of the given channel, e.g. once it was closed.
+	 * 
+	 * @param channelId
+	 */
+	void evict(int channelId) {
+		decisions.remove(channelId);
+	}
+
+	/**
+	 * Forgets all decisions.
+	 */
+	void invalidate() {
+		decisions = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @param channel
+	 * @return decision for given channel, called on cache misses
+	 */
+	protected abstract boolean decide(WebSocketChannelDTO channel);
+}
@@ -17,9 +17,13 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.awt.EventQueue;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
+import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -29,11 +33,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.control.Control;
@@ -47,6 +53,7 @@ import org.parosproxy.paros.extension.ExtensionHook;
 import org.parosproxy.paros.extension.ExtensionHookMenu;
 import org.parosproxy.paros.extension.ExtensionHookView;
 import org.parosproxy.paros.extension.ExtensionLoader;
+import org.parosproxy.paros.extension.OptionsChangedListener;
 import org.parosproxy.paros.extension.SessionChangedListener;
 import org.parosproxy.paros.extension.ViewDelegate;
 import org.parosproxy.paros.extension.filter.ExtensionFilter;
@@ -55,14 +62,18 @@ import org.parosproxy.paros.extension.manualrequest.ManualRequestEditorDialog;
 import org.parosproxy.paros.extension.manualrequest.http.impl.ManualHttpRequestEditorDialog;
 import org.parosproxy.paros.model.HistoryReference;
 import org.parosproxy.paros.model.Model;
+import org.parosproxy.paros.model.OptionsParam;
 import org.parosproxy.paros.model.Session;
 import org.parosproxy.paros.model.SiteNode;
 import org.parosproxy.paros.network.HttpMessage;
 import org.parosproxy.paros.network.HttpRequestHeader;
+import org.parosproxy.paros.network.HttpSender;
+import org.parosproxy.paros.network.HttpStatusCode;
 import org.parosproxy.paros.view.AbstractParamPanel;
 import org.parosproxy.paros.view.View;
 import org.zaproxy.zap.PersistentConnectionListener;
 import org.zaproxy.zap.ZapGetMethod;
+import org.zaproxy.zap.extension.api.API;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler2;
 import org.zaproxy.zap.extension.brk.ExtensionBreak;
 import org.zaproxy.zap.extension.help.ExtensionHelp;
@@ -71,17 +82,25 @@ import org.zaproxy.zap.extension.httppanel.component.HttpPanelComponentInterface
 import org.zaproxy.zap.extension.httppanel.view.HttpPanelDefaultViewSelector;
 import org.zaproxy.zap.extension.httppanel.view.HttpPanelView;
 import org.zaproxy.zap.extension.httppanel.view.hex.HttpPanelHexView;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
 import org.zaproxy.zap.extension.websocket.brk.PopupMenuAddBreakWebSocket;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointMessageHandler;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointsUiManagerInterface;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketProxyListenerBreak;
+import org.zaproxy.zap.extension.websocket.client.WebSocketClients;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchive;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchiveExporter;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchiveImporter;
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadFile;
 import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
 import org.zaproxy.zap.extension.websocket.filter.FilterWebSocketPayload;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilter;
 import org.zaproxy.zap.extension.websocket.filter.WebSocketFilterListener;
 import org.zaproxy.zap.extension.websocket.manualsend.ManualWebSocketSendEditorDialog;
 import org.zaproxy.zap.extension.websocket.manualsend.WebSocketPanelSender;
+import org.zaproxy.zap.extension.websocket.replay.WebSocketReplay;
 import org.zaproxy.zap.extension.websocket.ui.ExcludeFromWebSocketsMenuItem;
 import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
 import org.zaproxy.zap.extension.websocket.ui.OptionsWebSocketPanel;
@@ -111,9 +130,11 @@ import org.zaproxy.zap.view.SiteMapTreeCellRenderer;
  * @author Robert Koch
  */
 public class ExtensionWebSocket extends ExtensionAdaptor implements
-		PersistentConnectionListener, SessionChangedListener, SiteMapListener {
+		PersistentConnectionListener, SessionChangedListener, SiteMapListener, OptionsChangedListener {
     
 	private static final Logger logger = Logger.getLogger(ExtensionWebSocket.class);
+
+	private static final SecureRandom HANDSHAKE_KEY_RANDOM = new SecureRandom();
 	
 	public static final int HANDSHAKE_LISTENER = 10;
 	
@@ -127,23 +148,46 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 */
 	private ExecutorService listenerThreadPool;
 
+	/**
+	 * Starts proxied channels once their handshake was saved, created on
+	 * demand.
+	 */
+	private HandshakeReferenceResolver handshakeResolver;
+
 	/**
 	 * List of observers where each element is informed on all channel's
 	 * messages.
 	 */
-	private List<WebSocketObserver> allChannelObservers;
+	private ObserverList<WebSocketObserver> allChannelObservers;
 	
 	/**
 	 * List of sender listeners where each element is informed on all channel's
 	 * messages.
 	 */
-	private List<WebSocketSenderListener> allChannelSenderListeners;
+	private ObserverList<WebSocketSenderListener> allChannelSenderListeners;
 
 	/**
 	 * Contains all proxies with their corresponding handshake message.
 	 */
 	private Map<Integer, WebSocketProxy> wsProxies;
 
+	/**
+	 * Frames, bytes and timings of all channels since start.
+	 */
+	private final WebSocketStatistics statistics = new WebSocketStatistics();
+
+	/**
+	 * Replays started in the current session, by ID.
+	 */
+	private final Map<Integer, WebSocketReplay> replays = new ConcurrentHashMap<>();
+
+	/**
+	 * Channels used by scripts and other add-ons.
+	 */
+	private final WebSocketClients clients = new WebSocketClients(this);
+
+	private WebSocketAPI api;
+
 	/**
 	 * Database table.
 	 */
@@ -173,7 +217,32 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * Messages for some {@link WebSocketProxy} on this list are just
 	 * forwarded, but not stored nor shown in UI.
 	 */
-	private List<Pattern> preparedIgnoredChannels;
+	private volatile List<Pattern> preparedIgnoredChannels;
+
+	/**
+	 * The {@link #preparedIgnoredChannels} combined into one pattern, such
+	 * that an URL is matched in a single pass. {@code null} if there are no
+	 * patterns or they can not be combined.
+	 */
+	private volatile Pattern combinedIgnoredChannels;
+
+	/**
+	 * Matches back references, whose group numbers would change when
+	 * combining patterns.
+	 */
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+	/**
+	 * Remembers for each channel if it is in scope, invalidated when scope or
+	 * mode change.
+	 */
+	private ChannelDecisionCache scopeDecisions;
+
+	/**
+	 * Remembers for each channel if it matches the ignore list, invalidated
+	 * when the list changes.
+	 */
+	private ChannelDecisionCache ignoreDecisions;
 
 	/**
 	 * Contains raw regex values, as they appear in the sessions dialogue.
@@ -207,14 +276,52 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	public void init() {
 		super.init();
 		
-		allChannelObservers = new ArrayList<>();
-		allChannelSenderListeners = new ArrayList<>();
+		allChannelObservers = new ObserverList<>(new WebSocketObserver[0], WebSocketProxy.OBSERVERS_COMPARATOR);
+		allChannelSenderListeners = new ObserverList<>(
+				new WebSocketSenderListener[0],
+				WebSocketProxy.SENDER_LISTENERS_COMPARATOR);
 		wsProxies = new HashMap<>();
 		config = new OptionsParamWebSocket();
 		
-		preparedIgnoredChannels = new ArrayList<>();
+		preparedIgnoredChannels = Collections.emptyList();
 		ignoredChannelList = new ArrayList<>();
 
+		scopeDecisions = new ChannelDecisionCache() {
+
+			@Override
+			protected boolean decide(WebSocketChannelDTO channel) {
+				return channel.isInScope();
+			}
+		};
+		ignoreDecisions = new ChannelDecisionCache() {
+
+			@Override
+			protected boolean decide(WebSocketChannelDTO channel) {
+				return matchesIgnoreList(channel.getFullUri());
+			}
+		};
+		// sender listeners are also notified of forward-only channels
+		addAllChannelSenderListener(new WebSocketSenderListener() {
+
+			@Override
+			public int getListenerOrder() {
+				// after all other listeners, which might still decide
+				return Integer.MAX_VALUE;
+			}
+
+			@Override
+			public void onMessageFrame(int channelId, WebSocketMessage message, Initiator initiator) {
+			}
+
+			@Override
+			public void onStateChange(State state, WebSocketProxy proxy) {
+				if (state == State.CLOSED) {
+					scopeDecisions.evict(proxy.getChannelId());
+					ignoreDecisions.evict(proxy.getChannelId());
+				}
+			}
+		});
+
 		mode = Control.getSingleton().getMode();
 	}
 	
@@ -231,6 +338,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		db.addDatabaseListener(table);
 		try {
 			table.databaseOpen(db.getDatabaseServer());
+			applyStorageOptions();
 
 			if (storage == null) {
 				storage = new WebSocketStorage(table);	
@@ -278,6 +386,10 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 		// setup configuration
 		extensionHook.addOptionsParamSet(config);
+		extensionHook.addOptionsChangedListener(this);
+		
+		api = new WebSocketAPI(this);
+		API.getInstance().registerApiImplementor(api);
 		
 		try {
 			setChannelIgnoreList(Model.getSingleton().getSession().getExcludeFromProxyRegexs());
@@ -375,11 +487,28 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	public void unload() {
 		super.unload();
 		
+		if (api != null) {
+			API.getInstance().removeApiImplementor(api);
+		}
+		
 		// close all existing connections
 		for (Entry<Integer, WebSocketProxy> wsEntry : wsProxies.entrySet()) {
 			WebSocketProxy wsProxy = wsEntry.getValue();
 			wsProxy.shutdown();
 		}
+		stopReplays();
+		clients.shutdown();
+		
+		if (table != null) {
+			table.stopMessageWriter();
+		}
+		
+		synchronized (this) {
+			if (handshakeResolver != null) {
+				handshakeResolver.stop();
+				handshakeResolver = null;
+			}
+		}
 		
 		Control control = Control.getSingleton();
 		ExtensionLoader extLoader = control.getExtensionLoader();
@@ -438,7 +567,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	}
 
 	/**
-	 * Add an observer that is attached to every channel connected in future.
+	 * Add an observer that is attached to every channel, including the
+	 * channels connected already.
 	 * 
 	 * @param observer
 	 */
@@ -457,13 +587,11 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			throw new IllegalArgumentException("The parameter observer must not be null.");
 		}
 		allChannelObservers.remove(observer);
-		for (WebSocketProxy wsProxy : wsProxies.values()) {
-			wsProxy.removeObserver(observer);
-		}
 	}
 	
 	/**
-	 * Add an sender listener that is attached to every channel connected in future.
+	 * Add an sender listener that is attached to every channel, including the
+	 * channels connected already.
 	 * 
 	 * @param senderListener
 	 */
@@ -482,9 +610,6 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			throw new IllegalArgumentException("The parameter senderListener must not be null.");
 		}
 		allChannelSenderListeners.remove(senderListener);
-		for (WebSocketProxy wsProxy : wsProxies.values()) {
-			wsProxy.removeSenderListener(senderListener);
-		}
 	}
 
 	/**
@@ -558,86 +683,208 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * @param remoteReader Current {@link InputStream} of remote connection.
 	 */
 	public void addWebSocketsChannel(HttpMessage handshakeMessage, Socket localSocket, Socket remoteSocket, InputStream remoteReader) {
-		try {			
-			HttpRequestHeader requestHeader = handshakeMessage.getRequestHeader();
-			String targetHost = requestHeader.getHostName();
-			int targetPort = requestHeader.getHostPort();
-			if (logger.isDebugEnabled()) {
-				StringBuilder logMessage = new StringBuilder(200);
-				logMessage.append("Got WebSockets channel from ");
-				if (localSocket != null) {
-					logMessage.append(localSocket.getInetAddress()).append(':').append(localSocket.getPort());
-				} else {
-					logMessage.append("ZAP");
-				}
-				logMessage.append(" to ");
-				logMessage.append(targetHost).append(':').append(targetPort);
-				
-				logger.debug(logMessage.toString());
-			}
-			
-			// parse HTTP handshake
-			Map<String, String> wsExtensions = parseWebSocketExtensions(handshakeMessage);
-			String wsProtocol = parseWebSocketSubProtocol(handshakeMessage);
-			String wsVersion = parseWebSocketVersion(handshakeMessage);
-	
-			WebSocketProxy wsProxy = null;
-			wsProxy = WebSocketProxy.create(wsVersion, localSocket, remoteSocket, targetHost, targetPort, wsProtocol, wsExtensions);
-			
-			// set other observers and handshake reference, before starting listeners
-			for (WebSocketObserver observer : allChannelObservers) {
-				wsProxy.addObserver(observer);
-			}
-			
-			// set other sender listeners and handshake reference, before starting listeners
-			for (WebSocketSenderListener senderListener : allChannelSenderListeners) {
-				wsProxy.addSenderListener(senderListener);
-			}
-			
-			// wait until HistoryReference is saved to database
-			while (handshakeMessage.getHistoryRef() == null) {
-				try {
-					Thread.sleep(5);
-				} catch (InterruptedException e) {
-					logger.warn(e.getMessage(), e);
-				}
-			}
-			wsProxy.setHandshakeReference(handshakeMessage.getHistoryRef());
-			wsProxy.setForwardOnly(isChannelIgnored(wsProxy.getDTO()));
-			wsProxy.startListeners(getListenerThreadPool(), remoteReader);
-			
-			synchronized (wsProxies) {
-				wsProxies.put(wsProxy.getChannelId(), wsProxy);
-			}
+		try {
+			startWebSocketsChannel(handshakeMessage, localSocket, remoteSocket, remoteReader, true);
 		} catch (Exception e) {
 			// defensive measure to catch all possible exceptions
 			// cleanly close resources
-			if (localSocket != null && !localSocket.isClosed()) {
-				try {
-					localSocket.close();
-				} catch (IOException e1) {
-					logger.warn(e.getMessage(), e1);
-				}
+			closeChannel(localSocket, remoteSocket, remoteReader, e);
+		}
+	}
+
+	private static void closeChannel(Socket localSocket, Socket remoteSocket, InputStream remoteReader, Exception cause) {
+		if (localSocket != null && !localSocket.isClosed()) {
+			try {
+				localSocket.close();
+			} catch (IOException e1) {
+				logger.warn(cause.getMessage(), e1);
 			}
-			
-			if (remoteReader != null) {
-				try {
-					remoteReader.close();
-				} catch (IOException e1) {
-					logger.warn(e.getMessage(), e1);
-				}
+		}
+		
+		closeRemote(remoteSocket, remoteReader, cause);
+		logger.error("Adding WebSockets channel failed due to: '" + cause.getClass() + "' " + cause.getMessage());
+	}
+
+	private static void closeRemote(Socket remoteSocket, InputStream remoteReader, Exception cause) {
+		if (remoteReader != null) {
+			try {
+				remoteReader.close();
+			} catch (IOException e1) {
+				logger.warn(cause.getMessage(), e1);
+			}
+		}
+		
+		if (remoteSocket != null && !remoteSocket.isClosed()) {
+			try {
+				remoteSocket.close();
+			} catch (IOException e1) {
+				logger.warn(cause.getMessage(), e1);
+			}
+		}
+	}
+
+	/**
+	 * Creates the channel for the given handshake and starts it, as soon as
+	 * the handshake is saved. Proxied handshakes are saved by another thread,
+	 * the channel is started by the {@link HandshakeReferenceResolver} then,
+	 * without holding the calling thread. Until then frames remain in the
+	 * socket buffers.
+	 * 
+	 * @param isObserved false to only forward the messages of the channel,
+	 *            without storing and tracking it
+	 * @return the channel, might not be started yet
+	 * @throws Exception
+	 */
+	private WebSocketProxy startWebSocketsChannel(final HttpMessage handshakeMessage, final Socket localSocket,
+			final Socket remoteSocket, final InputStream remoteReader, final boolean isObserved) throws Exception {
+		HttpRequestHeader requestHeader = handshakeMessage.getRequestHeader();
+		String targetHost = requestHeader.getHostName();
+		int targetPort = requestHeader.getHostPort();
+		if (logger.isDebugEnabled()) {
+			StringBuilder logMessage = new StringBuilder(200);
+			logMessage.append("Got WebSockets channel from ");
+			if (localSocket != null) {
+				logMessage.append(localSocket.getInetAddress()).append(':').append(localSocket.getPort());
+			} else {
+				logMessage.append("ZAP");
 			}
+			logMessage.append(" to ");
+			logMessage.append(targetHost).append(':').append(targetPort);
 			
-			if (remoteSocket != null && !remoteSocket.isClosed()) {
+			logger.debug(logMessage.toString());
+		}
+		
+		// parse HTTP handshake
+		Map<String, String> wsExtensions = parseWebSocketExtensions(handshakeMessage);
+		String wsProtocol = parseWebSocketSubProtocol(handshakeMessage);
+		String wsVersion = parseWebSocketVersion(handshakeMessage);
+	
+		WebSocketProxy wsProxy = null;
+		wsProxy = WebSocketProxy.create(wsVersion, localSocket, remoteSocket, targetHost, targetPort, wsProtocol, wsExtensions);
+		
+		// set other observers and handshake reference, before starting listeners
+		wsProxy.setAllChannelObservers(allChannelObservers);
+		
+		// set other sender listeners and handshake reference, before starting listeners
+		wsProxy.setAllChannelSenderListeners(allChannelSenderListeners);
+		
+		wsProxy.setStatistics(statistics.createChannelStatistics());
+		wsProxy.setForwardFirst(config.isForwardFirst(), getListenerThreadPool());
+		wsProxy.setLimits(config.getLimits());
+		
+		// the HistoryReference is needed to store and show the channel
+		HistoryReference handshakeReference = handshakeMessage.getHistoryRef();
+		if (handshakeReference != null) {
+			startListeners(wsProxy, handshakeReference, remoteReader, isObserved);
+			return wsProxy;
+		}
+
+		final WebSocketProxy channel = wsProxy;
+		getHandshakeResolver().resolve(handshakeMessage, new HandshakeReferenceResolver.Callback() {
+
+			@Override
+			public void referenceAvailable(HistoryReference handshakeReference) {
 				try {
-					remoteSocket.close();
-				} catch (IOException e1) {
-					logger.warn(e.getMessage(), e1);
+					startListeners(channel, handshakeReference, remoteReader, isObserved);
+				} catch (WebSocketException e) {
+					closeChannel(localSocket, remoteSocket, remoteReader, e);
 				}
 			}
-			logger.error("Adding WebSockets channel failed due to: '" + e.getClass() + "' " + e.getMessage());
+
+			@Override
+			public void referenceUnavailable() {
+				closeChannel(localSocket, remoteSocket, remoteReader,
+						new WebSocketException("Handshake was not saved: " + handshakeMessage.getRequestHeader().getURI()));
+			}
+		});
+		return wsProxy;
+	}
+
+	private void startListeners(WebSocketProxy wsProxy, HistoryReference handshakeReference, InputStream remoteReader,
+			boolean isObserved) throws WebSocketException {
+		wsProxy.setHandshakeReference(handshakeReference);
+		wsProxy.setForwardOnly(!isObserved || isChannelIgnored(wsProxy.getDTO()));
+		wsProxy.startListeners(getListenerThreadPool(), remoteReader);
+		
+		if (!isObserved) {
+			// not affected by changes of the ignore list
 			return;
 		}
+		synchronized (wsProxies) {
+			wsProxies.put(wsProxy.getChannelId(), wsProxy);
+		}
+	}
+
+	private synchronized HandshakeReferenceResolver getHandshakeResolver() {
+		if (handshakeResolver == null) {
+			// channels are started by the listener threads, off the resolver thread
+			handshakeResolver = new HandshakeReferenceResolver(getListenerThreadPool());
+		}
+		return handshakeResolver;
+	}
+
+	/**
+	 * Opens a new channel in client mode, by sending the request of the given
+	 * handshake once more (with a new key). The new handshake is saved with
+	 * the given type.
+	 * 
+	 * @param handshakeMessage handshake of an existing channel
+	 * @param initiator of the {@link HttpSender}, e.g.
+	 *            {@link HttpSender#FUZZER_INITIATOR}
+	 * @param historyType type of the new {@link HistoryReference}
+	 * @return the new channel, already started
+	 * @throws IOException if the handshake failed or was not accepted
+	 */
+	public WebSocketProxy connect(HttpMessage handshakeMessage, int initiator, int historyType) throws IOException {
+		return connect(handshakeMessage, initiator, historyType, true);
+	}
+
+	/**
+	 * Opens a new channel like {@link #connect(HttpMessage, int, int)}, whose
+	 * messages are only forwarded. The channel is neither stored nor shown,
+	 * nor closed when this extension is unloaded, which is up to the caller.
+	 * Used to generate load, e.g. by a {@link WebSocketReplay}.
+	 * 
+	 * @param handshakeMessage handshake of an existing channel
+	 * @param initiator of the {@link HttpSender}
+	 * @param historyType type of the new {@link HistoryReference}
+	 * @return the new channel, already started
+	 * @throws IOException if the handshake failed or was not accepted
+	 */
+	public WebSocketProxy connectUnobserved(HttpMessage handshakeMessage, int initiator, int historyType)
+			throws IOException {
+		return connect(handshakeMessage, initiator, historyType, false);
+	}
+
+	private WebSocketProxy connect(HttpMessage handshakeMessage, int initiator, int historyType, boolean isObserved)
+			throws IOException {
+		HttpMessage msg = handshakeMessage.cloneRequest();
+		msg.getRequestHeader().setHeader(WebSocketProtocol.HEADER_KEY, createHandshakeKey());
+
+		HttpSender sender = new HttpSender(Model.getSingleton().getOptionsParam().getConnectionParam(), true, initiator);
+		sender.sendAndReceive(msg, false);
+
+		int statusCode = msg.getResponseHeader().getStatusCode();
+		if (statusCode != HttpStatusCode.SWITCHING_Protocols || !(msg.getUserObject() instanceof ZapGetMethod)) {
+			throw new WebSocketException("Handshake was not accepted, got status code " + statusCode);
+		}
+
+		ZapGetMethod method = (ZapGetMethod) msg.getUserObject();
+		Socket remoteSocket = method.getUpgradedConnection();
+		InputStream remoteReader = method.getUpgradedInputStream();
+		try {
+			msg.setHistoryRef(new HistoryReference(Model.getSingleton().getSession(), historyType, msg));
+			return startWebSocketsChannel(msg, null, remoteSocket, remoteReader, isObserved);
+		} catch (Exception e) {
+			closeRemote(remoteSocket, remoteReader, e);
+			throw new WebSocketException(e);
+		}
+	}
+
+	private static String createHandshakeKey() {
+		byte[] nonce = new byte[16];
+		HANDSHAKE_KEY_RANDOM.nextBytes(nonce);
+		return Base64.encodeBase64String(nonce);
 	}
 
 	/**
@@ -689,8 +936,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 				
 				int paramsIndex = key.indexOf(";");
 				if (paramsIndex != -1) {
-					key = extension.substring(0, paramsIndex).trim();
-					params = extension.substring(paramsIndex + 1).trim();
+					params = key.substring(paramsIndex + 1).trim();
+					key = key.substring(0, paramsIndex).trim();
 				}
 				
 				wsExtensions.put(key, params);
@@ -758,13 +1005,87 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * 
 	 * @return
 	 */
-	private ExecutorService getListenerThreadPool() {
+	private synchronized ExecutorService getListenerThreadPool() {
 		if (listenerThreadPool == null) {
 			listenerThreadPool = Executors.newCachedThreadPool();
 		}
 		return listenerThreadPool;
 	}
 
+	/**
+	 * @return frames, bytes and timings of all channels since start
+	 */
+	public WebSocketStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @param channelId
+	 * @return frames, bytes and timings of the given channel or {@code null}
+	 *         if the channel was not relayed in the current session
+	 */
+	public WebSocketStatistics getChannelStatistics(int channelId) {
+		synchronized (wsProxies) {
+			WebSocketProxy wsProxy = wsProxies.get(channelId);
+			return (wsProxy != null) ? wsProxy.getStatistics() : null;
+		}
+	}
+
+	/**
+	 * Starts to replay the outgoing messages of the given stored channel, see
+	 * {@link WebSocketReplay}.
+	 * 
+	 * @param channel stored channel
+	 * @param clients number of concurrent clients
+	 * @param speed factor applied to the original timing, or
+	 *            {@link WebSocketReplay#AS_FAST_AS_POSSIBLE}
+	 * @return the started replay
+	 * @throws IOException if the handshake or the messages could not be loaded
+	 * @throws IllegalArgumentException if a parameter is invalid
+	 */
+	public WebSocketReplay startReplay(WebSocketChannelDTO channel, int clients, double speed) throws IOException {
+		WebSocketReplay replay = new WebSocketReplay(this, channel, clients, speed);
+		replay.start();
+		replays.put(replay.getId(), replay);
+		return replay;
+	}
+
+	/**
+	 * @param replayId
+	 * @return the replay with the given ID or {@code null} if not started in
+	 *         the current session
+	 */
+	public WebSocketReplay getReplay(int replayId) {
+		return replays.get(replayId);
+	}
+
+	/**
+	 * @return entry point to open channels or attach to channels without
+	 *         blocking, for scripts and other add-ons
+	 */
+	public WebSocketClients getClients() {
+		return clients;
+	}
+
+	/**
+	 * @param channelId
+	 * @return the channel with the given ID or {@code null} if not connected
+	 *         or not relayed in the current session
+	 */
+	public WebSocketProxy getConnectedChannel(int channelId) {
+		synchronized (wsProxies) {
+			WebSocketProxy wsProxy = wsProxies.get(channelId);
+			return (wsProxy != null && wsProxy.isConnected()) ? wsProxy : null;
+		}
+	}
+
+	private void stopReplays() {
+		for (WebSocketReplay replay : replays.values()) {
+			replay.stop();
+		}
+		replays.clear();
+	}
+
 	/**
 	 * Returns true if the WebSocket connection that followed the given
 	 * WebSocket handshake is already alive.
@@ -812,7 +1133,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
      * @throws WebSocketException 
 	 */
 	public void setChannelIgnoreList(List<String> ignoreList) throws WebSocketException {
-		preparedIgnoredChannels.clear();
+		setPreparedIgnoredChannels(Collections.<Pattern> emptyList());
 		
 		List<String> nonEmptyIgnoreList = new ArrayList<>();
 		for (String regex : ignoreList) {
@@ -823,11 +1144,13 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 		// ensure validity by compiling regular expression
 		// store them for better performance
+		List<Pattern> patterns = new ArrayList<>(nonEmptyIgnoreList.size());
 		for (String regex : nonEmptyIgnoreList) {
 			if (regex.trim().length() > 0) {
-				preparedIgnoredChannels.add(Pattern.compile(regex.trim(), Pattern.CASE_INSENSITIVE));
+				patterns.add(Pattern.compile(regex.trim(), Pattern.CASE_INSENSITIVE));
 			}
 		}
+		setPreparedIgnoredChannels(patterns);
 		
 		// save list in database
 		try {
@@ -837,7 +1160,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			logger.error(e.getMessage(), e);
 			
 			ignoredChannelList.clear();
-			preparedIgnoredChannels.clear();
+			setPreparedIgnoredChannels(Collections.<Pattern> emptyList());
 			
 			throw new WebSocketException("Ignore list could not be applied! Consequently no channel is ignored.");
 		} finally {
@@ -849,6 +1172,60 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	public List<String> getChannelIgnoreList() {
 		return ignoredChannelList;
 	}
+
+	private void setPreparedIgnoredChannels(List<Pattern> patterns) {
+		preparedIgnoredChannels = patterns;
+		combinedIgnoredChannels = combinePatterns(patterns);
+		ignoreDecisions.invalidate();
+	}
+
+	/**
+	 * Combines the given patterns into one alternation, which matches if any
+	 * of them matches.
+	 * 
+	 * @param patterns case insensitive patterns
+	 * @return combined pattern, or {@code null} if there is none or they can
+	 *         not be combined
+	 */
+	private static Pattern combinePatterns(List<Pattern> patterns) {
+		if (patterns.isEmpty()) {
+			return null;
+		} else if (patterns.size() == 1) {
+			return patterns.get(0);
+		}
+
+		StringBuilder regex = new StringBuilder();
+		for (Pattern pattern : patterns) {
+			if (BACK_REFERENCE.matcher(pattern.pattern()).find()) {
+				return null;
+			}
+			if (regex.length() > 0) {
+				regex.append('|');
+			}
+			regex.append("(?:").append(pattern.pattern()).append(')');
+		}
+
+		try {
+			return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+		} catch (PatternSyntaxException e) {
+			logger.debug("Unable to combine patterns of ignored channels: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private boolean matchesIgnoreList(String uri) {
+		Pattern combined = combinedIgnoredChannels;
+		if (combined != null) {
+			return combined.matcher(uri).matches();
+		}
+
+		for (Pattern pattern : preparedIgnoredChannels) {
+			if (pattern.matcher(uri).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
 	
 	private void applyChannelIgnoreList() {
 		synchronized (wsProxies) {
@@ -878,6 +1255,83 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		return Collections.emptyList();
 	}
 
+	/**
+	 * Writes the stored channels and their messages to the given file, see
+	 * {@link WebSocketArchiveExporter}.
+	 * 
+	 * @param file compressed if its name ends with {@code .gz}
+	 * @param format
+	 * @param channelId ID of the channel to export, {@code null} for all
+	 *            channels
+	 * @return number of exported channels and messages
+	 * @throws IOException if the file could not be written or messages are
+	 *             not stored
+	 * @throws DatabaseException
+	 */
+	public WebSocketArchive.Summary exportArchive(File file, WebSocketArchive.Format format, Integer channelId)
+			throws IOException, DatabaseException {
+		TableWebSocket currentTable = getStoringTable();
+		try (WebSocketArchive.Writer writer = WebSocketArchive.createWriter(file, format)) {
+			return new WebSocketArchiveExporter(currentTable).export(channelId, writer);
+		}
+	}
+
+	/**
+	 * Stores the channels and messages of the given archive in the current
+	 * session, with new channel IDs, see {@link WebSocketArchiveImporter}.
+	 * 
+	 * @param file written by {@link #exportArchive(File, WebSocketArchive.Format, Integer)}
+	 * @return number of imported channels and messages
+	 * @throws IOException if the file could not be read or messages are not
+	 *             stored
+	 * @throws DatabaseException
+	 */
+	public WebSocketArchive.Summary importArchive(File file) throws IOException, DatabaseException {
+		TableWebSocket currentTable = getStoringTable();
+		WebSocketArchiveImporter importer = new WebSocketArchiveImporter(
+				currentTable,
+				new WebSocketArchiveImporter.ChannelIdGenerator() {
+
+					@Override
+					public int nextChannelId() {
+						return WebSocketProxy.generateChannelId();
+					}
+				});
+		WebSocketArchive.Summary summary = importer.importArchive(new FileInputStream(file));
+
+		if (View.isInitialised()) {
+			EventQueue.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					// show the imported channels
+					getWebSocketPanel().update();
+				}
+			});
+		}
+		return summary;
+	}
+
+	/**
+	 * Provides the payload of the given stored message without loading it
+	 * into memory, used to display large payloads page by page.
+	 * 
+	 * @param message stored message
+	 * @return the payload, has to be closed by the caller
+	 * @throws IOException if messages are not stored
+	 * @throws DatabaseException if the payload could not be read
+	 */
+	public WebSocketPayloadFile openPayload(WebSocketMessageDTO message) throws IOException, DatabaseException {
+		return getStoringTable().openPayload(message.id, message.channel.id);
+	}
+
+	private TableWebSocket getStoringTable() throws WebSocketException {
+		if (storage == null || storage.getTable() == null) {
+			throw new WebSocketException("Messages are not stored.");
+		}
+		return storage.getTable();
+	}
+
 	/**
 	 * If given channel is blacklisted, then nothing should be stored. Moreover
 	 * it should not appear in user interface, but messages should be forwarded.
@@ -886,22 +1340,11 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	 * @return
 	 */
 	public boolean isChannelIgnored(WebSocketChannelDTO channel) {
-		boolean doNotStore = false;
-		
 		if (config.isForwardAll()) {
 			// all channels are blacklisted
-			doNotStore = true;
-		} else if (!preparedIgnoredChannels.isEmpty()) {
-			for (Pattern p : preparedIgnoredChannels) {
-				Matcher m = p.matcher(channel.getFullUri());
-				if (m.matches()) {
-					doNotStore = true;
-					break;
-				}
-			}
+			return true;
 		}
-		
-		return doNotStore;
+		return ignoreDecisions.get(channel);
 	}
 
 	@Override
@@ -920,6 +1363,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			logger.error("Unable to retrieve current channelId value!", e);
 		}
 		*/
+		scopeDecisions.invalidate();
 
 		List<String> ignoredList = new ArrayList<>();
 		try {
@@ -956,20 +1400,55 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 			}
 			wsProxies.clear();
 		}
+		stopReplays();
+		clients.closeAll();
+		
+		if (table != null) {
+			// store queued messages before the database is closed
+			table.stopMessageWriter();
+			
+			if (Model.getSingleton().getSession().isNewState()) {
+				// the temporary session is discarded
+				table.deletePayloadSegments();
+			}
+		}
 		
 		if (wsFilterListener != null) {
 			wsFilterListener.reset();
 		}
 	}
 
+	@Override
+	public void optionsLoaded() {
+		applyStorageOptions();
+	}
+
+	@Override
+	public void optionsChanged(OptionsParam optionsParam) {
+		applyStorageOptions();
+	}
+
+	/**
+	 * Passes the thresholds for compressed and spilled payloads, given in KiB,
+	 * to the current table.
+	 */
+	private void applyStorageOptions() {
+		if (table == null) {
+			return;
+		}
+		table.setPayloadCompressionThreshold(config.getStorageCompressThreshold() * 1024);
+		table.setPayloadSpillThreshold(config.getStorageSpillThreshold() * 1024);
+	}
+
 	@Override
 	public void sessionScopeChanged(Session session) {
-		// do nothing
+		scopeDecisions.invalidate();
 	}
 
 	@Override
 	public void sessionModeChanged(Mode mode) {
 		this.mode = mode;
+		scopeDecisions.invalidate();
 	}
 
 	/**
@@ -985,7 +1464,8 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		if (mode.equals(Mode.safe)) {
 			return false;
 		} else if (mode.equals(Mode.protect)) {
-			return message.isInScope();
+			// the scope of a channel is only checked once
+			return message.channel != null && scopeDecisions.get(message.channel);
 		} else {
 			return true;
 		}
@@ -1037,6 +1517,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 	private WebSocketPanel getWebSocketPanel() {
 		if (panel == null) {
 			panel = new WebSocketPanel(storage.getTable(), getBrkManager());
+			panel.setStatisticsSource(this);
 		}
 		return panel;
 	}
@@ -1085,7 +1566,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		manager.addResponseViewFactory(WebSocketComponent.NAME, viewFactory);
 
 		// support large payloads on incoming and outgoing messages
-		viewFactory = new WebSocketLargePayloadViewFactory();
+		viewFactory = new WebSocketLargePayloadViewFactory(this);
 		manager.addRequestViewFactory(WebSocketComponent.NAME, viewFactory);
 		manager.addResponseViewFactory(WebSocketComponent.NAME, viewFactory);
 		
@@ -1258,6 +1739,12 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 		
 		public static final String NAME = "WebSocketLargePayloadViewFactory";
 
+		private final ExtensionWebSocket extension;
+
+		public WebSocketLargePayloadViewFactory(ExtensionWebSocket extension) {
+			this.extension = extension;
+		}
+
 		@Override
 		public String getName() {
 			return NAME;
@@ -1265,7 +1752,7 @@ public class ExtensionWebSocket extends ExtensionAdaptor implements
 
 		@Override
 		public HttpPanelView getNewView() {
-			return new WebSocketLargePayloadView(new WebSocketLargetPayloadViewModel());
+			return new WebSocketLargePayloadView(new WebSocketLargetPayloadViewModel(), extension);
 		}
 
 		@Override
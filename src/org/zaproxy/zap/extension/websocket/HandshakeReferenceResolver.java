@@ -0,0 +1,243 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+
+/**
+ * Passes on the {@link HistoryReference}s of handshakes, once they were saved
+ * to the session.
+ * <p>
+ * Proxied handshakes are saved by another thread of the core, which does not
+ * announce when it is done (neither by a listener nor by an event). Instead of
+ * each proxy thread waiting on its own handshake, a single thread checks the
+ * pending handshakes every few milliseconds, as long as there are any, and
+ * idles otherwise. The callbacks are run by the given executor, so that
+ * starting one channel does not delay the other handshakes.
+ */
+final class HandshakeReferenceResolver {
+
+	private static final Logger logger = Logger.getLogger(HandshakeReferenceResolver.class);
+
+	/**
+	 * Time between two checks of the pending handshakes, most are saved
+	 * within a few milliseconds.
+	 */
+	private static final long CHECK_INTERVAL_MS = 2;
+
+	/**
+	 * Time after which a handshake is given up, e.g. if saving it failed.
+	 */
+	private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Receives the reference of a handshake, called by a thread of the
+	 * executor, or by the calling thread if the reference is already
+	 * available or the resolver is stopped.
+	 */
+	interface Callback {
+
+		void referenceAvailable(HistoryReference handshakeReference);
+
+		/**
+		 * Called if the reference was not available in time or the resolver
+		 * was stopped.
+		 */
+		void referenceUnavailable();
+	}
+
+	private final Executor callbackExecutor;
+
+	private final Object lock = new Object();
+
+	/**
+	 * Guarded by {@link #lock}.
+	 */
+	private final List<Pending> pending = new ArrayList<>();
+
+	private Thread resolverThread;
+
+	private boolean isStopped;
+
+	/**
+	 * @param callbackExecutor runs the callbacks of resolved handshakes
+	 */
+	HandshakeReferenceResolver(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * Calls back once the handshake's reference is available.
+	 * 
+	 * @param handshakeMessage
+	 * @param callback
+	 */
+	void resolve(HttpMessage handshakeMessage, Callback callback) {
+		HistoryReference reference = handshakeMessage.getHistoryRef();
+		if (reference != null) {
+			callback.referenceAvailable(reference);
+			return;
+		}
+
+		synchronized (lock) {
+			if (!isStopped) {
+				pending.add(new Pending(handshakeMessage, callback));
+				if (resolverThread == null) {
+					start();
+				}
+				lock.notifyAll();
+				return;
+			}
+		}
+		callback.referenceUnavailable();
+	}
+
+	private void start() {
+		resolverThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				resolveLoop();
+			}
+		}, "ZAP-WS-Handshakes");
+		resolverThread.setDaemon(true);
+		resolverThread.start();
+	}
+
+	private void resolveLoop() {
+		List<Pending> done = new ArrayList<>();
+		try {
+			while (true) {
+				synchronized (lock) {
+					while (pending.isEmpty() && !isStopped) {
+						lock.wait();
+					}
+					if (isStopped) {
+						return;
+					}
+					collectDone(done);
+				}
+
+				for (Pending handshake : done) {
+					dispatch(handshake);
+				}
+				done.clear();
+
+				synchronized (lock) {
+					if (!pending.isEmpty() && !isStopped) {
+						lock.wait(CHECK_INTERVAL_MS);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for saved handshakes.");
+		}
+	}
+
+	/**
+	 * Checks the pending handshakes.
+	 * 
+	 * @param done receives the handshakes that are done
+	 */
+	private void collectDone(List<Pending> done) {
+		long now = System.currentTimeMillis();
+		for (Iterator<Pending> it = pending.iterator(); it.hasNext();) {
+			Pending handshake = it.next();
+			if (handshake.isDone(now)) {
+				it.remove();
+				done.add(handshake);
+			}
+		}
+	}
+
+	private void dispatch(final Pending handshake) {
+		try {
+			callbackExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					handshake.callBack();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the executor is shut down, e.g. while the extension is unloaded
+			handshake.callback.referenceUnavailable();
+		}
+	}
+
+	/**
+	 * Stops the resolver thread, pending handshakes are told that their
+	 * reference is unavailable.
+	 */
+	void stop() {
+		List<Pending> remaining;
+		synchronized (lock) {
+			isStopped = true;
+			remaining = new ArrayList<>(pending);
+			pending.clear();
+			lock.notifyAll();
+		}
+		for (Pending handshake : remaining) {
+			handshake.callback.referenceUnavailable();
+		}
+	}
+
+	private static final class Pending {
+
+		private final HttpMessage handshakeMessage;
+
+		private final Callback callback;
+
+		private final long deadline;
+
+		private HistoryReference reference;
+
+		private Pending(HttpMessage handshakeMessage, Callback callback) {
+			this.handshakeMessage = handshakeMessage;
+			this.callback = callback;
+			this.deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		}
+
+		private boolean isDone(long now) {
+			reference = handshakeMessage.getHistoryRef();
+			return reference != null || now >= deadline;
+		}
+
+		private void callBack() {
+			try {
+				if (reference != null) {
+					callback.referenceAvailable(reference);
+				} else {
+					logger.warn("Handshake was not saved in time: " + handshakeMessage.getRequestHeader().getURI());
+					callback.referenceUnavailable();
+				}
+			} catch (RuntimeException e) {
+				logger.error(e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Copy-on-write list of {@link WebSocketObserver}s or
+ * {@link WebSocketSenderListener}s, kept sorted by their order.
+ * <p>
+ * Adding or removing an element replaces the array returned by
+ * {@link #get()}, hence the relaying threads walk a snapshot without locking.
+ * A list of a single channel might be backed by a shared list, whose elements
+ * are notified as if they were added to each channel. Changes of the shared
+ * list are merged lazily, on the next call to {@link #get()}.
+ *
+ * @param <T> type of the elements
+ */
+final class ObserverList<T> {
+
+	private final Comparator<? super T> comparator;
+
+	private final Object lock = new Object();
+
+	private volatile T[] elements;
+
+	private volatile ObserverList<T> shared;
+
+	/**
+	 * Elements of the shared list merged with {@link #elements}.
+	 */
+	private volatile Snapshot<T> merged;
+
+	/**
+	 * @param empty array without elements, determines type of the snapshots
+	 * @param comparator order of notification
+	 */
+	ObserverList(T[] empty, Comparator<? super T> comparator) {
+		this.comparator = comparator;
+		this.elements = empty;
+	}
+
+	/**
+	 * Sets the list whose elements are notified before the elements of this
+	 * list with the same order.
+	 *
+	 * @param shared might be {@code null}
+	 */
+	void setShared(ObserverList<T> shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Inserts the element after all elements with the same or lower order.
+	 *
+	 * @param element
+	 */
+	void add(T element) {
+		synchronized (lock) {
+			T[] current = elements;
+			int index = current.length;
+			while (index > 0 && comparator.compare(current[index - 1], element) > 0) {
+				index--;
+			}
+
+			T[] updated = Arrays.copyOf(current, current.length + 1);
+			System.arraycopy(current, index, updated, index + 1, current.length - index);
+			updated[index] = element;
+			elements = updated;
+		}
+	}
+
+	/**
+	 * @param element
+	 * @return True if the element was contained.
+	 */
+	boolean remove(T element) {
+		synchronized (lock) {
+			T[] current = elements;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i].equals(element)) {
+					T[] updated = Arrays.copyOf(current, current.length - 1);
+					System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+					elements = updated;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the sorted elements of this and the shared list. Must not be
+	 * modified.
+	 *
+	 * @return current snapshot
+	 */
+	T[] get() {
+		T[] own = elements;
+		ObserverList<T> sharedList = shared;
+		if (sharedList == null) {
+			return own;
+		}
+
+		T[] sharedElements = sharedList.get();
+		Snapshot<T> snapshot = merged;
+		if (snapshot == null || snapshot.shared != sharedElements || snapshot.own != own) {
+			snapshot = new Snapshot<>(sharedElements, own, merge(sharedElements, own));
+			merged = snapshot;
+		}
+		return snapshot.merged;
+	}
+
+	private T[] merge(T[] first, T[] second) {
+		if (first.length == 0) {
+			return second;
+		} else if (second.length == 0) {
+			return first;
+		}
+
+		T[] result = Arrays.copyOf(first, first.length + second.length);
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < first.length && j < second.length) {
+			if (comparator.compare(second[j], first[i]) < 0) {
+				result[k++] = second[j++];
+			} else {
+				result[k++] = first[i++];
+			}
+		}
+		while (i < first.length) {
+			result[k++] = first[i++];
+		}
+		while (j < second.length) {
+			result[k++] = second[j++];
+		}
+		return result;
+	}
+
+	private static final class Snapshot<T> {
+
+		private final T[] shared;
+
+		private final T[] own;
+
+		private final T[] merged;
+
+		private Snapshot(T[] shared, T[] own, T[] merged) {
+			this.shared = shared;
+			this.own = own;
+			this.merged = merged;
+		}
+	}
+}
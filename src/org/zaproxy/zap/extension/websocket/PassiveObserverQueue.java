@@ -0,0 +1,180 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded queue of events of one channel, for its
+ * {@link WebSocketPassiveObserver}s. Events are passed on in order by at most
+ * one task of the given executor at a time.
+ * <p>
+ * If the observers can not keep up, the relaying thread waits for space in the
+ * queue, rather than losing messages. The payload bytes of the queued messages
+ * are tracked, such that the channel can apply
+ * {@link WebSocketLimits#getMaxBufferedBytes()}.
+ */
+final class PassiveObserverQueue implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(PassiveObserverQueue.class);
+
+	static final int CAPACITY = 1024;
+
+	private final WebSocketProxy proxy;
+
+	private final Executor executor;
+
+	/**
+	 * Contains finished {@link WebSocketMessage}s and
+	 * {@link WebSocketProxy.State}s.
+	 */
+	private final BlockingQueue<Object> events;
+
+	private final AtomicBoolean isScheduled;
+
+	/**
+	 * Payload bytes of the queued messages.
+	 */
+	private final AtomicLong bufferedBytes;
+
+	/**
+	 * Notified whenever a queued message was passed on.
+	 */
+	private final Object releaseLock = new Object();
+
+	PassiveObserverQueue(WebSocketProxy proxy, Executor executor) {
+		this.proxy = proxy;
+		this.executor = executor;
+		this.events = new ArrayBlockingQueue<>(CAPACITY);
+		this.isScheduled = new AtomicBoolean(false);
+		this.bufferedBytes = new AtomicLong();
+	}
+
+	/**
+	 * @param event finished message or new state
+	 */
+	void add(Object event) {
+		long size = getPayloadSize(event);
+		bufferedBytes.addAndGet(size);
+		try {
+			events.put(event);
+		} catch (InterruptedException e) {
+			bufferedBytes.addAndGet(-size);
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted, passive observers are not notified of: " + event);
+			return;
+		}
+		schedule();
+	}
+
+	private void schedule() {
+		if (!isScheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			executor.execute(this);
+		} catch (RejectedExecutionException e) {
+			// e.g. on shutdown, notify in the calling thread instead
+			run();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			Object event;
+			while ((event = events.poll()) != null) {
+				try {
+					proxy.notifyPassiveObservers(event);
+				} finally {
+					release(event);
+				}
+			}
+		} finally {
+			isScheduled.set(false);
+		}
+
+		if (!events.isEmpty()) {
+			// added after the queue was found empty
+			schedule();
+		}
+	}
+
+	private void release(Object event) {
+		long size = getPayloadSize(event);
+		if (size == 0) {
+			return;
+		}
+		bufferedBytes.addAndGet(-size);
+		synchronized (releaseLock) {
+			releaseLock.notifyAll();
+		}
+	}
+
+	private static long getPayloadSize(Object event) {
+		if (event instanceof WebSocketMessage) {
+			Integer length = ((WebSocketMessage) event).getPayloadLength();
+			return length != null ? length : 0;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return payload bytes of the messages waiting to be passed on
+	 */
+	long getBufferedBytes() {
+		return bufferedBytes.get();
+	}
+
+	/**
+	 * Blocks until at most the given number of payload bytes are queued. If
+	 * the given number is not positive, until the queue is drained.
+	 * 
+	 * @param maxBytes
+	 * @return False if interrupted while waiting.
+	 */
+	boolean awaitBufferedBytes(long maxBytes) {
+		long max = Math.max(maxBytes, 0);
+		synchronized (releaseLock) {
+			while (bufferedBytes.get() > max) {
+				try {
+					releaseLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of events waiting to be passed on
+	 */
+	int size() {
+		return events.size();
+	}
+}
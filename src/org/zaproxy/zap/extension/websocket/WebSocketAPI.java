@@ -0,0 +1,394 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import net.sf.json.JSONObject;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.api.ApiAction;
+import org.zaproxy.zap.extension.api.ApiException;
+import org.zaproxy.zap.extension.api.ApiImplementor;
+import org.zaproxy.zap.extension.api.ApiResponse;
+import org.zaproxy.zap.extension.api.ApiResponseElement;
+import org.zaproxy.zap.extension.api.ApiResponseList;
+import org.zaproxy.zap.extension.api.ApiResponseSet;
+import org.zaproxy.zap.extension.api.ApiView;
+import org.zaproxy.zap.extension.websocket.db.WebSocketArchive;
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadSearch;
+import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
+import org.zaproxy.zap.extension.websocket.replay.WebSocketReplay;
+import org.zaproxy.zap.extension.websocket.replay.WebSocketReplayStatistics;
+
+/**
+ * Exposes the {@link WebSocketStatistics} of all channels and of single
+ * connected channels, allows to search the payloads of stored messages, to
+ * replay stored channels, see {@link WebSocketReplay}, and to export and
+ * import them, see {@link WebSocketArchive}.
+ */
+public class WebSocketAPI extends ApiImplementor {
+
+	private static final String PREFIX = "websocket";
+
+	private static final String VIEW_STATS = "stats";
+
+	private static final String VIEW_CHANNEL_STATS = "channelStats";
+
+	private static final String VIEW_SEARCH_MESSAGES = "searchMessages";
+
+	private static final String VIEW_REPLAY_STATS = "replayStats";
+
+	private static final String ACTION_REPLAY_CHANNEL = "replayChannel";
+
+	private static final String ACTION_STOP_REPLAY = "stopReplay";
+
+	private static final String ACTION_EXPORT_ARCHIVE = "exportArchive";
+
+	private static final String ACTION_IMPORT_ARCHIVE = "importArchive";
+
+	private static final String PARAM_CHANNEL_ID = "channelId";
+
+	private static final String PARAM_REPLAY_ID = "replayId";
+
+	private static final String PARAM_CLIENTS = "clients";
+
+	private static final String PARAM_SPEED = "speed";
+
+	private static final String PARAM_FILE = "file";
+
+	private static final String PARAM_FORMAT = "format";
+
+	private static final String PARAM_REGEX = "regex";
+
+	private static final String PARAM_COUNT = "count";
+
+	private static final int DEFAULT_SEARCH_COUNT = 100;
+
+	private static final int MAX_SEARCH_COUNT = 1000;
+
+	private final ExtensionWebSocket extension;
+
+	public WebSocketAPI(ExtensionWebSocket extension) {
+		this.addApiView(new ApiView(VIEW_STATS));
+		this.addApiView(new ApiView(VIEW_CHANNEL_STATS, new String[] { PARAM_CHANNEL_ID }));
+		this.addApiView(new ApiView(
+				VIEW_SEARCH_MESSAGES,
+				new String[] { PARAM_REGEX },
+				new String[] { PARAM_CHANNEL_ID, PARAM_COUNT }));
+		this.addApiView(new ApiView(VIEW_REPLAY_STATS, new String[] { PARAM_REPLAY_ID }));
+
+		this.addApiAction(new ApiAction(
+				ACTION_REPLAY_CHANNEL,
+				new String[] { PARAM_CHANNEL_ID },
+				new String[] { PARAM_CLIENTS, PARAM_SPEED }));
+		this.addApiAction(new ApiAction(ACTION_STOP_REPLAY, new String[] { PARAM_REPLAY_ID }));
+		this.addApiAction(new ApiAction(
+				ACTION_EXPORT_ARCHIVE,
+				new String[] { PARAM_FILE },
+				new String[] { PARAM_FORMAT, PARAM_CHANNEL_ID }));
+		this.addApiAction(new ApiAction(ACTION_IMPORT_ARCHIVE, new String[] { PARAM_FILE }));
+
+		this.extension = extension;
+	}
+
+	@Override
+	public String getPrefix() {
+		return PREFIX;
+	}
+
+	@Override
+	public ApiResponse handleApiView(String name, JSONObject params) throws ApiException {
+		if (VIEW_STATS.equals(name)) {
+			return createStatisticsResponse(name, extension.getStatistics());
+		} else if (VIEW_CHANNEL_STATS.equals(name)) {
+			int channelId = getParam(params, PARAM_CHANNEL_ID, -1);
+			WebSocketStatistics statistics = extension.getChannelStatistics(channelId);
+			if (statistics == null) {
+				throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_CHANNEL_ID);
+			}
+			return createStatisticsResponse(name, statistics);
+		} else if (VIEW_SEARCH_MESSAGES.equals(name)) {
+			return searchMessages(name, params);
+		} else if (VIEW_REPLAY_STATS.equals(name)) {
+			return createReplayStatisticsResponse(name, getReplay(params));
+		}
+		throw new ApiException(ApiException.Type.BAD_VIEW);
+	}
+
+	@Override
+	public ApiResponse handleApiAction(String name, JSONObject params) throws ApiException {
+		if (ACTION_REPLAY_CHANNEL.equals(name)) {
+			return replayChannel(name, params);
+		} else if (ACTION_STOP_REPLAY.equals(name)) {
+			getReplay(params).stop();
+			return ApiResponseElement.OK;
+		} else if (ACTION_EXPORT_ARCHIVE.equals(name)) {
+			return exportArchive(name, params);
+		} else if (ACTION_IMPORT_ARCHIVE.equals(name)) {
+			File file = new File(params.getString(PARAM_FILE));
+			if (!file.isFile()) {
+				throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_FILE);
+			}
+			try {
+				return createArchiveSummaryResponse(name, extension.importArchive(file));
+			} catch (IOException | DatabaseException e) {
+				throw new ApiException(ApiException.Type.INTERNAL_ERROR, e.getMessage(), e);
+			}
+		}
+		throw new ApiException(ApiException.Type.BAD_ACTION);
+	}
+
+	private ApiResponse exportArchive(String name, JSONObject params) throws ApiException {
+		WebSocketArchive.Format format = WebSocketArchive.Format.BINARY;
+		String formatParam = params.optString(PARAM_FORMAT);
+		if (formatParam != null && !formatParam.isEmpty()) {
+			try {
+				format = WebSocketArchive.Format.valueOf(formatParam.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_FORMAT);
+			}
+		}
+		int channelId = getParam(params, PARAM_CHANNEL_ID, -1);
+
+		File file = new File(params.getString(PARAM_FILE));
+		try {
+			WebSocketArchive.Summary summary = extension.exportArchive(
+					file,
+					format,
+					(channelId != -1) ? Integer.valueOf(channelId) : null);
+			return createArchiveSummaryResponse(name, summary);
+		} catch (IOException | DatabaseException e) {
+			throw new ApiException(ApiException.Type.INTERNAL_ERROR, e.getMessage(), e);
+		}
+	}
+
+	private static ApiResponse createArchiveSummaryResponse(String name, WebSocketArchive.Summary summary) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("channels", summary.getChannelCount());
+		values.put("messages", summary.getMessageCount());
+		return new ApiResponseSet<>(name, values);
+	}
+
+	private ApiResponse replayChannel(String name, JSONObject params) throws ApiException {
+		int clients = getParam(params, PARAM_CLIENTS, 1);
+		if (clients < 1 || clients > WebSocketReplay.MAX_CLIENTS) {
+			throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_CLIENTS);
+		}
+		double speed = 1;
+		String speedParam = params.optString(PARAM_SPEED);
+		if (speedParam != null && !speedParam.isEmpty()) {
+			try {
+				speed = Double.parseDouble(speedParam);
+			} catch (NumberFormatException e) {
+				throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_SPEED);
+			}
+			if (speed < 0 || Double.isNaN(speed) || Double.isInfinite(speed)) {
+				throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_SPEED);
+			}
+		}
+
+		WebSocketChannelDTO criteria = new WebSocketChannelDTO();
+		criteria.id = getParam(params, PARAM_CHANNEL_ID, -1);
+		List<WebSocketChannelDTO> channels;
+		try {
+			channels = extension.getChannels(criteria);
+		} catch (DatabaseException e) {
+			throw new ApiException(ApiException.Type.INTERNAL_ERROR, e.getMessage(), e);
+		}
+		if (channels.isEmpty() || channels.get(0).historyId == null) {
+			throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_CHANNEL_ID);
+		}
+		WebSocketChannelDTO channel = channels.get(0);
+
+		// replaying sends messages, as the manual sender does
+		WebSocketMessageDTO message = new WebSocketMessageDTO(channel);
+		if (!extension.isSafe(message)) {
+			throw new ApiException(ApiException.Type.MODE_VIOLATION);
+		}
+
+		try {
+			WebSocketReplay replay = extension.startReplay(channel, clients, speed);
+			return new ApiResponseElement(name, Integer.toString(replay.getId()));
+		} catch (IOException e) {
+			throw new ApiException(ApiException.Type.INTERNAL_ERROR, e.getMessage(), e);
+		}
+	}
+
+	private WebSocketReplay getReplay(JSONObject params) throws ApiException {
+		WebSocketReplay replay = extension.getReplay(getParam(params, PARAM_REPLAY_ID, -1));
+		if (replay == null) {
+			throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_REPLAY_ID);
+		}
+		return replay;
+	}
+
+	private static ApiResponse createReplayStatisticsResponse(String name, WebSocketReplay replay) {
+		WebSocketReplayStatistics statistics = replay.getStatistics();
+		ApiResponseList response = new ApiResponseList(name);
+
+		Map<String, Object> summary = new HashMap<>();
+		summary.put("id", replay.getId());
+		summary.put("channelId", replay.getChannelId());
+		summary.put("running", replay.isRunning());
+		summary.put("clients", replay.getClients());
+		summary.put("speed", replay.getSpeed());
+		summary.put("clientsConnected", statistics.getClientsConnected());
+		summary.put("clientsFailed", statistics.getClientsFailed());
+		summary.put("messagesSent", statistics.getMessagesSent());
+		summary.put("messagesFailed", statistics.getMessagesFailed());
+		summary.put("messagesReceived", statistics.getMessagesReceived());
+		summary.put("bytesSent", statistics.getBytesSent());
+		summary.put("elapsedSeconds", statistics.getElapsedSeconds());
+		summary.put("messagesPerSecond", statistics.getMessagesPerSecond());
+		summary.put("bytesPerSecond", statistics.getBytesPerSecond());
+		summary.put("roundTrips", statistics.getRoundTripCount());
+		summary.put("averageRoundTripMicros", statistics.getAverageRoundTripMicros());
+		summary.put("maxRoundTripMicros", statistics.getMaxRoundTripMicros());
+		response.addItem(new ApiResponseSet<>("summary", summary));
+
+		ApiResponseList roundTrips = new ApiResponseList("roundTrip");
+		long[] histogram = statistics.getRoundTripHistogram();
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0) {
+				continue;
+			}
+			Map<String, Object> values = new HashMap<>();
+			values.put("lessThanMicros", (i == histogram.length - 1) ? "inf" : Long.toString(1L << i));
+			values.put("messages", histogram[i]);
+			roundTrips.addItem(new ApiResponseSet<>("bucket", values));
+		}
+		response.addItem(roundTrips);
+
+		return response;
+	}
+
+	private ApiResponse searchMessages(String name, JSONObject params) throws ApiException {
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(params.getString(PARAM_REGEX));
+		} catch (PatternSyntaxException e) {
+			throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_REGEX);
+		}
+		int count = getParam(params, PARAM_COUNT, DEFAULT_SEARCH_COUNT);
+		if (count <= 0 || count > MAX_SEARCH_COUNT) {
+			throw new ApiException(ApiException.Type.ILLEGAL_PARAMETER, PARAM_COUNT);
+		}
+		WebSocketMessageDTO criteria = new WebSocketMessageDTO();
+		int channelId = getParam(params, PARAM_CHANNEL_ID, -1);
+		if (channelId != -1) {
+			criteria.channel.id = channelId;
+		}
+
+		WebSocketStorage storage = extension.getStorage();
+		if (storage == null || storage.getTable() == null) {
+			throw new ApiException(ApiException.Type.DISABLED);
+		}
+		List<WebSocketPayloadSearch.Match> matches;
+		try {
+			matches = new WebSocketPayloadSearch(storage.getTable(), pattern).search(criteria, null, null, count);
+		} catch (DatabaseException e) {
+			throw new ApiException(ApiException.Type.INTERNAL_ERROR, e.getMessage(), e);
+		}
+
+		ApiResponseList response = new ApiResponseList(name);
+		for (WebSocketPayloadSearch.Match match : matches) {
+			WebSocketMessageDTO message = match.getMessage();
+			Map<String, Object> values = new HashMap<>();
+			values.put("channelId", message.channel.id);
+			values.put("messageId", message.id);
+			values.put("timestamp", message.timestamp);
+			values.put("opcode", message.readableOpcode);
+			values.put("direction", message.isOutgoing ? "outgoing" : "incoming");
+			values.put("match", match.getMatchedText());
+			values.put("context", match.getContext());
+			response.addItem(new ApiResponseSet<>("message", values));
+		}
+		return response;
+	}
+
+	private static ApiResponse createStatisticsResponse(String name, WebSocketStatistics statistics) {
+		ApiResponseList response = new ApiResponseList(name);
+
+		Map<String, Object> summary = new HashMap<>();
+		summary.put("frames", statistics.getFrameCount());
+		summary.put("framesOutgoing", statistics.getFrameCount(true));
+		summary.put("framesIncoming", statistics.getFrameCount(false));
+		summary.put("bytes", statistics.getByteCount());
+		summary.put("bytesOutgoing", statistics.getByteCount(true));
+		summary.put("bytesIncoming", statistics.getByteCount(false));
+		summary.put("framesPerSecond", statistics.getFramesPerSecond());
+		summary.put("bytesPerSecond", statistics.getBytesPerSecond());
+		summary.put("averagePayloadSize", statistics.getAveragePayloadSize());
+		summary.put("averageRelayLatencyMicros", statistics.getAverageRelayLatencyMicros());
+		response.addItem(new ApiResponseSet<>("summary", summary));
+
+		ApiResponseList opcodes = new ApiResponseList("opcodes");
+		for (int opcode = 0; opcode < 16; opcode++) {
+			for (boolean isOutgoing : new boolean[] { true, false }) {
+				long frames = statistics.getFrameCount(isOutgoing, opcode);
+				if (frames == 0) {
+					continue;
+				}
+				Map<String, Object> values = new HashMap<>();
+				values.put("opcode", WebSocketMessage.opcode2string(opcode));
+				values.put("direction", isOutgoing ? "outgoing" : "incoming");
+				values.put("frames", frames);
+				values.put("bytes", statistics.getByteCount(isOutgoing, opcode));
+				opcodes.addItem(new ApiResponseSet<>("opcode", values));
+			}
+		}
+		response.addItem(opcodes);
+
+		ApiResponseList observers = new ApiResponseList("observers");
+		for (Entry<String, WebSocketStatistics.ObserverTiming> entry : statistics.getObserverTimings().entrySet()) {
+			WebSocketStatistics.ObserverTiming timing = entry.getValue();
+			Map<String, Object> values = new HashMap<>();
+			values.put("name", entry.getKey());
+			values.put("calls", timing.getCalls());
+			values.put("totalMicros", timing.getTotalMicros());
+			values.put("averageMicros", timing.getAverageMicros());
+			values.put("maxMicros", timing.getMaxMicros());
+			observers.addItem(new ApiResponseSet<>("observer", values));
+		}
+		response.addItem(observers);
+
+		ApiResponseList latencies = new ApiResponseList("relayLatency");
+		long[] histogram = statistics.getRelayLatencyHistogram();
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0) {
+				continue;
+			}
+			Map<String, Object> values = new HashMap<>();
+			values.put("lessThanMicros", (i == histogram.length - 1) ? "inf" : Long.toString(1L << i));
+			values.put("frames", histogram[i]);
+			latencies.addItem(new ApiResponseSet<>("bucket", values));
+		}
+		response.addItem(latencies);
+
+		return response;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * Thrown when the next frame of a message would exceed
+ * {@link WebSocketLimits#getMaxMessageSize()}. The header of the frame was
+ * read, its payload not. Compressed messages might also exceed the limit while
+ * being inflated, then there is no frame header.
+ */
+class WebSocketLimitException extends WebSocketException {
+
+	private static final long serialVersionUID = -6424858787301957151L;
+
+	private final byte[] frameHeader;
+
+	private final int payloadLength;
+
+	private final boolean isCompressed;
+
+	/**
+	 * @param message
+	 * @param frameHeader all header bytes of the frame, including mask, might
+	 *            be {@code null}
+	 * @param payloadLength length of the unread payload
+	 * @param isCompressed true if the message is compressed
+	 */
+	WebSocketLimitException(String message, byte[] frameHeader, int payloadLength, boolean isCompressed) {
+		super(message);
+		this.frameHeader = frameHeader;
+		this.payloadLength = payloadLength;
+		this.isCompressed = isCompressed;
+	}
+
+	byte[] getFrameHeader() {
+		return frameHeader;
+	}
+
+	int getPayloadLength() {
+		return payloadLength;
+	}
+
+	/**
+	 * @return True if the frame can be forwarded as is, i.e. the message is
+	 *         not compressed and the payload of the frame was not read.
+	 */
+	boolean canForwardFrame() {
+		return !isCompressed && frameHeader != null;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * Limits the memory a single {@link WebSocketProxy} might use for messages,
+ * that are not yet forwarded or not yet passed on to the observers. A value of
+ * {@code 0} means unlimited.
+ * <ul>
+ * <li>maximum message size - bytes of the (uncompressed) payload of one
+ * message, checked before the payload of each frame is read;</li>
+ * <li>maximum frames in flight - frames of an unfinished message that were
+ * read, but are held back by the observers (e.g. by a breakpoint);</li>
+ * <li>maximum buffered bytes - payload bytes of forwarded messages waiting
+ * for the {@link WebSocketPassiveObserver}s, in forward-first mode.</li>
+ * </ul>
+ * When a limit is exceeded the {@link Policy} applies.
+ */
+public final class WebSocketLimits {
+
+	/**
+	 * Status code of the close frames sent if a limit is exceeded, as defined
+	 * by RFC 6455 (message too big).
+	 */
+	public static final int CLOSE_CODE_MESSAGE_TOO_BIG = 1009;
+
+	public static final WebSocketLimits UNLIMITED = new WebSocketLimits(0, 0, 0, Policy.CLOSE);
+
+	/**
+	 * What to do when a limit is exceeded.
+	 */
+	public enum Policy {
+
+		/**
+		 * Stop reading from the sender until the passive observers caught up.
+		 * Applies to the buffered bytes only, the size of a message or its
+		 * held frames do not decrease by waiting, those are handled as
+		 * {@link #CLOSE}.
+		 */
+		BLOCK,
+
+		/**
+		 * Drop the message and close both sides of the channel with status
+		 * code {@link WebSocketLimits#CLOSE_CODE_MESSAGE_TOO_BIG}.
+		 */
+		CLOSE,
+
+		/**
+		 * Forward the message without passing it (or its remaining frames) to
+		 * the observers. Compressed messages are handled as {@link #CLOSE}, as
+		 * the decompression state would be lost.
+		 */
+		FORWARD_UNOBSERVED
+	}
+
+	private final int maxMessageSize;
+
+	private final int maxFramesInFlight;
+
+	private final int maxBufferedBytes;
+
+	private final Policy policy;
+
+	/**
+	 * @param maxMessageSize in bytes, 0 for unlimited
+	 * @param maxFramesInFlight 0 for unlimited
+	 * @param maxBufferedBytes 0 for unlimited
+	 * @param policy
+	 * @throws IllegalArgumentException if a limit is negative or the policy
+	 *             is {@code null}
+	 */
+	public WebSocketLimits(int maxMessageSize, int maxFramesInFlight, int maxBufferedBytes, Policy policy) {
+		if (maxMessageSize < 0 || maxFramesInFlight < 0 || maxBufferedBytes < 0) {
+			throw new IllegalArgumentException("Limits must not be negative.");
+		}
+		if (policy == null) {
+			throw new IllegalArgumentException("Parameter policy must not be null.");
+		}
+		this.maxMessageSize = maxMessageSize;
+		this.maxFramesInFlight = maxFramesInFlight;
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.policy = policy;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	public int getMaxFramesInFlight() {
+		return maxFramesInFlight;
+	}
+
+	public int getMaxBufferedBytes() {
+		return maxBufferedBytes;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @param size
+	 * @return True if the given message size is over the limit.
+	 */
+	public boolean isMessageSizeExceeded(long size) {
+		return maxMessageSize > 0 && size > maxMessageSize;
+	}
+
+	/**
+	 * @param frames number of frames held back
+	 * @return True if the given number of frames is over the limit.
+	 */
+	public boolean isFramesInFlightExceeded(int frames) {
+		return maxFramesInFlight > 0 && frames > maxFramesInFlight;
+	}
+
+	/**
+	 * @param bytes payload bytes waiting for the passive observers
+	 * @return True if the given number of bytes is over the limit.
+	 */
+	public boolean isBufferedBytesExceeded(long bytes) {
+		return maxBufferedBytes > 0 && bytes > maxBufferedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "maxMessageSize=" + maxMessageSize + ", maxFramesInFlight=" + maxFramesInFlight
+				+ ", maxBufferedBytes=" + maxBufferedBytes + ", policy=" + policy;
+	}
+}
@@ -212,6 +212,30 @@ public abstract class WebSocketMessage {
 	 */
 	public abstract void readContinuation(InputStream in, byte frameHeader) throws IOException;
 
+	/**
+	 * Returns the number of frames read, but not forwarded yet, i.e. the frames
+	 * held back while the message is not finished.
+	 * 
+	 * @return number of frames in flight
+	 */
+	public int getHeldFrameCount() {
+		return 0;
+	}
+
+	/**
+	 * Forwards the frames held so far, such that the remaining frames can be
+	 * relayed as they arrive, without being read into this message. Used when
+	 * the message exceeds one of the {@link WebSocketLimits}.
+	 * 
+	 * @param out
+	 * @return False if the message cannot be forwarded frame by frame (e.g.
+	 *         compressed or changed messages), nothing is written then.
+	 * @throws IOException
+	 */
+	public boolean forwardUnobserved(OutputStream out) throws IOException {
+		return false;
+	}
+
 	/**
 	 * Returns the status code if the message's opcode is a
 	 * {@link WebSocketMessage#OPCODE_CLOSE}.
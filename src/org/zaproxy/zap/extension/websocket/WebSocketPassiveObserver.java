@@ -0,0 +1,33 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * Marks a {@link WebSocketObserver} that neither changes nor drops messages,
+ * e.g. to store or show them. Its return value of
+ * {@link #onMessageFrame(int, WebSocketMessage)} should always be true.
+ * <p>
+ * If a channel relays in forward-first mode (see
+ * {@link WebSocketProxy#setForwardFirst(boolean, java.util.concurrent.Executor)}),
+ * such observers are notified after the message was forwarded, on another
+ * thread. They get to know finished messages and state changes only, in the
+ * order they happened, and after all other observers were notified.
+ * </p>
+ */
+public interface WebSocketPassiveObserver extends WebSocketObserver {
+}
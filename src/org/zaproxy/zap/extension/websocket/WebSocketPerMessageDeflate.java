@@ -0,0 +1,419 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+
+/**
+ * Compression Extensions for WebSocket as specified in <a
+ * href="https://tools.ietf.org/html/rfc7692">RFC7692</a>, the
+ * {@code permessage-deflate} extension.
+ * <p>
+ * Messages with RSV1 set are inflated frame by frame, such that observers see
+ * their uncompressed payload. Unchanged messages are forwarded with their
+ * original compressed frames. Changed messages are compressed again, with a
+ * context kept in sync with the context of the receiving endpoint:
+ * <ul>
+ * <li>as long as all compressed messages are forwarded unchanged, the receiver
+ * has got the same history as the sender, hence the original frames can be
+ * forwarded;</li>
+ * <li>as soon as a compressed message is changed or dropped, the original
+ * frames might refer to data the receiver does not know. From then on all
+ * compressed messages of that direction are compressed by ZAP, whose
+ * compressor is primed with the data the receiver has seen so far.</li>
+ * </ul>
+ * Messages sent by ZAP itself are not compressed, which does not affect the
+ * context of the receiver.
+ */
+public class WebSocketPerMessageDeflate {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPerMessageDeflate.class);
+
+	public static final String EXTENSION_NAME = "permessage-deflate";
+
+	/**
+	 * Value of the RSV bits (3 bits, RSV1 is the most significant one) of the
+	 * first frame of a compressed message.
+	 */
+	public static final int RSV_COMPRESSED = 0x04;
+
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+
+	/**
+	 * Window size of {@link Deflater}, which can not be changed.
+	 */
+	private static final int DEFAULT_WINDOW_BITS = 15;
+
+	/**
+	 * Appended to the compressed data of a message before inflating, removed
+	 * after deflating (RFC7692, section 7.2).
+	 */
+	private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final Context outgoing;
+
+	private final Context incoming;
+
+	private WebSocketPerMessageDeflate(Context outgoing, Context incoming) {
+		this.outgoing = outgoing;
+		this.incoming = incoming;
+	}
+
+	/**
+	 * Creates the codec if {@code permessage-deflate} was negotiated.
+	 *
+	 * @param extensions extensions accepted by the server, name and
+	 *            parameters, might be {@code null}
+	 * @return codec for one channel, or {@code null} if not negotiated
+	 */
+	public static WebSocketPerMessageDeflate create(Map<String, String> extensions) {
+		if (extensions == null || !extensions.containsKey(EXTENSION_NAME)) {
+			return null;
+		}
+
+		boolean clientNoContextTakeover = false;
+		boolean serverNoContextTakeover = false;
+		int clientWindowBits = DEFAULT_WINDOW_BITS;
+		int serverWindowBits = DEFAULT_WINDOW_BITS;
+
+		String params = extensions.get(EXTENSION_NAME);
+		if (params != null) {
+			for (String param : params.split(";")) {
+				String name = param.trim();
+				String value = null;
+				int valueIndex = name.indexOf('=');
+				if (valueIndex != -1) {
+					value = name.substring(valueIndex + 1).trim().replace("\"", "");
+					name = name.substring(0, valueIndex).trim();
+				}
+
+				if (CLIENT_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name)) {
+					clientNoContextTakeover = true;
+				} else if (SERVER_NO_CONTEXT_TAKEOVER.equalsIgnoreCase(name)) {
+					serverNoContextTakeover = true;
+				} else if (CLIENT_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+					clientWindowBits = parseWindowBits(value);
+				} else if (SERVER_MAX_WINDOW_BITS.equalsIgnoreCase(name)) {
+					serverWindowBits = parseWindowBits(value);
+				} else if (!name.isEmpty()) {
+					logger.warn("Unknown parameter of " + EXTENSION_NAME + ": " + name);
+				}
+			}
+		}
+
+		return new WebSocketPerMessageDeflate(
+				new Context(clientNoContextTakeover, clientWindowBits),
+				new Context(serverNoContextTakeover, serverWindowBits));
+	}
+
+	private static int parseWindowBits(String value) {
+		if (value == null || value.isEmpty()) {
+			return DEFAULT_WINDOW_BITS;
+		}
+		try {
+			int bits = Integer.parseInt(value);
+			if (bits >= 8 && bits <= DEFAULT_WINDOW_BITS) {
+				return bits;
+			}
+		} catch (NumberFormatException e) {
+			// handled below
+		}
+		logger.warn("Invalid window bits of " + EXTENSION_NAME + ": " + value);
+		return DEFAULT_WINDOW_BITS;
+	}
+
+	/**
+	 * @param direction
+	 * @return compression state of messages sent in given direction
+	 */
+	public Context getContext(Direction direction) {
+		return (direction == Direction.OUTGOING) ? outgoing : incoming;
+	}
+
+	/**
+	 * Releases the native resources, called when the channel is closed.
+	 */
+	public void close() {
+		outgoing.close();
+		incoming.close();
+	}
+
+	/**
+	 * Compression state of one direction. Messages of one direction have to
+	 * be inflated and forwarded in the order they were read.
+	 */
+	public static final class Context {
+
+		/**
+		 * The sender resets its compressor after each message.
+		 */
+		private final boolean noContextTakeover;
+
+		private final int windowBits;
+
+		private final Inflater inflater;
+
+		private Deflater deflater;
+
+		/**
+		 * True as long as all compressed messages were forwarded unchanged.
+		 */
+		private boolean isInSync;
+
+		/**
+		 * Number of compressed messages inflated and forwarded unchanged, the
+		 * receiver is out of sync if the former is ahead.
+		 */
+		private long inflatedCount;
+
+		private long forwardedCount;
+
+		/**
+		 * Last uncompressed bytes the receiver has seen, used to prime the
+		 * compressor when getting out of sync. {@code null} if not needed.
+		 */
+		private byte[] history;
+
+		private int historyLength;
+
+		private boolean isClosed;
+
+		private Context(boolean noContextTakeover, int windowBits) {
+			this.noContextTakeover = noContextTakeover;
+			this.windowBits = windowBits;
+			this.inflater = new Inflater(true);
+			this.isInSync = true;
+			if (!isCompressingWithoutContext()) {
+				history = new byte[1 << DEFAULT_WINDOW_BITS];
+			}
+		}
+
+		/**
+		 * {@link Deflater} always uses the largest window, which might refer
+		 * back further than allowed by a smaller window.
+		 */
+		private boolean isCompressingWithoutContext() {
+			return noContextTakeover || windowBits < DEFAULT_WINDOW_BITS;
+		}
+
+		/**
+		 * Inflates the payload of the next frame of a compressed message.
+		 *
+		 * @param data
+		 * @param offset
+		 * @param length
+		 * @param isFinished true for the last frame of a message
+		 * @param target receives the uncompressed data at its position,
+		 *            {@code null} for the first frame
+		 * @param maxLength maximum size of the uncompressed message
+		 * @return given or enlarged target
+		 * @throws WebSocketException if the data is corrupt or too large
+		 */
+		public synchronized ByteBuffer inflate(byte[] data, int offset, int length, boolean isFinished, ByteBuffer target, int maxLength)
+				throws WebSocketException {
+			if (isClosed) {
+				throw new WebSocketException("Channel closed, unable to inflate message.");
+			}
+			if (target == null) {
+				target = ByteBuffer.allocate(Math.min(Math.max(64, length * 4), maxLength));
+			}
+
+			try {
+				inflater.setInput(data, offset, length);
+				target = inflateInput(target, maxLength);
+				if (isFinished) {
+					inflater.setInput(TAIL);
+					target = inflateInput(target, maxLength);
+
+					inflatedCount++;
+					if (noContextTakeover || inflater.finished()) {
+						// a final block ends the stream, the next message starts a new one
+						inflater.reset();
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new WebSocketException("Invalid compressed WebSocket message: " + e.getMessage(), e);
+			}
+			return target;
+		}
+
+		private ByteBuffer inflateInput(ByteBuffer target, int maxLength) throws DataFormatException, WebSocketException {
+			while (true) {
+				if (!target.hasRemaining()) {
+					if (target.capacity() >= maxLength) {
+						throw new WebSocketLimitException("Inflated message exceeds maximum payload length: " + maxLength, null, 0, true);
+					}
+					int newCapacity = (int) Math.min(2L * target.capacity(), maxLength);
+					ByteBuffer enlarged = ByteBuffer.allocate(newCapacity);
+					target.flip();
+					enlarged.put(target);
+					target = enlarged;
+				}
+
+				int inflated = inflater.inflate(target.array(), target.position(), target.remaining());
+				target.position(target.position() + inflated);
+				if (target.hasRemaining() && (inflated == 0 || inflater.needsInput() || inflater.finished())) {
+					return target;
+				}
+			}
+		}
+
+		/**
+		 * Tells if the original frames of the last inflated message can be
+		 * forwarded. Called once the message is finished.
+		 *
+		 * @param hasChanged true if the payload of the message was changed
+		 * @return True if the original frames can be forwarded.
+		 */
+		public synchronized boolean canForwardOriginal(boolean hasChanged) {
+			if (noContextTakeover) {
+				// the original frames do not depend on previous messages
+				return !hasChanged;
+			}
+			if (isInSync && (hasChanged || forwardedCount + 1 != inflatedCount)) {
+				// a message was dropped or is changed now
+				leaveSync();
+			}
+			return isInSync;
+		}
+
+		/**
+		 * @return True if the frames of unfinished compressed messages can be
+		 *         forwarded as they arrive.
+		 */
+		public synchronized boolean canForwardFrames() {
+			return noContextTakeover || isInSync;
+		}
+
+		private void leaveSync() {
+			logger.debug("Compressed messages are changed, compress further messages with own context.");
+			isInSync = false;
+			if (history != null) {
+				deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+				deflater.setDictionary(history, 0, historyLength);
+				history = null;
+			}
+		}
+
+		/**
+		 * Called after the original frames of a message were forwarded.
+		 *
+		 * @param payload uncompressed payload
+		 * @param offset
+		 * @param length
+		 */
+		public synchronized void originalForwarded(byte[] payload, int offset, int length) {
+			forwardedCount = inflatedCount;
+			if (isInSync && history != null) {
+				appendToHistory(payload, offset, length);
+			}
+		}
+
+		private void appendToHistory(byte[] payload, int offset, int length) {
+			if (length >= history.length) {
+				System.arraycopy(payload, offset + length - history.length, history, 0, history.length);
+				historyLength = history.length;
+				return;
+			}
+
+			int kept = Math.min(historyLength, history.length - length);
+			System.arraycopy(history, historyLength - kept, history, 0, kept);
+			System.arraycopy(payload, offset, history, kept, length);
+			historyLength = kept + length;
+		}
+
+		/**
+		 * Compresses a changed message or a message of a direction that is no
+		 * longer in sync.
+		 *
+		 * @param payload
+		 * @param offset
+		 * @param length
+		 * @return compressed payload, or {@code null} if the message has to
+		 *         be sent uncompressed
+		 */
+		public synchronized byte[] deflate(byte[] payload, int offset, int length) {
+			if (isClosed) {
+				return null;
+			}
+			if (isCompressingWithoutContext()) {
+				if (length > (1 << windowBits)) {
+					return null;
+				}
+				if (deflater == null) {
+					deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+				} else {
+					deflater.reset();
+				}
+			}
+
+			deflater.setInput(payload, offset, length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int deflated;
+			do {
+				deflated = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+				out.write(buffer, 0, deflated);
+			} while (deflated == buffer.length || !deflater.needsInput());
+
+			byte[] compressed = out.toByteArray();
+			if (endsWithTail(compressed)) {
+				byte[] withoutTail = new byte[compressed.length - TAIL.length];
+				System.arraycopy(compressed, 0, withoutTail, 0, withoutTail.length);
+				return withoutTail;
+			}
+			return compressed;
+		}
+
+		private static boolean endsWithTail(byte[] compressed) {
+			if (compressed.length < TAIL.length) {
+				return false;
+			}
+			for (int i = 0; i < TAIL.length; i++) {
+				if (compressed[compressed.length - TAIL.length + i] != TAIL[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private synchronized void close() {
+			isClosed = true;
+			inflater.end();
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+}
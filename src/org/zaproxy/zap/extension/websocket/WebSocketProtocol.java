@@ -24,4 +24,5 @@ public abstract class WebSocketProtocol {
 	public static final String HEADER_PROTOCOL = "sec-websocket-protocol";
 	public static final String HEADER_EXTENSION = "sec-websocket-extension";
 	public static final String HEADER_VERSION = "sec-websocket-version";
+	public static final String HEADER_KEY = "sec-websocket-key";
 }
@@ -0,0 +1,32 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+/**
+ * Thrown when a frame violates the WebSocket protocol in a way that does not
+ * allow to relay it, e.g. a control frame that is fragmented or whose payload
+ * exceeds 125 bytes. The payload of the frame was not read.
+ */
+class WebSocketProtocolException extends WebSocketException {
+
+	private static final long serialVersionUID = 3502458310815672406L;
+
+	WebSocketProtocolException(String message) {
+		super(message);
+	}
+}
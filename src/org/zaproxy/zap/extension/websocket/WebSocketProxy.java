@@ -24,13 +24,12 @@ import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -90,12 +89,24 @@ public abstract class WebSocketProxy {
 	/**
 	 * Used to determine the order to call each {@link WebSocketObserver}.
 	 */
-	private static Comparator<WebSocketObserver> observersComparator;
+	static final Comparator<WebSocketObserver> OBSERVERS_COMPARATOR = new Comparator<WebSocketObserver>() {
+
+		@Override
+		public int compare(WebSocketObserver o1, WebSocketObserver o2) {
+			return Integer.compare(o1.getObservingOrder(), o2.getObservingOrder());
+		}
+	};
 	
 	/**
 	 * Used to determine the order to call each {@link WebSocketSenderListener}.
 	 */
-	private static Comparator<WebSocketSenderListener> senderListenersComparator;
+	static final Comparator<WebSocketSenderListener> SENDER_LISTENERS_COMPARATOR = new Comparator<WebSocketSenderListener>() {
+
+		@Override
+		public int compare(WebSocketSenderListener o1, WebSocketSenderListener o2) {
+			return Integer.compare(o1.getListenerOrder(), o2.getListenerOrder());
+		}
+	};
 	
 	/**
 	 * State of this channel, start in {@link State#CONNECTING} and evolve over
@@ -121,6 +132,18 @@ public abstract class WebSocketProxy {
 	 */
 	protected Map<InputStream, WebSocketMessage> unfinishedMessages;
 
+	/**
+	 * Inputs whose current message exceeded the {@link #limits} and is relayed
+	 * frame by frame, without being observed. Values tell if the message is
+	 * outgoing.
+	 */
+	private final Map<InputStream, Boolean> unobservedInputs;
+
+	/**
+	 * Bounds the memory held by this channel.
+	 */
+	private volatile WebSocketLimits limits = WebSocketLimits.UNLIMITED;
+
 	/**
 	 * Socket for connection: Browser <-> ZAP
 	 */
@@ -143,13 +166,26 @@ public abstract class WebSocketProxy {
 
 	/**
 	 * List of observers, that are informed of in- or outgoing messages.
+	 * Notified without locking, see {@link ObserverList}.
 	 */
-	private List<WebSocketObserver> observerList;
+	private final ObserverList<WebSocketObserver> observerList;
 	
 	/**
 	 * List of sender listeners, that are informed of in- or outgoing messages.
 	 */
-	private List<WebSocketSenderListener> senderListenerList;
+	private final ObserverList<WebSocketSenderListener> senderListenerList;
+
+	/**
+	 * Current observers split up into passive and other ones, rebuilt when
+	 * the observers change.
+	 */
+	private volatile ObserverPartition observerPartition;
+
+	/**
+	 * Notifies the {@link WebSocketPassiveObserver}s after forwarding,
+	 * {@code null} if all observers are notified before forwarding.
+	 */
+	private volatile PassiveObserverQueue passiveObserverQueue;
 
 	/**
 	 * Contains link to handshake message.
@@ -176,6 +212,11 @@ public abstract class WebSocketProxy {
 	 */
 	private AtomicInteger messageIdGenerator;
 
+	/**
+	 * Frames, bytes and timings of this channel.
+	 */
+	private volatile WebSocketStatistics statistics;
+
 	/**
 	 * When true, no observer is called and each frame is forwarded instantly.
 	 */
@@ -195,6 +236,14 @@ public abstract class WebSocketProxy {
 		channelIdGenerator.set(currentChannelCount);
 	}
 
+	/**
+	 * @return a new unique channel identifier, also used for channels that
+	 *         are not relayed, e.g. imported ones
+	 */
+	static int generateChannelId() {
+		return channelIdGenerator.incrementAndGet();
+	}
+
 	/**
 	 * Factory method to create appropriate version.
 	 * 
@@ -245,15 +294,16 @@ public abstract class WebSocketProxy {
 		
 		// TODO: provide a registry for WebSocketProxy versions
 		if (version.equals("13")) {
-			wsProxy = new WebSocketProxyV13(localSocket, remoteSocket, targetHost, targetPort);
+			WebSocketProxyV13 wsProxyV13 = new WebSocketProxyV13(localSocket, remoteSocket, targetHost, targetPort);
 			
 			if (subprotocol != null) {
 				// TODO: do something with this subprotocol
 			}
 			
 			if (extensions != null && extensions.size() > 0) {
-				// TODO: do something with these extensions
+				wsProxyV13.setPerMessageDeflate(WebSocketPerMessageDeflate.create(extensions));
 			}
+			wsProxy = wsProxyV13;
 		} else {
 			throw new WebSocketException("Unsupported Sec-WebSocket-Version '"
 					+ version + "' provided in factory method!");
@@ -297,12 +347,14 @@ public abstract class WebSocketProxy {
 		this.remoteSocket = remoteSocket;
 		
 		unfinishedMessages = new HashMap<>();
-		observerList = new ArrayList<>();
-		senderListenerList = new ArrayList<>();
+		unobservedInputs = Collections.synchronizedMap(new HashMap<InputStream, Boolean>());
+		observerList = new ObserverList<>(new WebSocketObserver[0], OBSERVERS_COMPARATOR);
+		senderListenerList = new ObserverList<>(new WebSocketSenderListener[0], SENDER_LISTENERS_COMPARATOR);
 		
 		// create unique identifier for this WebSocket connection
-		channelId = channelIdGenerator.incrementAndGet();
+		channelId = generateChannelId();
 		messageIdGenerator = new AtomicInteger(0);
+		statistics = new WebSocketStatistics();
 		host = targetHost;
 		port = targetPort;
 		
@@ -516,53 +568,174 @@ public abstract class WebSocketProxy {
 	 */
 	public void processRead(InputStream in, OutputStream out, byte frameHeader) throws IOException {
 		WebSocketMessage message = null;
+		int previousPayloadLength = 0;
 	
 		int opcode = (frameHeader & 0x0F); // last 4 bits represent opcode
 		String readableOpcode = WebSocketMessage.opcode2string(opcode);
 		
 		logger.debug("Process WebSocket frame: " + opcode + " (" + readableOpcode + ")");
 		
-		if (WebSocketMessage.isControl(opcode)) {
-			// control messages may interrupt non-control messages
-			// control messages are ALWAYS just one frame long
-			message = createWebSocketMessage(in, frameHeader);
-		} else {
-			// non-control messages may be split across several frames
+		if (opcode == WebSocketMessage.OPCODE_CONTINUATION && !unobservedInputs.isEmpty() && unobservedInputs.containsKey(in)) {
+			forwardUnobservedContinuation(in, out, frameHeader);
+			return;
+		}
+
+		try {
+			if (WebSocketMessage.isControl(opcode)) {
+				// control messages may interrupt non-control messages
+				// control messages are ALWAYS just one frame long
+				message = createWebSocketMessage(in, frameHeader);
+			} else {
+				// non-control messages may be split across several frames
 			
-			// it may happen, that a continuation frame is coming along,
-			// without a previous frame to continue.
+				// it may happen, that a continuation frame is coming along,
+				// without a previous frame to continue.
 
-			// assume that there is only one message to be continued
+				// assume that there is only one message to be continued
 			
-			boolean shouldContinueMessage = unfinishedMessages.containsKey(in);
-			if (opcode == WebSocketMessage.OPCODE_CONTINUATION) {
-				if (shouldContinueMessage) {
-					// continue temporarily buffered message
-					message = unfinishedMessages.remove(in);
-					message.readContinuation(in, frameHeader);
+				boolean shouldContinueMessage = unfinishedMessages.containsKey(in);
+				if (opcode == WebSocketMessage.OPCODE_CONTINUATION) {
+					if (shouldContinueMessage) {
+						// continue temporarily buffered message
+						message = unfinishedMessages.remove(in);
+						previousPayloadLength = message.getPayloadLength();
+						message.readContinuation(in, frameHeader);
+					} else {
+						// no message here that can be continued
+						handleInvalidContinuation(in, out, frameHeader);					
+						return;
+					}
 				} else {
-					// no message here that can be continued
-					handleInvalidContinuation(in, out, frameHeader);					
-					return;
+					// another non-control frame
+					message = createWebSocketMessage(in, frameHeader);
 				}
-			} else {
-				// another non-control frame
-				message = createWebSocketMessage(in, frameHeader);
-			}
 			
-			if (!message.isFinished()) {
-				// temporarily buffer unfinished message
-				unfinishedMessages.put(in, message);
+				if (!message.isFinished()) {
+					// temporarily buffer unfinished message
+					unfinishedMessages.put(in, message);
+				}
 			}
+		} catch (WebSocketLimitException e) {
+			handleMessageSizeExceeded(in, out, message, e);
+			return;
+		} catch (WebSocketProtocolException e) {
+			closeChannel(WebSocketMessage.STATUS_CODE_PROTOCOL_ERROR, e.getMessage());
+			return;
 		}
 		
 		// do not buffer frames until message is finished,
 		// as messages might have several MegaBytes!
-		if (isForwardOnly || notifyMessageObservers(message)) {
+		long readTime = System.nanoTime();
+		if (isForwardOnly) {
+			notifyMessageSenderListeners(message, Initiator.PROXY);
+			message.forward(out);
+		} else if (notifyMessageObservers(message)) {
 			// skip forwarding only if observer told us to skip this message (frame)
 			notifyMessageSenderListeners(message, Initiator.PROXY);
 			message.forward(out);
-		}	
+			notifyPassiveMessageObservers(message);
+		}
+		if (!message.isFinished() && limits.isFramesInFlightExceeded(message.getHeldFrameCount())) {
+			handleFramesInFlightExceeded(in, out, message);
+		}
+		statistics.frameRelayed(
+				message.getDirection() == WebSocketMessage.Direction.OUTGOING,
+				message.getOpcode(),
+				message.getPayloadLength() - previousPayloadLength,
+				System.nanoTime() - readTime);
+	}
+
+	/**
+	 * Relays the next frame of a message that exceeded the {@link #limits}.
+	 */
+	private void forwardUnobservedContinuation(InputStream in, OutputStream out, byte frameHeader) throws IOException {
+		long readTime = System.nanoTime();
+		int payloadLength = forwardUnobservedFrame(in, out, frameHeader);
+		boolean isOutgoing = unobservedInputs.get(in);
+		if ((frameHeader >> 7 & 0x1) == 1) {
+			// FIN flag set, next message is observed again
+			unobservedInputs.remove(in);
+		}
+		statistics.frameRelayed(
+				isOutgoing,
+				WebSocketMessage.OPCODE_CONTINUATION,
+				payloadLength,
+				System.nanoTime() - readTime);
+	}
+
+	/**
+	 * Applies the {@link WebSocketLimits.Policy} to a message, whose next frame
+	 * would exceed the maximum message size.
+	 * 
+	 * @param in
+	 * @param out
+	 * @param message the message continued, {@code null} for a new one
+	 * @param e
+	 * @throws IOException
+	 */
+	private void handleMessageSizeExceeded(InputStream in, OutputStream out, WebSocketMessage message,
+			WebSocketLimitException e) throws IOException {
+		if (limits.getPolicy() == WebSocketLimits.Policy.FORWARD_UNOBSERVED
+				&& e.canForwardFrame()
+				&& (message == null || message.forwardUnobserved(out))) {
+			logger.info(toString() + ": " + e.getMessage() + ", forwarding the rest of the message unobserved.");
+			byte[] header = e.getFrameHeader();
+			forwardUnobservedPayload(in, out, header, e.getPayloadLength());
+			if ((header[0] >> 7 & 0x1) == 0) {
+				unobservedInputs.put(in, (header[1] >> 7 & 0x1) == 1);
+			}
+			return;
+		}
+		closeChannel(WebSocketLimits.CLOSE_CODE_MESSAGE_TOO_BIG, e.getMessage());
+	}
+
+	/**
+	 * Applies the {@link WebSocketLimits.Policy} to an unfinished message,
+	 * which holds back too many frames.
+	 * 
+	 * @param in
+	 * @param out
+	 * @param message
+	 * @throws IOException
+	 */
+	private void handleFramesInFlightExceeded(InputStream in, OutputStream out, WebSocketMessage message)
+			throws IOException {
+		unfinishedMessages.remove(in);
+		String reason = "Message #" + message.getMessageId() + " holds more than " + limits.getMaxFramesInFlight()
+				+ " frames";
+		if (limits.getPolicy() == WebSocketLimits.Policy.FORWARD_UNOBSERVED && message.forwardUnobserved(out)) {
+			logger.info(toString() + ": " + reason + ", forwarding the rest of the message unobserved.");
+			unobservedInputs.put(in, message.getDirection() == WebSocketMessage.Direction.OUTGOING);
+			return;
+		}
+		closeChannel(WebSocketLimits.CLOSE_CODE_MESSAGE_TOO_BIG, reason);
+	}
+
+	/**
+	 * Sends a close frame with the given status code to both endpoints and
+	 * shuts this channel down, e.g. with
+	 * {@link WebSocketLimits#CLOSE_CODE_MESSAGE_TOO_BIG} if a limit was
+	 * exceeded.
+	 * 
+	 * @param closeCode
+	 * @param reason
+	 */
+	private void closeChannel(int closeCode, String reason) {
+		logger.warn("Closing " + toString() + ": " + reason);
+		for (boolean isOutgoing : new boolean[] { true, false }) {
+			WebSocketMessageDTO close = new WebSocketMessageDTO(getDTO());
+			close.opcode = WebSocketMessage.OPCODE_CLOSE;
+			close.readableOpcode = WebSocketMessage.opcode2string(WebSocketMessage.OPCODE_CLOSE);
+			close.closeCode = closeCode;
+			close.isOutgoing = isOutgoing;
+			close.payload = Integer.toString(closeCode);
+			try {
+				send(close, Initiator.PROXY);
+			} catch (IOException e) {
+				logger.debug("Failed to send close frame: " + e.getMessage());
+			}
+		}
+		shutdown();
 	}
 
 	/**
@@ -585,6 +758,9 @@ public abstract class WebSocketProxy {
 		}
 		notifyMessageSenderListeners(message, Initiator.PROXY);
 		message.forward(out);
+		if (!isForwardOnly) {
+			notifyPassiveMessageObservers(message);
+		}
 	}
 
 	/**
@@ -602,6 +778,30 @@ public abstract class WebSocketProxy {
 	 */
 	protected abstract WebSocketMessage createWebSocketMessage(WebSocketMessageDTO message) throws WebSocketException;
 
+	/**
+	 * Reads the next frame and forwards it as is, without creating a message.
+	 * 
+	 * @param in Read bytes from here.
+	 * @param out Write bytes to here, might be {@code null}.
+	 * @param frameHeader First byte of frame, containing FIN flag and opcode.
+	 * @return length of the frame's payload
+	 * @throws IOException
+	 */
+	protected abstract int forwardUnobservedFrame(InputStream in, OutputStream out, byte frameHeader) throws IOException;
+
+	/**
+	 * Forwards the given header of a frame, followed by its payload read from
+	 * the input.
+	 * 
+	 * @param in Read bytes from here.
+	 * @param out Write bytes to here, might be {@code null}.
+	 * @param header all header bytes of the frame
+	 * @param payloadLength
+	 * @throws IOException
+	 */
+	protected abstract void forwardUnobservedPayload(InputStream in, OutputStream out, byte[] header, int payloadLength)
+			throws IOException;
+
 	/**
 	 * @param socket
 	 * @return opposed socket
@@ -663,27 +863,147 @@ public abstract class WebSocketProxy {
 	 * @return False if message should be dropped.
 	 */
 	protected boolean notifyMessageObservers(WebSocketMessage message) {
-		for (WebSocketObserver observer : observerList) {
-			try {
-			    if (!observer.onMessageFrame(channelId, message)) {
-			    	return false;
-			    }
-			} catch (Exception e) {
-				logger.warn(e.getMessage(), e);
+		WebSocketObserver[] observers;
+		if (passiveObserverQueue == null) {
+			observers = observerList.get();
+		} else {
+			observers = getObserverPartition().activeObservers;
+		}
+
+		for (WebSocketObserver observer : observers) {
+			if (!notifyMessageObserver(observer, message)) {
+				return false;
 			}
 		}
 		return true;
 	}
 
+	private boolean notifyMessageObserver(WebSocketObserver observer, WebSocketMessage message) {
+		long start = System.nanoTime();
+		boolean shouldForward = true;
+		try {
+			shouldForward = observer.onMessageFrame(channelId, message);
+		} catch (Exception e) {
+			logger.warn(e.getMessage(), e);
+		}
+		statistics.observerNotified(observer, System.nanoTime() - start);
+		return shouldForward;
+	}
+
+	/**
+	 * Queues the forwarded message for the {@link WebSocketPassiveObserver}s,
+	 * if in forward-first mode. They were notified by
+	 * {@link #notifyMessageObservers(WebSocketMessage)} otherwise.
+	 * 
+	 * @param message
+	 */
+	protected void notifyPassiveMessageObservers(WebSocketMessage message) {
+		PassiveObserverQueue queue = passiveObserverQueue;
+		if (queue == null || !message.isFinished()) {
+			return;
+		}
+
+		WebSocketLimits currentLimits = limits;
+		long payloadLength = message.getPayloadLength();
+		if (currentLimits.isBufferedBytesExceeded(queue.getBufferedBytes() + payloadLength)) {
+			switch (currentLimits.getPolicy()) {
+			case BLOCK:
+				// relaying resumes once the observers caught up
+				queue.awaitBufferedBytes(currentLimits.getMaxBufferedBytes() - payloadLength);
+				break;
+			case FORWARD_UNOBSERVED:
+				logger.debug("Passive observers are not notified of message #" + message.getMessageId()
+						+ ", too many bytes buffered.");
+				return;
+			default:
+				closeChannel(WebSocketLimits.CLOSE_CODE_MESSAGE_TOO_BIG, "More than " + currentLimits.getMaxBufferedBytes()
+						+ " bytes buffered for passive observers");
+				return;
+			}
+		}
+		queue.add(message);
+	}
+
+	/**
+	 * Called by the {@link PassiveObserverQueue} for each queued event.
+	 * 
+	 * @param event message or state
+	 */
+	void notifyPassiveObservers(Object event) {
+		WebSocketObserver[] observers = getObserverPartition().passiveObservers;
+		if (event instanceof WebSocketMessage) {
+			WebSocketMessage message = (WebSocketMessage) event;
+			for (WebSocketObserver observer : observers) {
+				notifyMessageObserver(observer, message);
+			}
+		} else {
+			State state = (State) event;
+			for (WebSocketObserver observer : observers) {
+				try {
+					observer.onStateChange(state, this);
+				} catch (Exception e) {
+					logger.warn(e.getMessage(), e);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Helper to inform about new {@link WebSocketProxy#state}. Also called when
 	 * a former {@link WebSocketProxy#isForwardOnly} channel is no longer
 	 * blacklisted {@link State#INCLUDED} or vice-versa {@link State#EXCLUDED}.
 	 */
 	protected void notifyStateObservers(State state) {
-		for (WebSocketObserver observer : observerList) {
+		PassiveObserverQueue queue = passiveObserverQueue;
+		if (queue == null) {
+			for (WebSocketObserver observer : observerList.get()) {
+				observer.onStateChange(state, this);
+			}
+			return;
+		}
+
+		for (WebSocketObserver observer : getObserverPartition().activeObservers) {
 			observer.onStateChange(state, this);
 		}
+		queue.add(state);
+	}
+
+	private ObserverPartition getObserverPartition() {
+		WebSocketObserver[] observers = observerList.get();
+		ObserverPartition partition = observerPartition;
+		if (partition == null || partition.observers != observers) {
+			partition = new ObserverPartition(observers);
+			observerPartition = partition;
+		}
+		return partition;
+	}
+
+	/**
+	 * If enabled, frames are forwarded as soon as all observers, that might
+	 * change or drop them, were notified. The
+	 * {@link WebSocketPassiveObserver}s are notified afterwards by a task of
+	 * the given executor, taking their latency off the relay.
+	 * <p>
+	 * Has to be called before the listeners are started.
+	 * 
+	 * @param isForwardFirst
+	 * @param executor runs the notification of passive observers, ignored if
+	 *            not forward-first
+	 */
+	public void setForwardFirst(boolean isForwardFirst, Executor executor) {
+		if (isForwardFirst) {
+			passiveObserverQueue = new PassiveObserverQueue(this, executor);
+		} else {
+			passiveObserverQueue = null;
+		}
+	}
+
+	/**
+	 * @return True if passive observers are notified after forwarding.
+	 * @see #setForwardFirst(boolean, Executor)
+	 */
+	public boolean isForwardFirst() {
+		return passiveObserverQueue != null;
 	}
 	
 	/**
@@ -693,7 +1013,6 @@ public abstract class WebSocketProxy {
 	 */
 	public void addObserver(WebSocketObserver observer) {
 		observerList.add(observer);
-		Collections.sort(observerList, getObserversComparator());
 	}
 	
 	/**
@@ -704,39 +1023,16 @@ public abstract class WebSocketProxy {
 	public void removeObserver(WebSocketObserver observer) {
 		observerList.remove(observer);
 	}
-    
+
 	/**
-	 * Returns the comparator used for determining order of notification.
+	 * Sets the observers attached to all channels, notified in addition to the
+	 * observers added to this channel. Changes of the given list apply
+	 * immediately.
 	 * 
-	 * @return
+	 * @param allChannelObservers
 	 */
-	private static Comparator<WebSocketObserver> getObserversComparator() {
-		if(observersComparator == null) {
-			createObserversComparator();
-		}
-		
-		return observersComparator;
-	}
-	
-	private static synchronized void createObserversComparator() {
-		if (observersComparator == null) {
-			observersComparator = new Comparator<WebSocketObserver>() {
-				
-				@Override
-				public int compare(WebSocketObserver o1, WebSocketObserver o2) {
-					int order1 = o1.getObservingOrder();
-					int order2 = o2.getObservingOrder();
-					
-					if (order1 < order2) {
-						return -1;
-					} else if (order1 > order2) {
-						return 1;
-					}
-					
-					return 0;
-				}
-			};
-		}
+	void setAllChannelObservers(ObserverList<WebSocketObserver> allChannelObservers) {
+		observerList.setShared(allChannelObservers);
 	}
 	
 	/**
@@ -748,7 +1044,7 @@ public abstract class WebSocketProxy {
 	 * @param initiator
 	 */
 	protected void notifyMessageSenderListeners(WebSocketMessage message, Initiator initiator) {
-		for (WebSocketSenderListener senderListener : senderListenerList) {
+		for (WebSocketSenderListener senderListener : senderListenerList.get()) {
 			try {
 				senderListener.onMessageFrame(channelId, message, initiator);
 			} catch (Exception e) {
@@ -763,7 +1059,7 @@ public abstract class WebSocketProxy {
 	 * Call this helper always regardless of the value of {@link WebSocketProxy#isForwardOnly}.
 	 */
 	protected void notifyStateSenderListeners(State state) {
-		for (WebSocketSenderListener senderListener : senderListenerList) {
+		for (WebSocketSenderListener senderListener : senderListenerList.get()) {
 			senderListener.onStateChange(state, this);
 		}
 	}
@@ -775,7 +1071,6 @@ public abstract class WebSocketProxy {
 	 */
 	public void addSenderListener(WebSocketSenderListener senderListener) {
 		senderListenerList.add(senderListener);
-		Collections.sort(senderListenerList, getSenderListenersComparator());
 	}
 	
 	/**
@@ -786,24 +1081,39 @@ public abstract class WebSocketProxy {
 	public void removeSenderListener(WebSocketSenderListener senderListener) {
 		senderListenerList.remove(senderListener);
 	}
-	
-	private static synchronized Comparator<WebSocketSenderListener> getSenderListenersComparator(){
-		if (null == senderListenersComparator) {
-			senderListenersComparator = new Comparator<WebSocketSenderListener>() {
-				@Override
-				public int compare(WebSocketSenderListener o1, WebSocketSenderListener o2) {
-					return Integer.compare(o1.getListenerOrder(), o2.getListenerOrder());
-				}
-			};
-		}
-		
-		return senderListenersComparator;
+
+	/**
+	 * Sets the sender listeners attached to all channels, see
+	 * {@link #setAllChannelObservers(ObserverList)}.
+	 * 
+	 * @param allChannelSenderListeners
+	 */
+	void setAllChannelSenderListeners(ObserverList<WebSocketSenderListener> allChannelSenderListeners) {
+		senderListenerList.setShared(allChannelSenderListeners);
 	}
 
 	public int getChannelId() {
 		return channelId;
 	}
 	
+	/**
+	 * @return frames, bytes and timings of this channel
+	 */
+	public WebSocketStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets the statistics of this channel, usually created by
+	 * {@link WebSocketStatistics#createChannelStatistics()} of the statistics
+	 * of all channels. Call it before starting the listeners.
+	 * 
+	 * @param statistics
+	 */
+	public void setStatistics(WebSocketStatistics statistics) {
+		this.statistics = statistics;
+	}
+
 	public int getIncrementedMessageCount() {
 		return messageIdGenerator.incrementAndGet();
 	}
@@ -867,6 +1177,7 @@ public abstract class WebSocketProxy {
 	
 		if (message.forward(out)) {
 			notifyMessageObservers(message);
+			notifyPassiveMessageObservers(message);
 		}
 	}
 	
@@ -897,6 +1208,7 @@ public abstract class WebSocketProxy {
 		notifyMessageSenderListeners(message, initiator);
 		if (message.forward(out)) {
 			notifyMessageObservers(message);
+			notifyPassiveMessageObservers(message);
 		}
 	}
 
@@ -943,4 +1255,59 @@ public abstract class WebSocketProxy {
 	public boolean isClientMode() {
 		return isClientMode;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return limits applied to the messages of this channel
+	 */
+	public WebSocketLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Sets the limits applied to messages read from now on.
+	 * 
+	 * @param limits must not be {@code null}
+	 */
+	public void setLimits(WebSocketLimits limits) {
+		if (limits == null) {
+			throw new IllegalArgumentException("Parameter limits must not be null.");
+		}
+		this.limits = limits;
+	}
+
+	/**
+	 * Observers split up into {@link WebSocketPassiveObserver}s and other
+	 * ones, in order.
+	 */
+	private static final class ObserverPartition {
+
+		private final WebSocketObserver[] observers;
+
+		private final WebSocketObserver[] activeObservers;
+
+		private final WebSocketObserver[] passiveObservers;
+
+		private ObserverPartition(WebSocketObserver[] observers) {
+			this.observers = observers;
+
+			int passiveCount = 0;
+			for (WebSocketObserver observer : observers) {
+				if (observer instanceof WebSocketPassiveObserver) {
+					passiveCount++;
+				}
+			}
+
+			activeObservers = new WebSocketObserver[observers.length - passiveCount];
+			passiveObservers = new WebSocketObserver[passiveCount];
+			int active = 0;
+			int passive = 0;
+			for (WebSocketObserver observer : observers) {
+				if (observer instanceof WebSocketPassiveObserver) {
+					passiveObservers[passive++] = observer;
+				} else {
+					activeObservers[active++] = observer;
+				}
+			}
+		}
+	}
+}
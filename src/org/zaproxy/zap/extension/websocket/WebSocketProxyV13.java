@@ -17,6 +17,7 @@
  */
 package org.zaproxy.zap.extension.websocket;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,11 +28,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+import org.zaproxy.zap.extension.websocket.utility.MaskUtil;
 import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
 
 /**
@@ -42,7 +43,7 @@ import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
 public class WebSocketProxyV13 extends WebSocketProxy {
 
 	private static final Logger logger = Logger.getLogger(WebSocketProxyV13.class);
-	
+
 	/**
 	 * The payload length is determined by 63 bits -> at maximum (2^63 - 1),
 	 * which can be represented in Java by
@@ -51,6 +52,56 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 	 */
 	private static final int PAYLOAD_MAX_FRAME_LENGTH = Integer.MAX_VALUE;
 
+	/**
+	 * Payload of a whole message has to fit into one array.
+	 */
+	private static final int PAYLOAD_MAX_MESSAGE_LENGTH = Integer.MAX_VALUE - 8;
+
+	/**
+	 * By default, there are 7 bits to indicate the payload length. If the
+	 * length can not be shown with 7 bits, the payload length is set to
+	 * 126. Then the next 16 bits interpreted as unsigned integer is the
+	 * payload length.
+	 */
+	private static final int PAYLOAD_LENGTH_16 = 126;
+
+	/**
+	 * If the 7 bits represent the value 127, then the next 64 bits
+	 * interpreted as an unsigned integer is the payload length (the most
+	 * significant bit MUST be 0).
+	 */
+	private static final int PAYLOAD_LENGTH_63 = 127;
+
+	/**
+	 * Control frames must not have a longer payload, see RFC 6455, section
+	 * 5.5.
+	 */
+	private static final int PAYLOAD_MAX_CONTROL_FRAME_LENGTH = 125;
+
+	/**
+	 * Size of the buffers used to write frames, larger frames are written in
+	 * several chunks.
+	 */
+	private static final int FORWARD_BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Each listener thread reuses its own buffer to write frames, instead of
+	 * allocating a new one for every frame.
+	 */
+	private static final ThreadLocal<byte[]> forwardBuffers = new ThreadLocal<byte[]>() {
+
+		@Override
+		protected byte[] initialValue() {
+			return new byte[FORWARD_BUFFER_SIZE];
+		}
+	};
+
+	/**
+	 * Codec of the {@code permessage-deflate} extension, {@code null} if not
+	 * negotiated.
+	 */
+	private WebSocketPerMessageDeflate perMessageDeflate;
+
 	/**
 	 * @see WebSocketProxy#WebSocketProxy(Socket, Socket)
 	 */
@@ -65,6 +116,29 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		super(localSocket, remoteSocket, targetHost, targetPort);
 	}
 
+	/**
+	 * Sets the codec of the negotiated {@code permessage-deflate} extension.
+	 * Has to be called before the listeners are started.
+	 * 
+	 * @param perMessageDeflate might be {@code null}
+	 */
+	public void setPerMessageDeflate(WebSocketPerMessageDeflate perMessageDeflate) {
+		this.perMessageDeflate = perMessageDeflate;
+	}
+
+	public WebSocketPerMessageDeflate getPerMessageDeflate() {
+		return perMessageDeflate;
+	}
+
+	@Override
+	protected void setState(State newState) {
+		super.setState(newState);
+
+		if (newState == State.CLOSED && perMessageDeflate != null) {
+			perMessageDeflate.close();
+		}
+	}
+
 	/**
 	 * @see WebSocketProxy#createWebSocketMessage(InputStream, byte)
 	 */
@@ -78,80 +152,230 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		return new WebSocketMessageV13(this, message);
 	}
 
+	/**
+	 * Reads exactly given number of bytes from the given stream.
+	 *
+	 * @param in {@link InputStream} to read from.
+	 * @param buffer filled with read bytes
+	 * @param offset index of the first byte to fill
+	 * @param length Determines how much bytes should be read from the given stream.
+	 * @throws EOFException if the stream ended before given length was read
+	 * @throws IOException
+	 */
+	private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int read = in.read(buffer, offset + bytesRead, length - bytesRead);
+			if (read == -1) {
+				throw new EOFException("WebSocket stream ended in the middle of a frame.");
+			}
+			bytesRead += read;
+		}
+	}
+
+	/**
+	 * Looks at the payload byte from the WebSockets header and determines
+	 * how many bytes of the extended length field follow.
+	 * 
+	 * @param payloadByte
+	 * @return 0, 2 or 8
+	 */
+	private static int getExtendedPayloadLengthBytes(int payloadByte) {
+		int length = (payloadByte & 0x7F);
+		if (length == PAYLOAD_LENGTH_16) {
+			// payload length is between 126-65535 bytes represented by 2 bytes.
+			return 2;
+		} else if (length == PAYLOAD_LENGTH_63) {
+			// payload length is between 65536-2^63 bytes represented by 8 bytes
+			// (most significant bit must be zero)
+			return 8;
+		}
+		// payload length is between 0-125 bytes and contained in payloadByte
+		return 0;
+	}
+
+	/**
+	 * Determines the frame's payload length, using the extended length
+	 * field if present.
+	 * 
+	 * @param header first bytes of frame, including the extended length
+	 * @param extendedLengthBytes
+	 * @return
+	 * @throws WebSocketException if the length is not supported
+	 */
+	private static int determinePayloadLength(byte[] header, int extendedLengthBytes) throws WebSocketException {
+		if (extendedLengthBytes == 0) {
+			return header[1] & 0x7F;
+		}
+
+		// multiple bytes for payload length are submitted in network byte order (MSB first)
+		long length = 0;
+		for (int i = 0; i < extendedLengthBytes; i++) {
+			// shift previous bits left and add next byte
+			length = (length << 8) | (header[2 + i] & 0xFF);
+		}
+
+		if (length < 0 || length > PAYLOAD_MAX_MESSAGE_LENGTH) {
+			throw new WebSocketException("Unsupported frame payload length: " + length);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Reads the remaining header bytes of a frame, i.e. the second byte, the
+	 * extended payload length and the mask.
+	 * 
+	 * @param in
+	 * @param frameHeader first byte of the frame
+	 * @return all header bytes of the frame
+	 * @throws IOException
+	 */
+	private static byte[] readFrameHeader(InputStream in, byte frameHeader) throws IOException {
+		int payloadByte = in.read();
+		if (payloadByte == -1) {
+			throw new EOFException("WebSocket stream ended in the middle of a frame.");
+		}
+
+		// most significant bit of second byte is MASK flag
+		boolean isMasked = (payloadByte >> 7 & 0x1) == 1;
+
+		int extendedLengthBytes = getExtendedPayloadLengthBytes(payloadByte);
+		byte[] header = new byte[2 + extendedLengthBytes + (isMasked ? 4 : 0)];
+		header[0] = frameHeader;
+		header[1] = (byte) payloadByte;
+		readFully(in, header, 2, header.length - 2);
+		return header;
+	}
+
+	@Override
+	protected int forwardUnobservedFrame(InputStream in, OutputStream out, byte frameHeader) throws IOException {
+		byte[] header = readFrameHeader(in, frameHeader);
+		int payloadLength = determinePayloadLength(header, getExtendedPayloadLengthBytes(header[1] & 0xFF));
+		forwardUnobservedPayload(in, out, header, payloadLength);
+		return payloadLength;
+	}
+
+	@Override
+	protected void forwardUnobservedPayload(InputStream in, OutputStream out, byte[] header, int payloadLength)
+			throws IOException {
+		byte[] buffer = forwardBuffers.get();
+		if (out == null) {
+			// nobody to forward to, skip the payload
+			for (int remaining = payloadLength; remaining > 0; remaining -= buffer.length) {
+				readFully(in, buffer, 0, Math.min(remaining, buffer.length));
+			}
+			return;
+		}
+
+		// the payload is copied as is, still masked
+		synchronized (out) {
+			out.write(header);
+			for (int remaining = payloadLength; remaining > 0; remaining -= buffer.length) {
+				int length = Math.min(remaining, buffer.length);
+				readFully(in, buffer, 0, length);
+				out.write(buffer, 0, length);
+			}
+			out.flush();
+		}
+	}
+
 	/**
 	 * Version 13 specific WebSockets message.
 	 */
 	protected class WebSocketMessageV13 extends WebSocketMessage {
-		
+
 		/**
 		 * One message can consist of several frames.
+		 * <p>
+		 * A frame does not hold a copy of its payload, but refers to a range of
+		 * the message's {@link WebSocketMessage#payload}, which is unmasked.
+		 * Frames of compressed messages refer to the
+		 * {@link WebSocketMessageV13#compressedPayload} instead. Only control
+		 * frames keep their original payload, as the payload of close messages
+		 * is converted into a readable form.
 		 */
 		private class WebSocketFrameV13 {
-		    private final Random randomizer = new Random();
-			private ByteBuffer buffer;
-			private byte[] mask;
-			private boolean isMasked;
-			
+
 			/**
-			 * Prevent sending this frame several times.
+			 * Contains the first two bytes, the extended payload length and
+			 * the masking key.
 			 */
-			private boolean isForwarded;
+			private final byte[] header;
 
 			/**
-			 * After a frame is sealed, it cannot be changed
-			 * and data can be read by {@link WebSocketFrameV13#getBuffer()}.
+			 * Masking key or {@code null} if the payload is not masked.
 			 */
-			private boolean isSealed = false;
-			
+			private final byte[] mask;
+
 			/**
-			 * Contains value of RSV1, RSV2 & RSV3.
+			 * Index of the first payload byte in the message's payload.
 			 */
-			private int rsv;
-			
-			public WebSocketFrameV13() {
-				buffer = ByteBuffer.allocate(4096);
-				isMasked = false;
-				mask = new byte[4];
+			private final int payloadOffset;
+
+			private final int payloadLength;
+
+			/**
+			 * Payload of control frames, {@code null} for other frames.
+			 */
+			private byte[] controlPayload;
+
+			/**
+			 * True if the payload is part of the compressed payload.
+			 */
+			private boolean isCompressed;
+
+			/**
+			 * Prevent sending this frame several times.
+			 */
+			private boolean isForwarded;
+
+			/**
+			 * Used for frames read from a stream.
+			 *
+			 * @param header
+			 * @param mask
+			 * @param payloadOffset
+			 * @param payloadLength
+			 */
+			public WebSocketFrameV13(byte[] header, byte[] mask, int payloadOffset, int payloadLength) {
+				this.header = header;
+				this.mask = mask;
+				this.payloadOffset = payloadOffset;
+				this.payloadLength = payloadLength;
 				isForwarded = false;
-				rsv = 0;
 			}
 
 			/**
-			 * Builds up a frame according to given payload. Sets header and
-			 * metadata (opcode, payload length, mask).
-			 * 
-			 * @param payload
+			 * Builds up a frame for given range of the message's payload. Sets
+			 * header and metadata (opcode, payload length, mask).
+			 *
+			 * @param payloadOffset
+			 * @param payloadLength
 			 */
-			public WebSocketFrameV13(ByteBuffer payload, Direction direction, boolean isFinished, int frameOpcode, int rsv) {
-				// at maximum 16 bytes are added as header data
-				buffer = ByteBuffer.allocate(payload.limit() + 16);
-				this.rsv = rsv;
-
-				int payloadLength = payload.limit();
-				if (direction.equals(Direction.OUTGOING)) {
-					isMasked = true;
+			public WebSocketFrameV13(int payloadOffset, int payloadLength, Direction direction, boolean isFinished, int frameOpcode, int rsv) {
+				this.payloadOffset = payloadOffset;
+				this.payloadLength = payloadLength;
+				isForwarded = false;
 
+				boolean isMasked = direction.equals(Direction.OUTGOING);
+				if (isMasked) {
 					mask = new byte[4];
-					randomizer.nextBytes(mask);
-					
-					// mask payload, by applying mask to each byte
-					int maskPosition = 0;
-					for (int i = 0; i < payloadLength; i++) {
-						payload.put(i, (byte) (payload.get(i) ^ mask[maskPosition]));
-						maskPosition = (maskPosition + 1) % 4;
-					}
+					ThreadLocalRandom.current().nextBytes(mask);
 				} else {
-					isMasked = false;
+					mask = null;
 				}
-				
-				isForwarded = false;
+
+				// at maximum 14 bytes are added as header data
+				ByteBuffer buffer = ByteBuffer.allocate(14);
 
 				byte finishedBits = (byte) (isFinished ? 0x80 : 0x00);
-				byte rsvBits = (byte) ((this.rsv & 0x07) << 4);
+				byte rsvBits = (byte) ((rsv & 0x07) << 4);
 				byte opcodeBits = (byte) (frameOpcode & 0x0F);
 				byte frameHeader = (byte) (finishedBits | rsvBits | opcodeBits);
 				buffer.put(frameHeader);
-				logger.debug("Frame header of newly created WebSocketFrame: " + getByteAsBitString(frameHeader));
+				if (logger.isDebugEnabled()) {
+					logger.debug("Frame header of newly created WebSocketFrame: " + getByteAsBitString(frameHeader));
+				}
 
 				if (payloadLength < PAYLOAD_LENGTH_16) {
 					buffer.put((byte) ((isMasked ? 0x80 : 0x00) | (payloadLength & 0x7F)));
@@ -162,111 +386,79 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 					buffer.put((byte) ((isMasked ? 0x80 : 0x00) | PAYLOAD_LENGTH_63));
 					buffer.putLong(payloadLength);
 				}
-				
+
 				if (isMasked) {
 					buffer.put(mask);
 				}
-				
-				buffer.put(payload.array());
-				
-				seal();
-			}
 
-			public void put(byte b) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change a 'sealed' frame.");
-				}
-				buffer.put(b);
-			}
-
-			public void put(byte[] b) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change a 'sealed' frame.");
-				}
-				buffer.put(b);
+				header = Arrays.copyOf(buffer.array(), buffer.position());
 			}
 
-			public void setMasked(boolean isMasked) {
-				this.isMasked = isMasked;
-			}
-			
 			public boolean isMasked() {
-				return isMasked;
+				return mask != null;
 			}
 
-			public void setMask(byte[] read) {
-				mask = read;
+			public void setControlPayload(byte[] controlPayload) {
+				this.controlPayload = controlPayload;
 			}
 
-			public byte getMaskAt(int index) {
-				return mask[index];
-			}
-
-			public int getFreeSpace() {
-				if (isSealed) {
-					return 0;
-				}
-				return buffer.capacity() - buffer.position();
+			public void setCompressed(boolean isCompressed) {
+				this.isCompressed = isCompressed;
 			}
 
-			public void reallocateFor(int bytesRead) throws WebSocketException {
-				if (isSealed) {
-					throw new WebSocketException("You cannot change size of 'sealed' frame's buffer.");
-				}
-				buffer = reallocate(buffer, buffer.position() + bytesRead);
-			}
-			
 			public boolean isForwarded() {
 				return isForwarded;
 			}
 
-			public void seal() {
-				if (!isSealed) {
-					buffer.flip();
-					isSealed  = true;
-				}
-			}
-
-			public byte[] getBuffer() throws WebSocketException {
-				if (!isSealed) {
-					throw new WebSocketException("You should call seal() on WebSocketFrame first, before getBuffer().");
-				}
-				byte[] result = new byte[buffer.limit()];
-				buffer.get(result);
-				return result;
-			}
-
 			public void setForwarded(boolean isForwarded) {
 				this.isForwarded = isForwarded;
 			}
 
 			/**
-			 * Valid values are in the interval [1,6].
-			 * 
-			 * @param rsv
+			 * Writes this frame, masking the payload on the fly if required.
+			 * The payload of the message is left untouched.
+			 *
+			 * @param out
+			 * @throws IOException
 			 */
-			public void setRsv(int rsv) {
-				this.rsv  = rsv;
-			}
+			public void writeTo(OutputStream out) throws IOException {
+				byte[] source;
+				if (controlPayload != null) {
+					source = controlPayload;
+				} else if (isCompressed) {
+					source = compressedPayload.array();
+				} else {
+					source = payload.array();
+				}
+				int sourceOffset = (controlPayload != null) ? 0 : payloadOffset;
+				byte[] buffer = forwardBuffers.get();
+
+				System.arraycopy(header, 0, buffer, 0, header.length);
+				int position = header.length;
+				int written = 0;
+				while (written < payloadLength) {
+					int length = Math.min(payloadLength - written, buffer.length - position);
+					System.arraycopy(source, sourceOffset + written, buffer, position, length);
+					if (mask != null) {
+						MaskUtil.mask(mask, buffer, position, length, written);
+					}
+					position += length;
+					written += length;
 
-//			public int getRsv() {
-//				return rsv;
-//			}
+					if (position == buffer.length) {
+						out.write(buffer, 0, position);
+						position = 0;
+					}
+				}
+
+				if (position > 0) {
+					out.write(buffer, 0, position);
+				}
+			}
 		}
-		
+
 		private List<WebSocketFrameV13> receivedFrames = new ArrayList<>();
 		
-		/**
-		 * Temporary buffer that will be added to
-		 * {@link WebSocketMessage#receivedFrames} as soon as whole frame is read.
-		 */
-		private WebSocketFrameV13 currentFrame;
-
-		/**
-		 * Contains the number of bytes representing the payload.
-		 */
-		private int payloadLength;
-
 		/**
 		 * Marks this object as changed, indicating that frame headers have to
 		 * be built manually on forwarding.
@@ -274,24 +466,23 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		private boolean hasChanged;
 
 		/**
-		 * Is set by {@link WebSocketMessageV13#getReadablePayload()}.
+		 * Readable payload, decoded once from the current payload buffer of
+		 * the finished message, see {@link #getDecodedPayload()}.
 		 */
-		private boolean isValidUtf8Payload;
+		private volatile DecodedPayload decodedPayload;
 
 		/**
-		 * By default, there are 7 bits to indicate the payload length. If the
-		 * length can not be shown with 7 bits, the payload length is set to
-		 * 126. Then the next 16 bits interpreted as unsigned integer is the
-		 * payload length.
+		 * Compression state of the direction of this message, {@code null} if
+		 * this message is not compressed.
 		 */
-		private static final int PAYLOAD_LENGTH_16 = 126;
+		private WebSocketPerMessageDeflate.Context compressionContext;
 
 		/**
-		 * If the 7 bits represent the value 127, then the next 64 bits
-		 * interpreted as an unsigned integer is the payload length (the most
-		 * significant bit MUST be 0).
+		 * Payload as read or to be sent for compressed messages, the
+		 * uncompressed one is kept in {@link WebSocketMessage#payload}.
 		 */
-		private static final int PAYLOAD_LENGTH_63 = 127;
+		private ByteBuffer compressedPayload;
+
 
 		/**
 		 * Creates a message with the first byte already read.
@@ -373,6 +564,9 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		/**
 		 * Given an {@link InputStream} and the first byte of a frame,
 		 * this method reads the second byte until the end of the frame.
+		 * <p>
+		 * The rest of the header is read at once, while the payload is read
+		 * directly into the message's payload buffer and unmasked in place.
 		 * 
 		 * @param in
 		 * @param frameHeader
@@ -381,113 +575,197 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		private void readFrame(InputStream in, byte frameHeader) throws IOException {
 			// most significant bit of first byte is FIN flag
 			isFinished = (frameHeader >> 7 & 0x1) == 1;
-			
-			// currentFrame buffer is filled by read() method directly
-			currentFrame = new WebSocketFrameV13();
-			currentFrame.put(frameHeader);
-			
-			currentFrame.setRsv((frameHeader >> 4 & 0x7));
 
-			byte payloadByte = read(in);
-			
+			byte[] header = readFrameHeader(in, frameHeader);
+			int payloadByte = header[1] & 0xFF;
+
 			// most significant bit of second byte is MASK flag
-			currentFrame.setMasked((payloadByte >> 7 & 0x1) == 1);
-			
-			payloadLength = determinePayloadLength(in, payloadByte);
-			logger.debug("length of current frame payload is: " + payloadLength + "; first two bytes: " + getByteAsBitString(frameHeader) + " " + getByteAsBitString(payloadByte));
+			boolean isMasked = (payloadByte >> 7 & 0x1) == 1;
 
-			if (currentFrame.isMasked()) {
-				// read 4 bytes mask
-				currentFrame.setMask(read(in, 4));
+			int extendedLengthBytes = getExtendedPayloadLengthBytes(payloadByte);
+			int payloadLength = determinePayloadLength(header, extendedLengthBytes);
+			if (logger.isDebugEnabled()) {
+				logger.debug("length of current frame payload is: " + payloadLength + "; first two bytes: " + getByteAsBitString(frameHeader) + " " + getByteAsBitString((byte) payloadByte));
 			}
 
-			byte[] payload = read(in, payloadLength);
+			byte[] mask = null;
+			if (isMasked) {
+				mask = Arrays.copyOfRange(header, header.length - 4, header.length);
+			}
 
-			if (currentFrame.isMasked()) {
-				int currentMaskByteIndex = 0;
-				for (int i = 0; i < payload.length; i++) {
-					// unmask payload by XOR it continuously with frame mask
-					payload[i] = (byte) (payload[i] ^ currentFrame.getMaskAt(currentMaskByteIndex));
-					currentMaskByteIndex = (currentMaskByteIndex + 1) % 4;
+			if (isControl(opcode)) {
+				// validate before allocating, regardless of the limits
+				if (payloadLength > PAYLOAD_MAX_CONTROL_FRAME_LENGTH) {
+					throw new WebSocketProtocolException("Control frame with payload of " + payloadLength
+							+ " bytes, at most " + PAYLOAD_MAX_CONTROL_FRAME_LENGTH + " bytes allowed");
+				}
+				if (!isFinished) {
+					throw new WebSocketProtocolException("Fragmented control frame");
 				}
+				readControlFrame(in, header, mask, payloadLength);
+				return;
 			}
-			
+
 			if (isText(opcode)) {
 				logger.debug("got text frame payload");
 			} else if (isBinary(opcode)) {
-				logger.debug("got binary frame payload");				
-			} else {
-				if (opcode == OPCODE_CLOSE) {
-					if (payload.length > 1) {
-						// if there is a body, the first two bytes are a
-						// 2-byte unsigned integer (in network byte order)
-						closeCode = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
-						logger.debug("close code is: " + closeCode);
-						
-						payload = getReadableCloseFramePayload(payload, closeCode);
-					}
-					
-					if (payload.length > 0) {
-						// process close message
-						try {
-							logger.debug("got control-payload: " + Utf8Util.encodePayloadToUtf8(payload));
-						} catch (InvalidUtf8Exception e) {
-							// safely ignore utf8 error here
-						}
-					}
-				}
+				logger.debug("got binary frame payload");
 			}
-			
-			appendPayload(payload);
-			
-			// add currentFrame to frames list
-			currentFrame.seal();
-			receivedFrames.add(currentFrame);
+
+			if (receivedFrames.isEmpty() && perMessageDeflate != null && isCompressed(frameHeader)) {
+				// only the first frame of a message has got RSV1 set
+				compressionContext = perMessageDeflate.getContext(isMasked ? Direction.OUTGOING : Direction.INCOMING);
+			}
+
+			WebSocketLimits limits = getLimits();
+			ByteBuffer buffered = compressionContext != null ? compressedPayload : payload;
+			long messageSize = (buffered != null ? buffered.position() : 0L) + payloadLength;
+			if (limits.isMessageSizeExceeded(messageSize)) {
+				throw new WebSocketLimitException(
+						"Message exceeds maximum size of " + limits.getMaxMessageSize() + " bytes",
+						header,
+						payloadLength,
+						compressionContext != null);
+			}
+
+			if (compressionContext != null) {
+				readCompressedFrame(in, header, mask, payloadLength, limits);
+				return;
+			}
+
+			payload = ensureCapacity(payload, payloadLength);
+			int payloadOffset = payload.position();
+			readFully(in, payload.array(), payloadOffset, payloadLength);
+			if (isMasked) {
+				// unmask payload by XOR it continuously with frame mask
+				MaskUtil.mask(mask, payload.array(), payloadOffset, payloadLength, 0);
+			}
+			payload.position(payloadOffset + payloadLength);
+
+			if (isFinished) {
+				payload.flip();
+			}
+
+			receivedFrames.add(new WebSocketFrameV13(header, mask, payloadOffset, payloadLength));
+		}
+
+		private boolean isCompressed(byte frameHeader) {
+			int rsv = (frameHeader >> 4) & 0x07;
+			return (rsv & WebSocketPerMessageDeflate.RSV_COMPRESSED) != 0;
 		}
 
 		/**
-		 * Looks at the payload byte from the WebSockets header and determines
-		 * the packets length. It reads bytes from the extended length field if
-		 * required.
+		 * Reads the frame's payload into the {@link #compressedPayload} and
+		 * inflates it into the {@link WebSocketMessage#payload}, such that
+		 * unfinished messages can be shown too.
 		 * 
 		 * @param in
-		 * @param payloadByte
-		 * @return
+		 * @param header
+		 * @param mask
+		 * @param payloadLength
+		 * @param limits bound the inflated payload
 		 * @throws IOException
 		 */
-		private int determinePayloadLength(InputStream in, byte payloadByte) throws IOException {
-			int length = (payloadByte & 0x7F);
+		private void readCompressedFrame(InputStream in, byte[] header, byte[] mask, int payloadLength, WebSocketLimits limits)
+				throws IOException {
+			compressedPayload = ensureCapacity(compressedPayload, payloadLength);
+			int payloadOffset = compressedPayload.position();
+			readFully(in, compressedPayload.array(), payloadOffset, payloadLength);
+			if (mask != null) {
+				MaskUtil.mask(mask, compressedPayload.array(), payloadOffset, payloadLength, 0);
+			}
+			compressedPayload.position(payloadOffset + payloadLength);
 
-			// multiple bytes for payload length are submitted in network byte order (MSB first)
-			if (length < PAYLOAD_LENGTH_16) {
-				// payload length is between 0-125 bytes and contained in payloadByte
-			} else {
-				int bytesToRetrieve = 0;
-
-				// we have got PAYLOAD_LENGTH_16 or PAYLOAD_LENGTH_63
-				if (length == PAYLOAD_LENGTH_16) {
-					// payload length is between 126-65535 bytes represented by 2 bytes.
-					bytesToRetrieve = 2;
-				} else if (length == PAYLOAD_LENGTH_63) {
-					// payload length is between 65536-2^63 bytes represented by 8 bytes
-					// (most significant bit must be zero)
-					bytesToRetrieve = 8;
-				}
+			payload = compressionContext.inflate(
+					compressedPayload.array(),
+					payloadOffset,
+					payloadLength,
+					isFinished,
+					payload,
+					limits.getMaxMessageSize() > 0
+							? Math.min(limits.getMaxMessageSize(), PAYLOAD_MAX_MESSAGE_LENGTH)
+							: PAYLOAD_MAX_MESSAGE_LENGTH);
+			if (isFinished) {
+				payload.flip();
+			}
 
-				byte[] extendedPayloadLength = read(in, bytesToRetrieve);
+			WebSocketFrameV13 frame = new WebSocketFrameV13(header, mask, payloadOffset, payloadLength);
+			frame.setCompressed(true);
+			receivedFrames.add(frame);
+		}
 
-				length = 0;
-				for (int i = 0; i < bytesToRetrieve; i++) {
-					byte extendedPayload = extendedPayloadLength[i];
+		/**
+		 * Control frames consist of exactly one frame with at most 125 bytes
+		 * payload. Their original payload is kept for forwarding.
+		 * 
+		 * @param in
+		 * @param header
+		 * @param mask
+		 * @param payloadLength
+		 * @throws IOException
+		 */
+		private void readControlFrame(InputStream in, byte[] header, byte[] mask, int payloadLength) throws IOException {
+			byte[] controlPayload = new byte[payloadLength];
+			readFully(in, controlPayload, 0, payloadLength);
+			if (mask != null) {
+				MaskUtil.mask(mask, controlPayload, 0, payloadLength, 0);
+			}
+
+			byte[] readablePayload = controlPayload;
+			if (opcode == OPCODE_CLOSE) {
+				if (controlPayload.length > 1) {
+					// if there is a body, the first two bytes are a
+					// 2-byte unsigned integer (in network byte order)
+					closeCode = ((controlPayload[0] & 0xFF) << 8) | (controlPayload[1] & 0xFF);
+					logger.debug("close code is: " + closeCode);
 					
-					// shift previous bits left and add next byte
-					length = (length << 8) | (extendedPayload & 0xFF);
+					readablePayload = getReadableCloseFramePayload(controlPayload, closeCode);
+				}
+				
+				if (readablePayload.length > 0 && logger.isDebugEnabled()) {
+					// process close message
+					try {
+						logger.debug("got control-payload: " + Utf8Util.encodePayloadToUtf8(readablePayload));
+					} catch (InvalidUtf8Exception e) {
+						// safely ignore utf8 error here
+					}
 				}
 			}
-			
-			return length;
+
+			// control frames are not fragmented
+			payload = ByteBuffer.wrap(readablePayload);
+
+			WebSocketFrameV13 frame = new WebSocketFrameV13(header, mask, 0, payloadLength);
+			frame.setControlPayload(controlPayload);
+			receivedFrames.add(frame);
 		}
 
+		/**
+		 * Makes room for the payload of the next frame. Grows the payload
+		 * buffer geometrically, such that messages consisting of many frames
+		 * are not copied on each frame.
+		 * 
+		 * @param buffer payload read so far, might be {@code null}
+		 * @param length payload length of next frame
+		 * @return given or enlarged buffer
+		 * @throws WebSocketException if the message would become too large
+		 */
+		private ByteBuffer ensureCapacity(ByteBuffer buffer, int length) throws WebSocketException {
+			if (buffer == null) {
+				return ByteBuffer.allocate(length);
+			} else if (buffer.remaining() < length) {
+				long requiredCapacity = (long) buffer.position() + length;
+				if (requiredCapacity > PAYLOAD_MAX_MESSAGE_LENGTH) {
+					throw new WebSocketException("Message exceeds maximum payload length: " + requiredCapacity);
+				}
+				long newCapacity = Math.max(requiredCapacity, 2L * buffer.capacity());
+				return reallocate(buffer, (int) Math.min(newCapacity, PAYLOAD_MAX_MESSAGE_LENGTH));
+			}
+			return buffer;
+		}
+
+
+
 		/**
 		 * Takes the payload of a close frame and transforms the 2 bytes
 		 * representation of the status code to a 4 digit string representation
@@ -542,54 +820,15 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			newCloseCodeByte[1] = (byte) ((newCloseCode) & 0xFF);
 			
 			ByteBuffer newPayload = ByteBuffer.allocate(payload.limit() - 2);
+			newPayload.put(newCloseCodeByte, 0, 2);
 			if (payload.limit() > 4) {
-				newPayload.put(ArrayUtils.subarray(payload.array(), 4, payload.limit()), 2, payload.limit() - 4);
+				newPayload.put(payload.array(), 4, payload.limit() - 4);
 			}
-			newPayload.put(newCloseCodeByte, 0, 2);
+			newPayload.flip();
 			
 			return newPayload;
 		}
 
-		/**
-		 * Read only one byte from input stream.
-		 * 
-		 * @param in
-		 * @return
-		 * @throws IOException
-		 */
-		private byte read(InputStream in) throws IOException {
-			byte[] buffer = read(in, 1);
-			return buffer[0];
-		}
-
-		/**
-		 * Reads given length from the given stream.
-		 * 
-		 * @param in {@link InputStream} to read from.
-		 * @param length Determines how much bytes should be read from the given stream.
-		 * @return Bytes read from stream - blocks until given length is read!
-		 * @throws IOException
-		 */
-		private byte[] read(InputStream in, int length) throws IOException {
-			byte[] buffer = new byte[length];
-			
-			// read until buffer is full 
-			int bytesRead = 0;
-			do {
-				bytesRead += in.read(buffer, bytesRead, length - bytesRead);
-			} while (length != bytesRead);
-			
-			// maybe we have to increase the size of the current frame buffer
-			if (currentFrame.getFreeSpace() < bytesRead) {
-				currentFrame.reallocateFor(bytesRead);
-			}
-
-			// add bytes to current frame
-			currentFrame.put(buffer);
-			
-			return buffer;
-		}
-
 	    /**
 	     * @see WebSocketMessage#forward(OutputStream)
 	     */
@@ -601,53 +840,123 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			
 			logger.debug("forward message#" + getMessageId());
 			
-			if (hasChanged) {
+			if (compressionContext != null) {
+				forwardCompressed(out);
+			} else if (hasChanged) {
 				if (opcode == OPCODE_CLOSE) {
 					payload = getTransmittableCloseFramePayload(payload);
 				}
 				
-				// split into chunks according to maximum frame length
-				int writtenBytes = 0;
-				int frameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, payload.limit());
-				int frameOpcode = opcode;
-				boolean isLastFrame;
-				
-				do {
-					ByteBuffer tempBuffer = ByteBuffer.allocate(frameLength);
-					tempBuffer.hasArray();
-					payload.get(tempBuffer.array(), 0, frameLength);
-					
-					writtenBytes = frameLength + writtenBytes;
-					frameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, payload.limit() - writtenBytes);
-					
-					isLastFrame = (frameLength <= 0); 
-				
-					// TODO: use RSV from first original frame?
-					WebSocketFrameV13 frame = new WebSocketFrameV13(tempBuffer, getDirection(), isLastFrame, frameOpcode, 0);
-					logger.debug("forward modified frame");
-					forwardFrame(frame, out);
-					// next frame is a continuation of the current one
-					frameOpcode = OPCODE_CONTINUATION;
-					
-					// TODO: What if e.g.: a close frame has got a huge payload
-					// that exceeds INTEGER.MAX_VALUE, then I send a OPCODE_CLOSE
-					// followed by another OPCODE_CONTINUATION, but that is not
-					// allowed by RFC6455 (control frames aren't allowed to
-					// exceed one frame)
-				} while (!isLastFrame);
+				forwardInFrames(out, payload.limit(), false, 0);
 			} else {
-				for (WebSocketFrameV13 frame : receivedFrames) {
-					// forward frame by frame
-					if (!frame.isForwarded()) {
-						logger.debug("forward frame");
-						forwardFrame(frame, out);
-					}
-				}
+				forwardReceivedFrames(out);
 			}
 			
 			return true;
 		}
 
+		/**
+		 * Forwards the original frames of a compressed message, as long as the
+		 * receiver is able to inflate them. Otherwise the message is buffered
+		 * until finished and compressed again.
+		 * 
+		 * @param out
+		 * @throws IOException
+		 */
+		private void forwardCompressed(OutputStream out) throws IOException {
+			if (!isFinished) {
+				if (compressionContext.canForwardFrames()) {
+					forwardReceivedFrames(out);
+				}
+				return;
+			}
+
+			if (compressionContext.canForwardOriginal(hasChanged)) {
+				forwardReceivedFrames(out);
+				compressionContext.originalForwarded(payload.array(), 0, payload.limit());
+				return;
+			}
+
+			byte[] compressed = compressionContext.deflate(payload.array(), 0, payload.limit());
+			if (compressed == null) {
+				logger.debug("forward compressed message uncompressed");
+				forwardInFrames(out, payload.limit(), false, 0);
+			} else {
+				compressedPayload = ByteBuffer.wrap(compressed);
+				forwardInFrames(out, compressed.length, true, WebSocketPerMessageDeflate.RSV_COMPRESSED);
+			}
+		}
+
+		@Override
+		public int getHeldFrameCount() {
+			int count = 0;
+			for (WebSocketFrameV13 frame : receivedFrames) {
+				if (!frame.isForwarded()) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		@Override
+		public boolean forwardUnobserved(OutputStream out) throws IOException {
+			if (out == null || compressionContext != null || hasChanged) {
+				return false;
+			}
+			forwardReceivedFrames(out);
+			return true;
+		}
+
+		private void forwardReceivedFrames(OutputStream out) throws IOException {
+			for (WebSocketFrameV13 frame : receivedFrames) {
+				// forward frame by frame
+				if (!frame.isForwarded()) {
+					logger.debug("forward frame");
+					forwardFrame(frame, out);
+				}
+			}
+		}
+
+		/**
+		 * Builds up new frames for the payload and forwards them.
+		 * 
+		 * @param out
+		 * @param length of the payload
+		 * @param isCompressed true to send the {@link #compressedPayload}
+		 * @param rsv RSV bits of the first frame
+		 * @throws IOException
+		 */
+		private void forwardInFrames(OutputStream out, int length, boolean isCompressed, int rsv) throws IOException {
+			// split into chunks according to maximum frame length
+			int writtenBytes = 0;
+			int frameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, length);
+			int frameOpcode = opcode;
+			int frameRsv = rsv;
+			boolean isLastFrame;
+			
+			do {
+				int frameOffset = writtenBytes;
+				writtenBytes = frameLength + writtenBytes;
+				frameLength = Math.min(PAYLOAD_MAX_FRAME_LENGTH, length - writtenBytes);
+				
+				isLastFrame = (frameLength <= 0); 
+			
+				WebSocketFrameV13 frame = new WebSocketFrameV13(frameOffset, writtenBytes - frameOffset, getDirection(), isLastFrame, frameOpcode, frameRsv);
+				frame.setCompressed(isCompressed);
+				logger.debug("forward modified frame");
+				forwardFrame(frame, out);
+				// next frame is a continuation of the current one
+				frameOpcode = OPCODE_CONTINUATION;
+				frameRsv = 0;
+				
+				// TODO: What if e.g.: a close frame has got a huge payload
+				// that exceeds INTEGER.MAX_VALUE, then I send a OPCODE_CLOSE
+				// followed by another OPCODE_CONTINUATION, but that is not
+				// allowed by RFC6455 (control frames aren't allowed to
+				// exceed one frame)
+			} while (!isLastFrame);
+		}
+
 		/**
 		 * Helper method to forward frames.
 		 * 
@@ -656,7 +965,7 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 		 */
 		private void forwardFrame(WebSocketFrameV13 frame, OutputStream out) throws IOException {
 			synchronized (out) {
-				out.write(frame.getBuffer());
+				frame.writeTo(out);
 				out.flush();
 			}
 			
@@ -686,9 +995,19 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			}
 		}
 
+		/**
+		 * The payload buffer of unfinished messages is still being filled and
+		 * might contain unused space.
+		 * 
+		 * @return number of payload bytes read so far
+		 */
+		private int getPayloadSize() {
+			return isFinished ? payload.limit() : payload.position();
+		}
+
 		@Override
 		public Integer getPayloadLength() {
-			int length = payload.limit();
+			int length = getPayloadSize();
 			
 			if (opcode == OPCODE_CLOSE) {
 				// if there is a body, the first two bytes are a
@@ -701,16 +1020,36 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 
 		@Override
 		public String getReadablePayload() {
+			return getDecodedPayload().text;
+		}
+
+		/**
+		 * Decodes the payload lazily. The result is kept as long as the
+		 * message is finished and its payload buffer is not replaced, so that
+		 * all observers share one decoded payload.
+		 * 
+		 * @return decoded payload, never {@code null}
+		 */
+		private DecodedPayload getDecodedPayload() {
+			ByteBuffer currentPayload = payload;
+			DecodedPayload decoded = decodedPayload;
+			if (decoded != null && decoded.source == currentPayload) {
+				return decoded;
+			}
+
 			try {
-				isValidUtf8Payload = true;
-				return Utf8Util.encodePayloadToUtf8(payload.array(), 0, payload.limit());
+				decoded = new DecodedPayload(currentPayload, Utf8Util.encodePayloadToUtf8(currentPayload.array(), 0, getPayloadSize()), true);
 			} catch (InvalidUtf8Exception e) {
 				if (logger.isDebugEnabled()) {
-					logger.debug("Unable to decode as UTF-8: " + payload.toString() + " " + Arrays.toString(payload.array()), e);
+					logger.debug("Unable to decode as UTF-8: " + currentPayload.toString() + " " + Arrays.toString(currentPayload.array()), e);
 				}
-				isValidUtf8Payload  = false;
-				return "<invalid UTF-8>";
+				decoded = new DecodedPayload(currentPayload, "<invalid UTF-8>", false);
+			}
+			if (isFinished) {
+				// unfinished messages are still filling their buffer
+				decodedPayload = decoded;
 			}
+			return decoded;
 		}
 
 		@Override
@@ -719,14 +1058,21 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 				throw new WebSocketException("Only allowed to set payload of finished message!");
 			}
 			
-			String readablePayload = getReadablePayload();
+			DecodedPayload current = getDecodedPayload();
+			if (!current.isValidUtf8 || current.text.equals(newReadablePayload)) {
+				return;
+			}
+
 			byte[] newBytesPayload = Utf8Util.decodePayloadFromUtf8(newReadablePayload);
-			// compare readable strings (working on byte arrays did not work)
-			if (isValidUtf8Payload && !Arrays.equals(newBytesPayload, Utf8Util.decodePayloadFromUtf8(readablePayload))) {
+			// compare bytes, a string might not survive the round trip
+			ByteBuffer currentPayload = current.source.duplicate();
+			currentPayload.rewind();
+			if (!ByteBuffer.wrap(newBytesPayload).equals(currentPayload)) {
 				// mark this message as changed in order to propagate changed
 				// payload into frames or build up a big frame (see forward())
 				hasChanged = true;
 				payload = ByteBuffer.wrap(newBytesPayload);
+				decodedPayload = new DecodedPayload(payload, newReadablePayload, true);
 			}
 		}
 
@@ -745,4 +1091,22 @@ public class WebSocketProxyV13 extends WebSocketProxy {
 			return message;
 		}
 	}
+
+	/**
+	 * Payload of a {@link WebSocketMessageV13} decoded from the given buffer.
+	 */
+	private static final class DecodedPayload {
+
+		private final ByteBuffer source;
+
+		private final String text;
+
+		private final boolean isValidUtf8;
+
+		private DecodedPayload(ByteBuffer source, String text, boolean isValidUtf8) {
+			this.source = source;
+			this.text = text;
+			this.isValidUtf8 = isValidUtf8;
+		}
+	}
 }
@@ -0,0 +1,280 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts relayed frames and their payload bytes per direction and opcode,
+ * measures how long each {@link WebSocketObserver} takes and how long frames
+ * are held back by ZAP.
+ * <p>
+ * Each {@link WebSocketProxy} has got its own instance, which passes all
+ * values on to the statistics of all channels, see
+ * {@link #createChannelStatistics()}. Updated by the relaying threads without
+ * locking.
+ */
+public class WebSocketStatistics {
+
+	/**
+	 * Number of buckets of the relay latency histogram. Bucket {@code i}
+	 * counts frames relayed in less than 2<sup>i</sup> microseconds, the last
+	 * bucket also counts all slower frames.
+	 */
+	public static final int LATENCY_BUCKETS = 32;
+
+	private static final int OPCODES = 16;
+
+	/**
+	 * Statistics of all channels, {@code null} if this instance is the
+	 * aggregate.
+	 */
+	private final WebSocketStatistics parent;
+
+	private final long startNanos;
+
+	/**
+	 * Indexed by {@link #index(boolean, int)}.
+	 */
+	private final AtomicLongArray frameCounts;
+
+	/**
+	 * Indexed by {@link #index(boolean, int)}.
+	 */
+	private final AtomicLongArray byteCounts;
+
+	private final AtomicLongArray relayLatencies;
+
+	private final AtomicLong relayLatencyTotalNanos;
+
+	private final ConcurrentMap<String, ObserverTiming> observerTimings;
+
+	/**
+	 * Creates the statistics of all channels.
+	 */
+	public WebSocketStatistics() {
+		this(null);
+	}
+
+	private WebSocketStatistics(WebSocketStatistics parent) {
+		this.parent = parent;
+		this.startNanos = System.nanoTime();
+		this.frameCounts = new AtomicLongArray(2 * OPCODES);
+		this.byteCounts = new AtomicLongArray(2 * OPCODES);
+		this.relayLatencies = new AtomicLongArray(LATENCY_BUCKETS);
+		this.relayLatencyTotalNanos = new AtomicLong();
+		this.observerTimings = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return statistics of one channel, contributing to this instance
+	 */
+	public WebSocketStatistics createChannelStatistics() {
+		return new WebSocketStatistics(this);
+	}
+
+	private static int index(boolean isOutgoing, int opcode) {
+		return (isOutgoing ? OPCODES : 0) + (opcode & 0x0F);
+	}
+
+	/**
+	 * Called for each frame, after it was forwarded or dropped.
+	 *
+	 * @param isOutgoing direction of the frame
+	 * @param opcode of the message the frame belongs to
+	 * @param payloadLength number of payload bytes of the frame
+	 * @param latencyNanos time between the frame was read and forwarded
+	 */
+	public void frameRelayed(boolean isOutgoing, int opcode, long payloadLength, long latencyNanos) {
+		int index = index(isOutgoing, opcode);
+		frameCounts.incrementAndGet(index);
+		byteCounts.addAndGet(index, payloadLength);
+
+		relayLatencies.incrementAndGet(latencyBucket(latencyNanos));
+		relayLatencyTotalNanos.addAndGet(latencyNanos);
+
+		if (parent != null) {
+			parent.frameRelayed(isOutgoing, opcode, payloadLength, latencyNanos);
+		}
+	}
+
+	private static int latencyBucket(long latencyNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, LATENCY_BUCKETS - 1);
+	}
+
+	/**
+	 * Called after the given observer was notified about a frame.
+	 *
+	 * @param observer
+	 * @param nanos time spent in
+	 *            {@link WebSocketObserver#onMessageFrame(int, WebSocketMessage)}
+	 */
+	public void observerNotified(WebSocketObserver observer, long nanos) {
+		String name = observer.getClass().getName();
+		ObserverTiming timing = observerTimings.get(name);
+		if (timing == null) {
+			timing = new ObserverTiming();
+			ObserverTiming existing = observerTimings.putIfAbsent(name, timing);
+			if (existing != null) {
+				timing = existing;
+			}
+		}
+		timing.add(nanos);
+
+		if (parent != null) {
+			parent.observerNotified(observer, nanos);
+		}
+	}
+
+	public long getFrameCount(boolean isOutgoing, int opcode) {
+		return frameCounts.get(index(isOutgoing, opcode));
+	}
+
+	public long getFrameCount(boolean isOutgoing) {
+		return sum(frameCounts, isOutgoing);
+	}
+
+	public long getFrameCount() {
+		return getFrameCount(true) + getFrameCount(false);
+	}
+
+	public long getByteCount(boolean isOutgoing, int opcode) {
+		return byteCounts.get(index(isOutgoing, opcode));
+	}
+
+	public long getByteCount(boolean isOutgoing) {
+		return sum(byteCounts, isOutgoing);
+	}
+
+	public long getByteCount() {
+		return getByteCount(true) + getByteCount(false);
+	}
+
+	private static long sum(AtomicLongArray counts, boolean isOutgoing) {
+		long sum = 0;
+		for (int opcode = 0; opcode < OPCODES; opcode++) {
+			sum += counts.get(index(isOutgoing, opcode));
+		}
+		return sum;
+	}
+
+	/**
+	 * @return seconds since this instance was created
+	 */
+	public double getElapsedSeconds() {
+		return (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return average number of frames per second since creation
+	 */
+	public double getFramesPerSecond() {
+		return getFrameCount() / Math.max(getElapsedSeconds(), 1);
+	}
+
+	/**
+	 * @return average number of payload bytes per second since creation
+	 */
+	public double getBytesPerSecond() {
+		return getByteCount() / Math.max(getElapsedSeconds(), 1);
+	}
+
+	/**
+	 * @return average number of payload bytes per frame
+	 */
+	public double getAveragePayloadSize() {
+		long frames = getFrameCount();
+		return (frames == 0) ? 0 : getByteCount() / (double) frames;
+	}
+
+	/**
+	 * @return average relay latency in microseconds
+	 */
+	public double getAverageRelayLatencyMicros() {
+		long frames = getFrameCount();
+		if (frames == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMicros(relayLatencyTotalNanos.get()) / (double) frames;
+	}
+
+	/**
+	 * @return copy of the relay latency histogram, see {@link #LATENCY_BUCKETS}
+	 */
+	public long[] getRelayLatencyHistogram() {
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			histogram[i] = relayLatencies.get(i);
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return timings by class name of the observers
+	 */
+	public Map<String, ObserverTiming> getObserverTimings() {
+		return Collections.unmodifiableMap(observerTimings);
+	}
+
+	/**
+	 * Time spent by one kind of {@link WebSocketObserver}.
+	 */
+	public static final class ObserverTiming {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private void add(long nanos) {
+			calls.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+		}
+
+		public long getCalls() {
+			return calls.get();
+		}
+
+		public long getTotalMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(totalNanos.get());
+		}
+
+		public long getMaxMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+		}
+
+		public double getAverageMicros() {
+			long count = calls.get();
+			return (count == 0) ? 0 : getTotalMicros() / (double) count;
+		}
+	}
+}
@@ -17,6 +17,7 @@
  */
 package org.zaproxy.zap.extension.websocket.brk;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -30,6 +31,11 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
 public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 
     private static final String TYPE = "WebSocket";
+
+	/**
+	 * Flags of the {@link #payloadPattern}.
+	 */
+	static final int PAYLOAD_PATTERN_FLAGS = Pattern.MULTILINE;
     
     /**
      * Break on specified opcode or on all if null.
@@ -53,6 +59,13 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 	 */
 	private Direction direction;
 
+	/**
+	 * Incremented on each change of any WebSocket breakpoint, lets
+	 * {@link WebSocketBreakpointMessageHandler} notice that it has to compile
+	 * the enabled breakpoints again.
+	 */
+	private static final AtomicInteger VERSION = new AtomicInteger();
+
 	public WebSocketBreakpointMessage(String opcode, Integer channelId, String payloadPattern, Direction direction) throws PatternSyntaxException {
 		setOpcode(opcode);
 		setChannelId(channelId);
@@ -71,6 +84,7 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 
 	public void setOpcode(String opcode) {
 	    this.opcode = opcode;
+	    VERSION.incrementAndGet();
 	}
 
 	public Integer getChannelId() {
@@ -79,6 +93,7 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 
 	public void setChannelId(Integer channelId) {
 		this.channelId = channelId;
+		VERSION.incrementAndGet();
 	}
 
 	public String getPayloadPattern() {
@@ -99,8 +114,27 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 		if (payloadPattern == null || payloadPattern.length() == 0) {
 			this.payloadPattern = null;
 		} else {
-			this.payloadPattern = Pattern.compile(payloadPattern, Pattern.MULTILINE);
+			this.payloadPattern = Pattern.compile(payloadPattern, PAYLOAD_PATTERN_FLAGS);
 		}
+		VERSION.incrementAndGet();
+	}
+
+	Pattern getCompiledPayloadPattern() {
+		return payloadPattern;
+	}
+
+	/**
+	 * @return the number of changes of all WebSocket breakpoints so far
+	 */
+	static int getVersion() {
+		return VERSION.get();
+	}
+
+	/**
+	 * Called when WebSocket breakpoints are added or removed.
+	 */
+	static void breakpointsChanged() {
+		VERSION.incrementAndGet();
 	}
 
 	public Direction getDirection() {
@@ -113,6 +147,13 @@ public class WebSocketBreakpointMessage extends AbstractBreakPointMessage {
 		} else {
 			this.direction = direction;
 		}
+		VERSION.incrementAndGet();
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		super.setEnabled(enabled);
+		VERSION.incrementAndGet();
 	}
 
 	@Override
@@ -17,8 +17,12 @@
  */
 package org.zaproxy.zap.extension.websocket.brk;
 
+import java.util.Collections;
+import java.util.List;
+
 import org.zaproxy.zap.extension.brk.BreakpointManagementInterface;
 import org.zaproxy.zap.extension.brk.BreakpointMessageHandler2;
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
@@ -27,16 +31,34 @@ import org.zaproxy.zap.extension.websocket.ui.OptionsParamWebSocket;
 /**
  * Wraps WebSocket specific options to determine if breakpoint should be applied
  * on given {@link WebSocketMessageDTO}.
+ * <p>
+ * The enabled breakpoints are compiled into a
+ * {@link WebSocketBreakpointsMatcher}, which is only rebuilt when the list of
+ * enabled breakpoints (or one of them) changes. Messages use the current
+ * matcher without locking the list.
  */
 public class WebSocketBreakpointMessageHandler extends BreakpointMessageHandler2 {
 
 	private OptionsParamWebSocket config;
 
+	/**
+	 * Compiled from the {@link #enabledBreakpoints}, replaced once they
+	 * changed.
+	 */
+	private volatile WebSocketBreakpointsMatcher matcher = new WebSocketBreakpointsMatcher(
+			Collections.<BreakpointMessageInterface> emptyList(), -1);
+
 	public WebSocketBreakpointMessageHandler(BreakpointManagementInterface breakpointManagementInterface, OptionsParamWebSocket config) {
 		super(breakpointManagementInterface);
 		this.config = config;
 	}
 
+	@Override
+	public void setEnabledBreakpoints(List<BreakpointMessageInterface> enabledBreakpoints) {
+		super.setEnabledBreakpoints(enabledBreakpoints);
+		WebSocketBreakpointMessage.breakpointsChanged();
+	}
+
 	/**
 	 * Only break on all requests when 'Break on all' is enabled for WebSockets.
 	 * 
@@ -82,6 +104,36 @@ public class WebSocketBreakpointMessageHandler extends BreakpointMessageHandler2
 		return false;
 	}
 	
+	/**
+	 * Uses the compiled breakpoints instead of asking each breakpoint.
+	 */
+	@Override
+	protected boolean isBreakOnEnabledBreakpoint(Message aMessage, boolean isRequest, boolean onlyIfInScope) {
+		if (!(aMessage instanceof WebSocketMessageDTO) || enabledBreakpoints == null) {
+			return super.isBreakOnEnabledBreakpoint(aMessage, isRequest, onlyIfInScope);
+		}
+		if (enabledBreakpoints.isEmpty()) {
+			return false;
+		}
+
+		WebSocketBreakpointsMatcher currentMatcher = matcher;
+		if (!currentMatcher.isCompiledFrom(WebSocketBreakpointMessage.getVersion(), enabledBreakpoints.size())) {
+			currentMatcher = compileMatcher();
+		}
+		return currentMatcher.match((WebSocketMessageDTO) aMessage, isRequest, onlyIfInScope);
+	}
+
+	private WebSocketBreakpointsMatcher compileMatcher() {
+		// read before the list, later changes are noticed by the next message
+		int version = WebSocketBreakpointMessage.getVersion();
+		WebSocketBreakpointsMatcher newMatcher;
+		synchronized (enabledBreakpoints) {
+			newMatcher = new WebSocketBreakpointsMatcher(enabledBreakpoints, version);
+		}
+		matcher = newMatcher;
+		return newMatcher;
+	}
+	
 	/**
 	 * Helper that determines if breakpoint should be applied for 'All
 	 * Requests/Responses' on this {@link WebSocketMessageDTO}.
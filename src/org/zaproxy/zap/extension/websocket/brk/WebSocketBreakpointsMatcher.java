@@ -0,0 +1,256 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.brk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Immutable, compiled form of a list of enabled breakpoints.
+ * <p>
+ * The {@link WebSocketBreakpointMessage}s are indexed by direction, channel
+ * and opcode, such that a message only looks at the breakpoints that might
+ * apply. The payload patterns of the breakpoints sharing the same criteria
+ * are joined into a single alternation, hence the payload is searched once,
+ * regardless of the number of breakpoints. Other breakpoints of the list are
+ * matched one by one, as before.
+ */
+final class WebSocketBreakpointsMatcher {
+
+	/**
+	 * Detects patterns that cannot be nested in an alternation without
+	 * changing their meaning: back references (group numbers would shift),
+	 * named groups (names must be unique), quotes without end and comments
+	 * (might swallow the closing parenthesis).
+	 */
+	private static final Pattern NOT_JOINABLE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]|\\\\Q|\\(\\?[a-zA-Z-]*x");
+
+	private final int version;
+
+	private final int size;
+
+	private final Map<Integer, Map<String, Rule>> incoming;
+
+	private final Map<Integer, Map<String, Rule>> outgoing;
+
+	private final List<BreakpointMessageInterface> others;
+
+	/**
+	 * Compiles the given breakpoints. Caller must hold the lock of the list.
+	 *
+	 * @param breakpoints enabled breakpoints
+	 * @param version of the breakpoints, read before the list, see
+	 *            {@link WebSocketBreakpointMessage#getVersion()}
+	 */
+	WebSocketBreakpointsMatcher(List<BreakpointMessageInterface> breakpoints, int version) {
+		this.version = version;
+		this.size = breakpoints.size();
+
+		Map<Integer, Map<String, List<WebSocketBreakpointMessage>>> incomingBreakpoints = new HashMap<>();
+		Map<Integer, Map<String, List<WebSocketBreakpointMessage>>> outgoingBreakpoints = new HashMap<>();
+		others = new ArrayList<>(0);
+
+		for (BreakpointMessageInterface breakpoint : breakpoints) {
+			if (!(breakpoint instanceof WebSocketBreakpointMessage)) {
+				others.add(breakpoint);
+				continue;
+			}
+
+			WebSocketBreakpointMessage wsBreakpoint = (WebSocketBreakpointMessage) breakpoint;
+			Direction direction = wsBreakpoint.getDirection();
+			if (direction == null || direction.equals(Direction.INCOMING)) {
+				index(incomingBreakpoints, wsBreakpoint);
+			}
+			if (direction == null || direction.equals(Direction.OUTGOING)) {
+				index(outgoingBreakpoints, wsBreakpoint);
+			}
+		}
+
+		incoming = compile(incomingBreakpoints);
+		outgoing = compile(outgoingBreakpoints);
+	}
+
+	private static void index(Map<Integer, Map<String, List<WebSocketBreakpointMessage>>> index, WebSocketBreakpointMessage breakpoint) {
+		Map<String, List<WebSocketBreakpointMessage>> byOpcode = index.get(breakpoint.getChannelId());
+		if (byOpcode == null) {
+			byOpcode = new HashMap<>();
+			index.put(breakpoint.getChannelId(), byOpcode);
+		}
+		List<WebSocketBreakpointMessage> list = byOpcode.get(breakpoint.getOpcode());
+		if (list == null) {
+			list = new ArrayList<>();
+			byOpcode.put(breakpoint.getOpcode(), list);
+		}
+		list.add(breakpoint);
+	}
+
+	private static Map<Integer, Map<String, Rule>> compile(Map<Integer, Map<String, List<WebSocketBreakpointMessage>>> index) {
+		Map<Integer, Map<String, Rule>> compiled = new HashMap<>();
+		for (Map.Entry<Integer, Map<String, List<WebSocketBreakpointMessage>>> channelEntry : index.entrySet()) {
+			Map<String, Rule> byOpcode = new HashMap<>();
+			for (Map.Entry<String, List<WebSocketBreakpointMessage>> opcodeEntry : channelEntry.getValue().entrySet()) {
+				byOpcode.put(opcodeEntry.getKey(), new Rule(opcodeEntry.getValue()));
+			}
+			compiled.put(channelEntry.getKey(), byOpcode);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Tells whether this matcher is still valid, i.e. no WebSocket breakpoint
+	 * changed since and the number of enabled breakpoints is the same (which
+	 * also notices breakpoints added or removed by the core). Does not need
+	 * the lock of the list.
+	 *
+	 * @param currentVersion see {@link WebSocketBreakpointMessage#getVersion()}
+	 * @param currentSize number of enabled breakpoints
+	 * @return True if still valid.
+	 */
+	boolean isCompiledFrom(int currentVersion, int currentSize) {
+		return version == currentVersion && size == currentSize;
+	}
+
+	/**
+	 * Same as calling {@link BreakpointMessageInterface#match} on each
+	 * breakpoint this matcher was compiled from.
+	 *
+	 * @param message
+	 * @param isRequest
+	 * @param onlyIfInScope
+	 * @return True if any breakpoint applies.
+	 */
+	boolean match(WebSocketMessageDTO message, boolean isRequest, boolean onlyIfInScope) {
+		Map<Integer, Map<String, Rule>> rules = message.isOutgoing ? outgoing : incoming;
+		if (!rules.isEmpty()) {
+			if (message.channel != null && message.channel.id != null
+					&& match(rules.get(message.channel.id), message)) {
+				return true;
+			}
+			if (match(rules.get(null), message)) {
+				return true;
+			}
+		}
+
+		for (BreakpointMessageInterface breakpoint : others) {
+			if (breakpoint.match(message, isRequest, onlyIfInScope)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean match(Map<String, Rule> byOpcode, WebSocketMessageDTO message) {
+		if (byOpcode == null) {
+			return false;
+		}
+		if (message.readableOpcode != null) {
+			Rule rule = byOpcode.get(message.readableOpcode);
+			if (rule != null && rule.match(message.payload)) {
+				return true;
+			}
+		}
+		Rule rule = byOpcode.get(null);
+		return rule != null && rule.match(message.payload);
+	}
+
+	/**
+	 * Breakpoints with the same direction, channel and opcode.
+	 */
+	private static final class Rule {
+
+		/**
+		 * True if any breakpoint has no payload pattern.
+		 */
+		private final boolean matchesAnyPayload;
+
+		private final Pattern[] patterns;
+
+		private Rule(List<WebSocketBreakpointMessage> breakpoints) {
+			boolean anyPayload = false;
+			List<Pattern> separate = new ArrayList<>(0);
+			StringBuilder joined = new StringBuilder();
+			int joinedCount = 0;
+			Pattern lastJoinable = null;
+			for (WebSocketBreakpointMessage breakpoint : breakpoints) {
+				Pattern pattern = breakpoint.getCompiledPayloadPattern();
+				if (pattern == null) {
+					anyPayload = true;
+					break;
+				}
+
+				if (NOT_JOINABLE.matcher(pattern.pattern()).find()) {
+					separate.add(pattern);
+					continue;
+				}
+				if (joinedCount > 0) {
+					joined.append('|');
+				}
+				joined.append("(?:").append(pattern.pattern()).append(')');
+				joinedCount++;
+				lastJoinable = pattern;
+			}
+
+			matchesAnyPayload = anyPayload;
+			if (anyPayload) {
+				patterns = new Pattern[0];
+				return;
+			}
+
+			if (joinedCount == 1) {
+				separate.add(0, lastJoinable);
+			} else if (joinedCount > 1) {
+				try {
+					separate.add(0, Pattern.compile(joined.toString(), WebSocketBreakpointMessage.PAYLOAD_PATTERN_FLAGS));
+				} catch (PatternSyntaxException e) {
+					// fall back to matching each pattern
+					for (WebSocketBreakpointMessage breakpoint : breakpoints) {
+						Pattern pattern = breakpoint.getCompiledPayloadPattern();
+						if (!separate.contains(pattern)) {
+							separate.add(pattern);
+						}
+					}
+				}
+			}
+			patterns = separate.toArray(new Pattern[separate.size()]);
+		}
+
+		private boolean match(Object payload) {
+			if (matchesAnyPayload) {
+				return true;
+			}
+			if (!(payload instanceof String)) {
+				// binary messages are not affected by pattern
+				return false;
+			}
+			for (Pattern pattern : patterns) {
+				if (pattern.matcher((String) payload).find()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
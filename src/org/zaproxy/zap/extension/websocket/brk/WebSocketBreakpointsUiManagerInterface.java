@@ -62,6 +62,7 @@ public class WebSocketBreakpointsUiManagerInterface implements BreakpointsUiMana
 
     void addBreakpoint(WebSocketBreakpointMessage breakpoint) {
         extensionBreak.addBreakpoint(breakpoint);
+        WebSocketBreakpointMessage.breakpointsChanged();
     }
 
     @Override
@@ -71,11 +72,13 @@ public class WebSocketBreakpointsUiManagerInterface implements BreakpointsUiMana
 
     void editBreakpoint(BreakpointMessageInterface oldBreakpoint, BreakpointMessageInterface newBreakpoint) {
         extensionBreak.editBreakpoint(oldBreakpoint, newBreakpoint);
+        WebSocketBreakpointMessage.breakpointsChanged();
     }
 
     @Override
     public void handleRemoveBreakpoint(BreakpointMessageInterface breakpoint) {
         extensionBreak.removeBreakpoint(breakpoint);
+        WebSocketBreakpointMessage.breakpointsChanged();
     }
 
     @Override
@@ -0,0 +1,455 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.WebSocketSenderListener;
+
+/**
+ * Non-blocking access to a channel for scripts and other add-ons, created by
+ * {@link WebSocketClients}.
+ * <p>
+ * Messages are queued and written in order by a shared thread pool, the
+ * returned {@link WebSocketFuture} completes once the message was written.
+ * Incoming messages (from the server) can be received through
+ * {@link WebSocketSubscription}s or awaited one by one with
+ * {@link #awaitMessage(WebSocketMessageMatcher, long, TimeUnit)}.
+ * <p>
+ * Thread-safe.
+ */
+public class WebSocketClientChannel {
+
+	private static final Logger logger = Logger.getLogger(WebSocketClientChannel.class);
+
+	/**
+	 * Maximum number of messages waiting to be written, further messages are
+	 * rejected until the channel caught up.
+	 */
+	public static final int MAX_PENDING_MESSAGES = 10000;
+
+	private final WebSocketClients clients;
+
+	private final WebSocketProxy proxy;
+
+	/**
+	 * True if the channel was opened by {@link WebSocketClients}, hence it is
+	 * closed together with this client.
+	 */
+	private final boolean owned;
+
+	private final Executor sendExecutor;
+
+	private final ScheduledExecutorService timeoutExecutor;
+
+	private final Queue<PendingMessage> pendingMessages;
+
+	private final AtomicInteger pendingMessagesCount;
+
+	private final AtomicBoolean sending;
+
+	private final Runnable sender;
+
+	private final List<WebSocketSubscription> subscriptions;
+
+	private final List<PendingReply> pendingReplies;
+
+	private final ChannelListener listener;
+
+	private volatile boolean closed;
+
+	WebSocketClientChannel(
+			WebSocketClients clients,
+			WebSocketProxy proxy,
+			boolean owned,
+			Executor sendExecutor,
+			ScheduledExecutorService timeoutExecutor) {
+		this.clients = clients;
+		this.proxy = proxy;
+		this.owned = owned;
+		this.sendExecutor = sendExecutor;
+		this.timeoutExecutor = timeoutExecutor;
+		this.pendingMessages = new ConcurrentLinkedQueue<>();
+		this.pendingMessagesCount = new AtomicInteger();
+		this.sending = new AtomicBoolean();
+		this.sender = new Sender();
+		this.subscriptions = new CopyOnWriteArrayList<>();
+		this.pendingReplies = new CopyOnWriteArrayList<>();
+		this.listener = new ChannelListener();
+
+		proxy.addSenderListener(listener);
+	}
+
+	public int getChannelId() {
+		return proxy.getChannelId();
+	}
+
+	public WebSocketProxy getProxy() {
+		return proxy;
+	}
+
+	public boolean isConnected() {
+		return !closed && proxy.isConnected();
+	}
+
+	/**
+	 * Sends a text message to the server.
+	 *
+	 * @param payload
+	 * @return completes with the sent message once written
+	 * @see #send(WebSocketMessageDTO)
+	 */
+	public WebSocketFuture<WebSocketMessageDTO> sendText(String payload) {
+		return send(createMessage(WebSocketMessage.OPCODE_TEXT, payload));
+	}
+
+	/**
+	 * Sends a binary message to the server.
+	 *
+	 * @param payload
+	 * @return completes with the sent message once written
+	 * @see #send(WebSocketMessageDTO)
+	 */
+	public WebSocketFuture<WebSocketMessageDTO> sendBinary(byte[] payload) {
+		return send(createMessage(WebSocketMessage.OPCODE_BINARY, payload));
+	}
+
+	private WebSocketMessageDTO createMessage(int opcode, Object payload) {
+		WebSocketMessageDTO message = new WebSocketMessageDTO(proxy.getDTO());
+		message.opcode = opcode;
+		message.payload = payload;
+		message.isOutgoing = Boolean.TRUE;
+		return message;
+	}
+
+	/**
+	 * Queues the given message, without waiting for it to be written. The
+	 * messages of a channel are written in the order they were queued.
+	 * Messages of relayed channels might also be sent to the browser, with
+	 * {@link WebSocketMessageDTO#isOutgoing} set to false.
+	 *
+	 * @param message
+	 * @return completes with the given message once written, fails if the
+	 *         message could not be written, the channel is closed or there
+	 *         are already {@link #MAX_PENDING_MESSAGES} messages waiting
+	 */
+	public WebSocketFuture<WebSocketMessageDTO> send(WebSocketMessageDTO message) {
+		if (!isConnected()) {
+			return WebSocketFuture.failed(new WebSocketException("Channel " + proxy + " is not connected."));
+		}
+		if (pendingMessagesCount.incrementAndGet() > MAX_PENDING_MESSAGES) {
+			pendingMessagesCount.decrementAndGet();
+			return WebSocketFuture.failed(new WebSocketException("Too many messages waiting to be sent to " + proxy));
+		}
+
+		PendingMessage pending = new PendingMessage(message);
+		pendingMessages.add(pending);
+		scheduleSending();
+		return pending.future;
+	}
+
+	private void scheduleSending() {
+		if (sending.compareAndSet(false, true)) {
+			sendExecutor.execute(sender);
+		}
+	}
+
+	/**
+	 * Sends the given message and waits for the first incoming message that
+	 * matches. The wait starts before the message is sent, so that fast
+	 * replies are not missed.
+	 *
+	 * @param message
+	 * @param replyMatcher selects the reply, e.g. by a correlation ID
+	 * @param timeout
+	 * @param unit
+	 * @return completes with the reply, fails if the message was not sent or
+	 *         no reply arrived in time (with a {@link TimeoutException})
+	 */
+	public WebSocketFuture<WebSocketMessageDTO> sendAndAwaitReply(
+			WebSocketMessageDTO message,
+			WebSocketMessageMatcher replyMatcher,
+			long timeout,
+			TimeUnit unit) {
+		final WebSocketFuture<WebSocketMessageDTO> reply = awaitMessage(replyMatcher, timeout, unit);
+		send(message).addCallback(new WebSocketFuture.Callback<WebSocketMessageDTO>() {
+
+			@Override
+			public void completed(WebSocketMessageDTO result) {
+			}
+
+			@Override
+			public void failed(Throwable cause) {
+				reply.fail(cause);
+			}
+		});
+		return reply;
+	}
+
+	/**
+	 * Waits for the first incoming message that matches, without blocking.
+	 *
+	 * @param matcher
+	 * @param timeout
+	 * @param unit
+	 * @return completes with the message, fails if the channel closed or no
+	 *         message arrived in time (with a {@link TimeoutException})
+	 */
+	public WebSocketFuture<WebSocketMessageDTO> awaitMessage(WebSocketMessageMatcher matcher, long timeout, TimeUnit unit) {
+		if (matcher == null) {
+			throw new IllegalArgumentException("Parameter matcher must not be null.");
+		}
+		final PendingReply pending = new PendingReply(matcher);
+		pendingReplies.add(pending);
+		if (closed) {
+			pendingReplies.remove(pending);
+			pending.future.fail(new WebSocketException("Channel " + proxy + " is closed."));
+			return pending.future;
+		}
+
+		final ScheduledFuture<?> timeoutTask = timeoutExecutor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				pendingReplies.remove(pending);
+				pending.future.fail(new TimeoutException("No matching message received from " + proxy));
+			}
+		}, timeout, unit);
+		pending.future.addCallback(new WebSocketFuture.Callback<WebSocketMessageDTO>() {
+
+			@Override
+			public void completed(WebSocketMessageDTO result) {
+				timeoutTask.cancel(false);
+			}
+
+			@Override
+			public void failed(Throwable cause) {
+				// also if cancelled by the caller
+				pendingReplies.remove(pending);
+				timeoutTask.cancel(false);
+			}
+		});
+		return pending.future;
+	}
+
+	/**
+	 * Receives the incoming messages that match, from now on until the
+	 * subscription or the channel is closed.
+	 *
+	 * @param matcher
+	 * @param capacity maximum number of messages waiting to be taken
+	 * @param overflow what to do if the subscription is full
+	 * @return the subscription
+	 * @throws IllegalArgumentException if the capacity is less than 1 or a
+	 *             parameter is {@code null}
+	 */
+	public WebSocketSubscription subscribe(WebSocketMessageMatcher matcher, int capacity, WebSocketSubscription.Overflow overflow) {
+		WebSocketSubscription subscription = new WebSocketSubscription(this, matcher, capacity, overflow);
+		subscriptions.add(subscription);
+		if (closed) {
+			subscriptions.remove(subscription);
+			subscription.channelClosed();
+		}
+		return subscription;
+	}
+
+	void unsubscribe(WebSocketSubscription subscription) {
+		subscriptions.remove(subscription);
+	}
+
+	/**
+	 * Stops using the channel. A channel opened by {@link WebSocketClients}
+	 * is closed with a close frame, a channel that was attached to stays
+	 * open. Messages still waiting to be written are not sent.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		if (owned && proxy.isConnected()) {
+			WebSocketMessageDTO closeMessage = new WebSocketMessageDTO(proxy.getDTO());
+			closeMessage.opcode = WebSocketMessage.OPCODE_CLOSE;
+			closeMessage.closeCode = WebSocketMessage.STATUS_CODE_OK;
+			closeMessage.payload = Integer.toString(WebSocketMessage.STATUS_CODE_OK);
+			closeMessage.isOutgoing = Boolean.TRUE;
+			try {
+				proxy.send(closeMessage, Initiator.MANUAL_REQUEST);
+			} catch (IOException e) {
+				logger.debug("Failed to close channel " + proxy + ": " + e.getMessage());
+				proxy.shutdown();
+			}
+		}
+		channelClosed();
+	}
+
+	private void channelClosed() {
+		closed = true;
+		proxy.removeSenderListener(listener);
+		clients.removeChannel(this);
+
+		WebSocketException cause = new WebSocketException("Channel " + proxy + " is closed.");
+		PendingMessage message;
+		while ((message = pendingMessages.poll()) != null) {
+			pendingMessagesCount.decrementAndGet();
+			message.future.fail(cause);
+		}
+		for (PendingReply reply : pendingReplies) {
+			reply.future.fail(cause);
+		}
+		pendingReplies.clear();
+		for (WebSocketSubscription subscription : subscriptions) {
+			subscription.channelClosed();
+		}
+		subscriptions.clear();
+	}
+
+	/**
+	 * Writes the queued messages, one channel is written by one thread at a
+	 * time.
+	 */
+	private class Sender implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				PendingMessage pending;
+				while ((pending = pendingMessages.poll()) != null) {
+					pendingMessagesCount.decrementAndGet();
+					write(pending);
+				}
+			} finally {
+				sending.set(false);
+				if (!pendingMessages.isEmpty()) {
+					scheduleSending();
+				}
+			}
+		}
+
+		private void write(PendingMessage pending) {
+			if (pending.future.isDone()) {
+				// cancelled
+				return;
+			}
+			try {
+				boolean sent;
+				if (proxy.isForwardOnly()) {
+					sent = proxy.send(pending.message, Initiator.MANUAL_REQUEST);
+				} else {
+					// show and store it like messages sent manually
+					proxy.sendAndNotify(pending.message, Initiator.MANUAL_REQUEST);
+					sent = true;
+				}
+				if (sent) {
+					pending.future.complete(pending.message);
+				} else {
+					pending.future.fail(new WebSocketException("Message was not sent to " + proxy));
+				}
+			} catch (IOException | RuntimeException e) {
+				pending.future.fail(e);
+			}
+		}
+	}
+
+	private class ChannelListener implements WebSocketSenderListener {
+
+		@Override
+		public int getListenerOrder() {
+			return 0;
+		}
+
+		@Override
+		public void onMessageFrame(int channelId, WebSocketMessage message, Initiator initiator) {
+			if (message.getDirection() != WebSocketMessage.Direction.INCOMING || !message.isFinished()) {
+				return;
+			}
+			if (pendingReplies.isEmpty() && subscriptions.isEmpty()) {
+				return;
+			}
+
+			WebSocketMessageDTO dto = message.getDTO();
+			for (PendingReply reply : pendingReplies) {
+				if (matches(reply.matcher, dto) && reply.future.complete(dto)) {
+					pendingReplies.remove(reply);
+				}
+			}
+			for (WebSocketSubscription subscription : subscriptions) {
+				if (matches(subscription.getMatcher(), dto)) {
+					subscription.offer(dto);
+				}
+			}
+		}
+
+		private boolean matches(WebSocketMessageMatcher matcher, WebSocketMessageDTO message) {
+			try {
+				return matcher.matches(message);
+			} catch (RuntimeException e) {
+				logger.warn("Matcher failed: " + e.getMessage(), e);
+				return false;
+			}
+		}
+
+		@Override
+		public void onStateChange(State state, WebSocketProxy proxy) {
+			if (state == State.CLOSED) {
+				channelClosed();
+			}
+		}
+	}
+
+	private static class PendingMessage {
+
+		private final WebSocketMessageDTO message;
+
+		private final WebSocketFuture<WebSocketMessageDTO> future;
+
+		PendingMessage(WebSocketMessageDTO message) {
+			this.message = message;
+			this.future = new WebSocketFuture<>();
+		}
+	}
+
+	private static class PendingReply {
+
+		private final WebSocketMessageMatcher matcher;
+
+		private final WebSocketFuture<WebSocketMessageDTO> future;
+
+		PendingReply(WebSocketMessageMatcher matcher) {
+			this.matcher = matcher;
+			this.future = new WebSocketFuture<>();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+import org.parosproxy.paros.network.HttpSender;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+
+/**
+ * Entry point of the scripting API, to open new channels or to attach to
+ * channels relayed by ZAP, see {@link WebSocketClientChannel}. Available
+ * through {@link ExtensionWebSocket#getClients()}, e.g. in a script:
+ * 
+ * <pre>
+ * var clients = control.getExtensionLoader().getExtension("ExtensionWebSocket").getClients();
+ * var channel = clients.open(handshake, true);
+ * channel.sendText("ping").get();
+ * </pre>
+ * 
+ * Messages of all channels are written by a few shared threads, so scripts
+ * neither block on writing nor need a thread per channel.
+ */
+public class WebSocketClients {
+
+	/**
+	 * Number of threads writing the messages of all channels.
+	 */
+	private static final int SEND_THREADS = 4;
+
+	private final ExtensionWebSocket extension;
+
+	private final List<WebSocketClientChannel> channels;
+
+	private ExecutorService sendExecutor;
+
+	private ScheduledExecutorService timeoutExecutor;
+
+	public WebSocketClients(ExtensionWebSocket extension) {
+		this.extension = extension;
+		this.channels = new CopyOnWriteArrayList<>();
+	}
+
+	/**
+	 * Opens a new channel with the request of the given handshake, see
+	 * {@link ExtensionWebSocket#connect(HttpMessage, int, int)}. The channel
+	 * is closed by {@link WebSocketClientChannel#close()}, at the latest when
+	 * the session changes.
+	 * 
+	 * @param handshake handshake request, e.g. of an existing channel
+	 * @param observed True if the messages should be stored and shown like
+	 *            those of channels relayed by ZAP, false to only forward them,
+	 *            for higher rates
+	 * @return the new channel
+	 * @throws IOException if the handshake failed or was not accepted
+	 */
+	public WebSocketClientChannel open(HttpMessage handshake, boolean observed) throws IOException {
+		WebSocketProxy proxy;
+		if (observed) {
+			proxy = extension.connect(handshake, HttpSender.MANUAL_REQUEST_INITIATOR, HistoryReference.TYPE_ZAP_USER);
+		} else {
+			proxy = extension.connectUnobserved(handshake, HttpSender.MANUAL_REQUEST_INITIATOR, HistoryReference.TYPE_TEMPORARY);
+		}
+		return register(proxy, true);
+	}
+
+	/**
+	 * Attaches to a channel relayed by ZAP, e.g. between the browser and the
+	 * server. The channel stays open when the returned one is closed.
+	 * 
+	 * @param channelId
+	 * @return the channel
+	 * @throws WebSocketException if the channel is not connected
+	 */
+	public WebSocketClientChannel attach(int channelId) throws WebSocketException {
+		WebSocketProxy proxy = extension.getConnectedChannel(channelId);
+		if (proxy == null) {
+			throw new WebSocketException("Channel #" + channelId + " is not connected.");
+		}
+		return register(proxy, false);
+	}
+
+	private synchronized WebSocketClientChannel register(WebSocketProxy proxy, boolean owned) {
+		if (sendExecutor == null) {
+			sendExecutor = Executors.newFixedThreadPool(SEND_THREADS, new ClientThreadFactory("ZAP-WS-Client-"));
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ClientThreadFactory("ZAP-WS-Client-Timeout-"));
+			// timeouts are usually cancelled, do not keep them until due
+			scheduler.setRemoveOnCancelPolicy(true);
+			timeoutExecutor = scheduler;
+		}
+
+		WebSocketClientChannel channel = new WebSocketClientChannel(this, proxy, owned, sendExecutor, timeoutExecutor);
+		channels.add(channel);
+		if (!proxy.isConnected()) {
+			// closed before the channel listened to it
+			channel.close();
+		}
+		return channel;
+	}
+
+	void removeChannel(WebSocketClientChannel channel) {
+		channels.remove(channel);
+	}
+
+	/**
+	 * @return channels opened or attached to, that are not closed yet
+	 */
+	public List<WebSocketClientChannel> getChannels() {
+		return new ArrayList<>(channels);
+	}
+
+	/**
+	 * Closes all channels, e.g. when the session changes.
+	 */
+	public void closeAll() {
+		for (WebSocketClientChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Closes all channels and stops the threads, e.g. when the extension is
+	 * unloaded. Channels opened afterwards start new threads.
+	 */
+	public synchronized void shutdown() {
+		closeAll();
+		if (sendExecutor != null) {
+			sendExecutor.shutdown();
+			timeoutExecutor.shutdownNow();
+			sendExecutor = null;
+			timeoutExecutor = null;
+		}
+	}
+
+	private static class ClientThreadFactory implements ThreadFactory {
+
+		private final String namePrefix;
+
+		private final AtomicInteger threadNumber;
+
+		ClientThreadFactory(String namePrefix) {
+			this.namePrefix = namePrefix;
+			this.threadNumber = new AtomicInteger(1);
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Result of an asynchronous operation of a {@link WebSocketClientChannel},
+ * e.g. a message that is written or a reply that is awaited.
+ * <p>
+ * Besides blocking on {@link #get()} the result can be handled by a
+ * {@link Callback}, which is called by the thread completing the operation,
+ * hence it should not block.
+ *
+ * @param <V> type of the result
+ */
+public class WebSocketFuture<V> implements Future<V> {
+
+	private static final Logger logger = Logger.getLogger(WebSocketFuture.class);
+
+	/**
+	 * Called once the operation is done.
+	 *
+	 * @param <V> type of the result
+	 */
+	public interface Callback<V> {
+
+		void completed(V result);
+
+		/**
+		 * @param cause why the operation failed, a
+		 *            {@link CancellationException} if cancelled
+		 */
+		void failed(Throwable cause);
+	}
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private final List<Callback<V>> callbacks = new ArrayList<>(1);
+
+	private V result;
+
+	private Throwable failure;
+
+	private boolean cancelled;
+
+	/**
+	 * @param result
+	 * @return a future that is already completed with the given result
+	 */
+	static <V> WebSocketFuture<V> completed(V result) {
+		WebSocketFuture<V> future = new WebSocketFuture<>();
+		future.complete(result);
+		return future;
+	}
+
+	/**
+	 * @param cause
+	 * @return a future that already failed with the given cause
+	 */
+	static <V> WebSocketFuture<V> failed(Throwable cause) {
+		WebSocketFuture<V> future = new WebSocketFuture<>();
+		future.fail(cause);
+		return future;
+	}
+
+	/**
+	 * @param result
+	 * @return True if completed, false if already done
+	 */
+	boolean complete(V result) {
+		return finish(result, null, false);
+	}
+
+	/**
+	 * @param cause
+	 * @return True if failed, false if already done
+	 */
+	boolean fail(Throwable cause) {
+		return finish(null, cause, false);
+	}
+
+	/**
+	 * Cancels the operation, if not yet done. A message that is already
+	 * being written is still sent.
+	 *
+	 * @param mayInterruptIfRunning ignored, operations are never interrupted
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, new CancellationException(), true);
+	}
+
+	private boolean finish(V value, Throwable cause, boolean cancel) {
+		List<Callback<V>> toNotify;
+		synchronized (this) {
+			if (done.getCount() == 0) {
+				return false;
+			}
+			result = value;
+			failure = cause;
+			cancelled = cancel;
+			toNotify = new ArrayList<>(callbacks);
+			callbacks.clear();
+			done.countDown();
+		}
+		for (Callback<V> callback : toNotify) {
+			notify(callback);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a callback, called right away if the operation is already done.
+	 *
+	 * @param callback
+	 */
+	public void addCallback(Callback<V> callback) {
+		synchronized (this) {
+			if (done.getCount() != 0) {
+				callbacks.add(callback);
+				return;
+			}
+		}
+		notify(callback);
+	}
+
+	private void notify(Callback<V> callback) {
+		try {
+			if (failure == null) {
+				callback.completed(result);
+			} else {
+				callback.failed(failure);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Callback failed: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public V get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	private V getResult() throws ExecutionException {
+		if (failure instanceof CancellationException) {
+			throw (CancellationException) failure;
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return result;
+	}
+}
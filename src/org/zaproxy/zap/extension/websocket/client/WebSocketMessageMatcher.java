@@ -0,0 +1,36 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.client;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Selects the incoming messages a {@link WebSocketSubscription} receives or a
+ * {@link WebSocketClientChannel} waits for, e.g. a reply with the ID of a
+ * request.
+ * <p>
+ * Called by the thread reading the channel, so it should return quickly.
+ */
+public interface WebSocketMessageMatcher {
+
+	/**
+	 * @param message complete incoming message, also control frames
+	 * @return True if the message is wanted.
+	 */
+	boolean matches(WebSocketMessageDTO message);
+}
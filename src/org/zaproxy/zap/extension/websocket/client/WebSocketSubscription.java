@@ -0,0 +1,180 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.client;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Bounded stream of the incoming messages of a channel that match a
+ * {@link WebSocketMessageMatcher}, created with
+ * {@link WebSocketClientChannel#subscribe(WebSocketMessageMatcher, int, Overflow)}.
+ * <p>
+ * The messages are taken by the subscriber, the {@link Overflow} tells what
+ * happens if the subscriber does not keep up.
+ */
+public class WebSocketSubscription implements Closeable {
+
+	/**
+	 * How often a waiting thread checks if the subscription was closed.
+	 */
+	private static final long CLOSED_CHECK_INTERVAL_MS = 100;
+
+	/**
+	 * What to do with a message if the subscription is full.
+	 */
+	public enum Overflow {
+
+		/**
+		 * The channel waits until there is room, no further messages are read
+		 * from the server meanwhile. If the channel is relayed, the messages
+		 * of the browser are held up as well.
+		 */
+		BLOCK,
+
+		/**
+		 * The message is dropped, see {@link WebSocketSubscription#getDroppedCount()}.
+		 */
+		DROP
+	}
+
+	private final WebSocketClientChannel channel;
+
+	private final WebSocketMessageMatcher matcher;
+
+	private final Overflow overflow;
+
+	private final BlockingQueue<WebSocketMessageDTO> messages;
+
+	private final AtomicLong droppedCount;
+
+	private volatile boolean closed;
+
+	WebSocketSubscription(WebSocketClientChannel channel, WebSocketMessageMatcher matcher, int capacity, Overflow overflow) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Parameter capacity must be at least 1.");
+		}
+		if (matcher == null || overflow == null) {
+			throw new IllegalArgumentException("Parameters matcher and overflow must not be null.");
+		}
+		this.channel = channel;
+		this.matcher = matcher;
+		this.overflow = overflow;
+		this.messages = new ArrayBlockingQueue<>(capacity);
+		this.droppedCount = new AtomicLong();
+	}
+
+	WebSocketMessageMatcher getMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Called by the thread reading the channel.
+	 */
+	void offer(WebSocketMessageDTO message) {
+		if (overflow == Overflow.DROP) {
+			if (!messages.offer(message)) {
+				droppedCount.incrementAndGet();
+			}
+			return;
+		}
+
+		try {
+			while (!closed) {
+				if (messages.offer(message, CLOSED_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		droppedCount.incrementAndGet();
+	}
+
+	/**
+	 * Waits for the next message.
+	 *
+	 * @return the next message or {@code null} if closed and all messages
+	 *         were taken
+	 * @throws InterruptedException
+	 */
+	public WebSocketMessageDTO take() throws InterruptedException {
+		while (true) {
+			WebSocketMessageDTO message = messages.poll(CLOSED_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			if (message != null || closed) {
+				return message;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the next message, up to the given time.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return the next message or {@code null} if none arrived in time
+	 * @throws InterruptedException
+	 */
+	public WebSocketMessageDTO poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return messages.poll(timeout, unit);
+	}
+
+	/**
+	 * @return number of messages that are waiting to be taken
+	 */
+	public int size() {
+		return messages.size();
+	}
+
+	/**
+	 * @return number of matching messages that were not taken, as the
+	 *         subscription was full ({@link Overflow#DROP}) or closed
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return True if closed by the subscriber or because the channel closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops receiving messages, messages already received can still be
+	 * taken.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		channel.unsubscribe(this);
+	}
+
+	/**
+	 * Called when the channel closed.
+	 */
+	void channelClosed() {
+		closed = true;
+	}
+}
@@ -17,26 +17,43 @@
  */
 package org.zaproxy.zap.extension.websocket.db;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Time;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.log4j.Logger;
 import org.hsqldb.jdbc.JDBCBlob;
 import org.hsqldb.jdbc.JDBCClob;
+import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.db.DatabaseException;
 import org.parosproxy.paros.db.DbUtils;
 import org.parosproxy.paros.db.paros.ParosAbstractTable;
@@ -52,6 +69,96 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 public class TableWebSocket extends ParosAbstractTable {
 	private static final Logger logger = Logger.getLogger(TableWebSocket.class);
 	
+	/**
+	 * Payload is stored as is in column <em>payload_utf8</em> or
+	 * <em>payload_bytes</em>.
+	 */
+	private static final int PAYLOAD_INLINE = 0;
+	
+	/**
+	 * Flag of column <em>payload_encoding</em>, set if the payload is
+	 * compressed. Compressed payloads are stored in column
+	 * <em>payload_bytes</em>, also text payloads.
+	 */
+	private static final int PAYLOAD_DEFLATED = 1;
+	
+	/**
+	 * Flag of column <em>payload_encoding</em>, set if the payload is stored
+	 * in a segment file. The database contains only a preview then.
+	 */
+	private static final int PAYLOAD_SPILLED = 2;
+	
+	/**
+	 * Length of the preview stored for text payloads that are compressed or
+	 * spilled, and for spilled binary payloads.
+	 */
+	private static final int STORED_PREVIEW_LENGTH = 1024;
+	
+	/**
+	 * Prefix of the URL of HSQLDB databases stored in files, followed by the
+	 * path of the database.
+	 */
+	private static final String HSQLDB_FILE_URL_PREFIX = "jdbc:hsqldb:file:";
+	
+	/**
+	 * Value of column <em>payload_index_state</em> of messages stored before
+	 * the payload index existed, indexed by {@link #indexPayloads(int)}.
+	 */
+	private static final int PAYLOAD_NOT_INDEXED = 0;
+	
+	/**
+	 * Value of column <em>payload_index_state</em>, set if the tokens of the
+	 * payload are in table <em>websocket_payload_token</em>. Binary payloads
+	 * have got no tokens.
+	 */
+	private static final int PAYLOAD_INDEXED = 1;
+	
+	/**
+	 * Value of column <em>payload_index_state</em>, set if the payload is too
+	 * large or has got too many tokens. Such messages are always verified
+	 * when searching.
+	 */
+	private static final int PAYLOAD_NOT_INDEXABLE = 2;
+	
+	/**
+	 * Text payloads with more characters are not indexed.
+	 */
+	private static final int MAX_INDEXED_PAYLOAD_LENGTH = 65536;
+	
+	/**
+	 * Text payloads with more distinct tokens are not indexed.
+	 */
+	private static final int MAX_PAYLOAD_TOKENS = 1024;
+	
+	/**
+	 * Columns needed for the previews of the messages tab.
+	 */
+	private static final String SELECT_MESSAGE_PREVIEWS = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
+			+ "m.payload_utf8, m.payload_bytes, m.payload_encoding, "
+			+ "m.payload_segment_id, m.payload_segment_offset, m.payload_stored_length, "
+			+ "f.fuzz_id, f.state, f.fuzz "
+			+ "FROM websocket_message AS m "
+			+ "LEFT OUTER JOIN websocket_message_fuzz f "
+			+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id ";
+	
+	/**
+	 * Order of the messages tab, also used for keyset pagination, see
+	 * {@link #getMessagesAfter(WebSocketMessageDTO, List, List, WebSocketMessageDTO, int, int)}.
+	 * Backed by index <em>websocket_message_order</em>.
+	 */
+	private static final String ORDER_MESSAGES = "ORDER BY m.timestamp, m.channel_id, m.message_id ";
+	
+	/**
+	 * Maximum number of statements kept for the different shapes of message
+	 * criteria.
+	 */
+	private static final int MAX_CACHED_CRITERIA_STATEMENTS = 32;
+	
+	/**
+	 * Seconds {@link #waitForQueuedMessages()} waits at most.
+	 */
+	private static final int QUEUED_MESSAGES_TIMEOUT = 5;
+	
 	private Set<Integer> channelIds;
 	private LRUMap channelCache;
     
@@ -71,11 +178,81 @@ public class TableWebSocket extends ParosAbstractTable {
 	
 	private PreparedStatement psSelectMessage;
 	
+	private PreparedStatement psSelectPayloadLocation;
+	
 	private PreparedStatement psSelectMaxChannelId;
 
+	private PreparedStatement psInsertPayloadSegment;
+	
+	private PreparedStatement psSelectPayloadSegment;
+	
+	private PreparedStatement psSelectMaxPayloadSegmentId;
+	
+	private PreparedStatement psSelectPayloadSegments;
+	
+	private PreparedStatement psSelectPayloadSegmentIdsByChannelId;
+	
+	private PreparedStatement psSelectPayloadSegmentUsage;
+	
+	private PreparedStatement psDeletePayloadSegment;
+	
+	private PreparedStatement psUpdateMessageCount;
+	
+	private PreparedStatement psInsertMessageCount;
+	
+	private PreparedStatement psDeleteMessageCountsByChannelId;
+	
+	private PreparedStatement psInsertPayloadToken;
+	
+	private PreparedStatement psUpdatePayloadIndexState;
+	
+	private PreparedStatement psSelectUnindexedMessages;
+	
+	private PreparedStatement psDeletePayloadTokensByChannelId;
+	
+	/**
+	 * False once {@link #indexPayloads(int)} found no more messages stored
+	 * before the payload index existed.
+	 */
+	private boolean hasUnindexedPayloads;
+	
+	/**
+	 * Statements built by
+	 * {@link #buildMessageCriteriaStatement(String, WebSocketMessageDTO, List, List)},
+	 * by their query. Least recently used statements are closed.
+	 */
+	private Map<String, PreparedStatement> criteriaStatements;
+	
+	/**
+	 * Payloads of at least this number of bytes are compressed, 0 if disabled.
+	 */
+	private int payloadCompressionThreshold;
+	
+	/**
+	 * Payloads of at least this number of bytes are stored in segment files,
+	 * 0 if disabled.
+	 */
+	private int payloadSpillThreshold;
+	
+	/**
+	 * Segment files of the current database, see
+	 * {@link #createPayloadSegments(Connection)}.
+	 */
+	private WebSocketPayloadSegments payloadSegments;
+	
+	private Map<Integer, String> payloadSegmentPaths = new HashMap<>();
+	
+	/**
+	 * Highest ID of the messages inserted per channel since the database was
+	 * opened, see {@link #getMaxMessageIds()}.
+	 */
+	private final Map<Integer, Integer> maxMessageIds = new HashMap<>();
+
 	private Queue<WebSocketMessageDTO> messagesBuffer = new LinkedList<>();
 	private Queue<WebSocketChannelDTO> channelsBuffer = new LinkedList<>();
 	
+	private final WebSocketMessageWriter messageWriter = new WebSocketMessageWriter(this);
+	
     /**
      * Create tables if not already available
      */
@@ -132,8 +309,120 @@ public class TableWebSocket extends ParosAbstractTable {
 				channelIds = null;
 			}
 			
+			if (!DbUtils.hasColumn(conn, "WEBSOCKET_MESSAGE", "PAYLOAD_ENCODING")) {
+				// large payloads might be compressed or stored in segment files
+				PreparedStatement stmt = conn.prepareStatement("ALTER TABLE websocket_message "
+						+ "ADD COLUMN payload_encoding TINYINT DEFAULT 0 NOT NULL");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("ALTER TABLE websocket_message "
+						+ "ADD COLUMN payload_segment_id INTEGER NULL");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("ALTER TABLE websocket_message "
+						+ "ADD COLUMN payload_segment_offset BIGINT NULL");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("ALTER TABLE websocket_message "
+						+ "ADD COLUMN payload_stored_length INTEGER NULL");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasIndex(conn, "WEBSOCKET_MESSAGE", "WEBSOCKET_MESSAGE_ORDER")) {
+				// for sorting and paging the messages tab
+				PreparedStatement stmt = conn.prepareStatement("CREATE INDEX websocket_message_order "
+						+ "ON websocket_message (timestamp, channel_id, message_id)");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasIndex(conn, "WEBSOCKET_MESSAGE", "WEBSOCKET_MESSAGE_CRITERIA")) {
+				// for filtering by channel, opcode & direction
+				PreparedStatement stmt = conn.prepareStatement("CREATE INDEX websocket_message_criteria "
+						+ "ON websocket_message (channel_id, opcode, is_outgoing, timestamp)");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_MESSAGE_COUNT")) {
+				// maintained on insert & purge, to avoid counting all messages
+				PreparedStatement stmt = conn.prepareStatement("CREATE CACHED TABLE websocket_message_count ("
+						+ "channel_id BIGINT NOT NULL,"
+						+ "opcode TINYINT NOT NULL,"
+						+ "is_outgoing BOOLEAN NOT NULL,"
+						+ "message_count BIGINT NOT NULL,"
+						+ "PRIMARY KEY (channel_id, opcode, is_outgoing)"
+						+ ")");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("INSERT INTO websocket_message_count "
+						+ "SELECT m.channel_id, m.opcode, m.is_outgoing, COUNT(m.message_id) "
+						+ "FROM websocket_message AS m "
+						+ "GROUP BY m.channel_id, m.opcode, m.is_outgoing");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_PAYLOAD_SEGMENT")) {
+				PreparedStatement stmt = conn.prepareStatement("CREATE CACHED TABLE websocket_payload_segment ("
+						+ "segment_id INTEGER PRIMARY KEY,"
+						+ "path VARCHAR(4096) NOT NULL"
+						+ ")");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasIndex(conn, "WEBSOCKET_MESSAGE", "WEBSOCKET_MESSAGE_SEGMENT")) {
+				// for deleting segments no longer used
+				PreparedStatement stmt = conn.prepareStatement("CREATE INDEX websocket_message_segment "
+						+ "ON websocket_message (payload_segment_id)");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasColumn(conn, "WEBSOCKET_MESSAGE", "PAYLOAD_INDEX_STATE")) {
+				// existing messages are indexed in the background
+				PreparedStatement stmt = conn.prepareStatement("ALTER TABLE websocket_message "
+						+ "ADD COLUMN payload_index_state TINYINT DEFAULT " + PAYLOAD_NOT_INDEXED + " NOT NULL");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("CREATE INDEX websocket_message_index_state "
+						+ "ON websocket_message (payload_index_state, channel_id, message_id)");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasTable(conn, "WEBSOCKET_PAYLOAD_TOKEN")) {
+				// inverted index of text payloads, see WebSocketPayloadTokenizer
+				PreparedStatement stmt = conn.prepareStatement("CREATE CACHED TABLE websocket_payload_token ("
+						+ "token INTEGER NOT NULL,"
+						+ "channel_id BIGINT NOT NULL,"
+						+ "message_id BIGINT NOT NULL,"
+						+ "PRIMARY KEY (token, channel_id, message_id)"
+						+ ")");
+				DbUtils.executeAndClose(stmt);
+				
+				stmt = conn.prepareStatement("CREATE INDEX websocket_payload_token_channel "
+						+ "ON websocket_payload_token (channel_id)");
+				DbUtils.executeAndClose(stmt);
+			}
+			
+			if (!DbUtils.hasIndex(conn, "WEBSOCKET_MESSAGE", "WEBSOCKET_MESSAGE_CHANNEL_ORDER")) {
+				// for iterating the search candidates
+				PreparedStatement stmt = conn.prepareStatement("CREATE INDEX websocket_message_channel_order "
+						+ "ON websocket_message (channel_id, message_id)");
+				DbUtils.executeAndClose(stmt);
+			}
+			hasUnindexedPayloads = true;
+			
 			channelCache = new LRUMap(20);
 			
+			closeCriteriaStatements();
+			criteriaStatements = createCriteriaStatementsCache();
+			
+			// segment identifiers are only unique per database
+			WebSocketPayloadSegments previousPayloadSegments = payloadSegments;
+			if (previousPayloadSegments != null) {
+				previousPayloadSegments.close();
+			}
+			payloadSegments = createPayloadSegments(conn);
+			payloadSegmentPaths.clear();
+			maxMessageIds.clear();
+			
 			// CHANNEL
 			psSelectMaxChannelId = conn.prepareStatement("SELECT MAX(c.channel_id) as channel_id "
 					+ "FROM websocket_channel AS c");
@@ -165,9 +454,15 @@ public class TableWebSocket extends ParosAbstractTable {
 					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
 					+ "WHERE m.message_id = ? AND m.channel_id = ?");
 			
+			psSelectPayloadLocation = conn.prepareStatement("SELECT m.opcode, m.payload_encoding, "
+					+ "m.payload_segment_id, m.payload_segment_offset, m.payload_stored_length "
+					+ "FROM websocket_message AS m "
+					+ "WHERE m.message_id = ? AND m.channel_id = ?");
+			
 			psInsertMessage = conn.prepareStatement("INSERT INTO "
-					+ "websocket_message (message_id, channel_id, timestamp, opcode, payload_utf8, payload_bytes, payload_length, is_outgoing) "
-					+ "VALUES (?,?,?,?,?,?,?,?)");
+					+ "websocket_message (message_id, channel_id, timestamp, opcode, payload_utf8, payload_bytes, payload_length, is_outgoing, "
+					+ "payload_encoding, payload_segment_id, payload_segment_offset, payload_stored_length, payload_index_state) "
+					+ "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?)");
 			
 			psInsertFuzz = conn.prepareStatement("INSERT INTO "
 					+ "websocket_message_fuzz (fuzz_id, message_id, channel_id, state, fuzz) "
@@ -176,6 +471,69 @@ public class TableWebSocket extends ParosAbstractTable {
 			psDeleteMessagesByChannelId = conn.prepareStatement("DELETE FROM websocket_message "
 					+ "WHERE channel_id = ?");
 			
+			// MESSAGE COUNT
+			psUpdateMessageCount = conn.prepareStatement("UPDATE websocket_message_count SET "
+					+ "message_count = message_count + ? "
+					+ "WHERE channel_id = ? AND opcode = ? AND is_outgoing = ?");
+			
+			psInsertMessageCount = conn.prepareStatement("INSERT INTO "
+					+ "websocket_message_count (message_count, channel_id, opcode, is_outgoing) "
+					+ "VALUES (?,?,?,?)");
+			
+			psDeleteMessageCountsByChannelId = conn.prepareStatement("DELETE FROM websocket_message_count "
+					+ "WHERE channel_id = ?");
+			
+			// PAYLOAD INDEX
+			psInsertPayloadToken = conn.prepareStatement("INSERT INTO "
+					+ "websocket_payload_token (token, channel_id, message_id) "
+					+ "VALUES (?,?,?)");
+			
+			psUpdatePayloadIndexState = conn.prepareStatement("UPDATE websocket_message SET "
+					+ "payload_index_state = ? "
+					+ "WHERE message_id = ? AND channel_id = ?");
+			
+			psSelectUnindexedMessages = conn.prepareStatement("SELECT m.*, f.fuzz_id, f.state, f.fuzz "
+					+ "FROM websocket_message AS m "
+					+ "LEFT OUTER JOIN websocket_message_fuzz f "
+					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+					+ "WHERE m.payload_index_state = " + PAYLOAD_NOT_INDEXED + " "
+					+ "ORDER BY m.payload_index_state, m.channel_id, m.message_id "
+					+ "LIMIT ?");
+			
+			psDeletePayloadTokensByChannelId = conn.prepareStatement("DELETE FROM websocket_payload_token "
+					+ "WHERE channel_id = ?");
+			
+			// PAYLOAD SEGMENT
+			psInsertPayloadSegment = conn.prepareStatement("INSERT INTO "
+					+ "websocket_payload_segment (segment_id, path) "
+					+ "VALUES (?,?)");
+			
+			psSelectPayloadSegment = conn.prepareStatement("SELECT s.path "
+					+ "FROM websocket_payload_segment AS s "
+					+ "WHERE s.segment_id = ?");
+			
+			psSelectMaxPayloadSegmentId = conn.prepareStatement("SELECT MAX(s.segment_id) "
+					+ "FROM websocket_payload_segment AS s");
+			
+			psSelectPayloadSegments = conn.prepareStatement("SELECT s.segment_id, s.path "
+					+ "FROM websocket_payload_segment AS s");
+			
+			psSelectPayloadSegmentIdsByChannelId = conn.prepareStatement("SELECT DISTINCT m.payload_segment_id "
+					+ "FROM websocket_message AS m "
+					+ "WHERE m.channel_id = ? AND m.payload_segment_id IS NOT NULL");
+			
+			psSelectPayloadSegmentUsage = conn.prepareStatement("SELECT m.message_id "
+					+ "FROM websocket_message AS m "
+					+ "WHERE m.payload_segment_id = ? "
+					+ "LIMIT 1");
+			
+			psDeletePayloadSegment = conn.prepareStatement("DELETE FROM websocket_payload_segment "
+					+ "WHERE segment_id = ?");
+			
+			if (previousPayloadSegments != null) {
+				copyPayloadSegments(previousPayloadSegments);
+			}
+			
 			if (channelIds == null) {
 				channelIds = new HashSet<>();
 				PreparedStatement psSelectChannelIds = conn.prepareStatement("SELECT c.channel_id "
@@ -226,22 +584,34 @@ public class TableWebSocket extends ParosAbstractTable {
 	 */
 	public synchronized int getMessageCount(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds) throws DatabaseException {
 		try {
-			String query = "SELECT COUNT(m.message_id) FROM websocket_message AS m "
-					+ "LEFT OUTER JOIN websocket_message_fuzz f "
-					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
-					+ "<where> ";
+			String query;
+			if (isFuzzCriteria(criteria)) {
+				query = "SELECT COUNT(m.message_id) FROM websocket_message AS m "
+						+ "LEFT OUTER JOIN websocket_message_fuzz f "
+						+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+						+ "<where> ";
+			} else {
+				// same criteria apply, as the columns have got the same names
+				query = "SELECT SUM(m.message_count) FROM websocket_message_count AS m "
+						+ "<where> ";
+			}
 			
 			PreparedStatement stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
-			try {
-				return executeAndGetSingleIntValue(stmt);
-			} finally {
-				stmt.close();
-			}
+			return executeAndGetSingleIntValue(stmt);
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
 		}
 	}
 
+	/**
+	 * @param criteria
+	 * @return True if messages have to be filtered by fuzzer, which is not
+	 *         possible with the counters of <em>websocket_message_count</em>.
+	 */
+	private static boolean isFuzzCriteria(WebSocketMessageDTO criteria) {
+		return criteria instanceof WebSocketFuzzMessageDTO && ((WebSocketFuzzMessageDTO) criteria).fuzzId != null;
+	}
+
 	private int executeAndGetSingleIntValue(PreparedStatement stmt) throws SQLException {
 		stmt.execute();
 		ResultSet rs = stmt.getResultSet();
@@ -268,11 +638,7 @@ public class TableWebSocket extends ParosAbstractTable {
 			int paramsCount = stmt.getParameterMetaData().getParameterCount();
 			stmt.setInt(paramsCount, criteria.id);
 
-			try {
-				return executeAndGetSingleIntValue(stmt);
-			} finally {
-				stmt.close();
-			}
+			return executeAndGetSingleIntValue(stmt);
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
 		}
@@ -294,6 +660,162 @@ public class TableWebSocket extends ParosAbstractTable {
 		}
 	}
 
+	/**
+	 * Retrieves the message with its whole payload, unless the payload is
+	 * larger than the given length. Then only the preview of the payload is
+	 * loaded, the whole payload is available through
+	 * {@link #openPayload(int, int)}.
+	 * 
+	 * @param messageId
+	 * @param channelId
+	 * @param maxPayloadLength number of payload characters or bytes
+	 * @return the message
+	 * @throws DatabaseException
+	 */
+	public synchronized WebSocketMessageDTO getMessage(int messageId, int channelId, int maxPayloadLength) throws DatabaseException {
+		try {
+			psSelectMessage.setInt(1, messageId);
+			psSelectMessage.setInt(2, channelId);
+			psSelectMessage.execute();
+			
+			try (ResultSet rs = psSelectMessage.getResultSet()) {
+				if (!rs.next()) {
+					throw new SQLException("Message not found!");
+				}
+				int payloadLength = rs.getInt("payload_length") > maxPayloadLength ? STORED_PREVIEW_LENGTH : -1;
+				return buildMessageDTO(rs, payloadLength);
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	/**
+	 * Provides the payload of the given message without loading it into
+	 * memory. Payloads spilled to a segment file without compression are read
+	 * from the segment file, other payloads are copied to a temporary file.
+	 * Only the location of the payload is looked up while holding the lock of
+	 * this table, the payload is copied afterwards.
+	 * <p>
+	 * The returned payload has to be closed by the caller.
+	 * 
+	 * @param messageId
+	 * @param channelId
+	 * @return the payload, text payloads are UTF-8 encoded
+	 * @throws DatabaseException if the message does not exist or the payload
+	 *             could not be read
+	 */
+	public WebSocketPayloadFile openPayload(int messageId, int channelId) throws DatabaseException {
+		try {
+			PayloadLocation location;
+			synchronized (this) {
+				location = getPayloadLocation(messageId, channelId);
+			}
+			
+			boolean text = location.text;
+			int encoding = location.encoding;
+			if ((encoding & PAYLOAD_SPILLED) != 0) {
+				if ((encoding & PAYLOAD_DEFLATED) == 0) {
+					return new WebSocketPayloadFile(location.segment, location.offset, location.storedLength, text, false);
+				}
+				
+				try (FileInputStream in = new FileInputStream(location.segment)) {
+					in.getChannel().position(location.offset);
+					// the inflater stops at the end of the compressed payload
+					return WebSocketPayloadFile.createTemporary(new InflaterInputStream(in), text);
+				}
+			}
+			
+			// own statement, the shared ones are guarded by the lock of this table
+			try (PreparedStatement stmt = getConnection().prepareStatement("SELECT m.payload_utf8, m.payload_bytes "
+					+ "FROM websocket_message AS m "
+					+ "WHERE m.message_id = ? AND m.channel_id = ?")) {
+				stmt.setInt(1, messageId);
+				stmt.setInt(2, channelId);
+				try (ResultSet rs = stmt.executeQuery()) {
+					if (!rs.next()) {
+						throw new SQLException("Message not found!");
+					}
+					return openStoredPayload(rs, text, encoding);
+				}
+			}
+		} catch (SQLException | IOException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	private PayloadLocation getPayloadLocation(int messageId, int channelId) throws SQLException {
+		psSelectPayloadLocation.setInt(1, messageId);
+		psSelectPayloadLocation.setInt(2, channelId);
+		psSelectPayloadLocation.execute();
+		
+		try (ResultSet rs = psSelectPayloadLocation.getResultSet()) {
+			if (!rs.next()) {
+				throw new SQLException("Message not found!");
+			}
+			PayloadLocation location = new PayloadLocation();
+			location.text = rs.getInt("opcode") != WebSocketMessage.OPCODE_BINARY;
+			location.encoding = rs.getInt("payload_encoding");
+			if ((location.encoding & PAYLOAD_SPILLED) != 0) {
+				location.segment = payloadSegments.getFile(getPayloadSegmentPath(rs.getInt("payload_segment_id")));
+				location.offset = rs.getLong("payload_segment_offset");
+				location.storedLength = rs.getInt("payload_stored_length");
+			}
+			return location;
+		}
+	}
+
+	private static WebSocketPayloadFile openStoredPayload(ResultSet rs, boolean text, int encoding)
+			throws SQLException, IOException {
+		if ((encoding & PAYLOAD_DEFLATED) != 0) {
+			Blob blob = rs.getBlob("payload_bytes");
+			try (InputStream in = new InflaterInputStream(blob.getBinaryStream())) {
+				return WebSocketPayloadFile.createTemporary(in, text);
+			} finally {
+				blob.free();
+			}
+		}
+		
+		if (!text) {
+			Blob blob = rs.getBlob("payload_bytes");
+			if (blob == null) {
+				return WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(new byte[0]), false);
+			}
+			try (InputStream in = blob.getBinaryStream()) {
+				return WebSocketPayloadFile.createTemporary(in, false);
+			} finally {
+				blob.free();
+			}
+		}
+		
+		Clob clob = rs.getClob("payload_utf8");
+		if (clob == null) {
+			return WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(new byte[0]), true);
+		}
+		try (Reader in = clob.getCharacterStream()) {
+			return WebSocketPayloadFile.createTemporary(in);
+		} finally {
+			clob.free();
+		}
+	}
+
+	/**
+	 * Where and how a payload is stored, see
+	 * {@link #openPayload(int, int)}.
+	 */
+	private static final class PayloadLocation {
+
+		private boolean text;
+		private int encoding;
+		
+		/**
+		 * Set if the payload is spilled, like the offset and stored length.
+		 */
+		private File segment;
+		private long offset;
+		private int storedLength;
+	}
+
 	/**
 	 * Retrieves list of {@link WebSocketMessageDTO}, but loads only parts of the payload.
 	 * 
@@ -308,14 +830,9 @@ public class TableWebSocket extends ParosAbstractTable {
 	 */
 	public synchronized List<WebSocketMessageDTO> getMessages(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, int offset, int limit, int payloadPreviewLength) throws DatabaseException {
 		try {
-			String query = "SELECT m.message_id, m.channel_id, m.timestamp, m.opcode, m.payload_length, m.is_outgoing, "
-					+ "m.payload_utf8, m.payload_bytes, "
-					+ "f.fuzz_id, f.state, f.fuzz "
-					+ "FROM websocket_message AS m "
-					+ "LEFT OUTER JOIN websocket_message_fuzz f "
-					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+			String query = SELECT_MESSAGE_PREVIEWS
 					+ "<where> "
-					+ "ORDER BY m.timestamp, m.channel_id, m.message_id "
+					+ ORDER_MESSAGES
 					+ "LIMIT ? "
 					+ "OFFSET ?";
 
@@ -330,96 +847,293 @@ public class TableWebSocket extends ParosAbstractTable {
 				throw e;
 			}
 			
-			try {
-				int paramsCount = stmt.getParameterMetaData().getParameterCount();
-				stmt.setInt(paramsCount - 1, limit);
-				stmt.setInt(paramsCount, offset);
-				
-				stmt.execute();
-				
-				return buildMessageDTOs(stmt.getResultSet(), true, payloadPreviewLength);
-			} finally {
-				stmt.close();
-			}
+			int paramsCount = stmt.getParameterMetaData().getParameterCount();
+			stmt.setInt(paramsCount - 1, limit);
+			stmt.setInt(paramsCount, offset);
+			
+			stmt.execute();
+			
+			return buildMessageDTOs(stmt.getResultSet(), true, payloadPreviewLength);
 		} catch (SQLException e) {
 			throw new DatabaseException(e);
 		}
 	}
-	
-	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes) throws SQLException, DatabaseException {
-		return buildMessageDTOs(rs, interpretLiteralBytes, -1);
-	}
+
 	/**
+	 * Retrieves list of {@link WebSocketMessageDTO} following the given
+	 * message in the order of
+	 * {@link #getMessages(WebSocketMessageDTO, List, List, int, int, int)}.
+	 * Unlike an offset, this does not require the database to skip all
+	 * preceding messages.
 	 * 
-	 * @param rs
-	 * @param interpretLiteralBytes
-	 * @param payloadLength 
-	 * @return
-	 * @throws HttpMalformedHeaderException
-	 * @throws SQLException
-	 * @throws DatabaseException 
-	 */
-	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes, int payloadLength) 
-			throws SQLException, DatabaseException {
-		ArrayList<WebSocketMessageDTO> messages = new ArrayList<>();
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds
+	 * @param previous last message of the previous page
+	 * @param limit
+	 * @param payloadPreviewLength
+	 * @return Messages that fulfill given template.
+	 * @throws DatabaseException
+	 */
+	public synchronized List<WebSocketMessageDTO> getMessagesAfter(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, WebSocketMessageDTO previous, int limit, int payloadPreviewLength) throws DatabaseException {
 		try {
-			while (rs.next()) {
-				WebSocketMessageDTO message;
+			String query = SELECT_MESSAGE_PREVIEWS
+					+ "<where> AND m.timestamp >= ? "
+					+ "AND (m.timestamp > ? OR m.channel_id > ? OR (m.channel_id = ? AND m.message_id > ?)) "
+					+ ORDER_MESSAGES
+					+ "LIMIT ?";
+
+			PreparedStatement stmt;
+			try {
+				stmt = buildMessageCriteriaStatement(query, criteria, opcodes, inScopeChannelIds);
+			} catch (SQLException e) {
+				if (getConnection().isClosed()) {
+					return new ArrayList<>(0);
+				}
 				
-				int channelId = rs.getInt("channel_id");
-				WebSocketChannelDTO channel = getChannel(channelId);
+				throw e;
+			}
+			
+			Timestamp timestamp = new Timestamp(previous.timestamp);
+			int paramsCount = stmt.getParameterMetaData().getParameterCount();
+			stmt.setTimestamp(paramsCount - 5, timestamp);
+			stmt.setTimestamp(paramsCount - 4, timestamp);
+			stmt.setInt(paramsCount - 3, previous.channel.id);
+			stmt.setInt(paramsCount - 2, previous.channel.id);
+			stmt.setInt(paramsCount - 1, previous.id);
+			stmt.setInt(paramsCount, limit);
+			
+			stmt.execute();
+			
+			return buildMessageDTOs(stmt.getResultSet(), true, payloadPreviewLength);
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	/**
+	 * Passes the messages following the given message, with their whole
+	 * payload, one at a time to the given visitor, in the order of
+	 * {@link #getMessages(WebSocketMessageDTO, List, List, int, int, int)}.
+	 * Unlike the other methods no list of messages is built, so only one
+	 * payload is held at a time. Used to export the messages page by page,
+	 * see {@link WebSocketArchiveExporter}.
+	 * 
+	 * @param criteria
+	 * @param previous last message of the previous page, {@code null} to
+	 *            start with the first message
+	 * @param limit
+	 * @param visitor
+	 * @return number of visited messages, less than {@code limit} if there
+	 *         are no more messages
+	 * @throws DatabaseException
+	 * @throws IOException if thrown by the visitor
+	 */
+	public synchronized int visitMessagesAfter(WebSocketMessageDTO criteria, WebSocketMessageDTO previous, int limit, MessageVisitor visitor) throws DatabaseException, IOException {
+		try {
+			String query = SELECT_MESSAGE_PREVIEWS;
+			if (previous == null) {
+				query += "<where> ";
+			} else {
+				query += "<where> AND m.timestamp >= ? "
+						+ "AND (m.timestamp > ? OR m.channel_id > ? OR (m.channel_id = ? AND m.message_id > ?)) ";
+			}
+			query += ORDER_MESSAGES + "LIMIT ?";
 
-				if (rs.getInt("fuzz_id") != 0) {
-					WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
-					fuzzMessage.fuzzId = rs.getInt("fuzz_id");
-					fuzzMessage.state = WebSocketFuzzMessageDTO.State.valueOf(rs.getString("state"));
-					fuzzMessage.fuzz = rs.getString("fuzz");
-					
-					message = fuzzMessage;
-				} else {
-					message = new WebSocketMessageDTO(channel);
+			PreparedStatement stmt;
+			try {
+				stmt = buildMessageCriteriaStatement(query, criteria, null, null);
+			} catch (SQLException e) {
+				if (getConnection().isClosed()) {
+					return 0;
 				}
 				
-				message.id = rs.getInt("message_id");
-				message.setTime(rs.getTimestamp("timestamp"));
-				message.opcode = rs.getInt("opcode");
-				message.readableOpcode = WebSocketMessage.opcode2string(message.opcode);
+				throw e;
+			}
+			
+			int paramsCount = stmt.getParameterMetaData().getParameterCount();
+			if (previous != null) {
+				Timestamp timestamp = new Timestamp(previous.timestamp);
+				stmt.setTimestamp(paramsCount - 5, timestamp);
+				stmt.setTimestamp(paramsCount - 4, timestamp);
+				stmt.setInt(paramsCount - 3, previous.channel.id);
+				stmt.setInt(paramsCount - 2, previous.channel.id);
+				stmt.setInt(paramsCount - 1, previous.id);
+			}
+			stmt.setInt(paramsCount, limit);
+			
+			stmt.execute();
+			
+			int count = 0;
+			try (ResultSet rs = stmt.getResultSet()) {
+				while (rs.next()) {
+					visitor.visit(buildMessageDTO(rs, -1));
+					count++;
+				}
+			}
+			return count;
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	/**
+	 * Receives the messages of
+	 * {@link TableWebSocket#visitMessagesAfter(WebSocketMessageDTO, WebSocketMessageDTO, int, MessageVisitor)}.
+	 */
+	public interface MessageVisitor {
+
+		void visit(WebSocketMessageDTO message) throws IOException;
+	}
+	
+	/**
+	 * Retrieves text messages with their whole payload, whose payload might
+	 * contain all of the given tokens, ordered by channel and message ID.
+	 * Messages whose payload is not indexed are always retrieved. Used by
+	 * {@link WebSocketPayloadSearch}, which verifies the candidates.
+	 * 
+	 * @param criteria
+	 * @param opcodes
+	 * @param inScopeChannelIds
+	 * @param tokens hashes of required tokens, see {@link WebSocketPayloadTokenizer},
+	 *            all text messages are retrieved if empty
+	 * @param previous last message of the previous call, might be {@code null}
+	 * @param limit
+	 * @return Candidates that fulfill given template.
+	 * @throws DatabaseException
+	 */
+	public synchronized List<WebSocketMessageDTO> getPayloadSearchCandidates(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, Collection<Integer> tokens, WebSocketMessageDTO previous, int limit) throws DatabaseException {
+		try {
+			StringBuilder query = new StringBuilder("SELECT m.*, f.fuzz_id, f.state, f.fuzz "
+					+ "FROM websocket_message AS m "
+					+ "LEFT OUTER JOIN websocket_message_fuzz f "
+					+ "ON m.message_id = f.message_id AND m.channel_id = f.channel_id "
+					+ "<where> AND m.opcode <> " + WebSocketMessage.OPCODE_BINARY + " ");
+			if (!tokens.isEmpty()) {
+				query.append("AND (m.payload_index_state <> ").append(PAYLOAD_INDEXED).append(" ")
+						.append("OR (m.channel_id, m.message_id) IN (")
+						.append("SELECT t.channel_id, t.message_id FROM websocket_payload_token AS t ")
+						.append("WHERE t.token IN (");
+				for (int i = 0; i < tokens.size(); i++) {
+					query.append((i == 0) ? "?" : ",?");
+				}
+				query.append(") GROUP BY t.channel_id, t.message_id HAVING COUNT(t.token) = ?)) ");
+			}
+			if (previous != null) {
+				query.append("AND m.channel_id >= ? AND (m.channel_id > ? OR m.message_id > ?) ");
+			}
+			query.append("ORDER BY m.channel_id, m.message_id LIMIT ?");
+
+			PreparedStatement stmt;
+			try {
+				stmt = buildMessageCriteriaStatement(query.toString(), criteria, opcodes, inScopeChannelIds);
+			} catch (SQLException e) {
+				if (getConnection().isClosed()) {
+					return new ArrayList<>(0);
+				}
 				
-				// read payload
-				if (message.opcode == WebSocketMessage.OPCODE_BINARY) {
-					if (payloadLength == -1) {
-						// load all bytes
-						message.payload = rs.getBytes("payload_bytes");
-					} else {
-						Blob blob = rs.getBlob("payload_bytes");
-						int length = Math.min(payloadLength, (int) blob.length());
-						message.payload = blob.getBytes(1, length);
-						blob.free();
-					}
-					
-					if (message.payload == null) {
-						message.payload = new byte[0];
-					}
-				} else {
-					if (payloadLength == -1) {
-						// load all characters
-						message.payload = rs.getString("payload_utf8");
-					} else {
-						Clob clob = rs.getClob("payload_utf8");
-						int length = Math.min(payloadLength, (int) clob.length());
-						message.payload = clob.getSubString(1, length);
-						clob.free();
-					}
+				throw e;
+			}
+			
+			int paramsCount = stmt.getParameterMetaData().getParameterCount();
+			int index = paramsCount;
+			if (!tokens.isEmpty()) {
+				index -= tokens.size() + 1;
+			}
+			if (previous != null) {
+				index -= 3;
+			}
+			
+			for (Integer token : tokens) {
+				stmt.setInt(index++, token);
+			}
+			if (!tokens.isEmpty()) {
+				stmt.setInt(index++, tokens.size());
+			}
+			if (previous != null) {
+				stmt.setInt(index++, previous.channel.id);
+				stmt.setInt(index++, previous.channel.id);
+				stmt.setInt(index++, previous.id);
+			}
+			stmt.setInt(index, limit);
+			
+			stmt.execute();
+			
+			return buildMessageDTOs(stmt.getResultSet(), false);
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	/**
+	 * Adds the payloads of messages stored before the payload index existed
+	 * to the index. Called by the {@link WebSocketMessageWriter} while idle.
+	 * 
+	 * @param limit maximum number of messages to index
+	 * @return number of indexed messages, 0 if there are no more
+	 * @throws DatabaseException
+	 */
+	public synchronized int indexPayloads(int limit) throws DatabaseException {
+		if (!hasUnindexedPayloads) {
+			return 0;
+		}
+		try {
+			if (getConnection().isClosed()) {
+				return 0;
+			}
+			
+			psSelectUnindexedMessages.setInt(1, limit);
+			psSelectUnindexedMessages.execute();
+			List<WebSocketMessageDTO> messages = buildMessageDTOs(psSelectUnindexedMessages.getResultSet(), false);
+			if (messages.size() < limit) {
+				hasUnindexedPayloads = false;
+			}
+			if (messages.isEmpty()) {
+				return 0;
+			}
+			
+			Map<WebSocketMessageDTO, Set<Integer>> tokens = new IdentityHashMap<>();
+			try {
+				for (WebSocketMessageDTO message : messages) {
+					Set<Integer> messageTokens = getPayloadTokens(message);
+					tokens.put(message, messageTokens);
 					
-					if (message.payload == null) {
-						message.payload = "";
-					}
+					psUpdatePayloadIndexState.setInt(1, (messageTokens == null) ? PAYLOAD_NOT_INDEXABLE : PAYLOAD_INDEXED);
+					psUpdatePayloadIndexState.setInt(2, message.id);
+					psUpdatePayloadIndexState.setInt(3, message.channel.id);
+					psUpdatePayloadIndexState.addBatch();
 				}
-				
-				message.isOutgoing = rs.getBoolean("is_outgoing");
-				message.payloadLength = rs.getInt("payload_length");
-				
-				messages.add(message);
+				psUpdatePayloadIndexState.executeBatch();
+			} finally {
+				psUpdatePayloadIndexState.clearBatch();
+			}
+			insertPayloadTokens(tokens);
+			
+			return messages.size();
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+	
+	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes) throws SQLException, DatabaseException {
+		return buildMessageDTOs(rs, interpretLiteralBytes, -1);
+	}
+	/**
+	 * 
+	 * @param rs
+	 * @param interpretLiteralBytes
+	 * @param payloadLength 
+	 * @return
+	 * @throws HttpMalformedHeaderException
+	 * @throws SQLException
+	 * @throws DatabaseException 
+	 */
+	private List<WebSocketMessageDTO> buildMessageDTOs(ResultSet rs, boolean interpretLiteralBytes, int payloadLength) 
+			throws SQLException, DatabaseException {
+		ArrayList<WebSocketMessageDTO> messages = new ArrayList<>();
+		try {
+			while (rs.next()) {
+				messages.add(buildMessageDTO(rs, payloadLength));
 			}
 		} finally {
 			rs.close();
@@ -430,6 +1144,93 @@ public class TableWebSocket extends ParosAbstractTable {
 		return messages;
 	}
 
+	/**
+	 * Builds the message of the current row.
+	 * 
+	 * @param rs
+	 * @param payloadLength number of payload characters or bytes to load, -1
+	 *            for the whole payload
+	 * @return the message
+	 * @throws SQLException
+	 * @throws DatabaseException
+	 */
+	private WebSocketMessageDTO buildMessageDTO(ResultSet rs, int payloadLength) throws SQLException, DatabaseException {
+		WebSocketMessageDTO message;
+		
+		int channelId = rs.getInt("channel_id");
+		WebSocketChannelDTO channel = getChannel(channelId);
+
+		if (rs.getInt("fuzz_id") != 0) {
+			WebSocketFuzzMessageDTO fuzzMessage = new WebSocketFuzzMessageDTO(channel);
+			fuzzMessage.fuzzId = rs.getInt("fuzz_id");
+			fuzzMessage.state = WebSocketFuzzMessageDTO.State.valueOf(rs.getString("state"));
+			fuzzMessage.fuzz = rs.getString("fuzz");
+			
+			message = fuzzMessage;
+		} else {
+			message = new WebSocketMessageDTO(channel);
+		}
+		
+		message.id = rs.getInt("message_id");
+		message.setTime(rs.getTimestamp("timestamp"));
+		message.opcode = rs.getInt("opcode");
+		message.readableOpcode = WebSocketMessage.opcode2string(message.opcode);
+		
+		message.payloadLength = rs.getInt("payload_length");
+		
+		// read payload
+		int encoding = rs.getInt("payload_encoding");
+		if (payloadLength == -1 && encoding != PAYLOAD_INLINE) {
+			// load whole payload, previews are stored in the database as is
+			byte[] bytes = readEncodedPayload(rs, encoding, message.payloadLength);
+			if (message.opcode == WebSocketMessage.OPCODE_BINARY) {
+				message.payload = bytes;
+			} else {
+				message.payload = new String(bytes, StandardCharsets.UTF_8);
+			}
+		} else if (message.opcode == WebSocketMessage.OPCODE_BINARY) {
+			if (payloadLength == -1) {
+				// load all bytes
+				message.payload = rs.getBytes("payload_bytes");
+			} else if (encoding == PAYLOAD_DEFLATED) {
+				Blob blob = rs.getBlob("payload_bytes");
+				try {
+					message.payload = WebSocketPayloadSegments.inflatePrefix(blob.getBinaryStream(), payloadLength);
+				} catch (IOException e) {
+					throw new SQLException("Unable to decompress payload of message " + message.id, e);
+				}
+				blob.free();
+			} else {
+				Blob blob = rs.getBlob("payload_bytes");
+				int length = Math.min(payloadLength, (int) blob.length());
+				message.payload = blob.getBytes(1, length);
+				blob.free();
+			}
+			
+			if (message.payload == null) {
+				message.payload = new byte[0];
+			}
+		} else {
+			if (payloadLength == -1) {
+				// load all characters
+				message.payload = rs.getString("payload_utf8");
+			} else {
+				Clob clob = rs.getClob("payload_utf8");
+				int length = Math.min(payloadLength, (int) clob.length());
+				message.payload = clob.getSubString(1, length);
+				clob.free();
+			}
+			
+			if (message.payload == null) {
+				message.payload = "";
+			}
+		}
+		
+		message.isOutgoing = rs.getBoolean("is_outgoing");
+		
+		return message;
+	}
+
 	private WebSocketChannelDTO getChannel(int channelId) throws SQLException, DatabaseException {
 		if (!channelCache.containsKey(channelId)) {
 			WebSocketChannelDTO criteria = new WebSocketChannelDTO();
@@ -460,15 +1261,15 @@ public class TableWebSocket extends ParosAbstractTable {
 		}
 		
 		if (opcodes != null && !opcodes.isEmpty()) {
-			StringBuilder opcodeExpr = new StringBuilder("(");
+			StringBuilder opcodeExpr = new StringBuilder("m.opcode IN (");
 			int opcodesCount = opcodes.size();
 			
 			for (int i = 0; i < opcodesCount; i++) {
 				params.add(opcodes.get(i));
 				
-				opcodeExpr.append("m.opcode = ?");
+				opcodeExpr.append("?");
 				if ((i + 1) < opcodesCount) {
-					opcodeExpr.append(" OR ");
+					opcodeExpr.append(",");
 				}
 			}
 			
@@ -505,10 +1306,54 @@ public class TableWebSocket extends ParosAbstractTable {
 			}
 		}
 		
-		where.trimToSize();
-		params.trimToSize();
+		query = buildCriteriaQuery(query, where);
 		
-		return buildCriteriaStatementHelper(query, where, params);
+		PreparedStatement stmt = criteriaStatements.get(query);
+		if (stmt == null) {
+			stmt = getConnection().prepareStatement(query);
+			criteriaStatements.put(query, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		setCriteriaParameters(stmt, params);
+		
+		return stmt;
+	}
+
+	private Map<String, PreparedStatement> createCriteriaStatementsCache() {
+		return new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= MAX_CACHED_CRITERIA_STATEMENTS) {
+					return false;
+				}
+				closeStatement(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	private void closeCriteriaStatements() {
+		if (criteriaStatements == null) {
+			return;
+		}
+		for (PreparedStatement stmt : criteriaStatements.values()) {
+			closeStatement(stmt);
+		}
+		criteriaStatements.clear();
+	}
+
+	private static void closeStatement(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug(e.getMessage(), e);
+			}
+		}
 	}
 
 	public WebSocketMessagePrimaryKey getMessagePrimaryKey(WebSocketMessageDTO message) {
@@ -537,7 +1382,7 @@ public class TableWebSocket extends ParosAbstractTable {
 				channel.url = rs.getString("url");
 				channel.startTimestamp = rs.getTimestamp("start_timestamp").getTime();
 				
-				Time endTs = rs.getTime("end_timestamp");
+				Timestamp endTs = rs.getTimestamp("end_timestamp");
 				channel.endTimestamp = (endTs != null) ? endTs.getTime() : null;
 				
 				channel.historyId = rs.getInt("history_id");
@@ -640,34 +1485,14 @@ public class TableWebSocket extends ParosAbstractTable {
 						logger.debug("insert message: " + message.toString());
 					}
 
-					psInsertMessage.setInt(1, message.id);
-					psInsertMessage.setInt(2, message.channel.id);
-					psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
-					psInsertMessage.setInt(4, message.opcode);
-
-					// write payload
-					if (message.payload instanceof String) {
-						psInsertMessage.setClob(5, new JDBCClob((String) message.payload));
-						psInsertMessage.setNull(6, Types.BLOB);
-					} else if (message.payload instanceof byte[]) {
-						psInsertMessage.setNull(5, Types.CLOB);
-						psInsertMessage.setBlob(6, new JDBCBlob((byte[]) message.payload));
-					} else {
-						throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO has got wrong type!");
-					}
-					
-					psInsertMessage.setInt(7, message.payloadLength);
-					psInsertMessage.setBoolean(8, message.isOutgoing);
+					Set<Integer> tokens = getPayloadTokens(message);
+					setInsertMessageParameters(message, tokens);
 					psInsertMessage.execute();
+					incrementMessageCounts(Collections.singletonList(message));
+					insertPayloadTokens(Collections.singletonMap(message, tokens));
 					
 					if (message instanceof WebSocketFuzzMessageDTO) {
-						WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
-						psInsertFuzz.setInt(1, fuzzMessage.fuzzId);
-						psInsertFuzz.setInt(2, fuzzMessage.id);
-						psInsertFuzz.setInt(3, fuzzMessage.channel.id);
-						psInsertFuzz.setString(4, fuzzMessage.state.toString());
-						psInsertFuzz.setString(5, fuzzMessage.fuzz);
-						psInsertFuzz.execute();
+						insertFuzz((WebSocketFuzzMessageDTO) message);
 					}
 					
 					message = messagesBuffer.poll();
@@ -678,6 +1503,581 @@ public class TableWebSocket extends ParosAbstractTable {
 		}
 	}
 
+	/**
+	 * Inserts the given messages using one batch. Used by the
+	 * {@link WebSocketMessageWriter}, see {@link #queueMessage(WebSocketMessageDTO)}.
+	 * 
+	 * @param messages
+	 * @throws DatabaseException
+	 */
+	public void insertMessages(List<WebSocketMessageDTO> messages) throws DatabaseException {
+		try {
+			synchronized (this) {
+				if (getConnection().isClosed()) {
+					// temporarily buffer messages and write them the next time
+					messagesBuffer.addAll(messages);
+					return;
+				}
+				
+				List<WebSocketMessageDTO> batch = new ArrayList<>(messagesBuffer.size() + messages.size());
+				batch.addAll(messagesBuffer);
+				messagesBuffer.clear();
+				batch.addAll(messages);
+				
+				insertMessagesBatch(batch);
+			}
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
+	}
+
+	private void insertMessagesBatch(List<WebSocketMessageDTO> batch) throws SQLException, DatabaseException {
+		List<WebSocketMessageDTO> batched = new ArrayList<>(batch.size());
+		List<WebSocketFuzzMessageDTO> fuzzMessages = new ArrayList<>(0);
+		Map<WebSocketMessageDTO, Set<Integer>> tokens = new IdentityHashMap<>();
+		try {
+			for (WebSocketMessageDTO message : batch) {
+				if (!channelIds.contains(message.channel.id) && channelsBuffer.size() > 0) {
+					// maybe channel is buffered
+					insertOrUpdateChannel(channelsBuffer.poll());
+				}
+				if (!channelIds.contains(message.channel.id)) {
+					logger.warn("Message not stored, channel not inserted: " + message.channel.id);
+					continue;
+				}
+				
+				Set<Integer> messageTokens = getPayloadTokens(message);
+				setInsertMessageParameters(message, messageTokens);
+				psInsertMessage.addBatch();
+				batched.add(message);
+				tokens.put(message, messageTokens);
+				
+				if (message instanceof WebSocketFuzzMessageDTO) {
+					fuzzMessages.add((WebSocketFuzzMessageDTO) message);
+				}
+			}
+			
+			psInsertMessage.executeBatch();
+		} catch (BatchUpdateException e) {
+			// skip the failed message and continue with the next ones
+			int failedIndex = e.getUpdateCounts().length;
+			if (failedIndex >= batched.size()) {
+				throw e;
+			}
+			logger.error("Failed to insert message " + batched.get(failedIndex) + ": " + e.getMessage(), e);
+			
+			incrementMessageCounts(batched.subList(0, failedIndex));
+			fuzzMessages.retainAll(batched.subList(0, failedIndex));
+			insertFuzzMessages(fuzzMessages);
+			tokens.keySet().retainAll(batched.subList(0, failedIndex));
+			insertPayloadTokens(tokens);
+			
+			insertMessagesBatch(new ArrayList<>(batched.subList(failedIndex + 1, batched.size())));
+			return;
+		} finally {
+			psInsertMessage.clearBatch();
+		}
+		
+		incrementMessageCounts(batched);
+		insertFuzzMessages(fuzzMessages);
+		insertPayloadTokens(tokens);
+	}
+
+	/**
+	 * Adds the given (inserted) messages to the counters of table
+	 * <em>websocket_message_count</em>.
+	 * 
+	 * @param messages
+	 * @throws SQLException
+	 */
+	private void incrementMessageCounts(List<WebSocketMessageDTO> messages) throws SQLException {
+		Map<MessageCountKey, Integer> counts = new HashMap<>();
+		for (WebSocketMessageDTO message : messages) {
+			MessageCountKey key = new MessageCountKey(message.channel.id, message.opcode, message.isOutgoing);
+			Integer count = counts.get(key);
+			counts.put(key, (count == null) ? 1 : count + 1);
+			
+			Integer maxMessageId = maxMessageIds.get(message.channel.id);
+			if (maxMessageId == null || maxMessageId < message.id) {
+				maxMessageIds.put(message.channel.id, message.id);
+			}
+		}
+		
+		for (Map.Entry<MessageCountKey, Integer> entry : counts.entrySet()) {
+			setMessageCountParameters(psUpdateMessageCount, entry.getKey(), entry.getValue());
+			if (psUpdateMessageCount.executeUpdate() == 0) {
+				setMessageCountParameters(psInsertMessageCount, entry.getKey(), entry.getValue());
+				psInsertMessageCount.execute();
+			}
+		}
+	}
+
+	private static void setMessageCountParameters(PreparedStatement stmt, MessageCountKey key, int count) throws SQLException {
+		stmt.setInt(1, count);
+		stmt.setInt(2, key.channelId);
+		stmt.setInt(3, key.opcode);
+		stmt.setBoolean(4, key.isOutgoing);
+	}
+
+	/**
+	 * Primary key of table <em>websocket_message_count</em>.
+	 */
+	private static final class MessageCountKey {
+
+		private final int channelId;
+		private final int opcode;
+		private final boolean isOutgoing;
+
+		public MessageCountKey(int channelId, int opcode, boolean isOutgoing) {
+			this.channelId = channelId;
+			this.opcode = opcode;
+			this.isOutgoing = isOutgoing;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * channelId + opcode) + (isOutgoing ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof MessageCountKey)) {
+				return false;
+			}
+			MessageCountKey other = (MessageCountKey) obj;
+			return channelId == other.channelId && opcode == other.opcode && isOutgoing == other.isOutgoing;
+		}
+	}
+
+	private void insertFuzzMessages(List<WebSocketFuzzMessageDTO> fuzzMessages) throws SQLException {
+		if (fuzzMessages.isEmpty()) {
+			return;
+		}
+		try {
+			for (WebSocketFuzzMessageDTO fuzzMessage : fuzzMessages) {
+				setInsertFuzzParameters(fuzzMessage);
+				psInsertFuzz.addBatch();
+			}
+			psInsertFuzz.executeBatch();
+		} finally {
+			psInsertFuzz.clearBatch();
+		}
+	}
+
+	/**
+	 * @param message
+	 * @return hashes of the tokens of a text payload, an empty set for binary
+	 *         payloads, {@code null} if the payload can not be indexed
+	 */
+	private static Set<Integer> getPayloadTokens(WebSocketMessageDTO message) {
+		if (!(message.payload instanceof String)) {
+			return Collections.emptySet();
+		}
+		String text = (String) message.payload;
+		if (text.length() > MAX_INDEXED_PAYLOAD_LENGTH) {
+			return null;
+		}
+		return WebSocketPayloadTokenizer.tokenize(text, MAX_PAYLOAD_TOKENS);
+	}
+
+	/**
+	 * Adds the tokens of the given (inserted) messages to the table
+	 * <em>websocket_payload_token</em>.
+	 * 
+	 * @param tokens hashes by message, see {@link #getPayloadTokens(WebSocketMessageDTO)}
+	 * @throws SQLException
+	 */
+	private void insertPayloadTokens(Map<WebSocketMessageDTO, Set<Integer>> tokens) throws SQLException {
+		boolean hasBatch = false;
+		try {
+			for (Map.Entry<WebSocketMessageDTO, Set<Integer>> entry : tokens.entrySet()) {
+				if (entry.getValue() == null) {
+					continue;
+				}
+				WebSocketMessageDTO message = entry.getKey();
+				for (Integer token : entry.getValue()) {
+					psInsertPayloadToken.setInt(1, token);
+					psInsertPayloadToken.setInt(2, message.channel.id);
+					psInsertPayloadToken.setInt(3, message.id);
+					psInsertPayloadToken.addBatch();
+					hasBatch = true;
+				}
+			}
+			if (hasBatch) {
+				psInsertPayloadToken.executeBatch();
+			}
+		} finally {
+			psInsertPayloadToken.clearBatch();
+		}
+	}
+
+	private void setInsertMessageParameters(WebSocketMessageDTO message, Set<Integer> tokens) throws SQLException {
+		psInsertMessage.setInt(1, message.id);
+		psInsertMessage.setInt(2, message.channel.id);
+		psInsertMessage.setTimestamp(3, new Timestamp(message.timestamp));
+		psInsertMessage.setInt(4, message.opcode);
+		psInsertMessage.setInt(13, (tokens == null) ? PAYLOAD_NOT_INDEXABLE : PAYLOAD_INDEXED);
+
+		// write payload
+		if (!(message.payload instanceof String) && !(message.payload instanceof byte[])) {
+			throw new SQLException("Attribute 'payload' of class WebSocketMessageDTO has got wrong type!");
+		}
+		
+		psInsertMessage.setInt(7, message.payloadLength);
+		psInsertMessage.setBoolean(8, message.isOutgoing);
+		
+		byte[] bytes = getPayloadBytesToEncode(message.payload);
+		if (bytes == null) {
+			setInlinePayloadParameters(message.payload);
+			return;
+		}
+		
+		int encoding = PAYLOAD_INLINE;
+		byte[] storedBytes = bytes;
+		if (payloadCompressionThreshold > 0 && bytes.length >= payloadCompressionThreshold) {
+			byte[] compressed = WebSocketPayloadSegments.deflate(bytes);
+			if (compressed.length < bytes.length) {
+				encoding |= PAYLOAD_DEFLATED;
+				storedBytes = compressed;
+			}
+		}
+		if (payloadSpillThreshold > 0 && bytes.length >= payloadSpillThreshold) {
+			try {
+				long offset = appendToPayloadSegment(storedBytes);
+				encoding |= PAYLOAD_SPILLED;
+				psInsertMessage.setInt(10, payloadSegments.getCurrentSegmentId());
+				psInsertMessage.setLong(11, offset);
+				psInsertMessage.setInt(12, storedBytes.length);
+			} catch (IOException e) {
+				logger.warn("Unable to store payload in segment file, storing it in database: " + e.getMessage(), e);
+			}
+		}
+		
+		if (encoding == PAYLOAD_INLINE) {
+			setInlinePayloadParameters(message.payload);
+			return;
+		}
+		
+		psInsertMessage.setInt(9, encoding);
+		if ((encoding & PAYLOAD_SPILLED) == 0) {
+			psInsertMessage.setNull(10, Types.INTEGER);
+			psInsertMessage.setNull(11, Types.BIGINT);
+			psInsertMessage.setNull(12, Types.INTEGER);
+		}
+		
+		if (message.payload instanceof String) {
+			psInsertMessage.setClob(5, new JDBCClob(getPreview((String) message.payload)));
+		} else {
+			psInsertMessage.setNull(5, Types.CLOB);
+		}
+		
+		if ((encoding & PAYLOAD_SPILLED) == 0) {
+			psInsertMessage.setBlob(6, new JDBCBlob(storedBytes));
+		} else if (message.payload instanceof byte[]) {
+			psInsertMessage.setBlob(6, new JDBCBlob(Arrays.copyOf(bytes, Math.min(bytes.length, STORED_PREVIEW_LENGTH))));
+		} else {
+			psInsertMessage.setNull(6, Types.BLOB);
+		}
+	}
+
+	private void setInlinePayloadParameters(Object payload) throws SQLException {
+		if (payload instanceof String) {
+			psInsertMessage.setClob(5, new JDBCClob((String) payload));
+			psInsertMessage.setNull(6, Types.BLOB);
+		} else {
+			psInsertMessage.setNull(5, Types.CLOB);
+			psInsertMessage.setBlob(6, new JDBCBlob((byte[]) payload));
+		}
+		psInsertMessage.setInt(9, PAYLOAD_INLINE);
+		psInsertMessage.setNull(10, Types.INTEGER);
+		psInsertMessage.setNull(11, Types.BIGINT);
+		psInsertMessage.setNull(12, Types.INTEGER);
+	}
+
+	/**
+	 * @param payload
+	 * @return bytes of given payload or {@code null} if it is too small to be
+	 *         compressed or spilled
+	 */
+	private byte[] getPayloadBytesToEncode(Object payload) {
+		int threshold = Integer.MAX_VALUE;
+		if (payloadCompressionThreshold > 0) {
+			threshold = payloadCompressionThreshold;
+		}
+		if (payloadSpillThreshold > 0) {
+			threshold = Math.min(threshold, payloadSpillThreshold);
+		}
+		if (threshold == Integer.MAX_VALUE) {
+			return null;
+		}
+		
+		byte[] bytes;
+		if (payload instanceof String) {
+			String text = (String) payload;
+			if (text.length() * 3L < threshold) {
+				// one char has got at most 3 bytes in UTF-8
+				return null;
+			}
+			bytes = text.getBytes(StandardCharsets.UTF_8);
+		} else {
+			bytes = (byte[]) payload;
+		}
+		return (bytes.length < threshold) ? null : bytes;
+	}
+
+	private static String getPreview(String text) {
+		if (text.length() <= STORED_PREVIEW_LENGTH) {
+			return text;
+		}
+		int end = STORED_PREVIEW_LENGTH;
+		if (Character.isHighSurrogate(text.charAt(end - 1))) {
+			end--;
+		}
+		return text.substring(0, end);
+	}
+
+	private byte[] readEncodedPayload(ResultSet rs, int encoding, int payloadLength) throws SQLException {
+		byte[] bytes;
+		if ((encoding & PAYLOAD_SPILLED) != 0) {
+			bytes = readFromPayloadSegment(
+					rs.getInt("payload_segment_id"),
+					rs.getLong("payload_segment_offset"),
+					rs.getInt("payload_stored_length"));
+		} else {
+			bytes = rs.getBytes("payload_bytes");
+		}
+		
+		if ((encoding & PAYLOAD_DEFLATED) != 0) {
+			try {
+				bytes = WebSocketPayloadSegments.inflate(bytes, payloadLength);
+			} catch (IOException e) {
+				throw new SQLException("Unable to decompress payload", e);
+			}
+		}
+		return bytes;
+	}
+
+	private long appendToPayloadSegment(byte[] data) throws IOException, SQLException {
+		if (payloadSegments.isNewSegmentRequired()) {
+			int segmentId = executeAndGetSingleIntValue(psSelectMaxPayloadSegmentId) + 1;
+			String path = payloadSegments.startSegment(segmentId);
+			
+			psInsertPayloadSegment.setInt(1, segmentId);
+			psInsertPayloadSegment.setString(2, path);
+			psInsertPayloadSegment.execute();
+			payloadSegmentPaths.put(segmentId, path);
+		}
+		return payloadSegments.append(data);
+	}
+
+	private byte[] readFromPayloadSegment(int segmentId, long offset, int length) throws SQLException {
+		String path = getPayloadSegmentPath(segmentId);
+		try {
+			return payloadSegments.read(path, offset, length);
+		} catch (IOException e) {
+			throw new SQLException("Unable to read payload from segment file " + path, e);
+		}
+	}
+
+	/**
+	 * Segment files are located next to the session database and named after
+	 * it, so that the files of temporary sessions are deleted together with
+	 * the database. Databases not stored in files use a directory in ZAP's
+	 * home.
+	 */
+	private static WebSocketPayloadSegments createPayloadSegments(Connection conn) throws SQLException {
+		String url = conn.getMetaData().getURL();
+		if (url != null && url.startsWith(HSQLDB_FILE_URL_PREFIX)) {
+			String path = url.substring(HSQLDB_FILE_URL_PREFIX.length());
+			int propertiesStart = path.indexOf(';');
+			if (propertiesStart != -1) {
+				path = path.substring(0, propertiesStart);
+			}
+			File database = new File(path).getAbsoluteFile();
+			return new WebSocketPayloadSegments(database.getParentFile(), database.getName());
+		}
+		return new WebSocketPayloadSegments(
+				new File(Constant.getZapHome(), "websocket" + File.separator + "payloads"),
+				"payloads");
+	}
+
+	/**
+	 * Copies the segment files referenced by the current database that are
+	 * only available next to the previous database, i.e. after the session
+	 * was saved to another file.
+	 */
+	private void copyPayloadSegments(WebSocketPayloadSegments previousPayloadSegments) throws SQLException {
+		psSelectPayloadSegments.execute();
+		try (ResultSet rs = psSelectPayloadSegments.getResultSet()) {
+			while (rs.next()) {
+				String path = rs.getString("path");
+				try {
+					payloadSegments.copyFrom(previousPayloadSegments, path);
+				} catch (IOException e) {
+					logger.warn("Unable to copy payload segment file " + path + ": " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the given segments, including their files, if no message uses
+	 * them anymore. Segments still used by other channels are kept as they
+	 * are.
+	 */
+	private void deleteUnusedPayloadSegments(List<Integer> segmentIds) throws SQLException {
+		for (Integer segmentId : segmentIds) {
+			psSelectPayloadSegmentUsage.setInt(1, segmentId);
+			psSelectPayloadSegmentUsage.execute();
+			try (ResultSet rs = psSelectPayloadSegmentUsage.getResultSet()) {
+				if (rs.next()) {
+					continue;
+				}
+			}
+			
+			String path = getPayloadSegmentPath(segmentId);
+			psDeletePayloadSegment.setInt(1, segmentId);
+			psDeletePayloadSegment.execute();
+			payloadSegmentPaths.remove(segmentId);
+			
+			if (!payloadSegments.delete(path)) {
+				logger.warn("Unable to delete payload segment file: " + payloadSegments.getFile(path));
+			}
+		}
+	}
+
+	/**
+	 * Deletes all segment files of the current database, e.g. before a
+	 * temporary session is discarded. Spilled payloads are not available
+	 * afterwards.
+	 */
+	public synchronized void deletePayloadSegments() {
+		payloadSegments.close();
+		try {
+			psSelectPayloadSegments.execute();
+			try (ResultSet rs = psSelectPayloadSegments.getResultSet()) {
+				while (rs.next()) {
+					String path = rs.getString("path");
+					if (!payloadSegments.delete(path)) {
+						logger.warn("Unable to delete payload segment file: " + payloadSegments.getFile(path));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			logger.warn(e.getMessage(), e);
+		}
+	}
+
+	private String getPayloadSegmentPath(int segmentId) throws SQLException {
+		String path = payloadSegmentPaths.get(segmentId);
+		if (path == null) {
+			psSelectPayloadSegment.setInt(1, segmentId);
+			psSelectPayloadSegment.execute();
+			try (ResultSet rs = psSelectPayloadSegment.getResultSet()) {
+				if (!rs.next()) {
+					throw new SQLException("Payload segment '" + segmentId + "' not found!");
+				}
+				path = rs.getString(1);
+			}
+			payloadSegmentPaths.put(segmentId, path);
+		}
+		return path;
+	}
+
+	/**
+	 * Sets the minimum number of bytes a payload must have to be compressed
+	 * when stored.
+	 * 
+	 * @param threshold number of bytes, 0 to disable compression
+	 */
+	public synchronized void setPayloadCompressionThreshold(int threshold) {
+		this.payloadCompressionThreshold = Math.max(0, threshold);
+	}
+
+	/**
+	 * Sets the minimum number of bytes a payload must have to be stored in a
+	 * segment file instead of the database. Such payloads are only loaded when
+	 * the whole message is retrieved with {@link #getMessage(int, int)}.
+	 * 
+	 * @param threshold number of bytes, 0 to store all payloads in the database
+	 */
+	public synchronized void setPayloadSpillThreshold(int threshold) {
+		this.payloadSpillThreshold = Math.max(0, threshold);
+	}
+
+	private void insertFuzz(WebSocketFuzzMessageDTO fuzzMessage) throws SQLException {
+		setInsertFuzzParameters(fuzzMessage);
+		psInsertFuzz.execute();
+	}
+
+	private void setInsertFuzzParameters(WebSocketFuzzMessageDTO fuzzMessage) throws SQLException {
+		psInsertFuzz.setInt(1, fuzzMessage.fuzzId);
+		psInsertFuzz.setInt(2, fuzzMessage.id);
+		psInsertFuzz.setInt(3, fuzzMessage.channel.id);
+		psInsertFuzz.setString(4, fuzzMessage.state.toString());
+		psInsertFuzz.setString(5, fuzzMessage.fuzz);
+	}
+
+	/**
+	 * Queues the given message, which is inserted later on by a background
+	 * thread together with other messages. Queries do not include queued
+	 * messages, see {@link #waitForQueuedMessages()}.
+	 * 
+	 * @param message
+	 * @see #insertMessage(WebSocketMessageDTO)
+	 */
+	public void queueMessage(WebSocketMessageDTO message) {
+		messageWriter.queue(message);
+	}
+
+	/**
+	 * Waits until the messages queued so far are inserted, such that the
+	 * following queries include them. Used by background tasks that have to
+	 * see all messages, must not be called on the event dispatch thread nor
+	 * while holding the lock of this table.
+	 * 
+	 * @return {@code false} if the messages were not inserted in time or the
+	 *         thread was interrupted
+	 * @see WebSocketMessageWriter#flush(long, TimeUnit)
+	 */
+	public boolean waitForQueuedMessages() {
+		try {
+			if (messageWriter.flush(QUEUED_MESSAGES_TIMEOUT, TimeUnit.SECONDS)) {
+				return true;
+			}
+			logger.warn("Queued WebSocket messages not inserted within " + QUEUED_MESSAGES_TIMEOUT + " seconds.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the writer of queued messages, e.g. to retrieve the number of
+	 * queued or dropped messages.
+	 * 
+	 * @return writer used by {@link #queueMessage(WebSocketMessageDTO)}
+	 */
+	public WebSocketMessageWriter getMessageWriter() {
+		return messageWriter;
+	}
+
+	/**
+	 * Inserts all queued messages and stops the background thread. Messages
+	 * queued afterwards are inserted immediately.
+	 */
+	public void stopMessageWriter() {
+		messageWriter.stop();
+		
+		synchronized (this) {
+			// a new segment is started if more payloads are spilled
+			payloadSegments.close();
+		}
+	}
+
 	public List<WebSocketChannelDTO> getChannels(WebSocketChannelDTO criteria) throws DatabaseException {
 		try {
 			String query = "SELECT c.* "
@@ -718,6 +2118,18 @@ public class TableWebSocket extends ParosAbstractTable {
 
 	private PreparedStatement buildCriteriaStatementHelper(String query, List<String> where, List<Object> params) 
 			throws DatabaseException, SQLException {
+		PreparedStatement stmt = getConnection().prepareStatement(buildCriteriaQuery(query, where));
+		try {
+			setCriteriaParameters(stmt, params);
+		} catch (SQLException e) {
+			stmt.close();
+			throw e;
+		}
+		
+		return stmt;
+	}
+
+	private static String buildCriteriaQuery(String query, List<String> where) {
 		int conditionsCount = where.size();
 		if (conditionsCount > 0) {
 			StringBuilder whereExpr = new StringBuilder();
@@ -736,19 +2148,14 @@ public class TableWebSocket extends ParosAbstractTable {
 			query = query.replace("<where> AND", "WHERE ");
 			query = query.replace("<where> ", "");
 		}
+		return query;
+	}
 
-		PreparedStatement stmt = getConnection().prepareStatement(query);
-		try {
-			int i = 1;
-			for (Object param : params) {
-				stmt.setObject(i++, param);
-			}
-		} catch (SQLException e) {
-			stmt.close();
-			throw e;
+	private static void setCriteriaParameters(PreparedStatement stmt, List<Object> params) throws SQLException {
+		int i = 1;
+		for (Object param : params) {
+			stmt.setObject(i++, param);
 		}
-		
-		return stmt;
 	}
 
 	/**
@@ -759,18 +2166,52 @@ public class TableWebSocket extends ParosAbstractTable {
 	 */
 	public void purgeChannel(Integer channelId) throws SQLException {
 		synchronized (this) {
+			// otherwise queued messages of the channel would be inserted afterwards
+			messageWriter.writeQueuedMessages();
+			
 			if (channelIds.contains(channelId)) {
+				List<Integer> segmentIds = new ArrayList<>();
+				psSelectPayloadSegmentIdsByChannelId.setInt(1, channelId);
+				psSelectPayloadSegmentIdsByChannelId.execute();
+				try (ResultSet rs = psSelectPayloadSegmentIdsByChannelId.getResultSet()) {
+					while (rs.next()) {
+						segmentIds.add(rs.getInt(1));
+					}
+				}
+				
 				psDeleteMessagesByChannelId.setInt(1, channelId);
 				psDeleteMessagesByChannelId.execute();
 				
+				psDeleteMessageCountsByChannelId.setInt(1, channelId);
+				psDeleteMessageCountsByChannelId.execute();
+				
+				psDeletePayloadTokensByChannelId.setInt(1, channelId);
+				psDeletePayloadTokensByChannelId.execute();
+				
 				psDeleteChannel.setInt(1, channelId);
 				psDeleteChannel.execute();
 				
+				deleteUnusedPayloadSegments(segmentIds);
+				
 				channelIds.remove(channelId);
+				maxMessageIds.remove(channelId);
 			}
 		}
 	}
 
+	/**
+	 * Returns the highest ID of the messages inserted per channel, since the
+	 * database was opened. Queued messages are not taken into account, like
+	 * by {@link #getMessageCount(WebSocketMessageDTO, List, List)}, hence the
+	 * IDs match the messages counted, as long as both are called while
+	 * holding the lock of this table.
+	 * 
+	 * @return a copy, by channel ID
+	 */
+	public synchronized Map<Integer, Integer> getMaxMessageIds() {
+		return new HashMap<>(maxMessageIds);
+	}
+
 	/**
 	 * @return current maximum value of the channel column
 	 * @throws SQLException 
@@ -0,0 +1,224 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Archive of channels and their messages, to move them between sessions.
+ * <p>
+ * An archive contains all channels first, followed by the messages, each
+ * message refers to its channel by the ID of the channel in the archive.
+ * Archives are written and read as streams, one record at a time, see
+ * {@link WebSocketArchiveExporter} and {@link WebSocketArchiveImporter}. Files
+ * whose name ends with {@code .gz} are compressed, the format and compression
+ * are detected when reading.
+ */
+public final class WebSocketArchive {
+
+	/**
+	 * Record formats of an archive.
+	 */
+	public enum Format {
+
+		/**
+		 * One JSON object per line, binary payloads are encoded in Base64.
+		 */
+		NDJSON,
+
+		/**
+		 * Records with a type and length prefix, payloads are stored as is.
+		 */
+		BINARY
+	}
+
+	private static final int GZIP_MAGIC = 0x1f;
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private WebSocketArchive() {
+	}
+
+	/**
+	 * Writes the records of an archive, close it to complete the archive.
+	 */
+	public interface Writer extends Closeable {
+
+		/**
+		 * Channels have to be written before their messages.
+		 * 
+		 * @param channel
+		 * @throws IOException
+		 */
+		void writeChannel(WebSocketChannelDTO channel) throws IOException;
+
+		/**
+		 * @param message with its whole payload
+		 * @throws IOException
+		 */
+		void writeMessage(WebSocketMessageDTO message) throws IOException;
+	}
+
+	/**
+	 * Receives the records of an archive, see {@link #read(InputStream, Handler)}.
+	 */
+	public interface Handler {
+
+		/**
+		 * @param channel without handshake reference
+		 * @throws IOException
+		 * @throws DatabaseException
+		 */
+		void channel(WebSocketChannelDTO channel) throws IOException, DatabaseException;
+
+		/**
+		 * @param message whose channel has got only the ID of the channel in
+		 *            the archive
+		 * @throws IOException
+		 * @throws DatabaseException
+		 */
+		void message(WebSocketMessageDTO message) throws IOException, DatabaseException;
+	}
+
+	/**
+	 * Number of channels and messages exported or imported.
+	 */
+	public static final class Summary {
+
+		private int channels;
+
+		private long messages;
+
+		void channelProcessed() {
+			channels++;
+		}
+
+		void messageProcessed() {
+			messages++;
+		}
+
+		public int getChannelCount() {
+			return channels;
+		}
+
+		public long getMessageCount() {
+			return messages;
+		}
+
+		@Override
+		public String toString() {
+			return channels + " channels, " + messages + " messages";
+		}
+	}
+
+	/**
+	 * @param out
+	 * @param format
+	 * @return writer of the given format, closes the given stream when
+	 *         closed
+	 * @throws IOException
+	 */
+	public static Writer createWriter(OutputStream out, Format format) throws IOException {
+		if (format == Format.NDJSON) {
+			return new WebSocketNdjsonArchive.NdjsonWriter(out);
+		}
+		return new WebSocketBinaryArchive.BinaryWriter(out);
+	}
+
+	/**
+	 * Creates the given file, compressed if its name ends with {@code .gz}.
+	 * 
+	 * @param file
+	 * @param format
+	 * @return writer of the given format
+	 * @throws IOException if the file could not be created
+	 */
+	public static Writer createWriter(File file, Format format) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			if (file.getName().toLowerCase(Locale.ROOT).endsWith(".gz")) {
+				out = new GZIPOutputStream(out, BUFFER_SIZE);
+			}
+			return createWriter(new BufferedOutputStream(out, BUFFER_SIZE), format);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the whole archive, passing one record at a time to the given
+	 * handler. The format and compression are detected.
+	 * 
+	 * @param in closed afterwards
+	 * @param handler
+	 * @throws IOException if the archive could not be read or is malformed
+	 * @throws DatabaseException if thrown by the handler
+	 */
+	public static void read(InputStream in, Handler handler) throws IOException, DatabaseException {
+		try (InputStream input = detectCompression(new BufferedInputStream(in, BUFFER_SIZE))) {
+			input.mark(1);
+			int first = input.read();
+			input.reset();
+			if (first == WebSocketBinaryArchive.MAGIC[0]) {
+				WebSocketBinaryArchive.read(input, handler);
+			} else if (first == '{') {
+				WebSocketNdjsonArchive.read(input, handler);
+			} else {
+				throw new WebSocketException("Unknown archive format.");
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 * @param handler
+	 * @throws IOException if the archive could not be read or is malformed
+	 * @throws DatabaseException if thrown by the handler
+	 * @see #read(InputStream, Handler)
+	 */
+	public static void read(File file, Handler handler) throws IOException, DatabaseException {
+		read(new FileInputStream(file), handler);
+	}
+
+	private static InputStream detectCompression(BufferedInputStream in) throws IOException {
+		in.mark(1);
+		int first = in.read();
+		in.reset();
+		if (first != GZIP_MAGIC) {
+			return in;
+		}
+		return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.IOException;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Writes stored channels and their messages to a {@link WebSocketArchive}.
+ * <p>
+ * Messages are read page by page with
+ * {@link TableWebSocket#visitMessagesAfter(WebSocketMessageDTO, WebSocketMessageDTO, int, TableWebSocket.MessageVisitor)}
+ * and written one at a time, hence only one payload is held in memory,
+ * regardless of the size of the archive. The table is not locked between the
+ * pages, messages keep being stored meanwhile.
+ */
+public class WebSocketArchiveExporter {
+
+	/**
+	 * Number of messages read while the table is locked.
+	 */
+	private static final int PAGE_SIZE = 500;
+
+	private final TableWebSocket table;
+
+	public WebSocketArchiveExporter(TableWebSocket table) {
+		this.table = table;
+	}
+
+	/**
+	 * @param channelId ID of the channel to export, {@code null} for all
+	 *            channels
+	 * @param writer not closed
+	 * @return number of exported channels and messages
+	 * @throws DatabaseException
+	 * @throws IOException if the archive could not be written
+	 */
+	public WebSocketArchive.Summary export(Integer channelId, final WebSocketArchive.Writer writer)
+			throws DatabaseException, IOException {
+		final WebSocketArchive.Summary summary = new WebSocketArchive.Summary();
+		// include the messages relayed just before the export
+		table.waitForQueuedMessages();
+
+		WebSocketChannelDTO channelCriteria = new WebSocketChannelDTO();
+		channelCriteria.id = channelId;
+		for (WebSocketChannelDTO channel : table.getChannels(channelCriteria)) {
+			writer.writeChannel(channel);
+			summary.channelProcessed();
+		}
+
+		WebSocketMessageDTO criteria = new WebSocketMessageDTO();
+		criteria.channel.id = channelId;
+		final WebSocketMessageDTO[] previous = new WebSocketMessageDTO[1];
+		int count;
+		do {
+			count = table.visitMessagesAfter(criteria, previous[0], PAGE_SIZE, new TableWebSocket.MessageVisitor() {
+
+				@Override
+				public void visit(WebSocketMessageDTO message) throws IOException {
+					writer.writeMessage(message);
+					summary.messageProcessed();
+					// keep only the key of the message for the next page
+					message.payload = null;
+					previous[0] = message;
+				}
+			});
+		} while (count == PAGE_SIZE);
+
+		return summary;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Stores the channels and messages of a {@link WebSocketArchive} in the
+ * current session.
+ * <p>
+ * Each archived channel gets a new ID, so that imported channels do not
+ * collide with existing ones. Messages are inserted in batches, see
+ * {@link TableWebSocket#insertMessages(List)}, a batch is limited by the
+ * number of messages and by the size of their payloads. Handshakes are not
+ * part of an archive, imported channels have got no handshake reference.
+ */
+public class WebSocketArchiveImporter {
+
+	/**
+	 * Provides the IDs of the imported channels.
+	 */
+	public interface ChannelIdGenerator {
+
+		int nextChannelId();
+	}
+
+	private static final int BATCH_SIZE = 500;
+
+	/**
+	 * Maximum number of payload bytes held before a batch is inserted.
+	 */
+	private static final long BATCH_PAYLOAD_BYTES = 8 * 1024 * 1024;
+
+	private final TableWebSocket table;
+
+	private final ChannelIdGenerator channelIdGenerator;
+
+	public WebSocketArchiveImporter(TableWebSocket table, ChannelIdGenerator channelIdGenerator) {
+		this.table = table;
+		this.channelIdGenerator = channelIdGenerator;
+	}
+
+	/**
+	 * @param in the archive, closed afterwards
+	 * @return number of imported channels and messages
+	 * @throws DatabaseException
+	 * @throws IOException if the archive could not be read or is malformed
+	 */
+	public WebSocketArchive.Summary importArchive(InputStream in) throws DatabaseException, IOException {
+		ImportHandler handler = new ImportHandler();
+		WebSocketArchive.read(in, handler);
+		handler.insertBatch();
+		return handler.summary;
+	}
+
+	private class ImportHandler implements WebSocketArchive.Handler {
+
+		private final WebSocketArchive.Summary summary = new WebSocketArchive.Summary();
+
+		/**
+		 * Imported channels by their ID in the archive.
+		 */
+		private final Map<Integer, WebSocketChannelDTO> channels = new HashMap<>();
+
+		private final List<WebSocketMessageDTO> batch = new ArrayList<>(BATCH_SIZE);
+
+		private long batchPayloadBytes;
+
+		@Override
+		public void channel(WebSocketChannelDTO channel) throws DatabaseException {
+			int archivedId = channel.id;
+			channel.id = channelIdGenerator.nextChannelId();
+			channel.historyId = null;
+			if (channel.endTimestamp == null) {
+				// was connected when exported, but is not anymore
+				channel.endTimestamp = channel.startTimestamp;
+			}
+			table.insertOrUpdateChannel(channel);
+			channels.put(archivedId, channel);
+			summary.channelProcessed();
+		}
+
+		@Override
+		public void message(WebSocketMessageDTO message) throws IOException, DatabaseException {
+			WebSocketChannelDTO channel = channels.get(message.channel.id);
+			if (channel == null) {
+				throw new WebSocketException("Message of unknown channel " + message.channel.id + " in WebSocket archive.");
+			}
+			message.channel = channel;
+			batch.add(message);
+			batchPayloadBytes += message.payloadLength;
+			summary.messageProcessed();
+
+			if (batch.size() >= BATCH_SIZE || batchPayloadBytes >= BATCH_PAYLOAD_BYTES) {
+				insertBatch();
+			}
+		}
+
+		void insertBatch() throws DatabaseException {
+			if (batch.isEmpty()) {
+				return;
+			}
+			table.insertMessages(batch);
+			batch.clear();
+			batchPayloadBytes = 0;
+		}
+	}
+}
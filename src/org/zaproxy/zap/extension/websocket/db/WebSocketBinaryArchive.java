@@ -0,0 +1,227 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * {@link WebSocketArchive.Format#BINARY} archives.
+ * <p>
+ * The archive starts with {@link #MAGIC} and the version, followed by the
+ * records. Each record starts with its type (one byte) and the length of its
+ * body (four bytes), readers skip records of unknown type. Strings and
+ * payloads are prefixed with their length, {@code -1} for {@code null}.
+ */
+final class WebSocketBinaryArchive {
+
+	static final byte[] MAGIC = { 'Z', 'W', 'S', 'A' };
+
+	private static final int VERSION = 1;
+
+	private static final int RECORD_CHANNEL = 1;
+
+	private static final int RECORD_MESSAGE = 2;
+
+	private static final int PAYLOAD_TEXT = 0;
+
+	private static final int PAYLOAD_BINARY = 1;
+
+	/**
+	 * Length of the fields of a message record, without the payload.
+	 */
+	private static final int MESSAGE_FIELDS_LENGTH = 4 + 4 + 8 + 1 + 1 + 1 + 4 + 4;
+
+	private WebSocketBinaryArchive() {
+	}
+
+	static class BinaryWriter implements WebSocketArchive.Writer {
+
+		private final DataOutputStream out;
+
+		BinaryWriter(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(out);
+			this.out.write(MAGIC);
+			this.out.writeByte(VERSION);
+		}
+
+		@Override
+		public void writeChannel(WebSocketChannelDTO channel) throws IOException {
+			byte[] host = getBytes(channel.host);
+			byte[] url = getBytes(channel.url);
+
+			out.writeByte(RECORD_CHANNEL);
+			out.writeInt(4 + 4 + 8 + 8 + lengthOf(host) + lengthOf(url));
+			out.writeInt(channel.id);
+			out.writeInt((channel.port != null) ? channel.port : -1);
+			out.writeLong((channel.startTimestamp != null) ? channel.startTimestamp : -1);
+			out.writeLong((channel.endTimestamp != null) ? channel.endTimestamp : -1);
+			writeBytes(host);
+			writeBytes(url);
+		}
+
+		@Override
+		public void writeMessage(WebSocketMessageDTO message) throws IOException {
+			boolean isText = message.payload instanceof String;
+			byte[] payload = isText ? getBytes((String) message.payload) : (byte[]) message.payload;
+			if (payload == null) {
+				payload = new byte[0];
+			}
+
+			out.writeByte(RECORD_MESSAGE);
+			out.writeInt(MESSAGE_FIELDS_LENGTH + payload.length);
+			out.writeInt(message.channel.id);
+			out.writeInt(message.id);
+			out.writeLong(message.timestamp);
+			out.writeByte(message.opcode);
+			out.writeBoolean(message.isOutgoing);
+			out.writeByte(isText ? PAYLOAD_TEXT : PAYLOAD_BINARY);
+			out.writeInt((message.payloadLength != null) ? message.payloadLength : payload.length);
+			writeBytes(payload);
+		}
+
+		private static byte[] getBytes(String value) {
+			return (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+		}
+
+		private static int lengthOf(byte[] bytes) {
+			return 4 + ((bytes != null) ? bytes.length : 0);
+		}
+
+		private void writeBytes(byte[] bytes) throws IOException {
+			if (bytes == null) {
+				out.writeInt(-1);
+				return;
+			}
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	static void read(InputStream input, WebSocketArchive.Handler handler) throws IOException, DatabaseException {
+		DataInputStream in = new DataInputStream(input);
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new WebSocketException("Not a binary WebSocket archive.");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new WebSocketException("Unsupported version of binary WebSocket archive: " + version);
+		}
+
+		int type;
+		while ((type = in.read()) != -1) {
+			int length = in.readInt();
+			if (length < 0) {
+				throw new WebSocketException("Malformed record in binary WebSocket archive.");
+			}
+			switch (type) {
+			case RECORD_CHANNEL:
+				handler.channel(readChannel(in));
+				break;
+			case RECORD_MESSAGE:
+				handler.message(readMessage(in, length));
+				break;
+			default:
+				// written by a later version
+				skipFully(in, length);
+			}
+		}
+	}
+
+	private static WebSocketChannelDTO readChannel(DataInputStream in) throws IOException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = in.readInt();
+		int port = in.readInt();
+		channel.port = (port != -1) ? port : null;
+		long start = in.readLong();
+		channel.startTimestamp = (start != -1) ? start : null;
+		long end = in.readLong();
+		channel.endTimestamp = (end != -1) ? end : null;
+		byte[] host = readBytes(in, Integer.MAX_VALUE);
+		channel.host = (host != null) ? new String(host, StandardCharsets.UTF_8) : null;
+		byte[] url = readBytes(in, Integer.MAX_VALUE);
+		channel.url = (url != null) ? new String(url, StandardCharsets.UTF_8) : null;
+		return channel;
+	}
+
+	private static WebSocketMessageDTO readMessage(DataInputStream in, int recordLength) throws IOException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = in.readInt();
+		WebSocketMessageDTO message = new WebSocketMessageDTO(channel);
+		message.id = in.readInt();
+		message.setTime(new Timestamp(in.readLong()));
+		message.opcode = in.readUnsignedByte();
+		message.readableOpcode = WebSocketMessage.opcode2string(message.opcode);
+		message.isOutgoing = in.readBoolean();
+		int payloadType = in.readUnsignedByte();
+		message.payloadLength = in.readInt();
+		byte[] payload = readBytes(in, recordLength - MESSAGE_FIELDS_LENGTH);
+		if (payload == null) {
+			payload = new byte[0];
+		}
+		message.payload = (payloadType == PAYLOAD_TEXT) ? new String(payload, StandardCharsets.UTF_8) : payload;
+		return message;
+	}
+
+	private static byte[] readBytes(DataInputStream in, int maxLength) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > maxLength) {
+			throw new WebSocketException("Malformed record in binary WebSocket archive.");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void skipFully(DataInputStream in, int length) throws IOException {
+		int remaining = length;
+		while (remaining > 0) {
+			int skipped = in.skipBytes(remaining);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					throw new EOFException("Binary WebSocket archive ended in the middle of a record.");
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+	}
+}
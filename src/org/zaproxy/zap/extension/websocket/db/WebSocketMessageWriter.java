@@ -0,0 +1,375 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.awt.EventQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * Writes messages to the {@link TableWebSocket} in batches on its own thread,
+ * such that the threads relaying WebSocket messages do not have to wait for
+ * the database.
+ * <p>
+ * A batch is written as soon as {@link #MAX_BATCH_SIZE} messages are queued
+ * or the first queued message waited for {@link #MAX_BATCH_DELAY_MS}. Queries
+ * of the table do not write queued messages, their results are eventually
+ * consistent with the messages seen by the observers. Callers that have to
+ * see all messages queued so far wait for them with
+ * {@link #flush(long, TimeUnit)}, from a background thread.
+ * <p>
+ * At most {@link #QUEUE_CAPACITY} messages are queued. If the database can not
+ * keep up, further messages are dropped immediately, without holding the
+ * relaying thread, and counted.
+ * <p>
+ * While idle, the writer thread adds the payloads of messages stored before
+ * the payload index existed to the index, see
+ * {@link TableWebSocket#indexPayloads(int)}.
+ */
+public class WebSocketMessageWriter {
+
+	private static final Logger logger = Logger.getLogger(WebSocketMessageWriter.class);
+
+	public static final int QUEUE_CAPACITY = 10000;
+
+	public static final int MAX_BATCH_SIZE = 250;
+
+	public static final long MAX_BATCH_DELAY_MS = 100;
+
+	private final TableWebSocket table;
+
+	private final BlockingQueue<WebSocketMessageDTO> queue;
+
+	/**
+	 * Released for each queued message, used to wake up the writer thread.
+	 * Messages are only removed from the queue while holding the lock of the
+	 * table, see {@link #writeQueuedMessages()}.
+	 */
+	private final Semaphore queuedSignal;
+
+	private final AtomicBoolean isStarted;
+
+	private volatile boolean isStopped;
+
+	private volatile Thread writerThread;
+
+	/**
+	 * Cleared if indexing failed, it is not retried.
+	 */
+	private volatile boolean isIndexing;
+
+	private final AtomicLong writtenCount;
+
+	private final AtomicLong droppedCount;
+
+	/**
+	 * Number of messages passed to {@link #queue(WebSocketMessageDTO)} while
+	 * started, counted before they are added to the queue.
+	 */
+	private final AtomicLong queuedSequence;
+
+	/**
+	 * Number of those messages removed from the queue or dropped, guarded by
+	 * {@link #drainedMonitor}. Messages are removed in the order they were
+	 * queued, hence all messages counted by {@link #queuedSequence} before
+	 * are written (or failed) once this reached its value.
+	 */
+	private long drainedSequence;
+
+	private final Object drainedMonitor;
+
+	/**
+	 * Highest value of {@link #queuedSequence} a flush waits for, the writer
+	 * thread does not wait for a full batch until reached.
+	 */
+	private volatile long flushSequence;
+
+	public WebSocketMessageWriter(TableWebSocket table) {
+		this.table = table;
+		this.queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+		this.queuedSignal = new Semaphore(0);
+		this.isStarted = new AtomicBoolean(false);
+		this.writtenCount = new AtomicLong();
+		this.droppedCount = new AtomicLong();
+		this.queuedSequence = new AtomicLong();
+		this.drainedMonitor = new Object();
+		this.isIndexing = true;
+	}
+
+	/**
+	 * Queues a copy of the given message, which is written later. If this
+	 * writer was stopped already, the message is written immediately. Never
+	 * waits for space in the queue, the message is dropped if it is full.
+	 *
+	 * @param message
+	 */
+	public void queue(WebSocketMessageDTO message) {
+		if (isStopped) {
+			try {
+				table.insertMessage(message);
+				writtenCount.incrementAndGet();
+			} catch (DatabaseException e) {
+				logger.error(e.getMessage(), e);
+			}
+			return;
+		}
+
+		ensureStarted();
+
+		queuedSequence.incrementAndGet();
+		if (!queue.offer(copyOf(message))) {
+			messagesDrained(1);
+			long dropped = droppedCount.incrementAndGet();
+			if (dropped == 1 || dropped % 1000 == 0) {
+				logger.warn("Database can not keep up with WebSocket messages, " + dropped + " messages were not stored.");
+			}
+			return;
+		}
+		queuedSignal.release();
+
+		if (isStopped) {
+			// stopped meanwhile, do not leave the message behind
+			writeQueuedMessages();
+		}
+	}
+
+	/**
+	 * The DTO of a {@link org.zaproxy.zap.extension.websocket.WebSocketMessage}
+	 * is reused, hence it might change until it is written.
+	 */
+	private static WebSocketMessageDTO copyOf(WebSocketMessageDTO message) {
+		WebSocketMessageDTO copy;
+		if (message instanceof WebSocketFuzzMessageDTO) {
+			WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
+			WebSocketFuzzMessageDTO fuzzCopy = new WebSocketFuzzMessageDTO();
+			fuzzCopy.fuzzId = fuzzMessage.fuzzId;
+			fuzzCopy.state = fuzzMessage.state;
+			fuzzCopy.fuzz = fuzzMessage.fuzz;
+			copy = fuzzCopy;
+		} else {
+			copy = new WebSocketMessageDTO();
+		}
+		message.copyInto(copy);
+		return copy;
+	}
+
+	/**
+	 * Starts the writer thread, if not already started, e.g. to index the
+	 * payloads of a previous session before it is searched.
+	 */
+	void ensureStarted() {
+		if (isStarted.compareAndSet(false, true)) {
+			start();
+		}
+	}
+
+	private void start() {
+		writerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "ZAP-WS-Storage-Writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void writeLoop() {
+		try {
+			while (!isStopped) {
+				if (queue.isEmpty()) {
+					if (indexPayloads() == 0) {
+						queuedSignal.tryAcquire(1, TimeUnit.SECONDS);
+					}
+					continue;
+				}
+
+				// wait for a full batch, but not longer than allowed
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MS);
+				while (queue.size() < MAX_BATCH_SIZE && !isStopped && !isFlushRequested()) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					queuedSignal.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+				}
+
+				queuedSignal.drainPermits();
+				writeQueuedMessages();
+			}
+		} catch (InterruptedException e) {
+			logger.warn("WebSocket storage writer interrupted, remaining messages are written on stop.");
+		}
+	}
+
+	/**
+	 * @return number of messages whose payloads were indexed
+	 */
+	private int indexPayloads() {
+		if (!isIndexing) {
+			return 0;
+		}
+		try {
+			return table.indexPayloads(MAX_BATCH_SIZE);
+		} catch (DatabaseException e) {
+			isIndexing = false;
+			logger.error("Failed to index the payloads of stored WebSocket messages: " + e.getMessage(), e);
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes all queued messages in the calling thread.
+	 */
+	public void writeQueuedMessages() {
+		synchronized (table) {
+			List<WebSocketMessageDTO> batch = new ArrayList<>(Math.min(queue.size(), MAX_BATCH_SIZE));
+			while (queue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+				try {
+					table.insertMessages(batch);
+					writtenCount.addAndGet(batch.size());
+				} catch (DatabaseException e) {
+					logger.error("Failed to store " + batch.size() + " WebSocket messages: " + e.getMessage(), e);
+				}
+				messagesDrained(batch.size());
+				batch.clear();
+			}
+		}
+	}
+
+	private void messagesDrained(int count) {
+		synchronized (drainedMonitor) {
+			drainedSequence += count;
+			drainedMonitor.notifyAll();
+		}
+	}
+
+	private boolean isFlushRequested() {
+		synchronized (drainedMonitor) {
+			return drainedSequence < flushSequence;
+		}
+	}
+
+	/**
+	 * Waits until all messages queued before are written, such that the
+	 * following queries of the table include them. The writer thread writes
+	 * the queued messages without waiting for a full batch.
+	 * <p>
+	 * Must not be called on the event dispatch thread, which would be blocked
+	 * by the database, nor while holding the lock of the table, which the
+	 * writer thread needs.
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the {@code timeout}
+	 * @return {@code true} if the messages were written, {@code false} if
+	 *         the timeout elapsed before
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws IllegalStateException if called on the event dispatch thread or
+	 *             while holding the lock of the table
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		if (EventQueue.isDispatchThread()) {
+			throw new IllegalStateException("Queued messages must not be flushed on the event dispatch thread.");
+		}
+		if (Thread.holdsLock(table)) {
+			throw new IllegalStateException("Queued messages must not be flushed while holding the lock of the table.");
+		}
+
+		long sequence = queuedSequence.get();
+		synchronized (drainedMonitor) {
+			if (drainedSequence >= sequence) {
+				return true;
+			}
+			if (flushSequence < sequence) {
+				flushSequence = sequence;
+			}
+		}
+
+		if (isStopped || writerThread == null) {
+			// no writer thread to wait for
+			writeQueuedMessages();
+		} else {
+			queuedSignal.release();
+		}
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (drainedMonitor) {
+			while (drainedSequence < sequence) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(drainedMonitor, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the writer thread and writes the remaining messages. Messages
+	 * queued afterwards are written immediately.
+	 */
+	public void stop() {
+		isStopped = true;
+
+		Thread thread = writerThread;
+		if (thread != null) {
+			queuedSignal.release();
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		writeQueuedMessages();
+	}
+
+	/**
+	 * @return number of messages waiting to be written
+	 */
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	/**
+	 * @return number of messages that were not stored, as the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return number of messages passed to the database
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+}
@@ -0,0 +1,419 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+
+/**
+ * {@link WebSocketArchive.Format#NDJSON} archives.
+ * <p>
+ * Each line is a flat JSON object, whose attribute {@code type} is one of
+ * {@code header}, {@code channel} or {@code message}. Text payloads are in
+ * attribute {@code text}, binary payloads in attribute {@code base64}.
+ * <p>
+ * The JSON is written and parsed here, as the JSON library of ZAP converts
+ * strings that look like JSON, which would change payloads.
+ */
+final class WebSocketNdjsonArchive {
+
+	private static final String FORMAT = "zap-websocket";
+
+	private static final long VERSION = 1;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private WebSocketNdjsonArchive() {
+	}
+
+	static class NdjsonWriter implements WebSocketArchive.Writer {
+
+		private final Writer out;
+
+		NdjsonWriter(OutputStream out) throws IOException {
+			this.out = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			this.out.write("{\"type\":\"header\",\"format\":\"" + FORMAT + "\",\"version\":" + VERSION + "}\n");
+		}
+
+		@Override
+		public void writeChannel(WebSocketChannelDTO channel) throws IOException {
+			out.write("{\"type\":\"channel\",\"id\":");
+			out.write(Integer.toString(channel.id));
+			writeAttribute("host", channel.host);
+			writeAttribute("port", channel.port);
+			writeAttribute("url", channel.url);
+			writeAttribute("start", channel.startTimestamp);
+			writeAttribute("end", channel.endTimestamp);
+			out.write("}\n");
+		}
+
+		@Override
+		public void writeMessage(WebSocketMessageDTO message) throws IOException {
+			out.write("{\"type\":\"message\",\"channel\":");
+			out.write(Integer.toString(message.channel.id));
+			writeAttribute("id", message.id);
+			writeAttribute("timestamp", message.timestamp);
+			writeAttribute("opcode", message.opcode);
+			out.write(",\"outgoing\":");
+			out.write(Boolean.toString(message.isOutgoing));
+			writeAttribute("length", message.payloadLength);
+			if (message.payload instanceof byte[]) {
+				writeAttribute("base64", Base64.encodeBase64String((byte[]) message.payload));
+			} else {
+				writeAttribute("text", (String) message.payload);
+			}
+			out.write("}\n");
+		}
+
+		private void writeAttribute(String name, Number value) throws IOException {
+			out.write(",\"");
+			out.write(name);
+			out.write("\":");
+			out.write((value != null) ? value.toString() : "null");
+		}
+
+		private void writeAttribute(String name, String value) throws IOException {
+			out.write(",\"");
+			out.write(name);
+			out.write("\":");
+			if (value == null) {
+				out.write("null");
+				return;
+			}
+			out.write('"');
+			writeEscaped(out, value);
+			out.write('"');
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Escapes quotes, backslashes, control characters and surrogates, the
+	 * latter so that unpaired surrogates survive the UTF-8 encoding.
+	 */
+	static void writeEscaped(Writer out, String value) throws IOException {
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && !Character.isSurrogate(c)) {
+				continue;
+			}
+			out.write(value, start, i - start);
+			start = i + 1;
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				out.write("\\u");
+				out.write(HEX_DIGITS[(c >> 12) & 0xF]);
+				out.write(HEX_DIGITS[(c >> 8) & 0xF]);
+				out.write(HEX_DIGITS[(c >> 4) & 0xF]);
+				out.write(HEX_DIGITS[c & 0xF]);
+			}
+		}
+		out.write(value, start, length - start);
+	}
+
+	static void read(InputStream input, WebSocketArchive.Handler handler) throws IOException, DatabaseException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.isEmpty()) {
+				continue;
+			}
+			Map<String, Object> record;
+			try {
+				record = parseObject(line);
+			} catch (IllegalArgumentException e) {
+				throw new WebSocketException("Malformed line " + lineNumber + " in WebSocket archive: " + e.getMessage());
+			}
+
+			Object type = record.get("type");
+			if (lineNumber == 1) {
+				if (!"header".equals(type) || !FORMAT.equals(record.get("format"))) {
+					throw new WebSocketException("Not a WebSocket archive.");
+				}
+				if (!Long.valueOf(VERSION).equals(record.get("version"))) {
+					throw new WebSocketException("Unsupported version of WebSocket archive: " + record.get("version"));
+				}
+			} else if ("channel".equals(type)) {
+				handler.channel(readChannel(record));
+			} else if ("message".equals(type)) {
+				handler.message(readMessage(record));
+			}
+			// other types were written by a later version
+		}
+	}
+
+	private static WebSocketChannelDTO readChannel(Map<String, Object> record) throws WebSocketException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = getInteger(record, "id", true);
+		channel.host = getString(record, "host");
+		channel.port = getInteger(record, "port", false);
+		channel.url = getString(record, "url");
+		channel.startTimestamp = getLong(record, "start", false);
+		channel.endTimestamp = getLong(record, "end", false);
+		return channel;
+	}
+
+	private static WebSocketMessageDTO readMessage(Map<String, Object> record) throws WebSocketException {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = getInteger(record, "channel", true);
+		WebSocketMessageDTO message = new WebSocketMessageDTO(channel);
+		message.id = getInteger(record, "id", true);
+		message.setTime(new Timestamp(getLong(record, "timestamp", true)));
+		message.opcode = getInteger(record, "opcode", true);
+		message.readableOpcode = WebSocketMessage.opcode2string(message.opcode);
+		message.isOutgoing = Boolean.TRUE.equals(record.get("outgoing"));
+
+		String base64 = getString(record, "base64");
+		if (base64 != null) {
+			message.payload = Base64.decodeBase64(base64);
+		} else {
+			String text = getString(record, "text");
+			message.payload = (text != null) ? text : "";
+		}
+		message.payloadLength = getInteger(record, "length", false);
+		if (message.payloadLength == null) {
+			message.payloadLength = (message.payload instanceof byte[])
+					? ((byte[]) message.payload).length
+					: ((String) message.payload).getBytes(StandardCharsets.UTF_8).length;
+		}
+		return message;
+	}
+
+	private static String getString(Map<String, Object> record, String name) throws WebSocketException {
+		Object value = record.get(name);
+		if (value != null && !(value instanceof String)) {
+			throw new WebSocketException("Attribute " + name + " of WebSocket archive is not a string.");
+		}
+		return (String) value;
+	}
+
+	private static Long getLong(Map<String, Object> record, String name, boolean required) throws WebSocketException {
+		Object value = record.get(name);
+		if (value == null && !required) {
+			return null;
+		}
+		if (!(value instanceof Long)) {
+			throw new WebSocketException("Attribute " + name + " of WebSocket archive is not a number.");
+		}
+		return (Long) value;
+	}
+
+	private static Integer getInteger(Map<String, Object> record, String name, boolean required) throws WebSocketException {
+		Long value = getLong(record, name, required);
+		return (value != null) ? Integer.valueOf(value.intValue()) : null;
+	}
+
+	/**
+	 * Parses a JSON object, whose values are strings, integers, booleans or
+	 * {@code null}.
+	 * 
+	 * @param json
+	 * @return the values by name, integers as {@code Long}
+	 * @throws IllegalArgumentException if the JSON is malformed or has got
+	 *             other values
+	 */
+	static Map<String, Object> parseObject(String json) {
+		Map<String, Object> values = new HashMap<>();
+		Parser parser = new Parser(json);
+		parser.skipWhitespace();
+		parser.expect('{');
+		parser.skipWhitespace();
+		if (parser.peek() == '}') {
+			parser.pos++;
+		} else {
+			while (true) {
+				parser.skipWhitespace();
+				String name = parser.readString();
+				parser.skipWhitespace();
+				parser.expect(':');
+				parser.skipWhitespace();
+				values.put(name, parser.readValue());
+				parser.skipWhitespace();
+				if (parser.peek() == ',') {
+					parser.pos++;
+					continue;
+				}
+				parser.expect('}');
+				break;
+			}
+		}
+		parser.skipWhitespace();
+		if (parser.pos != json.length()) {
+			throw new IllegalArgumentException("unexpected characters after object");
+		}
+		return values;
+	}
+
+	private static class Parser {
+
+		private final String json;
+
+		private int pos;
+
+		Parser(String json) {
+			this.json = json;
+		}
+
+		char peek() {
+			if (pos >= json.length()) {
+				throw new IllegalArgumentException("unexpected end");
+			}
+			return json.charAt(pos);
+		}
+
+		void expect(char c) {
+			if (peek() != c) {
+				throw new IllegalArgumentException("expected '" + c + "' at " + pos);
+			}
+			pos++;
+		}
+
+		void skipWhitespace() {
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		Object readValue() {
+			char c = peek();
+			if (c == '"') {
+				return readString();
+			} else if (c == '-' || (c >= '0' && c <= '9')) {
+				int start = pos++;
+				while (pos < json.length() && Character.isDigit(json.charAt(pos))) {
+					pos++;
+				}
+				try {
+					return Long.valueOf(json.substring(start, pos));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("malformed number at " + start);
+				}
+			} else if (json.startsWith("true", pos)) {
+				pos += 4;
+				return Boolean.TRUE;
+			} else if (json.startsWith("false", pos)) {
+				pos += 5;
+				return Boolean.FALSE;
+			} else if (json.startsWith("null", pos)) {
+				pos += 4;
+				return null;
+			}
+			throw new IllegalArgumentException("unsupported value at " + pos);
+		}
+
+		String readString() {
+			expect('"');
+			StringBuilder value = null;
+			int start = pos;
+			while (true) {
+				char c = peek();
+				if (c == '"') {
+					String tail = json.substring(start, pos);
+					pos++;
+					return (value == null) ? tail : value.append(tail).toString();
+				}
+				if (c != '\\') {
+					pos++;
+					continue;
+				}
+				if (value == null) {
+					value = new StringBuilder();
+				}
+				value.append(json, start, pos);
+				pos++;
+				char escaped = peek();
+				pos++;
+				switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					value.append(escaped);
+					break;
+				case 'b':
+					value.append('\b');
+					break;
+				case 'f':
+					value.append('\f');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 't':
+					value.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > json.length()) {
+						throw new IllegalArgumentException("unexpected end");
+					}
+					try {
+						value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("malformed escape at " + pos);
+					}
+					pos += 4;
+					break;
+				default:
+					throw new IllegalArgumentException("malformed escape at " + pos);
+				}
+				start = pos;
+			}
+		}
+	}
+}
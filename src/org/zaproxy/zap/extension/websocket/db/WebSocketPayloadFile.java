@@ -0,0 +1,305 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Read-only access to a payload stored in a file, without loading it into
+ * memory. The payload is either a region of a payload segment file or a
+ * temporary file, that is deleted when closed. Parts of the payload are
+ * memory-mapped on demand, see {@link #map(long, int)}.
+ * <p>
+ * Temporary files are created in a directory of their own, whose remaining
+ * files (e.g. not closed or still mapped) are deleted when the JVM exits.
+ * <p>
+ * Safe to be used by several threads, but closing it fails ongoing reads.
+ */
+public final class WebSocketPayloadFile implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadFile.class);
+
+	/**
+	 * Number of bytes mapped at once by {@link #indexOf(byte[], long, SearchMonitor)}.
+	 */
+	private static final int SEARCH_WINDOW_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Contains the temporary files, created on demand, see
+	 * {@link #createTemporaryFile()}.
+	 */
+	private static File temporaryDirectory;
+
+	/**
+	 * Allows to stop a search early.
+	 */
+	public interface SearchMonitor {
+
+		/**
+		 * Called before each part of the payload is searched.
+		 * 
+		 * @return True if the search should stop.
+		 */
+		boolean isCancelled();
+	}
+
+	private final File file;
+
+	private final long offset;
+
+	private final long length;
+
+	private final boolean text;
+
+	private final boolean temporary;
+
+	private final RandomAccessFile randomAccessFile;
+
+	private final FileChannel channel;
+
+	/**
+	 * @param file containing the payload
+	 * @param offset of the payload within the file
+	 * @param length number of bytes of the payload
+	 * @param text True if the payload is UTF-8 encoded text
+	 * @param temporary True if the file should be deleted on {@link #close()}
+	 * @throws IOException if the file could not be opened or is too short
+	 */
+	public WebSocketPayloadFile(File file, long offset, long length, boolean text, boolean temporary) throws IOException {
+		this.file = file;
+		this.offset = offset;
+		this.length = length;
+		this.text = text;
+		this.temporary = temporary;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+
+		if (offset < 0 || length < 0 || offset + length > channel.size()) {
+			close();
+			throw new IOException("Payload region exceeds file " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Copies the given payload into a new temporary file.
+	 * 
+	 * @param payload stream, not closed
+	 * @param text True if the payload is UTF-8 encoded text
+	 * @return the payload, deletes the temporary file when closed
+	 * @throws IOException
+	 */
+	public static WebSocketPayloadFile createTemporary(InputStream payload, boolean text) throws IOException {
+		File file = createTemporaryFile();
+
+		long length = 0;
+		try (OutputStream out = new FileOutputStream(file)) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = payload.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				length += read;
+			}
+		} catch (IOException e) {
+			delete(file);
+			throw e;
+		}
+		return new WebSocketPayloadFile(file, 0, length, text, true);
+	}
+
+	/**
+	 * Copies the given text payload UTF-8 encoded into a new temporary file.
+	 * 
+	 * @param payload reader, not closed
+	 * @return the payload, deletes the temporary file when closed
+	 * @throws IOException
+	 */
+	public static WebSocketPayloadFile createTemporary(Reader payload) throws IOException {
+		File file = createTemporaryFile();
+
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = payload.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			delete(file);
+			throw e;
+		}
+		return new WebSocketPayloadFile(file, 0, file.length(), true, true);
+	}
+
+	/**
+	 * Creates a new file in the temporary directory. Unlike
+	 * {@link File#deleteOnExit()} for each file, the cleanup is registered
+	 * once, hence nothing is kept for files already deleted.
+	 * 
+	 * @return the new, empty file
+	 * @throws IOException if the file or the directory could not be created
+	 */
+	private static synchronized File createTemporaryFile() throws IOException {
+		if (temporaryDirectory == null) {
+			temporaryDirectory = Files.createTempDirectory("zap-websocket-payloads").toFile();
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					deleteTemporaryDirectory();
+				}
+			}, "ZAP-WS-PayloadFilesCleanup"));
+		} else if (!temporaryDirectory.isDirectory() && !temporaryDirectory.mkdirs()) {
+			throw new IOException("Unable to create directory " + temporaryDirectory.getAbsolutePath());
+		}
+		return File.createTempFile("zap-websocket-payload", ".tmp", temporaryDirectory);
+	}
+
+	private static synchronized void deleteTemporaryDirectory() {
+		File[] files = temporaryDirectory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				delete(file);
+			}
+		}
+		delete(temporaryDirectory);
+	}
+
+	/**
+	 * @return file containing the payload
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return number of bytes of the payload
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return True if the payload is UTF-8 encoded text, otherwise binary.
+	 */
+	public boolean isText() {
+		return text;
+	}
+
+	/**
+	 * Maps the given part of the payload into memory. Parts beyond the end of
+	 * the payload are cut off.
+	 * 
+	 * @param position within the payload
+	 * @param size maximum number of bytes
+	 * @return read-only buffer, with the position at 0
+	 * @throws IOException
+	 */
+	public ByteBuffer map(long position, int size) throws IOException {
+		if (position < 0 || position > length) {
+			throw new IndexOutOfBoundsException("Position " + position + " not within payload of length " + length);
+		}
+		long available = Math.min(size, length - position);
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset + position, available);
+	}
+
+	/**
+	 * Searches the payload part by part, so that only a few megabytes are
+	 * mapped at a time.
+	 * 
+	 * @param pattern bytes to search for
+	 * @param from position in payload the search starts at
+	 * @param monitor consulted before each part is searched, might be
+	 *            {@code null}
+	 * @return position of the first occurrence at or after {@code from}, -1 if
+	 *         none or cancelled
+	 * @throws IOException
+	 */
+	public long indexOf(byte[] pattern, long from, SearchMonitor monitor) throws IOException {
+		return indexOf(pattern, from, monitor, SEARCH_WINDOW_SIZE);
+	}
+
+	long indexOf(byte[] pattern, long from, SearchMonitor monitor, int windowSize) throws IOException {
+		if (pattern.length == 0 || pattern.length > windowSize) {
+			return -1;
+		}
+
+		long position = Math.max(0, from);
+		while (position + pattern.length <= length) {
+			if (monitor != null && monitor.isCancelled()) {
+				return -1;
+			}
+
+			ByteBuffer window = map(position, windowSize);
+			int last = window.limit() - pattern.length;
+			for (int i = 0; i <= last; i++) {
+				if (matches(window, i, pattern)) {
+					return position + i;
+				}
+			}
+
+			if (position + window.limit() >= length) {
+				break;
+			}
+			// next window overlaps, to find occurrences across both windows
+			position += last + 1;
+		}
+		return -1;
+	}
+
+	private static boolean matches(ByteBuffer window, int index, byte[] pattern) {
+		for (int i = 0; i < pattern.length; i++) {
+			if (window.get(index + i) != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void close() {
+		try {
+			randomAccessFile.close();
+		} catch (IOException e) {
+			logger.warn(e.getMessage(), e);
+		}
+		if (temporary) {
+			delete(file);
+		}
+	}
+
+	private static void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			// mapped buffers might still hold the file (e.g. on Windows)
+			logger.debug("Unable to delete temporary payload file " + file.getAbsolutePath());
+		}
+	}
+}
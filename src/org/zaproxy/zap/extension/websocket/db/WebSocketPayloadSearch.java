@@ -0,0 +1,215 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.parosproxy.paros.db.DatabaseException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+
+/**
+ * Searches the text payloads of stored messages with a regular expression.
+ * <p>
+ * Tokens required by the expression are looked up in the payload index to
+ * narrow down the candidates, see
+ * {@link WebSocketPayloadTokenizer#getRequiredTokens(Pattern)}, each
+ * candidate is verified with the expression. If no tokens can be derived, all
+ * text payloads are verified. Matches are ordered by channel and time.
+ */
+public class WebSocketPayloadSearch {
+
+	/**
+	 * Number of candidates retrieved at once.
+	 */
+	private static final int CANDIDATES_BATCH_SIZE = 100;
+
+	/**
+	 * Number of characters shown before and after the match.
+	 */
+	private static final int CONTEXT_LENGTH = 40;
+
+	private final TableWebSocket table;
+
+	private final Pattern pattern;
+
+	private final Set<Integer> tokens;
+
+	private volatile boolean isCancelled;
+
+	private volatile int verifiedCount;
+
+	/**
+	 * @param table
+	 * @param pattern
+	 */
+	public WebSocketPayloadSearch(TableWebSocket table, Pattern pattern) {
+		this.table = table;
+		this.pattern = pattern;
+		this.tokens = WebSocketPayloadTokenizer.getRequiredTokens(pattern);
+
+		// index payloads of previous sessions meanwhile
+		table.getMessageWriter().ensureStarted();
+	}
+
+	/**
+	 * @return {@code true} if the payload index narrows down the candidates
+	 */
+	public boolean isUsingIndex() {
+		return !tokens.isEmpty();
+	}
+
+	/**
+	 * Searches messages that fulfill the given template. Blocks until done or
+	 * cancelled.
+	 * 
+	 * @param criteria
+	 * @param opcodes Null when all opcodes should be searched.
+	 * @param inScopeChannelIds Null when all channels should be searched.
+	 * @param maxMatches
+	 * @return matches found so far, ordered by channel and time
+	 * @throws DatabaseException
+	 */
+	public List<Match> search(WebSocketMessageDTO criteria, List<Integer> opcodes, List<Integer> inScopeChannelIds, int maxMatches)
+			throws DatabaseException {
+		List<Match> matches = new ArrayList<>();
+		// include the messages relayed just before the search
+		table.waitForQueuedMessages();
+		WebSocketMessageDTO previous = null;
+		while (!isCancelled && matches.size() < maxMatches) {
+			List<WebSocketMessageDTO> candidates = table.getPayloadSearchCandidates(
+					criteria, opcodes, inScopeChannelIds, tokens, previous, CANDIDATES_BATCH_SIZE);
+			for (WebSocketMessageDTO candidate : candidates) {
+				Match match = verify(candidate);
+				if (match != null) {
+					matches.add(match);
+					if (matches.size() >= maxMatches) {
+						break;
+					}
+				}
+			}
+			verifiedCount += candidates.size();
+
+			if (candidates.size() < CANDIDATES_BATCH_SIZE) {
+				break;
+			}
+			previous = candidates.get(candidates.size() - 1);
+		}
+		return matches;
+	}
+
+	private Match verify(WebSocketMessageDTO message) {
+		String payload;
+		try {
+			payload = message.getReadablePayload();
+		} catch (InvalidUtf8Exception e) {
+			return null;
+		}
+
+		Matcher matcher = pattern.matcher(payload);
+		if (!matcher.find()) {
+			return null;
+		}
+
+		int start = Math.max(0, matcher.start() - CONTEXT_LENGTH);
+		int end = Math.min(payload.length(), matcher.end() + CONTEXT_LENGTH);
+		String context = payload.substring(start, end);
+
+		// do not keep whole payloads of all matches
+		message.payload = null;
+		return new Match(message, context, matcher.start() - start, matcher.end() - start);
+	}
+
+	/**
+	 * Stops a running search, which returns the matches found so far.
+	 */
+	public void cancel() {
+		isCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	/**
+	 * @return number of payloads verified with the expression so far
+	 */
+	public int getVerifiedCount() {
+		return verifiedCount;
+	}
+
+	/**
+	 * A message whose payload matches, with the matched part and the
+	 * characters around it.
+	 */
+	public static final class Match {
+
+		private final WebSocketMessageDTO message;
+
+		private final String context;
+
+		private final int start;
+
+		private final int end;
+
+		private Match(WebSocketMessageDTO message, String context, int start, int end) {
+			this.message = message;
+			this.context = context;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return the matching message, without its payload
+		 */
+		public WebSocketMessageDTO getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return the matched part of the payload with up to
+		 *         {@link WebSocketPayloadSearch#CONTEXT_LENGTH} characters before
+		 *         and after
+		 */
+		public String getContext() {
+			return context;
+		}
+
+		/**
+		 * @return index of the matched part in {@link #getContext()}
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * @return index after the matched part in {@link #getContext()}
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		public String getMatchedText() {
+			return context.substring(start, end);
+		}
+	}
+}
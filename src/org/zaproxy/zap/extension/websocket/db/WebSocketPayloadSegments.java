@@ -0,0 +1,283 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Stores large payloads outside of the database, in append-only segment
+ * files. A payload is referenced by the segment it was appended to and its
+ * offset within that segment. Also (de)compresses payloads, for payloads
+ * stored in the database and in segments.
+ * <p>
+ * Segment files are located next to the session database and named after it,
+ * the paths returned by {@link #startSegment(int)} are relative to the
+ * database, see {@link #getFile(String)}.
+ * <p>
+ * Not thread-safe, {@link TableWebSocket} synchronizes its usage.
+ */
+public class WebSocketPayloadSegments {
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadSegments.class);
+
+	/**
+	 * A new segment file is started as soon as the current one exceeds this
+	 * size.
+	 */
+	private static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+	private final File directory;
+
+	private final String prefix;
+
+	private RandomAccessFile currentSegment;
+
+	private String currentSegmentPath;
+
+	private int currentSegmentId;
+
+	/**
+	 * @param directory where segment files are created
+	 * @param prefix of the segment file names, e.g. the name of the database
+	 */
+	public WebSocketPayloadSegments(File directory, String prefix) {
+		this.directory = directory;
+		this.prefix = prefix;
+		this.currentSegmentId = -1;
+	}
+
+	/**
+	 * @return True if the payload has to be appended to a new segment, see
+	 *         {@link #startSegment(int)}.
+	 */
+	public boolean isNewSegmentRequired() throws IOException {
+		return currentSegment == null || currentSegment.length() >= MAX_SEGMENT_SIZE;
+	}
+
+	/**
+	 * Closes the current segment and creates a new segment file.
+	 *
+	 * @param segmentId identifies the new segment
+	 * @return path of the new segment file, relative to the database
+	 * @throws IOException if the file could not be created
+	 */
+	public String startSegment(int segmentId) throws IOException {
+		close();
+
+		createDirectory();
+
+		String path = "websocket-" + segmentId + "-" + System.currentTimeMillis() + ".seg";
+		currentSegment = new RandomAccessFile(getFile(path), "rw");
+		currentSegmentPath = path;
+		currentSegmentId = segmentId;
+		return path;
+	}
+
+	private void createDirectory() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory for WebSocket payloads: " + directory.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Resolves the given path of a segment file. Absolute paths, stored by
+	 * previous versions, are returned as they are.
+	 *
+	 * @param path as returned by {@link #startSegment(int)}
+	 * @return the segment file
+	 */
+	public File getFile(String path) {
+		File file = new File(path);
+		if (file.isAbsolute()) {
+			return file;
+		}
+		return new File(directory, prefix + "." + path);
+	}
+
+	/**
+	 * @return identifier of the segment the next payload is appended to
+	 */
+	public int getCurrentSegmentId() {
+		return currentSegmentId;
+	}
+
+	/**
+	 * Appends the given data to the current segment.
+	 *
+	 * @param data
+	 * @return offset of the data within the segment
+	 * @throws IOException
+	 */
+	public long append(byte[] data) throws IOException {
+		long offset = currentSegment.length();
+		currentSegment.seek(offset);
+		currentSegment.write(data);
+		return offset;
+	}
+
+	/**
+	 * Reads data previously appended to the given segment file.
+	 *
+	 * @param path of the segment file
+	 * @param offset
+	 * @param length
+	 * @return stored bytes
+	 * @throws IOException if the file is not available anymore
+	 */
+	public byte[] read(String path, long offset, int length) throws IOException {
+		byte[] data = new byte[length];
+		try (RandomAccessFile segment = new RandomAccessFile(getFile(path), "r")) {
+			segment.seek(offset);
+			segment.readFully(data);
+		}
+		return data;
+	}
+
+	/**
+	 * Deletes the given segment file, the current segment is closed before.
+	 *
+	 * @param path of the segment file
+	 * @return True if the file was deleted or did not exist.
+	 */
+	public boolean delete(String path) {
+		if (path.equals(currentSegmentPath)) {
+			close();
+		}
+		File file = getFile(path);
+		return file.delete() || !file.exists();
+	}
+
+	/**
+	 * Copies the given segment file from the other location, unless it is
+	 * already available here, e.g. after the database was saved to another
+	 * file.
+	 *
+	 * @param source location of the segment file
+	 * @param path of the segment file
+	 * @return True if the file was copied.
+	 * @throws IOException if the file could not be copied
+	 */
+	public boolean copyFrom(WebSocketPayloadSegments source, String path) throws IOException {
+		File target = getFile(path);
+		File sourceFile = source.getFile(path);
+		if (target.exists() || !sourceFile.isFile()) {
+			return false;
+		}
+		createDirectory();
+		Files.copy(sourceFile.toPath(), target.toPath());
+		return true;
+	}
+
+	/**
+	 * Closes the current segment, a new one is started on next append.
+	 */
+	public void close() {
+		if (currentSegment != null) {
+			try {
+				currentSegment.close();
+			} catch (IOException e) {
+				logger.warn(e.getMessage(), e);
+			}
+			currentSegment = null;
+			currentSegmentPath = null;
+			currentSegmentId = -1;
+		}
+	}
+
+	/**
+	 * @param data
+	 * @return compressed data, possibly larger than given data
+	 */
+	public static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * @param data compressed by {@link #deflate(byte[])}
+	 * @param expectedLength length of the uncompressed data, used as initial
+	 *            buffer size
+	 * @return uncompressed data
+	 * @throws IOException if the data is corrupt
+	 */
+	public static byte[] inflate(byte[] data, int expectedLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, expectedLength));
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed WebSocket payload.");
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Reads only the first bytes of compressed data.
+	 *
+	 * @param compressed stream of data compressed by {@link #deflate(byte[])}
+	 * @param length maximum number of bytes to return
+	 * @return first bytes of the uncompressed data
+	 * @throws IOException
+	 */
+	public static byte[] inflatePrefix(InputStream compressed, int length) throws IOException {
+		try (InflaterInputStream in = new InflaterInputStream(compressed)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+			byte[] buffer = new byte[Math.min(length, 8192)];
+			int read;
+			while (out.size() < length && (read = in.read(buffer, 0, Math.min(buffer.length, length - out.size()))) != -1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text payloads into the tokens of the payload index and derives the
+ * tokens a regular expression requires to match.
+ * <p>
+ * A token is a run of at least {@link #MIN_TOKEN_LENGTH} word characters, as
+ * matched by {@code \w} (ASCII letters, digits and underscore). Tokens are
+ * compared case-insensitively and stored as hash, hence the index only
+ * yields candidates, which have to be verified.
+ */
+final class WebSocketPayloadTokenizer {
+
+	static final int MIN_TOKEN_LENGTH = 3;
+
+	/**
+	 * Longer tokens are hashed by their first characters only.
+	 */
+	static final int MAX_TOKEN_LENGTH = 64;
+
+	/**
+	 * Kinds of elements of a regular expression, see
+	 * {@link #getRequiredTokens(Pattern)}.
+	 */
+	private static final int LITERAL = 0;
+
+	/**
+	 * Matches a character that is not part of a token.
+	 */
+	private static final int SEPARATOR = 1;
+
+	/**
+	 * Zero-width, but no token character might precede or follow.
+	 */
+	private static final int BOUNDARY = 2;
+
+	/**
+	 * Might match anything or nothing.
+	 */
+	private static final int UNKNOWN = 3;
+
+	private WebSocketPayloadTokenizer() {
+	}
+
+	static boolean isTokenChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	/**
+	 * @param text
+	 * @param start index of the first character of the token
+	 * @param end index after the last character of the token
+	 * @return case-insensitive hash of the token
+	 */
+	static int hash(CharSequence text, int start, int end) {
+		int hash = 0;
+		int last = Math.min(end, start + MAX_TOKEN_LENGTH);
+		for (int i = start; i < last; i++) {
+			char c = text.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			hash = 31 * hash + c;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param text
+	 * @param maxTokens maximum number of distinct tokens
+	 * @return hashes of the distinct tokens, {@code null} if there are more
+	 *         than {@code maxTokens}
+	 */
+	static Set<Integer> tokenize(CharSequence text, int maxTokens) {
+		Set<Integer> tokens = new HashSet<>();
+		int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length; i++) {
+			if (i < length && isTokenChar(text.charAt(i))) {
+				if (start == -1) {
+					start = i;
+				}
+			} else if (start != -1) {
+				if (i - start >= MIN_TOKEN_LENGTH) {
+					tokens.add(hash(text, start, i));
+					if (tokens.size() > maxTokens) {
+						return null;
+					}
+				}
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns the tokens every match of the given pattern contains. Only
+	 * literal runs of token characters that are delimited on both sides
+	 * (e.g. by spaces, punctuation, {@code \b}, {@code \s} or anchors) are
+	 * considered. Alternations, groups and character classes are not
+	 * analysed.
+	 *
+	 * @param pattern
+	 * @return hashes of the required tokens, empty if none could be derived
+	 */
+	static Set<Integer> getRequiredTokens(Pattern pattern) {
+		int flags = pattern.flags();
+		if ((flags & (Pattern.COMMENTS | Pattern.UNICODE_CASE | Pattern.CANON_EQ)) != 0) {
+			return Collections.emptySet();
+		}
+
+		List<Integer> kinds = new ArrayList<>();
+		StringBuilder chars = new StringBuilder();
+		if ((flags & Pattern.LITERAL) != 0) {
+			addLiteral(kinds, chars, pattern.pattern());
+		} else if (!parse(pattern.pattern(), kinds, chars)) {
+			return Collections.emptySet();
+		}
+		return getDelimitedTokens(kinds, chars);
+	}
+
+	private static void addLiteral(List<Integer> kinds, StringBuilder chars, String literal) {
+		for (int i = 0; i < literal.length(); i++) {
+			addChar(kinds, chars, literal.charAt(i));
+		}
+	}
+
+	private static void addChar(List<Integer> kinds, StringBuilder chars, char c) {
+		add(kinds, chars, isTokenChar(c) ? LITERAL : SEPARATOR, c);
+	}
+
+	private static void add(List<Integer> kinds, StringBuilder chars, int kind, char c) {
+		kinds.add(kind);
+		chars.append(c);
+	}
+
+	/**
+	 * @return {@code false} if no tokens can be derived at all
+	 */
+	private static boolean parse(String regex, List<Integer> kinds, StringBuilder chars) {
+		int length = regex.length();
+		int i = 0;
+		while (i < length) {
+			char c = regex.charAt(i++);
+			switch (c) {
+			case '\\':
+				if (i >= length) {
+					return false;
+				}
+				char escaped = regex.charAt(i++);
+				if (escaped == 'Q') {
+					int end = regex.indexOf("\\E", i);
+					if (end == -1) {
+						end = length;
+					}
+					addLiteral(kinds, chars, regex.substring(i, end));
+					i = Math.min(end + 2, length);
+				} else {
+					i = parseEscape(regex, i, escaped, kinds, chars);
+				}
+				break;
+			case '[':
+				i = skipCharacterClass(regex, i);
+				add(kinds, chars, UNKNOWN, c);
+				break;
+			case '(':
+				int end = skipGroup(regex, i);
+				if (end == -1) {
+					return false;
+				}
+				String group = regex.substring(i, end - 1);
+				if (group.matches("\\?[a-zA-Z-]*")) {
+					// inline flags only
+					if (group.indexOf('x') != -1 || group.indexOf('u') != -1 || group.indexOf('U') != -1) {
+						return false;
+					}
+				} else {
+					add(kinds, chars, UNKNOWN, c);
+				}
+				i = end;
+				break;
+			case '|':
+				return false;
+			case '^':
+			case '$':
+				add(kinds, chars, BOUNDARY, c);
+				break;
+			case '.':
+				add(kinds, chars, UNKNOWN, c);
+				break;
+			case '?':
+			case '*':
+			case '+':
+			case '{':
+				i = applyQuantifier(regex, i, c, kinds, chars);
+				break;
+			default:
+				addChar(kinds, chars, c);
+			}
+		}
+		return true;
+	}
+
+	private static int parseEscape(String regex, int i, char escaped, List<Integer> kinds, StringBuilder chars) {
+		switch (escaped) {
+		case 'b':
+		case 'A':
+		case 'z':
+		case 'Z':
+			add(kinds, chars, BOUNDARY, escaped);
+			return i;
+		case 's':
+		case 'W':
+		case 't':
+		case 'n':
+		case 'r':
+		case 'f':
+		case 'a':
+		case 'e':
+			add(kinds, chars, SEPARATOR, escaped);
+			return i;
+		case 'p':
+		case 'P':
+		case 'N':
+		case 'x':
+			if (i < regex.length() && regex.charAt(i) == '{') {
+				int end = regex.indexOf('}', i);
+				i = (end == -1) ? regex.length() : end + 1;
+			} else {
+				i = Math.min(i + (escaped == 'x' ? 2 : 1), regex.length());
+			}
+			break;
+		case 'u':
+			i = Math.min(i + 4, regex.length());
+			break;
+		case 'c':
+			i = Math.min(i + 1, regex.length());
+			break;
+		case 'k':
+			int end = regex.indexOf('>', i);
+			i = (end == -1) ? regex.length() : end + 1;
+			break;
+		default:
+			if (!Character.isLetterOrDigit(escaped)) {
+				addChar(kinds, chars, escaped);
+				return i;
+			}
+			while (Character.isDigit(escaped) && i < regex.length() && Character.isDigit(regex.charAt(i))) {
+				// back reference or octal value
+				i++;
+			}
+		}
+		add(kinds, chars, UNKNOWN, escaped);
+		return i;
+	}
+
+	/**
+	 * @param i index after the opening bracket
+	 * @return index after the closing bracket
+	 */
+	private static int skipCharacterClass(String regex, int i) {
+		int depth = 1;
+		int length = regex.length();
+		if (i < length && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < length && regex.charAt(i) == ']') {
+			// literal bracket
+			i++;
+		}
+		while (i < length && depth > 0) {
+			char c = regex.charAt(i++);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']') {
+				depth--;
+			}
+		}
+		return Math.min(i, length);
+	}
+
+	/**
+	 * @param i index after the opening parenthesis
+	 * @return index after the closing parenthesis, -1 if there is none
+	 */
+	private static int skipGroup(String regex, int i) {
+		int depth = 1;
+		int length = regex.length();
+		while (i < length) {
+			char c = regex.charAt(i++);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				i = skipCharacterClass(regex, i);
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Replaces the element before the quantifier, if it might be absent, or
+	 * marks that more might follow.
+	 *
+	 * @param i index after the quantifier character
+	 * @return index after the quantifier
+	 */
+	private static int applyQuantifier(String regex, int i, char quantifier, List<Integer> kinds, StringBuilder chars) {
+		boolean optional = quantifier == '?' || quantifier == '*';
+		if (quantifier == '{') {
+			int end = regex.indexOf('}', i);
+			if (end == -1) {
+				end = regex.length() - 1;
+			}
+			String bounds = regex.substring(i, end);
+			optional = bounds.startsWith("0") || bounds.startsWith(",");
+			i = end + 1;
+		}
+		if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+			// reluctant or possessive
+			i++;
+		}
+
+		int last = kinds.size() - 1;
+		if (last < 0) {
+			return i;
+		}
+		if (optional) {
+			kinds.set(last, UNKNOWN);
+		} else if (kinds.get(last) == LITERAL) {
+			// repeated token character, the token ends unknown
+			add(kinds, chars, UNKNOWN, quantifier);
+		}
+		return i;
+	}
+
+	private static Set<Integer> getDelimitedTokens(List<Integer> kinds, CharSequence chars) {
+		Set<Integer> tokens = new HashSet<>();
+		int size = kinds.size();
+		int i = 0;
+		while (i < size) {
+			if (kinds.get(i) != LITERAL) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < size && kinds.get(i) == LITERAL) {
+				i++;
+			}
+			boolean delimitedBefore = start > 0 && isDelimiter(kinds.get(start - 1));
+			boolean delimitedAfter = i < size && isDelimiter(kinds.get(i));
+			if (delimitedBefore && delimitedAfter && i - start >= MIN_TOKEN_LENGTH) {
+				tokens.add(hash(chars, start, i));
+			}
+		}
+		return tokens;
+	}
+
+	private static boolean isDelimiter(int kind) {
+		return kind == SEPARATOR || kind == BOUNDARY;
+	}
+}
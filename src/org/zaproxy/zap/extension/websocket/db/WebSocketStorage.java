@@ -23,7 +23,7 @@ import org.apache.log4j.Logger;
 import org.parosproxy.paros.db.DatabaseException;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
+import org.zaproxy.zap.extension.websocket.WebSocketPassiveObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
 
@@ -31,7 +31,7 @@ import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
  * Listens to all WebSocket messages and utilizes {@link TableWebSocket} to
  * store messages in database.
  */
-public class WebSocketStorage implements WebSocketObserver {
+public class WebSocketStorage implements WebSocketPassiveObserver {
 
 	private static final Logger logger = Logger
 			.getLogger(WebSocketStorage.class);
@@ -55,10 +55,9 @@ public class WebSocketStorage implements WebSocketObserver {
 		if (wsMessage.isFinished()) {
 			WebSocketMessageDTO message = wsMessage.getDTO();
 
-			try {
-				table.insertMessage(message);
-			} catch (DatabaseException e) {
-				logger.error(e.getMessage(), e);
+			if (table != null) {
+				// written asynchronously, not to block the relay of messages
+				table.queueMessage(message);
 			}
 		}
 
@@ -71,6 +70,9 @@ public class WebSocketStorage implements WebSocketObserver {
 	}
 	
 	public void setTable(TableWebSocket table) {
+		if (this.table != null && this.table != table) {
+			this.table.stopMessageWriter();
+		}
 		this.table = table;
 	}
 
@@ -17,8 +17,8 @@
  */
 package org.zaproxy.zap.extension.websocket.filter;
 
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
 
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.extension.filter.FilterAbstractReplace;
@@ -45,6 +45,12 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 	private ChannelSortedListModel channelsModel;
 	private ExtensionWebSocket extension;
 
+	/**
+	 * Compiled from the pattern and replace text, {@code null} until first
+	 * used or when the dialog changed them.
+	 */
+	private volatile WebSocketPayloadReplacer replacer;
+
 	public FilterWebSocketPayload(ExtensionWebSocket extension, ChannelSortedListModel model) {
 		super();
 		this.extension = extension;
@@ -74,6 +80,10 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 	/**
 	 * Change message payload if pattern applies. Ignore binary messages so far
 	 * and apply only to other opcodes.
+	 * <p>
+	 * The payload is only decoded if it contains the literal prefix of the
+	 * pattern and only changed if the pattern matched, see
+	 * {@link WebSocketPayloadReplacer}.
 	 * 
 	 * @param wsMessage
 	 * @throws WebSocketException 
@@ -93,27 +103,33 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 					isApplicableOpcode(message.readableOpcode) &&
 					isApplicableChannelId(message.channel.id)) {
 
-				String from = wsMessage.getReadablePayload();
-
-				Matcher matcher = getPattern().matcher(from);
+				byte[] payload = wsMessage.getPayload();
 
 				try {
-					String to = matcher.replaceAll(getReplaceText());
+					byte[] replaced = getReplacer().replace(payload, 0, payload.length);
 	
-					if (!from.equals(to)) {
-						wsMessage.setReadablePayload(to);
+					if (replaced != null) {
+						wsMessage.setPayload(replaced);
 					}
 				} catch (IllegalArgumentException e) {
 					// e.g.: Illegal group reference when '$'-sign is used
 					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).", e);
-				} catch (StringIndexOutOfBoundsException e) {
-					// e.g.: String index out of range: 1 when '\' is used
-					throw new WebSocketException("Replacement text of WebSocket payload filter contains non-escaped characters (\\,$).", e);
 				}
 			}
 		}
 	}
 
+	private WebSocketPayloadReplacer getReplacer() {
+		WebSocketPayloadReplacer currentReplacer = replacer;
+		if (currentReplacer == null) {
+			currentReplacer = new WebSocketPayloadReplacer(
+					Collections.singletonList(getPattern()),
+					Collections.singletonList(getReplaceText()));
+			replacer = currentReplacer;
+		}
+		return currentReplacer;
+	}
+
 	private boolean isApplicableDirection(Direction direction) {
 		return ((direction.equals(Direction.INCOMING) && shouldApplyOnIncoming) ||
 				(direction.equals(Direction.OUTGOING) && shouldApplyOnOutgoing));
@@ -145,6 +161,7 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 	protected void processFilterReplaceDialog(FilterReplaceDialog dialog) {
 		// retrieve pattern and replace text
 		super.processFilterReplaceDialog(dialog);
+		replacer = null;
 
 		FilterWebSocketReplaceDialog wsDialog = (FilterWebSocketReplaceDialog) dialog;
 
@@ -167,5 +184,6 @@ public class FilterWebSocketPayload extends FilterAbstractReplace implements Web
 		shouldApplyOnOutgoing = false;
 		applicableOpcodes = null;
 		applicableChannelIds = null;
+		replacer = null;
 	}
 }
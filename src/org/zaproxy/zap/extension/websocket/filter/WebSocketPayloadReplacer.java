@@ -0,0 +1,490 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
+import org.zaproxy.zap.extension.websocket.utility.Utf8Util;
+
+/**
+ * Replaces all matches of one or more patterns in an UTF-8 payload, working
+ * on the bytes as far as possible.
+ * <p>
+ * Before decoding, the payload is searched for the literal prefix each match
+ * of a pattern has to start with. If none of these prefixes occur, the
+ * payload is left untouched without being decoded. ASCII payloads are not
+ * decoded at all, the patterns run directly on the bytes and the unchanged
+ * parts are copied as is.
+ * <p>
+ * All rules are applied in one pass: at each position, the leftmost match of
+ * any rule is replaced (the first rule wins on ties) and the search continues
+ * after it. With a single rule, the result is the same as
+ * {@link Matcher#replaceAll(String)}.
+ */
+final class WebSocketPayloadReplacer {
+
+	private final Rule[] rules;
+
+	/**
+	 * True if some pattern has no literal prefix, i.e. the payload has to be
+	 * decoded anyway.
+	 */
+	private final boolean alwaysDecode;
+
+	/**
+	 * @param patterns
+	 * @param replacements replacement texts, as for
+	 *            {@link Matcher#appendReplacement(StringBuffer, String)}
+	 * @throws IllegalArgumentException if a replacement text contains
+	 *             non-escaped characters ({@code \}, {@code $}) or references
+	 *             unknown groups
+	 */
+	WebSocketPayloadReplacer(List<Pattern> patterns, List<String> replacements) throws IllegalArgumentException {
+		if (patterns.size() != replacements.size()) {
+			throw new IllegalArgumentException("Each pattern requires one replacement.");
+		}
+
+		rules = new Rule[patterns.size()];
+		boolean decode = false;
+		for (int i = 0; i < rules.length; i++) {
+			rules[i] = new Rule(patterns.get(i), replacements.get(i));
+			if (rules[i].literalPrefix.length == 0) {
+				decode = true;
+			}
+		}
+		alwaysDecode = decode;
+	}
+
+	/**
+	 * @param payload UTF-8 bytes
+	 * @param offset
+	 * @param length
+	 * @return new payload or {@code null} if no pattern matched or the
+	 *         payload is not valid UTF-8
+	 */
+	byte[] replace(byte[] payload, int offset, int length) {
+		if (!alwaysDecode && !containsLiteralPrefix(payload, offset, length)) {
+			return null;
+		}
+
+		Output output;
+		CharSequence input;
+		if (Utf8Util.isAscii(payload, offset, length)) {
+			input = new AsciiSequence(payload, offset, length);
+			output = new ByteOutput(payload, offset, length);
+		} else {
+			try {
+				input = Utf8Util.encodePayloadToUtf8(payload, offset, length);
+				output = new CharOutput(input);
+			} catch (InvalidUtf8Exception e) {
+				// same as before, invalid payloads are not changed
+				return null;
+			}
+		}
+
+		Matcher[] matchers = new Matcher[rules.length];
+		boolean[] found = new boolean[rules.length];
+		for (int i = 0; i < rules.length; i++) {
+			matchers[i] = rules[i].pattern.matcher(input);
+			found[i] = matchers[i].find();
+		}
+
+		int position = 0;
+		boolean changed = false;
+		while (true) {
+			int next = -1;
+			for (int i = 0; i < rules.length; i++) {
+				if (found[i] && (next == -1 || matchers[i].start() < matchers[next].start())) {
+					next = i;
+				}
+			}
+			if (next == -1) {
+				break;
+			}
+
+			Matcher matcher = matchers[next];
+			output.appendInput(position, matcher.start());
+			output.appendText(rules[next].expand(matcher));
+			position = matcher.end();
+			changed = true;
+
+			found[next] = matcher.find();
+			for (int i = 0; i < rules.length; i++) {
+				if (i != next && found[i] && matchers[i].start() < position) {
+					// overlaps with replaced text
+					found[i] = matchers[i].find(position);
+				}
+			}
+		}
+
+		if (!changed) {
+			return null;
+		}
+		output.appendInput(position, input.length());
+		return output.toByteArray();
+	}
+
+	private boolean containsLiteralPrefix(byte[] payload, int offset, int length) {
+		for (Rule rule : rules) {
+			if (indexOf(payload, offset, length, rule.literalPrefix, rule.ignoreCase) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param literal lower case if {@code ignoreCase}
+	 * @param ignoreCase compares ASCII letters case insensitively
+	 * @return index of the first occurrence or -1
+	 */
+	static int indexOf(byte[] data, int offset, int length, byte[] literal, boolean ignoreCase) {
+		int last = offset + length - literal.length;
+		outer: for (int i = offset; i <= last; i++) {
+			for (int j = 0; j < literal.length; j++) {
+				byte b = data[i + j];
+				if (b != literal[j] && !(ignoreCase && toLowerCase(b) == literal[j])) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static byte toLowerCase(byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	/**
+	 * Determines the text each match of the given pattern starts with. Might
+	 * be shorter than the actual prefix, when in doubt it is empty.
+	 *
+	 * @param pattern
+	 * @return literal prefix, never {@code null}
+	 */
+	static String getLiteralPrefix(Pattern pattern) {
+		int flags = pattern.flags();
+		if ((flags & (Pattern.COMMENTS | Pattern.UNICODE_CASE | Pattern.CANON_EQ)) != 0) {
+			return "";
+		}
+
+		String regex = pattern.pattern();
+		if ((flags & Pattern.LITERAL) != 0) {
+			return regex;
+		}
+		if (regex.indexOf('|') != -1) {
+			// the prefix might belong to one alternative only
+			return "";
+		}
+
+		StringBuilder prefix = new StringBuilder();
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			char literal;
+			int next;
+			if (c == '\\') {
+				if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					// character classes, quotes, back references, ...
+					break;
+				}
+				literal = regex.charAt(i + 1);
+				next = i + 2;
+			} else if (".[]{}()*+?^$".indexOf(c) != -1 || Character.isSurrogate(c)) {
+				break;
+			} else {
+				literal = c;
+				next = i + 1;
+			}
+
+			if (next < regex.length() && "?*{".indexOf(regex.charAt(next)) != -1) {
+				// literal is optional or repeated
+				break;
+			}
+			prefix.append(literal);
+			i = next;
+		}
+		return prefix.toString();
+	}
+
+	private static final class Rule {
+
+		private final Pattern pattern;
+
+		private final byte[] literalPrefix;
+
+		private final boolean ignoreCase;
+
+		/**
+		 * Literal texts ({@code String}), group numbers ({@code Integer}) and
+		 * group names ({@code GroupName}) of the replacement.
+		 */
+		private final Object[] replacement;
+
+		/**
+		 * Not {@code null} if the replacement has no group references.
+		 */
+		private final String literalReplacement;
+
+		private Rule(Pattern pattern, String replacement) {
+			this.pattern = pattern;
+			this.ignoreCase = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+
+			String prefix = getLiteralPrefix(pattern);
+			if (ignoreCase) {
+				byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] = toLowerCase(bytes[i]);
+				}
+				this.literalPrefix = bytes;
+			} else {
+				this.literalPrefix = prefix.getBytes(StandardCharsets.UTF_8);
+			}
+
+			this.replacement = parseReplacement(replacement, pattern.matcher("").groupCount());
+			if (this.replacement.length == 0) {
+				this.literalReplacement = "";
+			} else if (this.replacement.length == 1 && this.replacement[0] instanceof String) {
+				this.literalReplacement = (String) this.replacement[0];
+			} else {
+				this.literalReplacement = null;
+			}
+		}
+
+		/**
+		 * Follows the rules of
+		 * {@link Matcher#appendReplacement(StringBuffer, String)}, but
+		 * reports all errors upfront.
+		 */
+		private static Object[] parseReplacement(String replacement, int groupCount) {
+			List<Object> parts = new ArrayList<>();
+			StringBuilder literal = new StringBuilder();
+			int i = 0;
+			while (i < replacement.length()) {
+				char c = replacement.charAt(i++);
+				if (c == '\\') {
+					if (i == replacement.length()) {
+						throw new IllegalArgumentException("character to be escaped is missing");
+					}
+					literal.append(replacement.charAt(i++));
+				} else if (c == '$') {
+					if (i == replacement.length()) {
+						throw new IllegalArgumentException("Illegal group reference: group index is missing");
+					}
+					if (literal.length() > 0) {
+						parts.add(literal.toString());
+						literal.setLength(0);
+					}
+
+					if (replacement.charAt(i) == '{') {
+						int end = replacement.indexOf('}', ++i);
+						if (end == -1) {
+							throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+						}
+						String name = replacement.substring(i, end);
+						if (name.isEmpty() || !name.matches("[a-zA-Z][a-zA-Z0-9]*")) {
+							throw new IllegalArgumentException("Illegal group name: " + name);
+						}
+						parts.add(new GroupName(name));
+						i = end + 1;
+						continue;
+					}
+
+					int group = Character.digit(replacement.charAt(i), 10);
+					if (group == -1) {
+						throw new IllegalArgumentException("Illegal group reference");
+					}
+					i++;
+					while (i < replacement.length()) {
+						int digit = Character.digit(replacement.charAt(i), 10);
+						if (digit == -1 || group * 10 + digit > groupCount) {
+							break;
+						}
+						group = group * 10 + digit;
+						i++;
+					}
+					if (group > groupCount) {
+						throw new IllegalArgumentException("No group " + group);
+					}
+					parts.add(Integer.valueOf(group));
+				} else {
+					literal.append(c);
+				}
+			}
+			if (literal.length() > 0) {
+				parts.add(literal.toString());
+			}
+			return parts.toArray();
+		}
+
+		private String expand(Matcher matcher) {
+			if (literalReplacement != null) {
+				return literalReplacement;
+			}
+
+			StringBuilder text = new StringBuilder();
+			for (Object part : replacement) {
+				String value;
+				if (part instanceof Integer) {
+					value = matcher.group(((Integer) part).intValue());
+				} else if (part instanceof GroupName) {
+					value = matcher.group(((GroupName) part).name);
+				} else {
+					value = (String) part;
+				}
+				if (value != null) {
+					text.append(value);
+				}
+			}
+			return text.toString();
+		}
+	}
+
+	private static final class GroupName {
+
+		private final String name;
+
+		private GroupName(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Characters of an ASCII payload, without copying the bytes.
+	 */
+	private static final class AsciiSequence implements CharSequence {
+
+		private final byte[] bytes;
+
+		private final int offset;
+
+		private final int length;
+
+		private AsciiSequence(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) bytes[offset + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new AsciiSequence(bytes, offset + start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+		}
+	}
+
+	private abstract static class Output {
+
+		/**
+		 * Appends the unchanged characters between the given indexes.
+		 */
+		abstract void appendInput(int start, int end);
+
+		abstract void appendText(String text);
+
+		abstract byte[] toByteArray();
+	}
+
+	/**
+	 * Copies ASCII input as is.
+	 */
+	private static final class ByteOutput extends Output {
+
+		private final byte[] input;
+
+		private final int offset;
+
+		private final ByteArrayOutputStream bytes;
+
+		private ByteOutput(byte[] input, int offset, int length) {
+			this.input = input;
+			this.offset = offset;
+			this.bytes = new ByteArrayOutputStream(length + 16);
+		}
+
+		@Override
+		void appendInput(int start, int end) {
+			bytes.write(input, offset + start, end - start);
+		}
+
+		@Override
+		void appendText(String text) {
+			byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+			bytes.write(encoded, 0, encoded.length);
+		}
+
+		@Override
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+
+	/**
+	 * Collects the decoded input, encoded once at the end.
+	 */
+	private static final class CharOutput extends Output {
+
+		private final CharSequence input;
+
+		private final StringBuilder chars;
+
+		private CharOutput(CharSequence input) {
+			this.input = input;
+			this.chars = new StringBuilder(input.length() + 16);
+		}
+
+		@Override
+		void appendInput(int start, int end) {
+			chars.append(input, start, end);
+		}
+
+		@Override
+		void appendText(String text) {
+			chars.append(text);
+		}
+
+		@Override
+		byte[] toByteArray() {
+			return chars.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+}
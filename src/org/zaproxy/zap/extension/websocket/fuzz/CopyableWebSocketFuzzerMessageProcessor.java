@@ -0,0 +1,36 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+/**
+ * A {@code WebSocketFuzzerMessageProcessor} that can be copied, such that each
+ * fuzzer thread processes the messages with its own instance.
+ * <p>
+ * Processors that can not be copied are shared by all threads, which call them
+ * one at a time.
+ */
+public interface CopyableWebSocketFuzzerMessageProcessor extends WebSocketFuzzerMessageProcessor {
+
+    /**
+     * Creates a processor with the same configuration, but no state of this
+     * one.
+     *
+     * @return a new processor
+     */
+    WebSocketFuzzerMessageProcessor copy();
+}
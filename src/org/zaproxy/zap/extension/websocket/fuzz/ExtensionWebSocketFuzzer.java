@@ -33,6 +33,7 @@ import org.parosproxy.paros.extension.ExtensionAdaptor;
 import org.parosproxy.paros.extension.ExtensionHook;
 import org.parosproxy.paros.extension.ViewDelegate;
 import org.zaproxy.zap.ZAP;
+import org.zaproxy.zap.extension.api.API;
 import org.zaproxy.zap.extension.fuzz.ExtensionFuzz;
 import org.zaproxy.zap.extension.fuzz.messagelocations.MessageLocationReplacers;
 import org.zaproxy.zap.extension.script.ExtensionScript;
@@ -40,7 +41,7 @@ import org.zaproxy.zap.extension.script.ScriptType;
 import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
+import org.zaproxy.zap.extension.websocket.WebSocketPassiveObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
 import org.zaproxy.zap.extension.websocket.fuzz.messagelocations.TextWebSocketMessageLocationReplacerFactory;
@@ -70,6 +71,8 @@ public class ExtensionWebSocketFuzzer extends ExtensionAdaptor {
 
     private AllChannelObserver allChannelObserver;
 
+    private WebSocketFuzzerAPI api;
+
     public ExtensionWebSocketFuzzer() {
         super("ExtensionWebSocketFuzzer");
     }
@@ -123,6 +126,9 @@ public class ExtensionWebSocketFuzzer extends ExtensionAdaptor {
         ExtensionFuzz extensionFuzz = Control.getSingleton().getExtensionLoader().getExtension(ExtensionFuzz.class);
         extensionFuzz.addFuzzerHandler(websocketFuzzerHandler);
 
+        api = new WebSocketFuzzerAPI(extensionFuzz);
+        API.getInstance().registerApiImplementor(api);
+
         if (getView() != null) {
             // Disable for now, there are no places where it would be used
             //extensionHook.getHookMenu()
@@ -142,6 +148,10 @@ public class ExtensionWebSocketFuzzer extends ExtensionAdaptor {
         ExtensionFuzz extensionFuzz = Control.getSingleton().getExtensionLoader().getExtension(ExtensionFuzz.class);
         extensionFuzz.removeFuzzerHandler(websocketFuzzerHandler);
 
+        if (api != null) {
+            API.getInstance().removeApiImplementor(api);
+        }
+
         ExtensionWebSocket extensionWebSocket = Control.getSingleton()
                 .getExtensionLoader()
                 .getExtension(ExtensionWebSocket.class);
@@ -182,7 +192,7 @@ public class ExtensionWebSocketFuzzer extends ExtensionAdaptor {
         return getAllChannelObserver().getConnectProxies();
     }
 
-    private static class AllChannelObserver implements WebSocketObserver {
+    private static class AllChannelObserver implements WebSocketPassiveObserver {
 
         private final Map<Integer, WebSocketProxy> connectedProxies;
 
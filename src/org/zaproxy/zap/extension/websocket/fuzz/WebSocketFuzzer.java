@@ -19,12 +19,14 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.parosproxy.paros.model.Model;
@@ -34,8 +36,14 @@ import org.zaproxy.zap.extension.fuzz.FuzzerOptions;
 import org.zaproxy.zap.extension.fuzz.messagelocations.MessageLocationReplacement;
 import org.zaproxy.zap.extension.fuzz.messagelocations.MessageLocationReplacementGenerator;
 import org.zaproxy.zap.extension.fuzz.messagelocations.MultipleMessageLocationsReplacer;
+import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
 import org.zaproxy.zap.extension.websocket.fuzz.ui.WebSocketFuzzMessagesViewModel;
 
@@ -48,6 +56,12 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
     private final WebSocketFuzzMessagesViewModel messagesModel;
     private final List<WebSocketFuzzerListener> listeners;
     private final List<WebSocketFuzzerMessageProcessor> messageProcessors;
+    private final Set<Integer> disabledMessageProcessors;
+    private final ThreadLocal<WebSocketFuzzerMessageProcessor[]> threadMessageProcessors;
+    private final WebSocketFuzzerConnectionPool connectionPool;
+    private final WebSocketFuzzerStatistics statistics;
+    private final ResponseObserver responseObserver;
+    private final Set<WebSocketProxy> observedProxies;
     private final AtomicInteger messagesSentCounter;
     private final WebSocketMessageDTO originalMessage;
     private final int id;
@@ -67,12 +81,33 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
         this.wsProxies = wsProxies;
         this.messageProcessors = messageProcessors.isEmpty()
                 ? Collections.<WebSocketFuzzerMessageProcessor> emptyList()
-                : Collections.synchronizedList(new ArrayList<>(messageProcessors));
+                : Collections.unmodifiableList(new ArrayList<>(messageProcessors));
+        this.disabledMessageProcessors = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        this.threadMessageProcessors = new ThreadLocal<WebSocketFuzzerMessageProcessor[]>() {
+
+            @Override
+            protected WebSocketFuzzerMessageProcessor[] initialValue() {
+                return copyMessageProcessors();
+            }
+        };
+
+        int connections = (fuzzerOptions instanceof WebSocketFuzzerOptions)
+                ? ((WebSocketFuzzerOptions) fuzzerOptions).getConnections()
+                : WebSocketFuzzerOptions.DEFAULT_CONNECTIONS;
+        if (connections > 0 && message.channel.historyId != null) {
+            this.connectionPool = new WebSocketFuzzerConnectionPool(message.channel.historyId, connections);
+        } else {
+            this.connectionPool = null;
+        }
         currentSession = Model.getSingleton().getSession();
 
         this.originalMessage = message;
 
-        messagesModel = new WebSocketFuzzMessagesViewModel(id, table);
+        statistics = new WebSocketFuzzerStatistics();
+        responseObserver = new ResponseObserver();
+        observedProxies = Collections.newSetFromMap(new ConcurrentHashMap<WebSocketProxy, Boolean>());
+
+        messagesModel = new WebSocketFuzzMessagesViewModel(id, table, statistics);
         listeners = new ArrayList<>(1);
         messagesSentCounter = new AtomicInteger(0);
     }
@@ -86,6 +121,74 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
         return wsProxies;
     }
 
+    /**
+     * Gets the channel the next fuzzed message should be sent over, either the
+     * channel of the fuzzed message or one of the connections opened by
+     * replaying its handshake.
+     *
+     * @return the channel, or {@code null} if the channel of the fuzzed
+     *         message is no longer connected
+     * @throws IOException if a new connection could not be opened
+     * @see WebSocketFuzzerOptions#getConnections()
+     */
+    protected WebSocketProxy getWebSocketProxy() throws IOException {
+        WebSocketProxy wsProxy;
+        if (connectionPool != null) {
+            wsProxy = connectionPool.get();
+        } else {
+            wsProxy = wsProxies.get(originalMessage.channel.id);
+        }
+
+        if (wsProxy != null && observedProxies.add(wsProxy)) {
+            wsProxy.addObserver(responseObserver);
+        }
+        return wsProxy;
+    }
+
+    /**
+     * Sends the given fuzzed message and records it in the
+     * {@link #getStatistics() statistics}, such that the following incoming
+     * messages are attributed to it.
+     *
+     * @param wsProxy the channel, returned by {@link #getWebSocketProxy()}
+     * @param message the fuzzed message
+     * @return {@code true} if the message was sent
+     * @throws IOException if an error occurred while sending
+     */
+    protected boolean send(WebSocketProxy wsProxy, WebSocketFuzzMessageDTO message) throws IOException {
+        int channelId = wsProxy.getChannelId();
+        WebSocketFuzzerStatistics.Response response = statistics.messageSending(channelId, System.nanoTime());
+        boolean sent = false;
+        try {
+            sent = wsProxy.send(message, Initiator.FUZZER);
+        } finally {
+            if (sent) {
+                statistics.messageSent(channelId, response, message.id);
+            } else {
+                statistics.messageFailed();
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * @return round-trip times, responses and errors of the fuzzed messages
+     */
+    public WebSocketFuzzerStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    protected void notifyListenersFuzzerCompleted(boolean successfully) {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        for (WebSocketProxy wsProxy : observedProxies) {
+            wsProxy.removeObserver(responseObserver);
+        }
+        super.notifyListenersFuzzerCompleted(successfully);
+    }
+
     protected Session getCurrentSession() {
         return currentSession;
     }
@@ -126,25 +229,56 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
             return;
         }
 
-        synchronized (messageProcessors) {
-            WebSocketFuzzerTaskProcessorUtils utils = new WebSocketFuzzerTaskProcessorUtils(
-                    this,
-                    originalMessage,
-                    taskId,
-                    payloads);
-            for (Iterator<WebSocketFuzzerMessageProcessor> it = messageProcessors.iterator(); it.hasNext();) {
-                WebSocketFuzzerMessageProcessor messageProcessor = it.next();
-                try {
-                    utils.setCurrentProcessorName(messageProcessor.getName());
+        WebSocketFuzzerTaskProcessorUtils utils = new WebSocketFuzzerTaskProcessorUtils(
+                this,
+                originalMessage,
+                taskId,
+                payloads);
+        WebSocketFuzzerMessageProcessor[] processors = threadMessageProcessors.get();
+        for (int i = 0; i < processors.length; i++) {
+            if (disabledMessageProcessors.contains(i)) {
+                continue;
+            }
+
+            WebSocketFuzzerMessageProcessor messageProcessor = processors[i];
+            try {
+                utils.setCurrentProcessorName(messageProcessor.getName());
+                if (messageProcessor instanceof CopyableWebSocketFuzzerMessageProcessor) {
                     messageProcessor.processMessage(utils, message);
-                } catch (ProcessingException e) {
+                } else {
+                    // shared by all threads
+                    synchronized (messageProcessor) {
+                        messageProcessor.processMessage(utils, message);
+                    }
+                }
+            } catch (ProcessingException e) {
+                if (disabledMessageProcessors.add(i)) {
                     logger.warn("Error while executing a processor, it will not be called again:", e);
-                    it.remove();
                 }
             }
         }
     }
 
+    /**
+     * Creates the processors of a fuzzer thread, copies of the
+     * {@link CopyableWebSocketFuzzerMessageProcessor}s and the other
+     * processors as they are.
+     *
+     * @return processors in the same order as {@link #messageProcessors}
+     */
+    private WebSocketFuzzerMessageProcessor[] copyMessageProcessors() {
+        WebSocketFuzzerMessageProcessor[] processors = new WebSocketFuzzerMessageProcessor[messageProcessors.size()];
+        for (int i = 0; i < processors.length; i++) {
+            WebSocketFuzzerMessageProcessor messageProcessor = messageProcessors.get(i);
+            if (messageProcessor instanceof CopyableWebSocketFuzzerMessageProcessor) {
+                processors[i] = ((CopyableWebSocketFuzzerMessageProcessor) messageProcessor).copy();
+            } else {
+                processors[i] = messageProcessor;
+            }
+        }
+        return processors;
+    }
+
     protected void messageSent(long taskId, WebSocketMessageDTO message) {
         int total = messagesSentCounter.incrementAndGet();
         for (WebSocketFuzzerListener listener : listeners) {
@@ -163,4 +297,35 @@ public class WebSocketFuzzer extends AbstractFuzzer<WebSocketMessageDTO> {
     public void removeWebSocketFuzzerListener(WebSocketFuzzerListener listener) {
         listeners.remove(listener);
     }
+
+    /**
+     * Attributes the incoming messages of the fuzzed channels to the fuzzed
+     * messages. Notified before all other observers (e.g. breakpoints,
+     * storage and panel), hence the time of receipt does not include the time
+     * they spend on the message.
+     */
+    private class ResponseObserver implements WebSocketObserver {
+
+        @Override
+        public int getObservingOrder() {
+            return Integer.MIN_VALUE;
+        }
+
+        @Override
+        public boolean onMessageFrame(int channelId, WebSocketMessage message) {
+            if (message.isFinished() && message.getDirection() == Direction.INCOMING) {
+                Integer payloadLength = message.getPayloadLength();
+                statistics.messageReceived(
+                        channelId,
+                        message.getOpcode(),
+                        (payloadLength != null) ? payloadLength : 0,
+                        System.nanoTime());
+            }
+            return true;
+        }
+
+        @Override
+        public void onStateChange(State state, WebSocketProxy proxy) {
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSONObject;
+
+import org.zaproxy.zap.extension.api.ApiException;
+import org.zaproxy.zap.extension.api.ApiImplementor;
+import org.zaproxy.zap.extension.api.ApiResponse;
+import org.zaproxy.zap.extension.api.ApiResponseList;
+import org.zaproxy.zap.extension.api.ApiResponseSet;
+import org.zaproxy.zap.extension.api.ApiView;
+import org.zaproxy.zap.extension.fuzz.ExtensionFuzz;
+
+/**
+ * Exposes the {@link WebSocketFuzzerStatistics} of the WebSocket fuzzers.
+ */
+public class WebSocketFuzzerAPI extends ApiImplementor {
+
+    private static final String PREFIX = "websocketFuzzer";
+
+    private static final String VIEW_FUZZERS = "fuzzers";
+
+    private static final String VIEW_FUZZER_STATS = "fuzzerStats";
+
+    private static final String PARAM_FUZZER_ID = "fuzzerId";
+
+    private final ExtensionFuzz extensionFuzz;
+
+    public WebSocketFuzzerAPI(ExtensionFuzz extensionFuzz) {
+        this.addApiView(new ApiView(VIEW_FUZZERS));
+        this.addApiView(new ApiView(VIEW_FUZZER_STATS, new String[] { PARAM_FUZZER_ID }));
+
+        this.extensionFuzz = extensionFuzz;
+    }
+
+    @Override
+    public String getPrefix() {
+        return PREFIX;
+    }
+
+    @Override
+    public ApiResponse handleApiView(String name, JSONObject params) throws ApiException {
+        if (VIEW_FUZZERS.equals(name)) {
+            ApiResponseList response = new ApiResponseList(name);
+            for (WebSocketFuzzer fuzzer : getFuzzers()) {
+                Map<String, Object> values = new HashMap<>();
+                values.put("id", fuzzer.getId());
+                values.put("name", fuzzer.getDisplayName());
+                values.put("running", fuzzer.isRunning());
+                values.put("progress", fuzzer.getProgress());
+                values.put("maximum", fuzzer.getMaximum());
+                values.put("messagesSent", fuzzer.getMessagesSentCount());
+                response.addItem(new ApiResponseSet<>("fuzzer", values));
+            }
+            return response;
+        } else if (VIEW_FUZZER_STATS.equals(name)) {
+            int fuzzerId = getParam(params, PARAM_FUZZER_ID, -1);
+            for (WebSocketFuzzer fuzzer : getFuzzers()) {
+                if (fuzzer.getId() == fuzzerId) {
+                    return createStatisticsResponse(name, fuzzer);
+                }
+            }
+            throw new ApiException(ApiException.Type.DOES_NOT_EXIST, PARAM_FUZZER_ID);
+        }
+        throw new ApiException(ApiException.Type.BAD_VIEW);
+    }
+
+    private List<WebSocketFuzzer> getFuzzers() {
+        return extensionFuzz.getFuzzers(WebSocketFuzzer.class);
+    }
+
+    private static ApiResponse createStatisticsResponse(String name, WebSocketFuzzer fuzzer) {
+        WebSocketFuzzerStatistics statistics = fuzzer.getStatistics();
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("messagesSent", statistics.getSentCount());
+        values.put("messagesFailed", statistics.getFailedCount());
+        values.put("errors", fuzzer.getErrorCount());
+        values.put("errorRate", statistics.getErrorRate());
+        values.put("messagesPerSecond", statistics.getMessagesPerSecond());
+        values.put("answered", statistics.getAnsweredCount());
+        values.put("unanswered", statistics.getUnansweredCount());
+        values.put("responses", statistics.getResponseCount());
+        values.put("responseBytes", statistics.getResponseBytes());
+        values.put("correlationWindowMillis", statistics.getCorrelationWindowMillis());
+        values.put("roundTripP50Micros", statistics.getRoundTripMicros(50));
+        values.put("roundTripP95Micros", statistics.getRoundTripMicros(95));
+        values.put("roundTripP99Micros", statistics.getRoundTripMicros(99));
+        return new ApiResponseSet<>(name, values);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.control.Control;
+import org.parosproxy.paros.db.DatabaseException;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+import org.parosproxy.paros.network.HttpSender;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
+
+/**
+ * Connections opened by replaying the handshake of a channel, the fuzzed
+ * messages are spread across them in turn.
+ * <p>
+ * A connection is opened when it is used the first time and opened again if it
+ * was closed meanwhile. Each connection has got its own lock, hence tasks that
+ * use different connections never wait for each other.
+ */
+class WebSocketFuzzerConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(WebSocketFuzzerConnectionPool.class);
+
+    private final int handshakeHistoryId;
+
+    private final WebSocketProxy[] connections;
+
+    private final Object[] locks;
+
+    private final AtomicInteger nextConnection;
+
+    private volatile HttpMessage handshake;
+
+    private volatile boolean closed;
+
+    /**
+     * @param handshakeHistoryId ID of the handshake that is replayed
+     * @param size number of connections
+     */
+    WebSocketFuzzerConnectionPool(int handshakeHistoryId, int size) {
+        this.handshakeHistoryId = handshakeHistoryId;
+        this.connections = new WebSocketProxy[size];
+        this.locks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new Object();
+        }
+        this.nextConnection = new AtomicInteger();
+    }
+
+    /**
+     * Gets the next connection, opening it if needed.
+     *
+     * @return an open connection
+     * @throws IOException if the connection could not be opened or the pool
+     *             was already closed
+     */
+    WebSocketProxy get() throws IOException {
+        int index = (nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+        synchronized (locks[index]) {
+            if (closed) {
+                throw new WebSocketException("Connections of fuzzer were already closed.");
+            }
+
+            WebSocketProxy connection = connections[index];
+            if (connection == null || !connection.isConnected()) {
+                connection = getExtensionWebSocket()
+                        .connect(getHandshake(), HttpSender.FUZZER_INITIATOR, HistoryReference.TYPE_FUZZER);
+                connections[index] = connection;
+            }
+            return connection;
+        }
+    }
+
+    private HttpMessage getHandshake() throws IOException {
+        if (handshake == null) {
+            try {
+                handshake = new HistoryReference(handshakeHistoryId).getHttpMessage();
+            } catch (DatabaseException e) {
+                throw new WebSocketException(e);
+            }
+        }
+        return handshake;
+    }
+
+    private static ExtensionWebSocket getExtensionWebSocket() {
+        return Control.getSingleton().getExtensionLoader().getExtension(ExtensionWebSocket.class);
+    }
+
+    /**
+     * Closes all connections, no further connections are opened afterwards.
+     */
+    void close() {
+        closed = true;
+        for (int i = 0; i < connections.length; i++) {
+            synchronized (locks[i]) {
+                WebSocketProxy connection = connections[i];
+                connections[i] = null;
+                if (connection != null && connection.isConnected()) {
+                    sendClose(connection);
+                }
+            }
+        }
+    }
+
+    private static void sendClose(WebSocketProxy connection) {
+        WebSocketMessageDTO closeMessage = new WebSocketMessageDTO(connection.getDTO());
+        closeMessage.opcode = WebSocketMessage.OPCODE_CLOSE;
+        closeMessage.closeCode = WebSocketMessage.STATUS_CODE_OK;
+        closeMessage.payload = Integer.toString(WebSocketMessage.STATUS_CODE_OK);
+        closeMessage.isOutgoing = true;
+        try {
+            connection.send(closeMessage, Initiator.FUZZER);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close connection " + connection + ": " + e.getMessage());
+        }
+    }
+}
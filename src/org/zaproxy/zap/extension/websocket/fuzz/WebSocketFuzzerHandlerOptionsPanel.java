@@ -19,17 +19,37 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz;
 
+import java.awt.FlowLayout;
+
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 
+import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.fuzz.FuzzerOptions;
 import org.zaproxy.zap.extension.fuzz.impl.FuzzerHandlerOptionsPanel;
+import org.zaproxy.zap.utils.ZapNumberSpinner;
 
 public class WebSocketFuzzerHandlerOptionsPanel implements FuzzerHandlerOptionsPanel<FuzzerOptions> {
 
     private final JPanel optionsPanel;
 
+    private final ZapNumberSpinner connectionsSpinner;
+
     public WebSocketFuzzerHandlerOptionsPanel() {
-        optionsPanel = new JPanel();
+        optionsPanel = new JPanel(new FlowLayout(FlowLayout.LEADING));
+
+        connectionsSpinner = new ZapNumberSpinner(
+                0,
+                WebSocketFuzzerOptions.DEFAULT_CONNECTIONS,
+                WebSocketFuzzerOptions.MAX_CONNECTIONS);
+        connectionsSpinner.setToolTipText(
+                Constant.messages.getString("websocket.fuzzer.options.connections.tooltip"));
+
+        JLabel connectionsLabel = new JLabel(Constant.messages.getString("websocket.fuzzer.options.connections"));
+        connectionsLabel.setLabelFor(connectionsSpinner);
+
+        optionsPanel.add(connectionsLabel);
+        optionsPanel.add(connectionsSpinner);
     }
 
     @Override
@@ -44,10 +64,11 @@ public class WebSocketFuzzerHandlerOptionsPanel implements FuzzerHandlerOptionsP
 
     @Override
     public FuzzerOptions getOptions(FuzzerOptions baseOptions) {
-        return baseOptions;
+        return new WebSocketFuzzerOptions(baseOptions, connectionsSpinner.getValue());
     }
 
     @Override
     public void reset() {
+        connectionsSpinner.setValue(WebSocketFuzzerOptions.DEFAULT_CONNECTIONS);
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import org.zaproxy.zap.extension.fuzz.FuzzerOptions;
+
+/**
+ * The options of a {@link WebSocketFuzzer}.
+ */
+public class WebSocketFuzzerOptions extends FuzzerOptions {
+
+    /**
+     * Value of {@link #getConnections()} to send all messages over the channel
+     * of the fuzzed message.
+     */
+    public static final int DEFAULT_CONNECTIONS = 0;
+
+    public static final int MAX_CONNECTIONS = 64;
+
+    private final int connections;
+
+    public WebSocketFuzzerOptions(FuzzerOptions baseOptions, int connections) {
+        super(baseOptions);
+
+        if (connections < 0 || connections > MAX_CONNECTIONS) {
+            throw new IllegalArgumentException(
+                    "Parameter connections must be between 0 and " + MAX_CONNECTIONS + ", was: " + connections);
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * Gets the number of new connections the fuzzed messages are spread
+     * across. The connections are opened by replaying the handshake of the
+     * channel of the fuzzed message.
+     *
+     * @return the number of connections, or {@link #DEFAULT_CONNECTIONS} to use
+     *         the channel of the fuzzed message
+     */
+    public int getConnections() {
+        return connections;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ties the incoming messages of a fuzzed channel to the fuzzed message sent
+ * last over the same channel, if they arrive within
+ * {@link #getCorrelationWindowMillis() a time window}, and aggregates the
+ * round-trip times, sent messages and errors of a {@link WebSocketFuzzer}.
+ * <p>
+ * Updated by the fuzzer threads and the threads relaying the incoming messages
+ * without locking. The responses of at most {@link #MAX_RESPONSES} fuzzed
+ * messages are kept for the results table, all of them are aggregated.
+ */
+public class WebSocketFuzzerStatistics {
+
+    public static final long DEFAULT_CORRELATION_WINDOW_MILLIS = 5000;
+
+    public static final int MAX_RESPONSES = 100000;
+
+    /**
+     * Each power of two of the round-trip time in microseconds is split into
+     * that many buckets, hence percentiles are off by less than 1/8.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long correlationWindowNanos;
+
+    private final AtomicLong firstSentNanos;
+
+    private final AtomicLong lastSentNanos;
+
+    private final AtomicLong sentCount;
+
+    private final AtomicLong failedCount;
+
+    private final AtomicLong answeredCount;
+
+    private final AtomicLong unansweredCount;
+
+    private final AtomicLong responseCount;
+
+    private final AtomicLong responseBytes;
+
+    private final AtomicLongArray roundTripTimes;
+
+    /**
+     * The fuzzed message sent last, by channel ID.
+     */
+    private final ConcurrentMap<Integer, Response> pending;
+
+    /**
+     * By {@link #key(int, int) channel and message ID}.
+     */
+    private final ConcurrentMap<Long, Response> responses;
+
+    public WebSocketFuzzerStatistics() {
+        this(DEFAULT_CORRELATION_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param correlationWindowMillis maximum time between a fuzzed message and
+     *            an incoming message attributed to it
+     */
+    public WebSocketFuzzerStatistics(long correlationWindowMillis) {
+        this.correlationWindowNanos = TimeUnit.MILLISECONDS.toNanos(correlationWindowMillis);
+        this.firstSentNanos = new AtomicLong();
+        this.lastSentNanos = new AtomicLong();
+        this.sentCount = new AtomicLong();
+        this.failedCount = new AtomicLong();
+        this.answeredCount = new AtomicLong();
+        this.unansweredCount = new AtomicLong();
+        this.responseCount = new AtomicLong();
+        this.responseBytes = new AtomicLong();
+        this.roundTripTimes = new AtomicLongArray(BUCKETS);
+        this.pending = new ConcurrentHashMap<>();
+        this.responses = new ConcurrentHashMap<>();
+    }
+
+    private static long key(int channelId, int messageId) {
+        return ((long) channelId << 32) | (messageId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Called right before a fuzzed message is sent, subsequent incoming
+     * messages of the channel are attributed to it. Must be followed by
+     * {@link #messageSent(int, Response, int)} or {@link #messageFailed()}.
+     *
+     * @param channelId the channel the message is sent over
+     * @param sendingNanos {@link System#nanoTime()} before sending
+     * @return the responses to the message
+     */
+    public Response messageSending(int channelId, long sendingNanos) {
+        Response response = new Response(sendingNanos);
+        Response previous = pending.put(channelId, response);
+        if (previous != null && previous.getCount() == 0) {
+            unansweredCount.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Called after a fuzzed message was sent.
+     *
+     * @param channelId the channel the message was sent over
+     * @param response returned by {@link #messageSending(int, long)}
+     * @param messageId the ID of the message in the channel
+     */
+    public void messageSent(int channelId, Response response, int messageId) {
+        sentCount.incrementAndGet();
+        firstSentNanos.compareAndSet(0, response.sentNanos);
+        lastSentNanos.set(response.sentNanos);
+
+        response.messageId = messageId;
+        if (responses.size() < MAX_RESPONSES) {
+            responses.put(key(channelId, messageId), response);
+        }
+    }
+
+    /**
+     * Called when a fuzzed message could not be sent.
+     */
+    public void messageFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    /**
+     * Called for each complete incoming message of a fuzzed channel.
+     *
+     * @param channelId the channel the message was received on
+     * @param opcode of the message
+     * @param payloadLength length of the payload
+     * @param receivedNanos {@link System#nanoTime()} on receipt
+     * @return {@code true} if the message was attributed to a fuzzed message
+     */
+    public boolean messageReceived(int channelId, int opcode, long payloadLength, long receivedNanos) {
+        Response response = pending.get(channelId);
+        if (response == null || receivedNanos - response.sentNanos > correlationWindowNanos) {
+            return false;
+        }
+
+        if (response.add(opcode, payloadLength, receivedNanos)) {
+            answeredCount.incrementAndGet();
+            roundTripTimes.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(receivedNanos - response.sentNanos)));
+        }
+        responseCount.incrementAndGet();
+        responseBytes.addAndGet(payloadLength);
+        return true;
+    }
+
+    /**
+     * @param channelId
+     * @param messageId
+     * @return responses to the given fuzzed message, or {@code null} if not
+     *         known
+     */
+    public Response getResponse(int channelId, int messageId) {
+        return responses.get(key(channelId, messageId));
+    }
+
+    public long getCorrelationWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(correlationWindowNanos);
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return number of fuzzed messages with at least one response
+     */
+    public long getAnsweredCount() {
+        return answeredCount.get();
+    }
+
+    /**
+     * @return number of fuzzed messages followed by another one on the same
+     *         channel before any response arrived
+     */
+    public long getUnansweredCount() {
+        return unansweredCount.get();
+    }
+
+    /**
+     * @return number of incoming messages attributed to fuzzed messages
+     */
+    public long getResponseCount() {
+        return responseCount.get();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return failed messages per attempted message, between 0 and 1
+     */
+    public double getErrorRate() {
+        long failed = failedCount.get();
+        long attempts = sentCount.get() + failed;
+        return (attempts == 0) ? 0 : failed / (double) attempts;
+    }
+
+    /**
+     * @return sent messages per second, between the first and the last one
+     */
+    public double getMessagesPerSecond() {
+        long sent = sentCount.get();
+        long elapsedNanos = lastSentNanos.get() - firstSentNanos.get();
+        if (sent < 2 || elapsedNanos <= 0) {
+            return 0;
+        }
+        return (sent - 1) / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Gets the round-trip time below which the given percentage of the
+     * answered messages got their first response.
+     *
+     * @param percentile between 0 and 100, e.g. 95
+     * @return round-trip time in microseconds, 0 if no message was answered
+     */
+    public long getRoundTripMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = roundTripTimes.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> exponent) - SUB_BUCKETS;
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket
+     * @return the highest value counted in the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+
+    /**
+     * The incoming messages attributed to one fuzzed message.
+     */
+    public static final class Response {
+
+        private volatile int messageId;
+
+        private final long sentNanos;
+
+        private volatile long firstReceivedNanos;
+
+        private volatile int count;
+
+        private volatile long bytes;
+
+        private volatile int lastOpcode;
+
+        private Response(long sentNanos) {
+            this.messageId = -1;
+            this.sentNanos = sentNanos;
+            this.lastOpcode = -1;
+        }
+
+        /**
+         * @return {@code true} if it is the first response
+         */
+        private synchronized boolean add(int opcode, long payloadLength, long receivedNanos) {
+            boolean first = count == 0;
+            if (first) {
+                firstReceivedNanos = receivedNanos;
+            }
+            count++;
+            bytes += payloadLength;
+            lastOpcode = opcode;
+            return first;
+        }
+
+        /**
+         * @return ID of the fuzzed message, -1 if not sent yet
+         */
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return number of incoming messages
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return payload bytes of all incoming messages
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return opcode of the last incoming message, -1 if none
+         */
+        public int getLastOpcode() {
+            return lastOpcode;
+        }
+
+        /**
+         * @return time until the first incoming message, -1 if none
+         */
+        public long getRoundTripMicros() {
+            if (count == 0) {
+                return -1;
+            }
+            return TimeUnit.NANOSECONDS.toMicros(firstReceivedNanos - sentNanos);
+        }
+    }
+}
@@ -19,15 +19,15 @@
  */
 package org.zaproxy.zap.extension.websocket.fuzz;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.parosproxy.paros.Constant;
 import org.zaproxy.zap.extension.fuzz.AbstractFuzzerTask;
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
-import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
 
 public class WebSocketFuzzerTask extends AbstractFuzzerTask<WebSocketMessageDTO> {
 
@@ -45,7 +45,7 @@ public class WebSocketFuzzerTask extends AbstractFuzzerTask<WebSocketMessageDTO>
     @Override
     protected void runImpl(WebSocketMessageDTO message, List<Object> payloads) {
         getParent().preProcessMessage(getId(), message, payloads);
-        WebSocketFuzzMessageDTO messageSent = sendMessage(getParent().getWebSocketProxies(), (WebSocketFuzzMessageDTO) message);
+        WebSocketFuzzMessageDTO messageSent = sendMessage((WebSocketFuzzMessageDTO) message);
         if (messageSent == null) {
             return;
         }
@@ -57,17 +57,27 @@ public class WebSocketFuzzerTask extends AbstractFuzzerTask<WebSocketMessageDTO>
         getParent().fuzzResultAvailable(result);
     }
 
-    private WebSocketFuzzMessageDTO sendMessage(Map<Integer, WebSocketProxy> wsProxies, WebSocketFuzzMessageDTO message) {
-        if (!wsProxies.containsKey(message.channel.id)) {
+    private WebSocketFuzzMessageDTO sendMessage(WebSocketFuzzMessageDTO message) {
+        WebSocketProxy wsProxy;
+        try {
+            wsProxy = getParent().getWebSocketProxy();
+        } catch (IOException e) {
+            getParent().increaseErrorCount(
+                    getId(),
+                    Constant.messages.getString("websocket.fuzzer.name"),
+                    "Failed to open connection: " + e.getMessage());
+            return null;
+        }
+
+        if (wsProxy == null) {
             getParent().stopScan();
             return null;
         }
 
         try {
-            WebSocketProxy wsProxy = wsProxies.get(message.channel.id);
-
+            message.channel = wsProxy.getDTO();
             message.fuzzId = getParent().getId();
-            if (wsProxy.send(message, Initiator.FUZZER)) {
+            if (getParent().send(wsProxy, message)) {
                 message.state = WebSocketFuzzMessageDTO.State.SUCCESSFUL;
             } else {
                 message.state = WebSocketFuzzMessageDTO.State.ERROR;
@@ -25,7 +25,6 @@ import org.apache.log4j.Logger;
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
-import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
 
 public class WebSocketFuzzerTaskProcessorUtils {
 
@@ -73,23 +72,23 @@ public class WebSocketFuzzerTaskProcessorUtils {
     }
 
     public boolean sendMessage(String message, boolean includeInResults) {
-        WebSocketProxy wsProxy = websocketFuzzer.getWebSocketProxies().get(originalMessage.channel.id);
-        if (wsProxy == null) {
-            websocketFuzzer.stopScan();
-            return false;
-        }
-
         try {
+            WebSocketProxy wsProxy = websocketFuzzer.getWebSocketProxy();
+            if (wsProxy == null) {
+                websocketFuzzer.stopScan();
+                return false;
+            }
 
             WebSocketFuzzMessageDTO newMessage = new WebSocketFuzzMessageDTO();
             originalMessage.copyInto(newMessage);
+            newMessage.channel = wsProxy.getDTO();
 
             newMessage.fuzzId = websocketFuzzer.getId();
             newMessage.payload = message;
             newMessage.payloadLength = Integer.valueOf(message.length());
             newMessage.fuzz = "";
 
-            if (wsProxy.send(newMessage, Initiator.FUZZER)) {
+            if (websocketFuzzer.send(wsProxy, newMessage)) {
                 websocketFuzzer.messageSent(taskId, newMessage);
                 newMessage.state = WebSocketFuzzMessageDTO.State.SUCCESSFUL;
             } else {
@@ -23,6 +23,7 @@ import org.parosproxy.paros.control.Control;
 import org.zaproxy.zap.extension.script.ExtensionScript;
 import org.zaproxy.zap.extension.script.ScriptWrapper;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.fuzz.CopyableWebSocketFuzzerMessageProcessor;
 import org.zaproxy.zap.extension.websocket.fuzz.ProcessingException;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerMessageProcessor;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerTaskProcessorUtils;
@@ -33,7 +34,7 @@ import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerTaskProcessorUtil
  * @see WebSocketFuzzerMessageProcessor
  * @see WebSocketFuzzerProcessorScript
  */
-public class FuzzerWebSocketMessageScriptProcessorAdapter implements WebSocketFuzzerMessageProcessor {
+public class FuzzerWebSocketMessageScriptProcessorAdapter implements CopyableWebSocketFuzzerMessageProcessor {
 
     private final ScriptWrapper scriptWrapper;
     private boolean initialised;
@@ -55,6 +56,11 @@ public class FuzzerWebSocketMessageScriptProcessorAdapter implements WebSocketFu
         return scriptWrapper.getName();
     }
 
+    @Override
+    public WebSocketFuzzerMessageProcessor copy() {
+        return new FuzzerWebSocketMessageScriptProcessorAdapter(scriptWrapper);
+    }
+
     @Override
     public WebSocketMessageDTO processMessage(WebSocketFuzzerTaskProcessorUtils utils, WebSocketMessageDTO message)
             throws ProcessingException {
@@ -33,7 +33,7 @@ import org.zaproxy.zap.extension.websocket.ui.WebSocketMessagesViewModel;
 
 /**
  * The fuzzing tab with its WebSocket messsages view differs slightly from the messages view in the WebSockets tab, as there are
- * 2 more columns here.
+ * 5 more columns here: state, fuzz and the responses attributed to the fuzzed message.
  * <p>
  * Moreover it is not backed by the database but a {@link List}. You have to add messages yourself via
  * {@link WebSocketFuzzMessagesView#addFuzzResult(FuzzResult)}.
@@ -60,6 +60,11 @@ public class WebSocketFuzzMessagesView extends WebSocketMessagesView {
 
         // fuzz part (do not set preferred size => stretches to maximum)
         setColumnWidth(7, 50, -1);
+
+        // round-trip time, response bytes and opcode
+        setColumnWidth(8, 60, 70);
+        setColumnWidth(9, 60, 90);
+        setColumnWidth(10, 70, 100);
     }
 
     @Override
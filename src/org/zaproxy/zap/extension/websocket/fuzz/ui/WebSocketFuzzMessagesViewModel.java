@@ -29,9 +29,11 @@ import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.db.DatabaseException;
 import org.zaproxy.zap.extension.websocket.WebSocketFuzzMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzResult;
+import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerStatistics;
 import org.zaproxy.zap.extension.websocket.ui.WebSocketMessagesViewModel;
 
 /**
@@ -49,7 +51,10 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 	 */
 	private static final String[] COLUMN_NAMES = {
 	        Constant.messages.getString("websocket.table.header.state"),
-	        Constant.messages.getString("websocket.table.header.fuzz") };
+	        Constant.messages.getString("websocket.table.header.fuzz"),
+	        Constant.messages.getString("websocket.table.header.round_trip"),
+	        Constant.messages.getString("websocket.table.header.response_length"),
+	        Constant.messages.getString("websocket.table.header.response_opcode") };
 	
     /**
 	 * Number of columns in this table model increased.
@@ -63,6 +68,11 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 
 	private final int currentFuzzId;
 
+	/**
+	 * Responses attributed to the fuzzed messages, might be {@code null}.
+	 */
+	private final WebSocketFuzzerStatistics statistics;
+
 	private static final String msgSuccess;
 	private static final String msgFail;
 	
@@ -72,9 +82,14 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 	}
     
 	public WebSocketFuzzMessagesViewModel(int currentFuzzId, TableWebSocket table) {
+		this(currentFuzzId, table, null);
+	}
+
+	public WebSocketFuzzMessagesViewModel(int currentFuzzId, TableWebSocket table, WebSocketFuzzerStatistics statistics) {
 		super(table);
 		
 		this.currentFuzzId = currentFuzzId;
+		this.statistics = statistics;
 	}
 	
 	/**
@@ -120,11 +135,39 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		        
 		    case 7:
 		        return fuzzMessage.fuzz;
+
+		    case 8:
+		    case 9:
+		    case 10:
+		        return getResponseValue(fuzzMessage, columnIndex);
 			}
 		}
 		return super.getRealValueAt(message, columnIndex);
 	}
 
+	/**
+	 * Values of the incoming messages attributed to the given fuzzed message,
+	 * {@code null} if there are none.
+	 */
+	private Object getResponseValue(WebSocketFuzzMessageDTO message, int columnIndex) {
+		if (statistics == null || message.channel.id == null || message.id == null) {
+			return null;
+		}
+		WebSocketFuzzerStatistics.Response response = statistics.getResponse(message.channel.id, message.id);
+		if (response == null || response.getCount() == 0) {
+			return null;
+		}
+
+		switch (columnIndex) {
+		case 8:
+			return Double.valueOf(response.getRoundTripMicros() / 1000.0);
+		case 9:
+			return Long.valueOf(response.getBytes());
+		default:
+			return WebSocketMessage.opcode2string(response.getLastOpcode());
+		}
+	}
+
 	/**
 	 * @return type of column for given column index
 	 */
@@ -133,7 +176,12 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		switch (columnIndex) {
 		case 6:
 		case 7:
+		case 10:
 			return String.class;
+		case 8:
+			return Double.class;
+		case 9:
+			return Long.class;
 		default:
 			return super.getColumnClass(columnIndex);
 		}
@@ -182,6 +230,22 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		erroneousMessages.clear();
 	}
 	
+	@Override
+	protected WebSocketMessageDTO createPreview(WebSocketMessageDTO message) {
+		WebSocketMessageDTO preview = super.createPreview(message);
+		if (!(message instanceof WebSocketFuzzMessageDTO)) {
+			return preview;
+		}
+		
+		WebSocketFuzzMessageDTO fuzzMessage = (WebSocketFuzzMessageDTO) message;
+		WebSocketFuzzMessageDTO fuzzPreview = new WebSocketFuzzMessageDTO();
+		preview.copyInto(fuzzPreview);
+		fuzzPreview.fuzzId = fuzzMessage.fuzzId;
+		fuzzPreview.state = fuzzMessage.state;
+		fuzzPreview.fuzz = fuzzMessage.fuzz;
+		return fuzzPreview;
+	}
+	
 	@Override
 	protected List<WebSocketMessageDTO> loadPage(int offset, int length) {
 		// erroneous messages are put onto the end of list
@@ -203,6 +267,15 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
 		}
 	}
 
+    /**
+     * Stores the fuzzed message and appends it. Rows of successfully sent
+     * messages are appended in batches, hence neither {@code count} nor
+     * {@code forceRefresh} are needed anymore.
+     * 
+     * @param result
+     * @param count number of messages sent so far
+     * @param forceRefresh {@code true} for the last result
+     */
     public void addResult(final WebSocketFuzzResult result, int count, boolean forceRefresh) {
         final WebSocketFuzzMessageDTO message = result.getWebSocketMessage();
         if (message.state == WebSocketFuzzMessageDTO.State.ERROR) {
@@ -216,12 +289,7 @@ public class WebSocketFuzzMessagesViewModel extends WebSocketMessagesViewModel {
         } else {
             try {
                 getTable().insertMessage(message);
-                if (count % 10 == 0 || forceRefresh) {
-                    try {
-                        fireMessageArrived(message);
-                    } catch (IndexOutOfBoundsException e) {
-                    }
-                }
+                fireMessageArrived(message);
             } catch (DatabaseException e) {
                 logger.warn("Failed to persist fuzzer message:", e);
             }
@@ -19,12 +19,15 @@ package org.zaproxy.zap.extension.websocket.fuzz.ui;
 
 import java.awt.BorderLayout;
 import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.Box;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JToolBar;
+import javax.swing.Timer;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
@@ -33,6 +36,7 @@ import org.zaproxy.zap.extension.fuzz.FuzzResultsContentPanel;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzer;
 import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerListener;
+import org.zaproxy.zap.extension.websocket.fuzz.WebSocketFuzzerStatistics;
 import org.zaproxy.zap.utils.StickyScrollbarAdjustmentListener;
 
 public class WebSocketFuzzResultsContentPanel extends JPanel
@@ -51,6 +55,8 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
     private JLabel messageCountValueLabel;
     private JLabel errorCountLabel;
     private JLabel errorCountValueLabel;
+    private JLabel statisticsLabel;
+    private Timer statisticsTimer;
 
     private JPanel mainPanel;
 
@@ -82,6 +88,18 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         toolbar.add(errorCountLabel);
         toolbar.add(Box.createHorizontalStrut(4));
         toolbar.add(errorCountValueLabel);
+        toolbar.add(Box.createHorizontalStrut(32));
+
+        statisticsLabel = new JLabel();
+        toolbar.add(statisticsLabel);
+
+        statisticsTimer = new Timer(1000, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                updateStatistics();
+            }
+        });
 
         mainPanel = new JPanel(new BorderLayout());
 
@@ -121,6 +139,9 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         }
 
         currentFuzzer = null;
+        statisticsTimer.stop();
+        statisticsLabel.setText("");
+        statisticsLabel.setToolTipText(null);
         fuzzResultTable.clear();
     }
 
@@ -144,6 +165,39 @@ public class WebSocketFuzzResultsContentPanel extends JPanel
         currentFuzzer.addWebSocketFuzzerListener(getWebSocketFuzzerListener());
 
         fuzzResultTable.setModel(currentFuzzer.getMessagesModel());
+
+        updateStatistics();
+        statisticsTimer.start();
+    }
+
+    private void updateStatistics() {
+        if (currentFuzzer == null) {
+            return;
+        }
+
+        WebSocketFuzzerStatistics statistics = currentFuzzer.getStatistics();
+        statisticsLabel.setText(Constant.messages.getString(
+                "websocket.fuzzer.results.toolbar.statistics",
+                Math.round(statistics.getMessagesPerSecond()),
+                toMillis(statistics.getRoundTripMicros(50)),
+                toMillis(statistics.getRoundTripMicros(95)),
+                toMillis(statistics.getRoundTripMicros(99)),
+                Math.round(statistics.getErrorRate() * 1000) / 10.0));
+        statisticsLabel.setToolTipText(Constant.messages.getString(
+                "websocket.fuzzer.results.toolbar.statistics.tooltip",
+                statistics.getAnsweredCount(),
+                statistics.getSentCount(),
+                statistics.getCorrelationWindowMillis(),
+                statistics.getResponseCount(),
+                statistics.getResponseBytes()));
+
+        if (!currentFuzzer.isRunning()) {
+            statisticsTimer.stop();
+        }
+    }
+
+    private static double toMillis(long micros) {
+        return Math.round(micros / 100.0) / 10.0;
     }
 
     private WebSocketFuzzerListener getWebSocketFuzzerListener() {
@@ -29,7 +29,7 @@ import org.parosproxy.paros.network.HttpMessage;
 import org.zaproxy.zap.extension.httppanel.Message;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
+import org.zaproxy.zap.extension.websocket.WebSocketPassiveObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
@@ -39,7 +39,7 @@ import org.zaproxy.zap.extension.websocket.ui.WebSocketPanel;
  * Knows how to send {@link HttpMessage} objects. Contains a list of valid
  * WebSocket channels.
  */
-public class WebSocketPanelSender implements MessageSender, WebSocketObserver {
+public class WebSocketPanelSender implements MessageSender, WebSocketPassiveObserver {
 
     private static final Logger logger = Logger.getLogger(WebSocketPanelSender.class);
 
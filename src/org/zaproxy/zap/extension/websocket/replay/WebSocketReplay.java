@@ -0,0 +1,445 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.replay;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.db.DatabaseException;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+import org.parosproxy.paros.network.HttpSender;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.Initiator;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.WebSocketSenderListener;
+import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+
+/**
+ * Replays the outgoing messages of a stored channel, with a number of virtual
+ * clients that each open a new channel with the handshake of the stored one.
+ * <p>
+ * The messages are sent with their original timing divided by the speed,
+ * e.g. a speed of {@code 2} halves the pauses between the messages, or as
+ * fast as possible with {@link #AS_FAST_AS_POSSIBLE}. The new channels are
+ * opened with {@link ExtensionWebSocket#connectUnobserved}, their messages are
+ * neither stored nor shown, hence ZAP itself does not slow down the replay.
+ * Each client loads the stored messages page by page while sending them, so
+ * only the current page of each client is held in memory. Results are
+ * collected in the {@link WebSocketReplayStatistics}.
+ */
+public class WebSocketReplay {
+
+	private static final Logger LOGGER = Logger.getLogger(WebSocketReplay.class);
+
+	/**
+	 * Speed to send the messages without pauses.
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+
+	public static final int MAX_CLIENTS = 1000;
+
+	/**
+	 * Number of messages a client loads from the database at once.
+	 */
+	private static final int PAGE_SIZE = 100;
+
+	/**
+	 * Replayed message types, other messages are control frames.
+	 */
+	private static final List<Integer> OPCODES = Arrays.asList(WebSocketMessage.OPCODE_TEXT, WebSocketMessage.OPCODE_BINARY);
+
+	/**
+	 * How long a client waits for the server to answer its close frame.
+	 */
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+
+	private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+
+	private final int id;
+
+	private final ExtensionWebSocket extension;
+
+	private final WebSocketChannelDTO channel;
+
+	private final int clients;
+
+	private final double speed;
+
+	private final WebSocketReplayStatistics statistics;
+
+	private final List<WebSocketProxy> connections;
+
+	private final AtomicInteger remainingClients;
+
+	private final WebSocketMessageDTO criteria;
+
+	private volatile TableWebSocket table;
+
+	private volatile HttpMessage handshake;
+
+	private ExecutorService executor;
+
+	private volatile boolean stopped;
+
+	/**
+	 * @param extension opens the channels
+	 * @param channel stored channel, whose outgoing messages are replayed
+	 * @param clients number of concurrent clients, from 1 to
+	 *            {@link #MAX_CLIENTS}
+	 * @param speed factor applied to the original timing, or
+	 *            {@link #AS_FAST_AS_POSSIBLE}
+	 * @throws IllegalArgumentException if the channel has got no handshake,
+	 *             the number of clients is out of range or the speed is
+	 *             negative
+	 */
+	public WebSocketReplay(ExtensionWebSocket extension, WebSocketChannelDTO channel, int clients, double speed) {
+		if (channel == null || channel.id == null || channel.historyId == null) {
+			throw new IllegalArgumentException("Parameter channel must be a stored channel with handshake.");
+		}
+		if (clients < 1 || clients > MAX_CLIENTS) {
+			throw new IllegalArgumentException("Parameter clients must be between 1 and " + MAX_CLIENTS + ".");
+		}
+		if (speed < 0 || Double.isNaN(speed) || Double.isInfinite(speed)) {
+			throw new IllegalArgumentException("Parameter speed must not be negative.");
+		}
+		this.id = ID_GENERATOR.incrementAndGet();
+		this.extension = extension;
+		this.channel = channel;
+		this.clients = clients;
+		this.speed = speed;
+		this.statistics = new WebSocketReplayStatistics();
+		this.connections = Collections.synchronizedList(new ArrayList<WebSocketProxy>(clients));
+		this.remainingClients = new AtomicInteger(clients);
+
+		this.criteria = new WebSocketMessageDTO();
+		this.criteria.channel.id = channel.id;
+		this.criteria.isOutgoing = Boolean.TRUE;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getChannelId() {
+		return channel.id;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	public double getSpeed() {
+		return speed;
+	}
+
+	public WebSocketReplayStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Loads the handshake of the channel, then starts the clients, which load
+	 * the outgoing text and binary messages while sending them.
+	 * 
+	 * @throws IOException if the handshake could not be loaded or the
+	 *             messages are not stored
+	 * @throws IllegalStateException if already started
+	 */
+	public synchronized void start() throws IOException {
+		if (executor != null) {
+			throw new IllegalStateException("Replay was already started.");
+		}
+		if (extension.getStorage() == null || extension.getStorage().getTable() == null) {
+			throw new WebSocketException("Messages are not stored.");
+		}
+		table = extension.getStorage().getTable();
+		try {
+			handshake = new HistoryReference(channel.historyId).getHttpMessage();
+		} catch (DatabaseException e) {
+			throw new WebSocketException(e);
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Replaying messages of channel #" + channel.id + " with " + clients + " clients.");
+		}
+
+		executor = Executors.newFixedThreadPool(clients, new ReplayThreadFactory(id));
+		for (int i = 0; i < clients; i++) {
+			executor.execute(new VirtualClient());
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Loads the next page of outgoing text and binary messages, with their
+	 * whole payload.
+	 * 
+	 * @param previous last message of the previous page, {@code null} for the
+	 *            first page
+	 * @return the messages, empty if there are no more
+	 * @throws DatabaseException if the messages could not be loaded
+	 */
+	private List<WebSocketMessageDTO> loadMessages(WebSocketMessageDTO previous) throws DatabaseException {
+		if (previous == null) {
+			// include the last messages of a channel closed just before
+			table.waitForQueuedMessages();
+			return table.getMessages(criteria, OPCODES, null, 0, PAGE_SIZE, -1);
+		}
+		return table.getMessagesAfter(criteria, OPCODES, null, previous, PAGE_SIZE, -1);
+	}
+
+	/**
+	 * Stops sending and closes the channels of all clients.
+	 */
+	public void stop() {
+		stopped = true;
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+		synchronized (connections) {
+			for (WebSocketProxy connection : connections) {
+				if (connection.isConnected()) {
+					connection.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if started and not all clients are done yet
+	 */
+	public boolean isRunning() {
+		return remainingClients.get() > 0 && !stopped && executor != null;
+	}
+
+	/**
+	 * Waits until all clients are done.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if all clients are done, false if the timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		ExecutorService started;
+		synchronized (this) {
+			started = executor;
+		}
+		return started == null || started.awaitTermination(timeout, unit);
+	}
+
+	private void clientDone() {
+		if (remainingClients.decrementAndGet() == 0) {
+			statistics.finished();
+			// not needed anymore, keep only the statistics
+			table = null;
+			handshake = null;
+		}
+	}
+
+	/**
+	 * Opens its own channel, sends all messages and closes the channel.
+	 */
+	private class VirtualClient implements Runnable, WebSocketSenderListener {
+
+		/**
+		 * When the last message was sent, {@code 0} once a message was
+		 * received afterwards.
+		 */
+		private final AtomicLong pendingSendNanos = new AtomicLong();
+
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			try {
+				if (!stopped) {
+					replay();
+				}
+			} finally {
+				clientDone();
+			}
+		}
+
+		private void replay() {
+			WebSocketProxy connection;
+			try {
+				connection = extension.connectUnobserved(
+						handshake,
+						HttpSender.MANUAL_REQUEST_INITIATOR,
+						HistoryReference.TYPE_TEMPORARY);
+			} catch (IOException e) {
+				LOGGER.debug("Failed to connect client of replay #" + id + ": " + e.getMessage());
+				statistics.clientFailed();
+				return;
+			}
+			statistics.clientConnected();
+			connection.addSenderListener(this);
+			connections.add(connection);
+
+			try {
+				sendMessages(connection);
+				if (connection.isConnected()) {
+					sendClose(connection);
+					closed.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				connection.removeSenderListener(this);
+				if (connection.isConnected()) {
+					connection.shutdown();
+				}
+			}
+		}
+
+		private void sendMessages(WebSocketProxy connection) throws InterruptedException {
+			long startNanos = System.nanoTime();
+			Long firstTimestamp = null;
+			WebSocketChannelDTO connectionDTO = connection.getDTO();
+			List<WebSocketMessageDTO> page = loadPage(null);
+			while (!page.isEmpty()) {
+				for (WebSocketMessageDTO original : page) {
+					if (stopped || !connection.isConnected()) {
+						return;
+					}
+					if (firstTimestamp == null) {
+						firstTimestamp = original.timestamp;
+					}
+					send(connection, connectionDTO, original, startNanos, firstTimestamp);
+				}
+				if (page.size() < PAGE_SIZE) {
+					return;
+				}
+				page = loadPage(page.get(page.size() - 1));
+			}
+		}
+
+		private List<WebSocketMessageDTO> loadPage(WebSocketMessageDTO previous) {
+			try {
+				return loadMessages(previous);
+			} catch (DatabaseException e) {
+				LOGGER.warn("Failed to load messages of replay #" + id + ": " + e.getMessage(), e);
+				return Collections.emptyList();
+			}
+		}
+
+		private void send(WebSocketProxy connection, WebSocketChannelDTO connectionDTO, WebSocketMessageDTO original,
+				long startNanos, long firstTimestamp) throws InterruptedException {
+			if (speed != AS_FAST_AS_POSSIBLE) {
+				// relative to the start, pauses do not add up delays
+				long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(original.timestamp - firstTimestamp) / speed);
+				long sleepNanos = startNanos + offsetNanos - System.nanoTime();
+				if (sleepNanos > 0) {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				}
+			}
+
+			WebSocketMessageDTO message = new WebSocketMessageDTO();
+			original.copyInto(message);
+			message.channel = connectionDTO;
+			message.isOutgoing = Boolean.TRUE;
+			try {
+				pendingSendNanos.set(System.nanoTime());
+				if (connection.send(message, Initiator.MANUAL_REQUEST)) {
+					statistics.messageSent(original.payloadLength);
+				} else {
+					statistics.messageFailed();
+				}
+			} catch (IOException e) {
+				LOGGER.debug("Failed to send message of replay #" + id + ": " + e.getMessage());
+				statistics.messageFailed();
+			}
+		}
+
+		private void sendClose(WebSocketProxy connection) {
+			WebSocketMessageDTO closeMessage = new WebSocketMessageDTO(connection.getDTO());
+			closeMessage.opcode = WebSocketMessage.OPCODE_CLOSE;
+			closeMessage.closeCode = WebSocketMessage.STATUS_CODE_OK;
+			closeMessage.payload = Integer.toString(WebSocketMessage.STATUS_CODE_OK);
+			closeMessage.isOutgoing = true;
+			try {
+				connection.send(closeMessage, Initiator.MANUAL_REQUEST);
+			} catch (IOException e) {
+				LOGGER.debug("Failed to close connection " + connection + ": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public int getListenerOrder() {
+			return 0;
+		}
+
+		@Override
+		public void onMessageFrame(int channelId, WebSocketMessage message, Initiator initiator) {
+			if (message.getDirection() != WebSocketMessage.Direction.INCOMING
+					|| !message.isFinished()
+					|| message.isControl()) {
+				return;
+			}
+			long sentNanos = pendingSendNanos.getAndSet(0);
+			statistics.messageReceived();
+			if (sentNanos != 0) {
+				statistics.roundTrip(System.nanoTime() - sentNanos);
+			}
+		}
+
+		@Override
+		public void onStateChange(State state, WebSocketProxy proxy) {
+			if (state == State.CLOSED) {
+				closed.countDown();
+			}
+		}
+	}
+
+	private static class ReplayThreadFactory implements ThreadFactory {
+
+		private final String namePrefix;
+
+		private final AtomicInteger threadNumber;
+
+		ReplayThreadFactory(int replayId) {
+			this.namePrefix = "ZAP-WS-Replay-" + replayId + "-";
+			this.threadNumber = new AtomicInteger(1);
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, namePrefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.replay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the clients, messages and bytes of a {@link WebSocketReplay} and
+ * measures the round trip times, i.e. the time between a message was sent and
+ * the next message received by the same client.
+ * <p>
+ * Updated by the clients without locking.
+ */
+public class WebSocketReplayStatistics {
+
+	/**
+	 * Number of buckets of the round trip histogram. Bucket {@code i} counts
+	 * round trips of less than 2<sup>i</sup> microseconds, the last bucket
+	 * also counts all slower round trips.
+	 */
+	public static final int ROUND_TRIP_BUCKETS = 32;
+
+	private final long startNanos;
+
+	private volatile long endNanos;
+
+	private final AtomicLong clientsConnected = new AtomicLong();
+
+	private final AtomicLong clientsFailed = new AtomicLong();
+
+	private final AtomicLong messagesSent = new AtomicLong();
+
+	private final AtomicLong messagesFailed = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final AtomicLong messagesReceived = new AtomicLong();
+
+	private final AtomicLongArray roundTrips = new AtomicLongArray(ROUND_TRIP_BUCKETS);
+
+	private final AtomicLong roundTripCount = new AtomicLong();
+
+	private final AtomicLong roundTripTotalNanos = new AtomicLong();
+
+	private final AtomicLong roundTripMaxNanos = new AtomicLong();
+
+	public WebSocketReplayStatistics() {
+		this.startNanos = System.nanoTime();
+	}
+
+	void clientConnected() {
+		clientsConnected.incrementAndGet();
+	}
+
+	void clientFailed() {
+		clientsFailed.incrementAndGet();
+	}
+
+	void messageSent(long payloadLength) {
+		messagesSent.incrementAndGet();
+		bytesSent.addAndGet(payloadLength);
+	}
+
+	void messageFailed() {
+		messagesFailed.incrementAndGet();
+	}
+
+	void messageReceived() {
+		messagesReceived.incrementAndGet();
+	}
+
+	/**
+	 * @param nanos time between a message was sent and the next one received
+	 */
+	void roundTrip(long nanos) {
+		roundTrips.incrementAndGet(roundTripBucket(nanos));
+		roundTripCount.incrementAndGet();
+		roundTripTotalNanos.addAndGet(nanos);
+
+		long max;
+		do {
+			max = roundTripMaxNanos.get();
+		} while (nanos > max && !roundTripMaxNanos.compareAndSet(max, nanos));
+	}
+
+	private static int roundTripBucket(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, ROUND_TRIP_BUCKETS - 1);
+	}
+
+	/**
+	 * Called once all clients are done, stops the clock.
+	 */
+	void finished() {
+		if (endNanos == 0) {
+			endNanos = System.nanoTime();
+		}
+	}
+
+	public boolean isFinished() {
+		return endNanos != 0;
+	}
+
+	public long getClientsConnected() {
+		return clientsConnected.get();
+	}
+
+	public long getClientsFailed() {
+		return clientsFailed.get();
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public long getMessagesFailed() {
+		return messagesFailed.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	/**
+	 * @return seconds since the replay was started, until it finished
+	 */
+	public double getElapsedSeconds() {
+		long end = isFinished() ? endNanos : System.nanoTime();
+		return (end - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return average number of messages sent per second
+	 */
+	public double getMessagesPerSecond() {
+		double seconds = getElapsedSeconds();
+		return (seconds <= 0) ? 0 : getMessagesSent() / seconds;
+	}
+
+	/**
+	 * @return average number of payload bytes sent per second
+	 */
+	public double getBytesPerSecond() {
+		double seconds = getElapsedSeconds();
+		return (seconds <= 0) ? 0 : getBytesSent() / seconds;
+	}
+
+	public long getRoundTripCount() {
+		return roundTripCount.get();
+	}
+
+	/**
+	 * @return average round trip time in microseconds
+	 */
+	public double getAverageRoundTripMicros() {
+		long count = roundTripCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMicros(roundTripTotalNanos.get()) / (double) count;
+	}
+
+	/**
+	 * @return slowest round trip time in microseconds
+	 */
+	public long getMaxRoundTripMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(roundTripMaxNanos.get());
+	}
+
+	/**
+	 * @return copy of the round trip histogram, see {@link #ROUND_TRIP_BUCKETS}
+	 */
+	public long[] getRoundTripHistogram() {
+		long[] histogram = new long[ROUND_TRIP_BUCKETS];
+		for (int i = 0; i < ROUND_TRIP_BUCKETS; i++) {
+			histogram[i] = roundTrips.get(i);
+		}
+		return histogram;
+	}
+}
@@ -19,6 +19,7 @@ package org.zaproxy.zap.extension.websocket.ui;
 
 import org.apache.commons.configuration.FileConfiguration;
 import org.parosproxy.paros.common.AbstractParam;
+import org.zaproxy.zap.extension.websocket.WebSocketLimits;
 
 public class OptionsParamWebSocket extends AbstractParam {
 //    private static Logger logger = Logger.getLogger(OptionsParamWebSocket.class);
@@ -26,12 +27,32 @@ public class OptionsParamWebSocket extends AbstractParam {
 	public static final String FORWARD_ALL = "websocket.forwardAll";
 	public static final String BREAK_ON_PING_PONG = "websocket.breakOnPingPong";
 	public static final String BREAK_ON_ALL = "websocket.breakOnAll";
+	public static final String FORWARD_FIRST = "websocket.forwardFirst";
+	public static final String STORAGE_COMPRESS_THRESHOLD = "websocket.storage.compressThreshold";
+	public static final String STORAGE_SPILL_THRESHOLD = "websocket.storage.spillThreshold";
+	public static final int DEFAULT_STORAGE_COMPRESS_THRESHOLD = 64;
+	public static final int DEFAULT_STORAGE_SPILL_THRESHOLD = 0;
+	public static final String LIMITS_MAX_MESSAGE_SIZE = "websocket.limits.maxMessageSize";
+	public static final String LIMITS_MAX_FRAMES_IN_FLIGHT = "websocket.limits.maxFramesInFlight";
+	public static final String LIMITS_MAX_BUFFERED_BYTES = "websocket.limits.maxBufferedBytes";
+	public static final String LIMITS_POLICY = "websocket.limits.policy";
+	/**
+	 * Largest size in KiB, that can still be expressed in bytes.
+	 */
+	public static final int MAX_LIMIT_KIB = Integer.MAX_VALUE / 1024;
 	private static final String CONFIRM_REMOVE_PROXY_EXCLUDE_REGEX_KEY = "websocket.confirmRemoveProxyExcludeRegex";
 
 	private boolean isForwardAll;
 	private boolean isBreakOnPingPong;
 	private boolean isBreakOnAll;
 	private boolean confirmRemoveProxyExcludeRegex;
+	private boolean isForwardFirst;
+	private int storageCompressThreshold;
+	private int storageSpillThreshold;
+	private int maxMessageSize;
+	private int maxFramesInFlight;
+	private int maxBufferedBytes;
+	private WebSocketLimits.Policy limitsPolicy;
 
     @Override
     protected void parse() {
@@ -40,6 +61,18 @@ public class OptionsParamWebSocket extends AbstractParam {
     	isBreakOnPingPong = cfg.getBoolean(BREAK_ON_PING_PONG, false);
     	isBreakOnAll = cfg.getBoolean(BREAK_ON_ALL, false);
     	confirmRemoveProxyExcludeRegex = cfg.getBoolean(CONFIRM_REMOVE_PROXY_EXCLUDE_REGEX_KEY, false);
+    	isForwardFirst = cfg.getBoolean(FORWARD_FIRST, false);
+    	storageCompressThreshold = cfg.getInt(STORAGE_COMPRESS_THRESHOLD, DEFAULT_STORAGE_COMPRESS_THRESHOLD);
+    	storageSpillThreshold = cfg.getInt(STORAGE_SPILL_THRESHOLD, DEFAULT_STORAGE_SPILL_THRESHOLD);
+    	maxMessageSize = Math.min(Math.max(cfg.getInt(LIMITS_MAX_MESSAGE_SIZE, 0), 0), MAX_LIMIT_KIB);
+    	maxFramesInFlight = Math.max(cfg.getInt(LIMITS_MAX_FRAMES_IN_FLIGHT, 0), 0);
+    	maxBufferedBytes = Math.min(Math.max(cfg.getInt(LIMITS_MAX_BUFFERED_BYTES, 0), 0), MAX_LIMIT_KIB);
+    	try {
+    		limitsPolicy = WebSocketLimits.Policy.valueOf(
+    				cfg.getString(LIMITS_POLICY, WebSocketLimits.Policy.CLOSE.name()));
+    	} catch (IllegalArgumentException e) {
+    		limitsPolicy = WebSocketLimits.Policy.CLOSE;
+    	}
     }
 
     /**
@@ -106,6 +139,155 @@ public class OptionsParamWebSocket extends AbstractParam {
 		getConfig().setProperty(BREAK_ON_ALL, isBreakOnAll);
 	}
 
+	/**
+	 * If true, then messages of new channels are forwarded before they are
+	 * stored and shown in the user interface. Breakpoints and filters are
+	 * still applied before forwarding.
+	 * 
+	 * @return True if passive observers should be notified after forwarding.
+	 */
+	public boolean isForwardFirst() {
+		return isForwardFirst;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#isForwardFirst()
+	 * 
+	 * @param isForwardFirst
+	 */
+	public void setForwardFirst(boolean isForwardFirst) {
+		this.isForwardFirst = isForwardFirst;
+		getConfig().setProperty(FORWARD_FIRST, isForwardFirst);
+	}
+
+	/**
+	 * Payloads of at least this size are stored compressed, if that saves
+	 * space.
+	 * 
+	 * @return Threshold in KiB, 0 if payloads are never compressed.
+	 */
+	public int getStorageCompressThreshold() {
+		return storageCompressThreshold;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getStorageCompressThreshold()
+	 * 
+	 * @param threshold
+	 */
+	public void setStorageCompressThreshold(int threshold) {
+		this.storageCompressThreshold = threshold;
+		getConfig().setProperty(STORAGE_COMPRESS_THRESHOLD, threshold);
+	}
+
+	/**
+	 * Payloads of at least this size are stored in segment files next to the
+	 * database. Only a preview of them is kept in the database.
+	 * 
+	 * @return Threshold in KiB, 0 if all payloads are stored in the database.
+	 */
+	public int getStorageSpillThreshold() {
+		return storageSpillThreshold;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getStorageSpillThreshold()
+	 * 
+	 * @param threshold
+	 */
+	public void setStorageSpillThreshold(int threshold) {
+		this.storageSpillThreshold = threshold;
+		getConfig().setProperty(STORAGE_SPILL_THRESHOLD, threshold);
+	}
+
+	/**
+	 * Maximum payload size of a single message, larger messages are handled
+	 * according to {@link #getLimitsPolicy()}.
+	 * 
+	 * @return Size in KiB, 0 if unlimited.
+	 */
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getMaxMessageSize()
+	 * 
+	 * @param maxMessageSize
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+		getConfig().setProperty(LIMITS_MAX_MESSAGE_SIZE, maxMessageSize);
+	}
+
+	/**
+	 * Maximum number of frames of an unfinished message, that are held back
+	 * (e.g. by a breakpoint).
+	 * 
+	 * @return Number of frames, 0 if unlimited.
+	 */
+	public int getMaxFramesInFlight() {
+		return maxFramesInFlight;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getMaxFramesInFlight()
+	 * 
+	 * @param maxFramesInFlight
+	 */
+	public void setMaxFramesInFlight(int maxFramesInFlight) {
+		this.maxFramesInFlight = maxFramesInFlight;
+		getConfig().setProperty(LIMITS_MAX_FRAMES_IN_FLIGHT, maxFramesInFlight);
+	}
+
+	/**
+	 * Maximum payload bytes of a channel, that were forwarded but are not yet
+	 * stored and shown in the user interface (see {@link #isForwardFirst()}).
+	 * 
+	 * @return Size in KiB, 0 if unlimited.
+	 */
+	public int getMaxBufferedBytes() {
+		return maxBufferedBytes;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getMaxBufferedBytes()
+	 * 
+	 * @param maxBufferedBytes
+	 */
+	public void setMaxBufferedBytes(int maxBufferedBytes) {
+		this.maxBufferedBytes = maxBufferedBytes;
+		getConfig().setProperty(LIMITS_MAX_BUFFERED_BYTES, maxBufferedBytes);
+	}
+
+	/**
+	 * @return What to do when one of the limits is exceeded.
+	 */
+	public WebSocketLimits.Policy getLimitsPolicy() {
+		return limitsPolicy;
+	}
+
+	/**
+	 * @see OptionsParamWebSocket#getLimitsPolicy()
+	 * 
+	 * @param policy
+	 */
+	public void setLimitsPolicy(WebSocketLimits.Policy policy) {
+		this.limitsPolicy = policy;
+		getConfig().setProperty(LIMITS_POLICY, policy.name());
+	}
+
+	/**
+	 * @return Limits for new channels, built from the options.
+	 */
+	public WebSocketLimits getLimits() {
+		return new WebSocketLimits(
+				Math.min(maxMessageSize, MAX_LIMIT_KIB) * 1024,
+				maxFramesInFlight,
+				Math.min(maxBufferedBytes, MAX_LIMIT_KIB) * 1024,
+				limitsPolicy);
+	}
+
 	public boolean isConfirmRemoveProxyExcludeRegex() {
 		return this.confirmRemoveProxyExcludeRegex;
 	}
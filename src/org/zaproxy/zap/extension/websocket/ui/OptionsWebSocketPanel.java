@@ -25,11 +25,16 @@ import java.awt.GridBagLayout;
 import java.awt.Insets;
 
 import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.border.EmptyBorder;
 
 import org.parosproxy.paros.Constant;
 import org.parosproxy.paros.view.AbstractParamPanel;
+import org.zaproxy.zap.extension.websocket.WebSocketLimits;
+import org.zaproxy.zap.utils.ZapNumberSpinner;
 
 /**
  * The GUI WebSocket options panel.
@@ -40,6 +45,11 @@ import org.parosproxy.paros.view.AbstractParamPanel;
  * <li>Break on All - react on breakpoints set for all requests/responses.</li>
  * <li>Break on Ping/Pong - react on Ping & Pong messages that arrive while
  * stepping or waiting for all requests/responses.</li>
+ * <li>Forward First - store and show messages after forwarding them.</li>
+ * <li>Compress/Spill Threshold - store large payloads compressed or in segment
+ * files.</li>
+ * <li>Limits - bound the memory used by a single channel and what to do when
+ * exceeded.</li>
  * </ul>
  * </p>
  */
@@ -55,6 +65,18 @@ public class OptionsWebSocketPanel extends AbstractParamPanel {
     private static final String LABEL_FORWARD_ALL = Constant.messages.getString("websocket.options.forward_all");
     private static final String LABEL_BREAK_ON_PING_PONG = Constant.messages.getString("websocket.options.break_on_ping_pong");
     private static final String LABEL_BREAK_ON_ALL = Constant.messages.getString("websocket.options.break_on_all");
+    private static final String LABEL_FORWARD_FIRST = Constant.messages.getString("websocket.options.forward_first");
+    private static final String LABEL_COMPRESS_THRESHOLD = Constant.messages.getString("websocket.options.storage_compress_threshold");
+    private static final String LABEL_SPILL_THRESHOLD = Constant.messages.getString("websocket.options.storage_spill_threshold");
+    private static final String LABEL_MAX_MESSAGE_SIZE = Constant.messages.getString("websocket.options.limits_max_message_size");
+    private static final String LABEL_MAX_FRAMES_IN_FLIGHT = Constant.messages.getString("websocket.options.limits_max_frames_in_flight");
+    private static final String LABEL_MAX_BUFFERED_BYTES = Constant.messages.getString("websocket.options.limits_max_buffered_bytes");
+    private static final String LABEL_LIMITS_POLICY = Constant.messages.getString("websocket.options.limits_policy");
+    
+    /**
+     * Maximum threshold in KiB (1 GiB).
+     */
+    private static final int MAX_STORAGE_THRESHOLD = 1024 * 1024;
 
     /**
 	 * Represents the model containing current values. Is able to save back to
@@ -65,6 +87,13 @@ public class OptionsWebSocketPanel extends AbstractParamPanel {
 	private JCheckBox checkBoxForwardAll;
 	private JCheckBox checkBoxBreakOnPingPong;
 	private JCheckBox checkBoxBreakOnAll;
+	private JCheckBox checkBoxForwardFirst;
+	private ZapNumberSpinner spinnerCompressThreshold;
+	private ZapNumberSpinner spinnerSpillThreshold;
+	private ZapNumberSpinner spinnerMaxMessageSize;
+	private ZapNumberSpinner spinnerMaxFramesInFlight;
+	private ZapNumberSpinner spinnerMaxBufferedBytes;
+	private JComboBox<String> comboBoxLimitsPolicy;
 	
     public OptionsWebSocketPanel(OptionsParamWebSocket wsParams) {
         super();
@@ -100,6 +129,48 @@ public class OptionsWebSocketPanel extends AbstractParamPanel {
         gbc.insets = new Insets(2,2,2,2);
         panel.add(getCheckBoxBreakOnPingPong(), gbc);
         
+        gbc = new GridBagConstraints();
+        gbc.gridy = 3;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(getCheckBoxForwardFirst(), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 4;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_COMPRESS_THRESHOLD, getSpinnerCompressThreshold()), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 5;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_SPILL_THRESHOLD, getSpinnerSpillThreshold()), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 6;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_MAX_MESSAGE_SIZE, getSpinnerMaxMessageSize()), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 7;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_MAX_FRAMES_IN_FLIGHT, getSpinnerMaxFramesInFlight()), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 8;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_MAX_BUFFERED_BYTES, getSpinnerMaxBufferedBytes()), gbc);
+        
+        gbc = new GridBagConstraints();
+        gbc.gridy = 9;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(2,2,2,2);
+        panel.add(createLabeledRow(LABEL_LIMITS_POLICY, getComboBoxLimitsPolicy()), gbc);
+        
         return panel;
 	}
 
@@ -123,17 +194,89 @@ public class OptionsWebSocketPanel extends AbstractParamPanel {
         }
         return checkBoxBreakOnPingPong;
     }
+
+	private JCheckBox getCheckBoxForwardFirst() {
+        if (checkBoxForwardFirst == null) {
+        	checkBoxForwardFirst = new JCheckBox(LABEL_FORWARD_FIRST);
+        }
+        return checkBoxForwardFirst;
+    }
+
+	private ZapNumberSpinner getSpinnerCompressThreshold() {
+        if (spinnerCompressThreshold == null) {
+        	spinnerCompressThreshold = new ZapNumberSpinner(0, OptionsParamWebSocket.DEFAULT_STORAGE_COMPRESS_THRESHOLD, MAX_STORAGE_THRESHOLD);
+        }
+        return spinnerCompressThreshold;
+    }
+
+	private ZapNumberSpinner getSpinnerSpillThreshold() {
+        if (spinnerSpillThreshold == null) {
+        	spinnerSpillThreshold = new ZapNumberSpinner(0, OptionsParamWebSocket.DEFAULT_STORAGE_SPILL_THRESHOLD, MAX_STORAGE_THRESHOLD);
+        }
+        return spinnerSpillThreshold;
+    }
+
+	private ZapNumberSpinner getSpinnerMaxMessageSize() {
+        if (spinnerMaxMessageSize == null) {
+        	spinnerMaxMessageSize = new ZapNumberSpinner(0, 0, OptionsParamWebSocket.MAX_LIMIT_KIB);
+        }
+        return spinnerMaxMessageSize;
+    }
+
+	private ZapNumberSpinner getSpinnerMaxFramesInFlight() {
+        if (spinnerMaxFramesInFlight == null) {
+        	spinnerMaxFramesInFlight = new ZapNumberSpinner(0, 0, Integer.MAX_VALUE);
+        }
+        return spinnerMaxFramesInFlight;
+    }
+
+	private ZapNumberSpinner getSpinnerMaxBufferedBytes() {
+        if (spinnerMaxBufferedBytes == null) {
+        	spinnerMaxBufferedBytes = new ZapNumberSpinner(0, 0, OptionsParamWebSocket.MAX_LIMIT_KIB);
+        }
+        return spinnerMaxBufferedBytes;
+    }
+
+	/**
+	 * Items are in the order of {@link WebSocketLimits.Policy#values()}.
+	 */
+	private JComboBox<String> getComboBoxLimitsPolicy() {
+        if (comboBoxLimitsPolicy == null) {
+        	comboBoxLimitsPolicy = new JComboBox<>();
+        	for (WebSocketLimits.Policy policy : WebSocketLimits.Policy.values()) {
+        		comboBoxLimitsPolicy.addItem(Constant.messages.getString(
+        				"websocket.options.limits_policy." + policy.name().toLowerCase()));
+        	}
+        }
+        return comboBoxLimitsPolicy;
+    }
+
+	private static Component createLabeledRow(String label, JComponent field) {
+        JPanel row = new JPanel(new FlowLayout(FlowLayout.LEADING, 4, 0));
+        JLabel jLabel = new JLabel(label);
+        jLabel.setLabelFor(field);
+        row.add(jLabel);
+        row.add(field);
+        return row;
+    }
     
     @Override
     public void initParam(Object obj) {
         checkBoxForwardAll.setSelected(wsParams.isForwardAll());
         checkBoxBreakOnAll.setSelected(wsParams.isBreakOnAll());
         checkBoxBreakOnPingPong.setSelected(wsParams.isBreakOnPingPong());
+        checkBoxForwardFirst.setSelected(wsParams.isForwardFirst());
+        spinnerCompressThreshold.setValue(wsParams.getStorageCompressThreshold());
+        spinnerSpillThreshold.setValue(wsParams.getStorageSpillThreshold());
+        spinnerMaxMessageSize.setValue(wsParams.getMaxMessageSize());
+        spinnerMaxFramesInFlight.setValue(wsParams.getMaxFramesInFlight());
+        spinnerMaxBufferedBytes.setValue(wsParams.getMaxBufferedBytes());
+        comboBoxLimitsPolicy.setSelectedIndex(wsParams.getLimitsPolicy().ordinal());
     }
 
     @Override
     public void validateParam(Object obj) {
-    	// no validation needed for these check boxes
+    	// no validation needed, spinners are bounded
     }
 
     @Override
@@ -141,6 +284,13 @@ public class OptionsWebSocketPanel extends AbstractParamPanel {
     	wsParams.setForwardAll(checkBoxForwardAll.isSelected());
     	wsParams.setBreakOnAll(checkBoxBreakOnAll.isSelected());
     	wsParams.setBreakOnPingPong(checkBoxBreakOnPingPong.isSelected());
+    	wsParams.setForwardFirst(checkBoxForwardFirst.isSelected());
+    	wsParams.setStorageCompressThreshold(spinnerCompressThreshold.getValue());
+    	wsParams.setStorageSpillThreshold(spinnerSpillThreshold.getValue());
+    	wsParams.setMaxMessageSize(spinnerMaxMessageSize.getValue());
+    	wsParams.setMaxFramesInFlight(spinnerMaxFramesInFlight.getValue());
+    	wsParams.setMaxBufferedBytes(spinnerMaxBufferedBytes.getValue());
+    	wsParams.setLimitsPolicy(WebSocketLimits.Policy.values()[comboBoxLimitsPolicy.getSelectedIndex()]);
     }
     
     @Override
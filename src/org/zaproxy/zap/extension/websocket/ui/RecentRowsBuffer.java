@@ -0,0 +1,100 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring buffer of the last rows appended to a table model,
+ * addressed by their row index. Once full, each appended row replaces the
+ * oldest one. Not thread-safe.
+ *
+ * @param <T> type of the rows
+ */
+final class RecentRowsBuffer<T> {
+
+	private final Object[] rows;
+
+	/**
+	 * Row index of the next appended row.
+	 */
+	private int nextRowIndex;
+
+	private int size;
+
+	/**
+	 * @param capacity maximum number of buffered rows
+	 */
+	RecentRowsBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.rows = new Object[capacity];
+	}
+
+	/**
+	 * Removes all rows, the next appended row gets the given index.
+	 *
+	 * @param nextRowIndex
+	 */
+	void reset(int nextRowIndex) {
+		Arrays.fill(rows, null);
+		this.nextRowIndex = nextRowIndex;
+		this.size = 0;
+	}
+
+	/**
+	 * @param row
+	 * @return row index of the appended row
+	 */
+	int add(T row) {
+		int rowIndex = nextRowIndex++;
+		rows[rowIndex % rows.length] = row;
+		if (size < rows.length) {
+			size++;
+		}
+		return rowIndex;
+	}
+
+	/**
+	 * @param rowIndex
+	 * @return the row or {@code null} if it is not (or no longer) buffered
+	 */
+	@SuppressWarnings("unchecked")
+	T get(int rowIndex) {
+		if (rowIndex < getFirstRowIndex() || rowIndex >= nextRowIndex) {
+			return null;
+		}
+		return (T) rows[rowIndex % rows.length];
+	}
+
+	/**
+	 * @return row index of the oldest buffered row
+	 */
+	int getFirstRowIndex() {
+		return nextRowIndex - size;
+	}
+
+	int getNextRowIndex() {
+		return nextRowIndex;
+	}
+
+	int size() {
+		return size;
+	}
+}
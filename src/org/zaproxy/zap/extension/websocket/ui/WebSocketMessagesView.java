@@ -57,6 +57,12 @@ public class WebSocketMessagesView implements Runnable {
 	private HttpPanel responsePanel;
     private Vector<WebSocketMessageDTO> displayQueue;
     
+    /**
+     * True if the queued message is still queued for storage, guarded by
+     * {@link #displayQueue}.
+     */
+    private boolean isStoragePending;
+    
     private Thread thread = null;
 	
 	public WebSocketMessagesView(WebSocketMessagesViewModel model) {
@@ -151,8 +157,8 @@ public class WebSocketMessagesView implements Runnable {
 				    // as we use a JXTable here, that can be sorted, we have to
 				    // transform the row index to the appropriate model row
                     int modelRow = view.convertRowIndexToModel(rowIndex);
-					final WebSocketMessageDTO message = model.getDTO(modelRow);
-                    readAndDisplay(message);
+					final WebSocketMessageDTO message = model.getDTO(modelRow, true);
+                    readAndDisplay(message, model.isStoragePending(modelRow, message));
 				}
 			}
 		};
@@ -200,6 +206,7 @@ public class WebSocketMessagesView implements Runnable {
     @Override
     public void run() {
         WebSocketMessageDTO message = null;
+        boolean storagePending = false;
         int count = 0;
         
         do {
@@ -211,6 +218,21 @@ public class WebSocketMessagesView implements Runnable {
                 
                 message = displayQueue.get(0);
                 displayQueue.remove(0);
+                storagePending = isStoragePending;
+            }
+            
+            if (storagePending) {
+                // wait for the full message here, not on the event dispatch thread
+                WebSocketMessageDTO storedMessage = model.getDTOWhenStored(message);
+                storedMessage.tempUserObj = message.tempUserObj;
+                message = storedMessage;
+                
+                synchronized(displayQueue) {
+                    if (displayQueue.size() > 0) {
+                        // selection changed meanwhile
+                        continue;
+                    }
+                }
             }
             
             try {
@@ -250,7 +272,7 @@ public class WebSocketMessagesView implements Runnable {
         this.responsePanel = responsePanel;
     }
     
-    private void readAndDisplay(final WebSocketMessageDTO message) {
+    private void readAndDisplay(final WebSocketMessageDTO message, boolean storagePending) {
     	if (message == null) {
     		return;
     	}
@@ -262,6 +284,7 @@ public class WebSocketMessagesView implements Runnable {
 
             message.tempUserObj = WebSocketPanel.connectedChannelIds.contains(message.channel.id);
             displayQueue.add(message);
+            isStoragePending = storagePending;
         }
         
         if (thread != null && thread.isAlive()) {
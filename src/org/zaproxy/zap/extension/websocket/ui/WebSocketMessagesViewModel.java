@@ -17,10 +17,17 @@
  */
 package org.zaproxy.zap.extension.websocket.ui;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
 
 import javax.swing.ImageIcon;
+import javax.swing.Timer;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang.StringEscapeUtils;
@@ -33,6 +40,8 @@ import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
 import org.zaproxy.zap.extension.websocket.db.WebSocketMessagePrimaryKey;
+import org.zaproxy.zap.extension.websocket.ui.httppanel.views.large.WebSocketLargePayloadUtil;
+import org.zaproxy.zap.extension.websocket.ui.httppanel.views.large.WebSocketLargePayloadView;
 import org.zaproxy.zap.extension.websocket.utility.InvalidUtf8Exception;
 import org.zaproxy.zap.utils.PagingTableModel;
 
@@ -40,6 +49,12 @@ import org.zaproxy.zap.utils.PagingTableModel;
  * This model uses the {@link TableWebSocket} instance to load only needed
  * entries from database. Moreover it shows only those entries that are not
  * blacklisted by given {@link WebSocketMessagesViewFilter}.
+ * <p>
+ * Arriving messages are not counted nor loaded from the database. Their
+ * previews are collected and appended at most every
+ * {@link #ARRIVED_MESSAGES_DELAY} milliseconds with one event, the last
+ * {@link #RECENT_ROWS_CAPACITY} rows are kept in memory. Only rows before
+ * are loaded page by page from the database.
  */
 public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessageDTO> {
 	
@@ -49,6 +64,16 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	
 	private static final int PAYLOAD_PREVIEW_LENGTH = 150;
 	
+	/**
+	 * Number of most recently arrived messages served from memory.
+	 */
+	private static final int RECENT_ROWS_CAPACITY = 2000;
+	
+	/**
+	 * Milliseconds arriving messages are collected, before they are appended.
+	 */
+	private static final int ARRIVED_MESSAGES_DELAY = 100;
+	
 	/**
 	 * Names of all columns.
 	 */
@@ -81,14 +106,41 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	private Integer activeChannelId;
 
 	/**
-	 * Avoid having two much SQL queries by caching result and allow next query
-	 * after new message has arrived.
+	 * Avoid having two much SQL queries by caching result, which is increased
+	 * as messages arrive. Queried again after the data has changed.
 	 */
 	private Integer cachedRowCount;
 	private Object cachedRowCountSemaphore = new Object();
+	
+	/**
+	 * Previews of the last rows, guarded by {@link #cachedRowCountSemaphore}.
+	 */
+	private final RecentRowsBuffer<WebSocketMessageDTO> recentRows;
+	
+	/**
+	 * Highest message ID per channel when {@link #cachedRowCount} was
+	 * queried, guarded by {@link #cachedRowCountSemaphore}. Arrived messages
+	 * up to these IDs are already counted and must not be appended again.
+	 */
+	private Map<Integer, Integer> countedMaxMessageIds;
+	
+	/**
+	 * Previews of arrived messages, not yet appended.
+	 */
+	private final List<WebSocketMessageDTO> arrivedMessages;
+	
+	private final Timer arrivedMessagesTimer;
 
 	private LRUMap fullMessagesCache;
 	
+	/**
+	 * Last message of recently loaded pages, by the row index following it.
+	 * Allows to load the next page with
+	 * {@link TableWebSocket#getMessagesAfter(WebSocketMessageDTO, List, List, WebSocketMessageDTO, int, int)}
+	 * instead of an offset, which gets slow for large sessions.
+	 */
+	private LRUMap pageBoundaries;
+	
 	private static final ImageIcon outgoingDirection;
 	private static final ImageIcon incomingDirection;
 	
@@ -117,6 +169,19 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		
 		table = webSocketTable;
 		fullMessagesCache = new LRUMap(10);
+		pageBoundaries = new LRUMap(20);
+		
+		recentRows = new RecentRowsBuffer<>(RECENT_ROWS_CAPACITY);
+		countedMaxMessageIds = Collections.emptyMap();
+		arrivedMessages = new ArrayList<>();
+		arrivedMessagesTimer = new Timer(ARRIVED_MESSAGES_DELAY, new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				appendArrivedMessages();
+			}
+		});
+		arrivedMessagesTimer.setRepeats(false);
 	}
 
 	protected TableWebSocket getTable() {
@@ -143,8 +208,30 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		}
 		try {
 			synchronized (cachedRowCountSemaphore) {
-				if (cachedRowCount == null) {					
-					cachedRowCount = table.getMessageCount(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope());
+				if (cachedRowCount == null) {
+					WebSocketMessageDTO criterionMessage = getCriterionMessage();
+					List<Integer> criterionOpcodes = getCriterionOpcodes();
+					List<Integer> criterionInScope = getCriterianInScope();
+					// messages might arrive while counting, remember which
+					// were counted with the same lock held by the table
+					synchronized (table) {
+						cachedRowCount = table.getMessageCount(criterionMessage, criterionOpcodes, criterionInScope);
+						countedMaxMessageIds = table.getMaxMessageIds();
+					}
+					recentRows.reset(cachedRowCount);
+					
+					// arrived messages might still be queued for storage,
+					// those are not counted and appended afterwards
+					synchronized (arrivedMessages) {
+						for (Iterator<WebSocketMessageDTO> it = arrivedMessages.iterator(); it.hasNext();) {
+							if (isCounted(it.next())) {
+								it.remove();
+							}
+						}
+						if (!arrivedMessages.isEmpty()) {
+							arrivedMessagesTimer.restart();
+						}
+					}
 				}
 				return cachedRowCount;
 			}
@@ -248,10 +335,38 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		return null;
 	}
 
+	@Override
+	protected WebSocketMessageDTO getRowObject(int rowIndex) {
+		synchronized (cachedRowCountSemaphore) {
+			WebSocketMessageDTO message = recentRows.get(rowIndex);
+			if (message != null) {
+				return message;
+			}
+		}
+		return super.getRowObject(rowIndex);
+	}
+
 	@Override
 	protected List<WebSocketMessageDTO> loadPage(int offset, int length) {
 		try {
-			return table.getMessages(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), offset, length, PAYLOAD_PREVIEW_LENGTH);
+			WebSocketMessageDTO previous;
+			synchronized (pageBoundaries) {
+				previous = (WebSocketMessageDTO) pageBoundaries.get(offset);
+			}
+			
+			List<WebSocketMessageDTO> page;
+			if (previous != null) {
+				page = table.getMessagesAfter(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), previous, length, PAYLOAD_PREVIEW_LENGTH);
+			} else {
+				page = table.getMessages(getCriterionMessage(), getCriterionOpcodes(), getCriterianInScope(), offset, length, PAYLOAD_PREVIEW_LENGTH);
+			}
+			
+			if (!page.isEmpty()) {
+				synchronized (pageBoundaries) {
+					pageBoundaries.put(offset + page.size(), page.get(page.size() - 1));
+				}
+			}
+			return page;
 		} catch (DatabaseException e) {
 			logger.error(e.getMessage(), e);
 			return new ArrayList<>(0);
@@ -306,6 +421,23 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	 * @return data transfer object
 	 */
 	public WebSocketMessageDTO getDTO(int rowIndex) {
+		return getDTO(rowIndex, false);
+	}
+
+	/**
+	 * Might return null. Always check!
+	 * <p>
+	 * Retrieves {@link WebSocketMessageDTO} from database, with full payload
+	 * unless it is a large payload and only displayed. Large payloads are
+	 * loaded page by page by {@link WebSocketLargePayloadView}, the message
+	 * contains just the preview of the payload then.
+	 * </p>
+	 * 
+	 * @param rowIndex
+	 * @param display True if the message is only displayed
+	 * @return data transfer object
+	 */
+	public WebSocketMessageDTO getDTO(int rowIndex, boolean display) {
 		WebSocketMessageDTO message = getRowObject(rowIndex);
 		
 		if (message == null) {
@@ -317,6 +449,14 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 			return (WebSocketMessageDTO) fullMessagesCache.get(pk);
 		} else if (message.id == null) {
 			return message;
+		} else if (display && WebSocketLargePayloadUtil.isLargePayload(message)) {
+			try {
+				// not cached, as the payload is incomplete
+				return table.getMessage(message.id, message.channel.id, WebSocketLargePayloadUtil.getMinContentLength());
+			} catch (DatabaseException e) {
+				logger.error("Error retrieving message!", e);
+				return message;
+			}
 		} else {
 			try {
 				WebSocketMessageDTO fullMessage = table.getMessage(message.id, message.channel.id);
@@ -324,11 +464,51 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 				
 				return fullMessage;
 			} catch (DatabaseException e) {
-				logger.error("Error retrieving full message!",e);
+				if (isCounted(message)) {
+					logger.error("Error retrieving full message!",e);
+				} else {
+					logger.debug("Message not stored yet: " + pk);
+				}
 				return message;
 			}
 		}
 	}
+	
+	/**
+	 * Tells whether the given message, returned by {@link #getDTO(int, boolean)}
+	 * for the given row, is just the preview of the row, as the message
+	 * arrived recently and is still queued for storage.
+	 * 
+	 * @param rowIndex
+	 * @param message
+	 * @return true if the full message has to be retrieved with
+	 *         {@link #getDTOWhenStored(WebSocketMessageDTO)}
+	 */
+	public boolean isStoragePending(int rowIndex, WebSocketMessageDTO message) {
+		return message != null && message.id != null && !isCounted(message) && message == getRowObject(rowIndex);
+	}
+	
+	/**
+	 * Waits until the messages queued for storage are written and retrieves
+	 * the given message from database, like {@link #getDTO(int, boolean)}
+	 * does for displayed messages. Must not be called on the event dispatch
+	 * thread.
+	 * 
+	 * @param preview the message returned by {@link #getDTO(int, boolean)}
+	 * @return the retrieved message, the given preview if not stored in time
+	 * @see #isStoragePending(int, WebSocketMessageDTO)
+	 */
+	public WebSocketMessageDTO getDTOWhenStored(WebSocketMessageDTO preview) {
+		if (!table.waitForQueuedMessages()) {
+			return preview;
+		}
+		try {
+			return table.getMessage(preview.id, preview.channel.id, WebSocketLargePayloadUtil.getMinContentLength());
+		} catch (DatabaseException e) {
+			logger.error("Error retrieving message!", e);
+			return preview;
+		}
+	}
 
 	/**
 	 * Call this method when a new filter is applied on the messages list.
@@ -342,6 +522,7 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 	public void fireTableDataChanged() {
 		synchronized (cachedRowCountSemaphore) {
 			cachedRowCount = null;
+			recentRows.reset(0);
 		}
 		super.fireTableDataChanged();
 	}
@@ -352,35 +533,141 @@ public class WebSocketMessagesViewModel extends PagingTableModel<WebSocketMessag
 		
 		synchronized (cachedRowCountSemaphore) {
 			cachedRowCount = null;
+			recentRows.reset(0);
 		}
 		
 		fullMessagesCache.clear();
+		
+		synchronized (pageBoundaries) {
+			pageBoundaries.clear();
+		}
 	}
 
 	/**
-	 * A new message has arrived.
+	 * A new message has arrived, which must already be stored in the
+	 * database. Might be called from any thread, the row is appended later
+	 * on the event dispatch thread.
 	 * 
 	 * @param message
 	 */
 	public void fireMessageArrived(WebSocketMessageDTO message) {
-		boolean isWhitelistedChannel = (activeChannelId == null) || message.channel.id.equals(activeChannelId);
-		if ((filter != null && filter.isBlacklisted(message)) || !isWhitelistedChannel) {
+		if (!isShown(message)) {
 			// no need to fire update, as it isn't active now
 		} else {
-			// find out where it is inserted and update precisely
-			
-			// if new row is inserted at the end
-			// it suffices to fire inserted row at the end of list
-			
-			// with enabled row sorter, you'll have to take care about this
-			int rowCount = getRowCount();
+			// copy, as the given instance might be reused for the next message
+			WebSocketMessageDTO preview = createPreview(message);
+			synchronized (arrivedMessages) {
+				arrivedMessages.add(preview);
+				if (arrivedMessages.size() == 1) {
+					arrivedMessagesTimer.start();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends the given messages at once, which must already be stored or
+	 * queued for storage. Called on the event dispatch thread, with previews
+	 * created by {@link #createPreview(WebSocketMessageDTO)}.
+	 * <p>
+	 * The previews might have waited in the {@link WebSocketUiEventBus} while
+	 * the rows were counted, previews counted already are skipped.
+	 * 
+	 * @param previews
+	 */
+	public void fireMessagesArrived(List<WebSocketMessageDTO> previews) {
+		synchronized (arrivedMessages) {
+			for (WebSocketMessageDTO preview : previews) {
+				if (isShown(preview)) {
+					arrivedMessages.add(preview);
+				}
+			}
+		}
+		appendArrivedMessages();
+	}
+
+	private boolean isShown(WebSocketMessageDTO message) {
+		boolean isWhitelistedChannel = (activeChannelId == null) || message.channel.id.equals(activeChannelId);
+		return isWhitelistedChannel && (filter == null || !filter.isBlacklisted(message));
+	}
+	
+	/**
+	 * Creates a copy of the given message, whose payload is cut like the
+	 * payloads of the messages loaded by {@link #loadPage(int, int)}.
+	 * 
+	 * @param message
+	 * @return a new instance
+	 */
+	protected WebSocketMessageDTO createPreview(WebSocketMessageDTO message) {
+		WebSocketMessageDTO preview = new WebSocketMessageDTO();
+		message.copyInto(preview);
+		preview.tempUserObj = null;
+		
+		if (message.payload instanceof String) {
+			String payload = (String) message.payload;
+			if (payload.length() > PAYLOAD_PREVIEW_LENGTH) {
+				preview.payload = payload.substring(0, PAYLOAD_PREVIEW_LENGTH);
+			}
+		} else if (message.payload instanceof byte[]) {
+			byte[] payload = (byte[]) message.payload;
+			if (payload.length > PAYLOAD_PREVIEW_LENGTH) {
+				preview.payload = Arrays.copyOf(payload, PAYLOAD_PREVIEW_LENGTH);
+			}
+		}
+		return preview;
+	}
+	
+	/**
+	 * Appends the arrived messages to the end of the list with one event.
+	 * Called on the event dispatch thread.
+	 */
+	private void appendArrivedMessages() {
+		int firstRow;
+		int lastRow;
+		synchronized (cachedRowCountSemaphore) {
+			if (cachedRowCount == null) {
+				// stored messages are counted with the next query, the
+				// others are appended afterwards
+				return;
+			}
 			
-			synchronized (cachedRowCountSemaphore) {
-				cachedRowCount = null;
+			List<WebSocketMessageDTO> messages;
+			synchronized (arrivedMessages) {
+				if (arrivedMessages.isEmpty()) {
+					return;
+				}
+				messages = new ArrayList<>(arrivedMessages);
+				arrivedMessages.clear();
 			}
 			
-			fireTableRowsInserted(rowCount, rowCount);
+			firstRow = cachedRowCount;
+			int appended = 0;
+			for (WebSocketMessageDTO message : messages) {
+				if (isCounted(message)) {
+					continue;
+				}
+				recentRows.add(message);
+				appended++;
+			}
+			if (appended == 0) {
+				return;
+			}
+			cachedRowCount = firstRow + appended;
+			lastRow = cachedRowCount - 1;
 		}
+		
+		// with enabled row sorter, you'll have to take care about this
+		fireTableRowsInserted(firstRow, lastRow);
+	}
+
+	/**
+	 * @param message
+	 * @return true if the message was stored already when the rows were
+	 *         counted, i.e. is part of the current rows
+	 */
+	private boolean isCounted(WebSocketMessageDTO message) {
+		Integer maxMessageId = countedMaxMessageIds.get(message.channel.id);
+		return maxMessageId != null && message.id != null && message.id <= maxMessageId;
 	}
 
 	public Integer getModelRowIndexOf(WebSocketMessageDTO message) {
@@ -29,6 +29,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.swing.ImageIcon;
@@ -42,6 +44,7 @@ import javax.swing.JTabbedPane;
 import javax.swing.JToggleButton;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
+import javax.swing.Timer;
 
 import org.apache.log4j.Logger;
 import org.parosproxy.paros.Constant;
@@ -56,13 +59,15 @@ import org.parosproxy.paros.model.Session;
 import org.parosproxy.paros.network.HttpMessage;
 import org.parosproxy.paros.view.View;
 import org.zaproxy.zap.extension.httppanel.HttpPanel;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
 import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
 import org.zaproxy.zap.extension.websocket.WebSocketException;
 import org.zaproxy.zap.extension.websocket.WebSocketMessage;
 import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
-import org.zaproxy.zap.extension.websocket.WebSocketObserver;
+import org.zaproxy.zap.extension.websocket.WebSocketPassiveObserver;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy;
 import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.extension.websocket.WebSocketStatistics;
 import org.zaproxy.zap.extension.websocket.brk.WebSocketBreakpointsUiManagerInterface;
 import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
 import org.zaproxy.zap.extension.websocket.db.WebSocketStorage;
@@ -74,7 +79,7 @@ import org.zaproxy.zap.view.ZapToggleButton;
  * Represents the WebSockets tab. It listens to all WebSocket channels and
  * displays messages accordingly.
  */
-public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
+public class WebSocketPanel extends AbstractPanel implements WebSocketPassiveObserver {
 
 	private static final long serialVersionUID = -2853099315338427006L;
 
@@ -121,6 +126,20 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 
 	private JLabel filterStatus;
 	private WebSocketMessagesViewFilterDialog filterDialog;
+
+	private JButton searchButton;
+	private WebSocketPayloadSearchDialog searchDialog;
+	
+	/**
+	 * Shows frames & bytes per second and relay latency of the selected
+	 * channel (or all channels), updated every second.
+	 */
+	private JLabel statisticsStatus;
+	private ExtensionWebSocket statisticsSource;
+	private Timer statisticsTimer;
+	private WebSocketStatistics shownStatistics;
+	private long shownFrameCount;
+	private long shownByteCount;
 	
 	private JButton optionsButton;
 
@@ -136,6 +155,18 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	private HttpPanel responsePanel;
 
 	private SessionListener sessionListener;
+
+	/**
+	 * Passes state changes and messages from the relaying threads to the
+	 * models, in batches.
+	 */
+	private final WebSocketUiEventBus uiEventBus;
+
+	/**
+	 * Set if a channel was added since the last dispatch of the
+	 * {@link #uiEventBus}, accessed on the event dispatch thread only.
+	 */
+	private boolean isNewChannelDispatched;
 	
 	/**
 	 * Panel is added as tab beside the History tab.
@@ -157,6 +188,7 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 		
 		messagesModel = new WebSocketMessagesViewModel(table, getFilterDialog().getFilter());
 		messagesView = new WebSocketMessagesView(messagesModel);
+		uiEventBus = new WebSocketUiEventBus(new UiEventListener());
 
 		initializePanel();
 	}
@@ -251,6 +283,17 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 			constraints.gridx = x++;
 			panelToolbar.add(getFilterStatus(), constraints);
 
+			constraints = new GridBagConstraints();
+			constraints.gridx = x++;
+			panelToolbar.add(getSearchButton(), constraints);
+			
+			panelToolbar.addSeparator();
+			x++;
+			
+			constraints = new GridBagConstraints();
+			constraints.gridx = x++;
+			panelToolbar.add(getStatisticsStatus(), constraints);
+
 			// stretch pseudo-component to let options button appear on the right
 			constraints = new GridBagConstraints();
 			constraints.gridx = x++;
@@ -331,6 +374,30 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 		return filterButton;
 	}
 	
+	private JButton getSearchButton() {
+		if (searchButton == null) {
+			searchButton = new JButton();
+			searchButton.setIcon(new ImageIcon(WebSocketPanel.class.getResource("/resource/icon/16/049.png")));	// 'search' icon
+			searchButton.setToolTipText(Constant.messages.getString("websocket.toolbar.button.search"));
+			searchButton.addActionListener(new ActionListener() {
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					showSearchDialog();
+				}
+			});
+		}
+		return searchButton;
+	}
+
+	private void showSearchDialog() {
+		if (searchDialog == null) {
+			searchDialog = new WebSocketPayloadSearchDialog(View.getSingleton().getMainFrame(), this, table);
+			searchDialog.centreDialog();
+		}
+		searchDialog.setVisible(true);
+	}
+	
 	private JLabel getFilterStatus() {
 		if (filterStatus == null) {
 			String base = Constant.messages.getString("websocket.filter.label.filter");
@@ -340,6 +407,89 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 		return filterStatus;
 	}
 
+	private JLabel getStatisticsStatus() {
+		if (statisticsStatus == null) {
+			statisticsStatus = new JLabel();
+		}
+		return statisticsStatus;
+	}
+	
+	/**
+	 * Sets the extension providing the statistics shown in the toolbar and
+	 * starts to update them every second.
+	 * 
+	 * @param extension
+	 */
+	public void setStatisticsSource(ExtensionWebSocket extension) {
+		statisticsSource = extension;
+		if (statisticsTimer == null) {
+			statisticsTimer = new Timer(1000, new ActionListener() {
+
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					updateStatisticsStatus();
+				}
+			});
+			statisticsTimer.start();
+		}
+	}
+	
+	private void updateStatisticsStatus() {
+		WebSocketChannelDTO channel = (WebSocketChannelDTO) getChannelSelect().getSelectedItem();
+		WebSocketStatistics statistics;
+		if (channel != null && channel.id != null) {
+			statistics = statisticsSource.getChannelStatistics(channel.id);
+		} else {
+			statistics = statisticsSource.getStatistics();
+		}
+		
+		if (statistics == null) {
+			shownStatistics = null;
+			getStatisticsStatus().setText("");
+			getStatisticsStatus().setToolTipText(null);
+			return;
+		}
+		
+		long frameCount = statistics.getFrameCount();
+		long byteCount = statistics.getByteCount();
+		if (statistics != shownStatistics) {
+			// other channel selected, no rates yet
+			shownStatistics = statistics;
+			shownFrameCount = frameCount;
+			shownByteCount = byteCount;
+		}
+		
+		getStatisticsStatus().setText(Constant.messages.getString(
+				"websocket.toolbar.statistics",
+				Long.valueOf(frameCount - shownFrameCount),
+				Long.valueOf((byteCount - shownByteCount) / 1024),
+				Long.valueOf(Math.round(statistics.getAverageRelayLatencyMicros()))));
+		getStatisticsStatus().setToolTipText(getSlowestObserverText(statistics));
+		
+		shownFrameCount = frameCount;
+		shownByteCount = byteCount;
+	}
+	
+	private static String getSlowestObserverText(WebSocketStatistics statistics) {
+		String slowest = null;
+		double slowestAverage = -1;
+		for (Entry<String, WebSocketStatistics.ObserverTiming> entry : statistics.getObserverTimings().entrySet()) {
+			double average = entry.getValue().getAverageMicros();
+			if (average > slowestAverage) {
+				slowest = entry.getKey();
+				slowestAverage = average;
+			}
+		}
+		
+		if (slowest == null) {
+			return null;
+		}
+		return Constant.messages.getString(
+				"websocket.toolbar.statistics.tooltip",
+				slowest.substring(slowest.lastIndexOf('.') + 1),
+				Long.valueOf(Math.round(slowestAverage)));
+	}
+
 	private Component getShowHandshakeButton() {
 		if (handshakeButton == null) {
 			handshakeButton = new JButton();
@@ -451,36 +601,28 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	 * Collects WebSocket messages.
 	 */
 	@Override
-	public synchronized boolean onMessageFrame(final int channelId, WebSocketMessage message) {
+	public boolean onMessageFrame(final int channelId, WebSocketMessage message) {
 		if (message.isFinished()) {
-			messagesModel.fireMessageArrived(message.getDTO());
+			// copy, as the message's DTO is reused
+			uiEventBus.publishMessage(channelId, messagesModel.createPreview(message.getDTO()));
 		}
 		return true;
 	}
 
 	@Override
 	public void onStateChange(final State state, WebSocketProxy proxy) {
-		final WebSocketChannelDTO channel = proxy.getDTO();
-		
-		try {
-			if (EventQueue.isDispatchThread()) {
-				updateChannelsState(state, channel);
-			} else {
-				EventQueue.invokeAndWait(new Runnable() {
-					@Override
-					public void run() {
-						updateChannelsState(state, channel);
-					}
-				});
-			}
-		} catch (Exception e) {
-			logger.error(e.getMessage(), e);
-		}
+		uiEventBus.publishState(state, proxy.getDTO());
 	}
 	
-	private void updateChannelsState(State state, WebSocketChannelDTO channel)
+	/**
+	 * Called on the event dispatch thread.
+	 * 
+	 * @param state
+	 * @param channel
+	 * @return True if the channel was added to the UI.
+	 */
+	private boolean updateChannelsState(State state, WebSocketChannelDTO channel)
 	{
-		int connectedChannelsCount = 0;
 		boolean isNewChannel = false;
 		
 		synchronized (connectedChannelIds) {
@@ -523,18 +665,51 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 				
 			default:
 			}
-			
-			// change appearance of WebSocket tab header
+		}
+		return isNewChannel;
+	}
+
+	/**
+	 * Changes appearance of WebSocket tab header, once per dispatch of the
+	 * {@link #uiEventBus}.
+	 */
+	private void updateIconForChannels() {
+		int connectedChannelsCount;
+		synchronized (connectedChannelIds) {
 			connectedChannelsCount = connectedChannelIds.size();
 		}
 		
 		if (connectedChannelsCount == 0) {
 			// change icon, as no WebSocket channel is active
 			updateIcon(WebSocketPanel.disconnectIcon);
-		} else if (connectedChannelsCount > 0 && isNewChannel) {
+		} else if (isNewChannelDispatched) {
 			// change icon, as at least one WebSocket channel is active
 			updateIcon(WebSocketPanel.connectIcon);
 		}
+		isNewChannelDispatched = false;
+	}
+
+	/**
+	 * Applies the batched events of the {@link WebSocketPanel#uiEventBus}.
+	 */
+	private class UiEventListener implements WebSocketUiEventBus.Listener {
+
+		@Override
+		public void channelStateChanged(State state, WebSocketChannelDTO channel) {
+			if (updateChannelsState(state, channel)) {
+				isNewChannelDispatched = true;
+			}
+		}
+
+		@Override
+		public void messagesArrived(List<WebSocketMessageDTO> messages) {
+			messagesModel.fireMessagesArrived(messages);
+		}
+
+		@Override
+		public void eventsDispatched() {
+			updateIconForChannels();
+		}
 	}
 	
 	/**
@@ -795,12 +970,20 @@ public class WebSocketPanel extends AbstractPanel implements WebSocketObserver {
 	public void setTable(TableWebSocket table) {
 		this.table = table;
 		this.messagesModel.setTable(table);
+		if (searchDialog != null) {
+			searchDialog.setTable(table);
+		}
 	}
 
 	public void unload() {
+		uiEventBus.stop();
 		if (filterDialog != null) {
 			filterDialog.dispose();
 			filterDialog = null;
 		}
+		if (searchDialog != null) {
+			searchDialog.dispose();
+			searchDialog = null;
+		}
 	}
 }
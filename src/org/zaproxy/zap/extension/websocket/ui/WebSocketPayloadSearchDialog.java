@@ -0,0 +1,329 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.Constant;
+import org.parosproxy.paros.extension.AbstractDialog;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.db.TableWebSocket;
+import org.zaproxy.zap.extension.websocket.db.WebSocketMessagePrimaryKey;
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadSearch;
+import org.zaproxy.zap.utils.ZapTextField;
+
+/**
+ * Searches the payloads of all stored messages, see
+ * {@link WebSocketPayloadSearch}. A double click on a match shows the message
+ * in the {@link WebSocketPanel}.
+ */
+public class WebSocketPayloadSearchDialog extends AbstractDialog {
+
+	private static final long serialVersionUID = -2180427469446412917L;
+
+	private static final Logger logger = Logger.getLogger(WebSocketPayloadSearchDialog.class);
+
+	private static final int MAX_MATCHES = 1000;
+
+	private final WebSocketPanel panel;
+
+	private TableWebSocket table;
+
+	private ZapTextField searchField;
+
+	private JCheckBox regexCheckBox;
+
+	private JCheckBox ignoreCaseCheckBox;
+
+	private JButton searchButton;
+
+	private JButton stopButton;
+
+	private JLabel statusLabel;
+
+	private MatchesTableModel matchesModel;
+
+	private WebSocketPayloadSearch search;
+
+	/**
+	 * @param owner
+	 * @param panel shows the matching messages
+	 * @param table
+	 */
+	public WebSocketPayloadSearchDialog(Frame owner, WebSocketPanel panel, TableWebSocket table) {
+		super(owner, false);
+
+		this.panel = panel;
+		this.table = table;
+
+		setTitle(Constant.messages.getString("websocket.search.title"));
+		setContentPane(createContentPane());
+		getRootPane().setDefaultButton(searchButton);
+		setPreferredSize(new Dimension(800, 450));
+		pack();
+	}
+
+	public void setTable(TableWebSocket table) {
+		this.table = table;
+	}
+
+	private JPanel createContentPane() {
+		JPanel contentPane = new JPanel(new BorderLayout());
+
+		JPanel searchPanel = new JPanel(new GridBagLayout());
+		GridBagConstraints constraints = new GridBagConstraints();
+		constraints.insets = new Insets(2, 2, 2, 2);
+		constraints.gridx = 0;
+		searchPanel.add(new JLabel(Constant.messages.getString("websocket.search.label")), constraints);
+
+		searchField = new ZapTextField();
+		constraints = new GridBagConstraints();
+		constraints.insets = new Insets(2, 2, 2, 2);
+		constraints.gridx = 1;
+		constraints.weightx = 1;
+		constraints.fill = GridBagConstraints.HORIZONTAL;
+		searchPanel.add(searchField, constraints);
+
+		regexCheckBox = new JCheckBox(Constant.messages.getString("websocket.search.regex"));
+		searchPanel.add(regexCheckBox);
+
+		ignoreCaseCheckBox = new JCheckBox(Constant.messages.getString("websocket.search.ignore_case"));
+		searchPanel.add(ignoreCaseCheckBox);
+
+		searchButton = new JButton(Constant.messages.getString("websocket.search.button.search"));
+		searchButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				startSearch();
+			}
+		});
+		searchPanel.add(searchButton);
+
+		stopButton = new JButton(Constant.messages.getString("websocket.search.button.stop"));
+		stopButton.setEnabled(false);
+		stopButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				stopSearch();
+			}
+		});
+		searchPanel.add(stopButton);
+
+		contentPane.add(searchPanel, BorderLayout.NORTH);
+
+		matchesModel = new MatchesTableModel();
+		final JTable matchesTable = new JTable(matchesModel);
+		matchesTable.getColumnModel().getColumn(0).setPreferredWidth(60);
+		matchesTable.getColumnModel().getColumn(1).setPreferredWidth(150);
+		matchesTable.getColumnModel().getColumn(2).setPreferredWidth(80);
+		matchesTable.getColumnModel().getColumn(3).setPreferredWidth(500);
+		matchesTable.addMouseListener(new MouseAdapter() {
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() != 2) {
+					return;
+				}
+				int row = matchesTable.getSelectedRow();
+				if (row == -1) {
+					return;
+				}
+				WebSocketMessageDTO message = matchesModel.getMatch(matchesTable.convertRowIndexToModel(row)).getMessage();
+				try {
+					panel.showMessage(message);
+				} catch (WebSocketException ex) {
+					logger.warn(ex.getMessage(), ex);
+				}
+			}
+		});
+		contentPane.add(new JScrollPane(matchesTable), BorderLayout.CENTER);
+
+		statusLabel = new JLabel(" ");
+		contentPane.add(statusLabel, BorderLayout.SOUTH);
+
+		return contentPane;
+	}
+
+	private void startSearch() {
+		String text = searchField.getText();
+		if (text.isEmpty() || table == null) {
+			return;
+		}
+
+		int flags = ignoreCaseCheckBox.isSelected() ? Pattern.CASE_INSENSITIVE : 0;
+		if (!regexCheckBox.isSelected()) {
+			flags |= Pattern.LITERAL;
+		}
+		Pattern pattern;
+		try {
+			pattern = Pattern.compile(text, flags);
+		} catch (PatternSyntaxException e) {
+			statusLabel.setText(Constant.messages.getString("websocket.search.status.invalid", e.getDescription()));
+			return;
+		}
+
+		stopSearch();
+		final WebSocketPayloadSearch currentSearch = new WebSocketPayloadSearch(table, pattern);
+		search = currentSearch;
+		matchesModel.setMatches(Collections.<WebSocketPayloadSearch.Match> emptyList());
+		statusLabel.setText(Constant.messages.getString("websocket.search.status.searching"));
+		searchButton.setEnabled(false);
+		stopButton.setEnabled(true);
+
+		new SwingWorker<List<WebSocketPayloadSearch.Match>, Void>() {
+
+			@Override
+			protected List<WebSocketPayloadSearch.Match> doInBackground() throws Exception {
+				return currentSearch.search(new WebSocketMessageDTO(), null, null, MAX_MATCHES);
+			}
+
+			@Override
+			protected void done() {
+				if (search != currentSearch) {
+					// superseded
+					return;
+				}
+				search = null;
+				searchButton.setEnabled(true);
+				stopButton.setEnabled(false);
+				try {
+					List<WebSocketPayloadSearch.Match> matches = get();
+					matchesModel.setMatches(matches);
+					statusLabel.setText(Constant.messages.getString(
+							"websocket.search.status.done",
+							Integer.valueOf(matches.size()),
+							Integer.valueOf(currentSearch.getVerifiedCount())));
+				} catch (InterruptedException | ExecutionException e) {
+					logger.error("Failed to search WebSocket payloads: " + e.getMessage(), e);
+					statusLabel.setText(Constant.messages.getString("websocket.search.status.failed"));
+				}
+			}
+		}.execute();
+	}
+
+	private void stopSearch() {
+		WebSocketPayloadSearch currentSearch = search;
+		if (currentSearch != null) {
+			currentSearch.cancel();
+		}
+	}
+
+	@Override
+	public void dispose() {
+		stopSearch();
+		super.dispose();
+	}
+
+	private static class MatchesTableModel extends AbstractTableModel {
+
+		private static final long serialVersionUID = 5732493046207712744L;
+
+		private static final String[] COLUMN_NAMES = {
+				Constant.messages.getString("websocket.table.header.id"),
+				Constant.messages.getString("websocket.table.header.timestamp"),
+				Constant.messages.getString("websocket.table.header.opcode"),
+				Constant.messages.getString("websocket.search.header.match") };
+
+		private List<WebSocketPayloadSearch.Match> matches = new ArrayList<>(0);
+
+		public void setMatches(List<WebSocketPayloadSearch.Match> matches) {
+			this.matches = matches;
+			fireTableDataChanged();
+		}
+
+		public WebSocketPayloadSearch.Match getMatch(int rowIndex) {
+			return matches.get(rowIndex);
+		}
+
+		@Override
+		public int getRowCount() {
+			return matches.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return COLUMN_NAMES[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int columnIndex) {
+			return (columnIndex == 0) ? WebSocketMessagePrimaryKey.class : String.class;
+		}
+
+		@Override
+		public Object getValueAt(int rowIndex, int columnIndex) {
+			WebSocketPayloadSearch.Match match = matches.get(rowIndex);
+			WebSocketMessageDTO message = match.getMessage();
+			switch (columnIndex) {
+			case 0:
+				return new WebSocketMessagePrimaryKey(message.channel.id, message.id);
+			case 1:
+				return message.dateTime;
+			case 2:
+				return message.opcode + "=" + message.readableOpcode;
+			default:
+				return highlight(match);
+			}
+		}
+
+		private static String highlight(WebSocketPayloadSearch.Match match) {
+			String context = match.getContext();
+			return "<html>" + escape(context.substring(0, match.getStart()))
+					+ "<b>" + escape(match.getMatchedText()) + "</b>"
+					+ escape(context.substring(match.getEnd())) + "</html>";
+		}
+
+		private static String escape(String text) {
+			return StringEscapeUtils.escapeXml(text.replaceAll("\\s+", " "));
+		}
+	}
+}
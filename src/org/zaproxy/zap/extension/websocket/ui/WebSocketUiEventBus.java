@@ -0,0 +1,202 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.Timer;
+
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+
+/**
+ * Passes state changes and arrived messages of the channels from the relaying
+ * threads to the user interface.
+ * <p>
+ * Publishing only adds to a non-blocking queue, hence the relaying threads
+ * neither contend on a lock nor wait for the event dispatch thread. The
+ * events are dispatched on the event dispatch thread at most every
+ * {@link #DISPATCH_INTERVAL_MS}, grouped by channel: consecutive changes to
+ * the same state are merged and the messages of a channel are passed on at
+ * once.
+ */
+final class WebSocketUiEventBus {
+
+	/**
+	 * Bounds the rate of updates of the user interface.
+	 */
+	static final int DISPATCH_INTERVAL_MS = 40;
+
+	/**
+	 * Receives the events, on the event dispatch thread.
+	 */
+	interface Listener {
+
+		/**
+		 * Called in the order the states were published, per channel.
+		 * 
+		 * @param state
+		 * @param channel latest published channel with that state
+		 */
+		void channelStateChanged(State state, WebSocketChannelDTO channel);
+
+		/**
+		 * Called after the state changes of the channel. The messages might
+		 * have been stored and counted meanwhile.
+		 * 
+		 * @param messages of one channel, in order of publishing
+		 */
+		void messagesArrived(List<WebSocketMessageDTO> messages);
+
+		/**
+		 * Called once after all events of a dispatch.
+		 */
+		void eventsDispatched();
+	}
+
+	private final Listener listener;
+
+	private final Queue<Event> events;
+
+	private final AtomicBoolean isScheduled;
+
+	private final Timer dispatchTimer;
+
+	WebSocketUiEventBus(Listener listener) {
+		this.listener = listener;
+		this.events = new ConcurrentLinkedQueue<>();
+		this.isScheduled = new AtomicBoolean(false);
+		this.dispatchTimer = new Timer(DISPATCH_INTERVAL_MS, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				dispatch();
+			}
+		});
+		this.dispatchTimer.setRepeats(false);
+	}
+
+	/**
+	 * @param state
+	 * @param channel snapshot of the channel, not modified afterwards
+	 */
+	void publishState(State state, WebSocketChannelDTO channel) {
+		publish(new Event(channel.id, state, channel, null));
+	}
+
+	/**
+	 * @param channelId
+	 * @param message copy of the message, not modified afterwards
+	 */
+	void publishMessage(int channelId, WebSocketMessageDTO message) {
+		publish(new Event(channelId, null, null, message));
+	}
+
+	private void publish(Event event) {
+		events.offer(event);
+		if (isScheduled.compareAndSet(false, true)) {
+			dispatchTimer.start();
+		}
+	}
+
+	/**
+	 * Stops dispatching, pending events are dropped.
+	 */
+	void stop() {
+		dispatchTimer.stop();
+		events.clear();
+	}
+
+	private void dispatch() {
+		// events published from now on schedule the next dispatch
+		isScheduled.set(false);
+
+		Map<Integer, ChannelEvents> channels = new LinkedHashMap<>();
+		Event event;
+		while ((event = events.poll()) != null) {
+			ChannelEvents channelEvents = channels.get(event.channelId);
+			if (channelEvents == null) {
+				channelEvents = new ChannelEvents();
+				channels.put(event.channelId, channelEvents);
+			}
+			channelEvents.add(event);
+		}
+		if (channels.isEmpty()) {
+			return;
+		}
+
+		for (ChannelEvents channelEvents : channels.values()) {
+			for (Event stateEvent : channelEvents.states) {
+				listener.channelStateChanged(stateEvent.state, stateEvent.channel);
+			}
+			if (!channelEvents.messages.isEmpty()) {
+				listener.messagesArrived(channelEvents.messages);
+			}
+		}
+		listener.eventsDispatched();
+	}
+
+	private static final class Event {
+
+		private final int channelId;
+
+		private final State state;
+
+		private final WebSocketChannelDTO channel;
+
+		private final WebSocketMessageDTO message;
+
+		private Event(int channelId, State state, WebSocketChannelDTO channel, WebSocketMessageDTO message) {
+			this.channelId = channelId;
+			this.state = state;
+			this.channel = channel;
+			this.message = message;
+		}
+	}
+
+	private static final class ChannelEvents {
+
+		private final List<Event> states = new ArrayList<>(2);
+
+		private final List<WebSocketMessageDTO> messages = new ArrayList<>();
+
+		private void add(Event event) {
+			if (event.message != null) {
+				messages.add(event.message);
+				return;
+			}
+
+			int last = states.size() - 1;
+			if (last >= 0 && states.get(last).state == event.state) {
+				// keep the latest snapshot only
+				states.set(last, event);
+			} else {
+				states.add(event);
+			}
+		}
+	}
+}
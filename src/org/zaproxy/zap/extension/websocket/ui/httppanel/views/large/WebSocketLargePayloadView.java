@@ -1,68 +1,471 @@
-/*
- * Zed Attack Proxy (ZAP) and its related class files.
- * 
- * ZAP is an HTTP/HTTPS proxy for assessing web application security.
- * 
- * Licensed under the Apache License, Version 2.0 (the "License"); 
- * you may not use this file except in compliance with the License. 
- * You may obtain a copy of the License at 
- * 
- *   http://www.apache.org/licenses/LICENSE-2.0 
- *   
- * Unless required by applicable law or agreed to in writing, software 
- * distributed under the License is distributed on an "AS IS" BASIS, 
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
- * See the License for the specific language governing permissions and 
- * limitations under the License. 
- */
-package org.zaproxy.zap.extension.websocket.ui.httppanel.views.large;
-
-import org.parosproxy.paros.Constant;
-import org.zaproxy.zap.extension.httppanel.Message;
-import org.zaproxy.zap.extension.websocket.ui.httppanel.models.StringWebSocketPanelViewModel;
-import org.zaproxy.zap.extension.websocket.ui.httppanel.views.WebSocketPanelTextView;
-
-public class WebSocketLargePayloadView extends WebSocketPanelTextView {
-
-	public static final String NAME = "WebSocketLargePayloadView";
-	
-	public static final String CAPTION_NAME = Constant.messages.getString("websocket.panel.view.largepayload.name");
-	
-	public WebSocketLargePayloadView(StringWebSocketPanelViewModel model) {
-		super(model);
-	}
-	
-	@Override
-	public String getName() {
-		return NAME;
-	}
-	
-	@Override
-	public String getCaptionName() {
-		return CAPTION_NAME;
-	}
-
-	@Override
-	public int getPosition() {
-		return 1;
-	}
-
-	@Override
-	public boolean isEnabled(Message message) {
-		return WebSocketLargePayloadUtil.isLargePayload(message);
-	}
-
-	@Override
-	public boolean hasChanged() {
-		return false;
-	}
-
-	@Override
-	public boolean isEditable() {
-		return false;
-	}
-
-	@Override
-	public void setEditable(boolean editable) {
-	}
-}
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui.httppanel.views.large;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.JToolBar;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+
+import org.apache.log4j.Logger;
+import org.parosproxy.paros.Constant;
+import org.zaproxy.zap.extension.httppanel.Message;
+import org.zaproxy.zap.extension.httppanel.view.HttpPanelViewModelEvent;
+import org.zaproxy.zap.extension.httppanel.view.text.HttpPanelTextArea;
+import org.zaproxy.zap.extension.websocket.ExtensionWebSocket;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadFile;
+import org.zaproxy.zap.extension.websocket.ui.httppanel.models.StringWebSocketPanelViewModel;
+import org.zaproxy.zap.extension.websocket.ui.httppanel.views.WebSocketPanelTextView;
+
+/**
+ * Displays large payloads of stored messages page by page, as text or hex
+ * dump, with incremental search. The payload is read from storage, only the
+ * current page is held in memory.
+ */
+public class WebSocketLargePayloadView extends WebSocketPanelTextView {
+
+	private static final Logger logger = Logger.getLogger(WebSocketLargePayloadView.class);
+
+	public static final String NAME = "WebSocketLargePayloadView";
+	
+	public static final String CAPTION_NAME = Constant.messages.getString("websocket.panel.view.largepayload.name");
+
+	private static final String[] MODE_NAMES = {
+			Constant.messages.getString("websocket.panel.view.largepayload.mode.text"),
+			Constant.messages.getString("websocket.panel.view.largepayload.mode.hex") };
+	
+	private final StringWebSocketPanelViewModel model;
+
+	private final ExtensionWebSocket extension;
+
+	private LargePayloadTextArea textArea;
+
+	private JPanel mainPanel;
+
+	private JButton previousButton;
+
+	private JButton nextButton;
+
+	private JLabel pageLabel;
+
+	private JComboBox<String> modeComboBox;
+
+	private JTextField searchField;
+
+	private JLabel statusLabel;
+
+	private WebSocketMessageDTO message;
+
+	private WebSocketPayloadPager pager;
+
+	private int currentPage;
+
+	/**
+	 * Position of the last match, -1 if none.
+	 */
+	private long matchPosition;
+
+	private SearchWorker search;
+
+	public WebSocketLargePayloadView(StringWebSocketPanelViewModel model, ExtensionWebSocket extension) {
+		super(model);
+
+		this.model = model;
+		this.extension = extension;
+		this.matchPosition = -1;
+	}
+
+	@Override
+	protected HttpPanelTextArea createHttpPanelTextArea() {
+		// called by the super constructor
+		textArea = new LargePayloadTextArea();
+		return textArea;
+	}
+	
+	@Override
+	public String getName() {
+		return NAME;
+	}
+	
+	@Override
+	public String getCaptionName() {
+		return CAPTION_NAME;
+	}
+
+	@Override
+	public int getPosition() {
+		return 1;
+	}
+
+	@Override
+	public boolean isEnabled(Message message) {
+		return WebSocketLargePayloadUtil.isLargePayload(message);
+	}
+
+	@Override
+	public boolean hasChanged() {
+		return false;
+	}
+
+	@Override
+	public boolean isEditable() {
+		return false;
+	}
+
+	@Override
+	public void setEditable(boolean editable) {
+	}
+
+	@Override
+	public JComponent getPane() {
+		if (mainPanel == null) {
+			mainPanel = new JPanel(new BorderLayout());
+			mainPanel.add(getToolbar(), BorderLayout.NORTH);
+			mainPanel.add(super.getPane(), BorderLayout.CENTER);
+			updateControls();
+		}
+		return mainPanel;
+	}
+
+	private JToolBar getToolbar() {
+		JToolBar toolbar = new JToolBar();
+		toolbar.setFloatable(false);
+		toolbar.setRollover(true);
+
+		previousButton = new JButton(Constant.messages.getString("websocket.panel.view.largepayload.previous"));
+		previousButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				showPage(currentPage - 1);
+			}
+		});
+		toolbar.add(previousButton);
+
+		pageLabel = new JLabel();
+		toolbar.add(pageLabel);
+
+		nextButton = new JButton(Constant.messages.getString("websocket.panel.view.largepayload.next"));
+		nextButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				showPage(currentPage + 1);
+			}
+		});
+		toolbar.add(nextButton);
+		toolbar.addSeparator();
+
+		modeComboBox = new JComboBox<>(MODE_NAMES);
+		modeComboBox.setEditable(false);
+		modeComboBox.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				WebSocketPayloadPager.Mode mode = WebSocketPayloadPager.Mode.values()[modeComboBox.getSelectedIndex()];
+				if (pager != null && pager.getMode() != mode) {
+					long position = matchPosition != -1 ? matchPosition : pager.getPageStart(currentPage);
+					pager.setMode(mode);
+					showPage(pager.getPage(position));
+				}
+			}
+		});
+		toolbar.add(modeComboBox);
+		toolbar.addSeparator();
+
+		toolbar.add(new JLabel(Constant.messages.getString("websocket.panel.view.largepayload.search")));
+		searchField = new JTextField(15);
+		searchField.getDocument().addDocumentListener(new DocumentListener() {
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				search(false);
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				search(false);
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		searchField.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				search(true);
+			}
+		});
+		toolbar.add(searchField);
+
+		JButton findNextButton = new JButton(Constant.messages.getString("websocket.panel.view.largepayload.search.next"));
+		findNextButton.addActionListener(new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				search(true);
+			}
+		});
+		toolbar.add(findNextButton);
+		toolbar.addSeparator();
+
+		statusLabel = new JLabel();
+		toolbar.add(statusLabel);
+
+		return toolbar;
+	}
+
+	@Override
+	public void dataChanged(HttpPanelViewModelEvent e) {
+		super.dataChanged(e);
+
+		Message newMessage = model.getMessage();
+		if (newMessage == message) {
+			// restore the page replaced by the super class
+			showPage(currentPage);
+			return;
+		}
+		closePayload();
+		if (newMessage instanceof WebSocketMessageDTO) {
+			message = (WebSocketMessageDTO) newMessage;
+			if (message.id != null && WebSocketLargePayloadUtil.isLargePayload(message)) {
+				openPayload(message);
+			}
+		}
+		updateControls();
+	}
+
+	private void openPayload(final WebSocketMessageDTO currentMessage) {
+		setStatus(Constant.messages.getString("websocket.panel.view.largepayload.loading"));
+
+		new SwingWorker<WebSocketPayloadFile, Void>() {
+
+			@Override
+			protected WebSocketPayloadFile doInBackground() throws Exception {
+				return extension.openPayload(currentMessage);
+			}
+
+			@Override
+			protected void done() {
+				WebSocketPayloadFile payload;
+				try {
+					payload = get();
+				} catch (InterruptedException | ExecutionException e) {
+					logger.error("Failed to load WebSocket payload: " + e.getMessage(), e);
+					if (message == currentMessage) {
+						setStatus(Constant.messages.getString("websocket.panel.view.largepayload.error"));
+					}
+					return;
+				}
+
+				if (message != currentMessage) {
+					// superseded
+					payload.close();
+					return;
+				}
+				pager = new WebSocketPayloadPager(payload, payload.isText()
+						? WebSocketPayloadPager.Mode.TEXT
+						: WebSocketPayloadPager.Mode.HEX);
+				setStatus("");
+				showPage(0);
+			}
+		}.execute();
+	}
+
+	private void closePayload() {
+		search = null;
+		matchPosition = -1;
+		currentPage = 0;
+		message = null;
+		if (pager != null) {
+			pager.getPayload().close();
+			pager = null;
+		}
+	}
+
+	private void showPage(int page) {
+		if (pager == null || page < 0 || page >= pager.getPageCount()) {
+			return;
+		}
+		try {
+			textArea.setText(pager.getPageText(page));
+			textArea.setCaretPosition(0);
+			currentPage = page;
+		} catch (IOException e) {
+			logger.error("Failed to read WebSocket payload: " + e.getMessage(), e);
+			setStatus(Constant.messages.getString("websocket.panel.view.largepayload.error"));
+		}
+		updateControls();
+	}
+
+	private void updateControls() {
+		if (mainPanel == null) {
+			return;
+		}
+		boolean loaded = pager != null;
+		previousButton.setEnabled(loaded && currentPage > 0);
+		nextButton.setEnabled(loaded && currentPage < pager.getPageCount() - 1);
+		modeComboBox.setEnabled(loaded);
+		searchField.setEnabled(loaded);
+		if (loaded) {
+			modeComboBox.setSelectedIndex(pager.getMode().ordinal());
+			pageLabel.setText(Constant.messages.getString(
+					"websocket.panel.view.largepayload.page",
+					Integer.valueOf(currentPage + 1),
+					Integer.valueOf(pager.getPageCount())));
+		} else {
+			pageLabel.setText("");
+		}
+	}
+
+	private void setStatus(String status) {
+		if (statusLabel != null) {
+			statusLabel.setText(status);
+		}
+	}
+
+	/**
+	 * Searches the payload in the background, superseding any ongoing search.
+	 * 
+	 * @param next True to search after the current match, otherwise the
+	 *            current match is extended (incremental search)
+	 */
+	private void search(boolean next) {
+		if (pager == null) {
+			return;
+		}
+		if (search != null) {
+			search.cancel(false);
+			search = null;
+		}
+		String query = searchField.getText();
+		if (query.isEmpty()) {
+			matchPosition = -1;
+			textArea.getHighlighter().removeAllHighlights();
+			setStatus("");
+			return;
+		}
+
+		byte[] pattern = WebSocketPayloadPager.toSearchPattern(query, pager.getMode());
+		long from;
+		if (matchPosition == -1) {
+			from = pager.getPageStart(currentPage);
+		} else {
+			from = next ? matchPosition + 1 : matchPosition;
+		}
+		search = new SearchWorker(pager, pattern, from);
+		search.execute();
+	}
+
+	private void showMatch(long position, int length) {
+		matchPosition = position;
+		int page = pager.getPage(position);
+		if (page != currentPage) {
+			showPage(page);
+		}
+		try {
+			int start = pager.getTextIndex(page, position);
+			int end = pager.getTextIndex(page, Math.min(position + length, pager.getPageStart(page + 1)));
+			if (end <= start) {
+				end = start + 1;
+			}
+			end = Math.min(end, textArea.getDocument().getLength());
+
+			textArea.getHighlighter().removeAllHighlights();
+			textArea.getHighlighter().addHighlight(start, end, DefaultHighlighter.DefaultPainter);
+			textArea.setCaretPosition(start);
+		} catch (IOException | BadLocationException e) {
+			logger.warn("Failed to highlight match: " + e.getMessage(), e);
+		}
+	}
+
+	private class SearchWorker extends SwingWorker<Long, Void> implements WebSocketPayloadFile.SearchMonitor {
+
+		private final WebSocketPayloadPager searchedPager;
+
+		private final byte[] pattern;
+
+		private final long from;
+
+		public SearchWorker(WebSocketPayloadPager pager, byte[] pattern, long from) {
+			this.searchedPager = pager;
+			this.pattern = pattern;
+			this.from = from;
+		}
+
+		@Override
+		protected Long doInBackground() throws Exception {
+			long position = searchedPager.getPayload().indexOf(pattern, from, this);
+			if (position == -1 && from > 0 && !isCancelled()) {
+				// wrap around
+				position = searchedPager.getPayload().indexOf(pattern, 0, this);
+			}
+			return Long.valueOf(position);
+		}
+
+		@Override
+		protected void done() {
+			if (search != this || isCancelled()) {
+				// superseded
+				return;
+			}
+			search = null;
+			long position;
+			try {
+				position = get().longValue();
+			} catch (InterruptedException | ExecutionException e) {
+				logger.warn("Failed to search WebSocket payload: " + e.getMessage(), e);
+				return;
+			}
+			if (position == -1) {
+				textArea.getHighlighter().removeAllHighlights();
+				setStatus(Constant.messages.getString("websocket.panel.view.largepayload.search.notfound"));
+			} else {
+				setStatus("");
+				showMatch(position, pattern.length);
+			}
+		}
+	}
+
+	private static class LargePayloadTextArea extends WebSocketPanelTextArea {
+
+		private static final long serialVersionUID = -5126329412632196431L;
+
+		public LargePayloadTextArea() {
+			setEditable(false);
+			setLineWrap(false);
+		}
+	}
+}
@@ -28,6 +28,10 @@ public class WebSocketLargetPayloadViewModel extends StringWebSocketPanelViewMod
 			return "";
 		}
 		
+		if (webSocketMessage.id != null) {
+			// stored, the view reads the payload page by page
+			return Constant.messages.getString("websocket.panel.view.largepayload.loading");
+		}
 		return Constant.messages.getString("websocket.panel.view.largepayload.all.warning");
 	}
 
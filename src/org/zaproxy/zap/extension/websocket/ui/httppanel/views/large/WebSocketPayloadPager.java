@@ -0,0 +1,253 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.ui.httppanel.views.large;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadFile;
+
+/**
+ * Renders a {@link WebSocketPayloadFile} page by page, as text or as hex dump.
+ * Only the current page is mapped into memory.
+ */
+final class WebSocketPayloadPager {
+
+	enum Mode {
+		TEXT,
+		HEX
+	}
+
+	/**
+	 * Number of payload bytes displayed per page in {@link Mode#TEXT}.
+	 */
+	static final int TEXT_PAGE_SIZE = 64 * 1024;
+
+	/**
+	 * Number of payload bytes displayed per page in {@link Mode#HEX}, a
+	 * multiple of {@link #BYTES_PER_LINE}.
+	 */
+	static final int HEX_PAGE_SIZE = 16 * 1024;
+
+	static final int BYTES_PER_LINE = 16;
+
+	/**
+	 * Characters of each line of the hex dump, for example:
+	 * 
+	 * <pre>
+	 * 00000010  48 65 6c 6c 6f 0a 00 00 00 00 00 00 00 00 00 00  |Hello...........|
+	 * </pre>
+	 */
+	static final int HEX_LINE_LENGTH = 10 + BYTES_PER_LINE * 3 + 2 + BYTES_PER_LINE + 2;
+
+	private static final int HEX_COLUMN = 10;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final Pattern HEX_PATTERN = Pattern.compile("(?:\\s*[0-9a-fA-F]{2})+\\s*");
+
+	/**
+	 * Maximum length of an UTF-8 encoded character.
+	 */
+	private static final int MAX_UTF8_LENGTH = 4;
+
+	private final WebSocketPayloadFile payload;
+
+	private Mode mode;
+
+	WebSocketPayloadPager(WebSocketPayloadFile payload, Mode mode) {
+		this.payload = payload;
+		this.mode = mode;
+	}
+
+	WebSocketPayloadFile getPayload() {
+		return payload;
+	}
+
+	Mode getMode() {
+		return mode;
+	}
+
+	void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	int getPageSize() {
+		return mode == Mode.TEXT ? TEXT_PAGE_SIZE : HEX_PAGE_SIZE;
+	}
+
+	int getPageCount() {
+		return (int) Math.max(1, (payload.getLength() + getPageSize() - 1) / getPageSize());
+	}
+
+	/**
+	 * @param position within the payload
+	 * @return page displaying the byte at the given position
+	 */
+	int getPage(long position) {
+		return (int) (position / getPageSize());
+	}
+
+	/**
+	 * @param page
+	 * @return position of the first byte of the given page
+	 */
+	long getPageStart(int page) {
+		return (long) page * getPageSize();
+	}
+
+	/**
+	 * @param page
+	 * @return text or hex dump of the given page
+	 * @throws IOException
+	 */
+	String getPageText(int page) throws IOException {
+		if (mode == Mode.HEX) {
+			return toHex(payload.map(getPageStart(page), getPageSize()), getPageStart(page));
+		}
+
+		ByteBuffer bytes = mapTextPage(page);
+		return newDecoder().decode(bytes).toString();
+	}
+
+	/**
+	 * Maps the bytes of the given text page, the first and last character
+	 * are moved to the page they start in.
+	 */
+	private ByteBuffer mapTextPage(int page) throws IOException {
+		ByteBuffer bytes = payload.map(getPageStart(page), getPageSize() + MAX_UTF8_LENGTH - 1);
+		int start = getSkippedBytes(page, bytes);
+		int end = Math.min(getPageSize(), bytes.limit());
+		while (end < bytes.limit() && isContinuation(bytes.get(end))) {
+			end++;
+		}
+		bytes.limit(end);
+		bytes.position(Math.min(start, end));
+		return bytes.slice();
+	}
+
+	/**
+	 * @return number of bytes at the start of the page, that belong to the
+	 *         last character of the previous page
+	 */
+	private static int getSkippedBytes(int page, ByteBuffer bytes) {
+		int skipped = 0;
+		if (page > 0) {
+			while (skipped < MAX_UTF8_LENGTH - 1 && skipped < bytes.limit() && isContinuation(bytes.get(skipped))) {
+				skipped++;
+			}
+		}
+		return skipped;
+	}
+
+	private static boolean isContinuation(byte b) {
+		return (b & 0xC0) == 0x80;
+	}
+
+	private static CharsetDecoder newDecoder() {
+		return StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * @param page displaying the given position
+	 * @param position within the payload
+	 * @return index of the character in the text of the page, that displays
+	 *         the byte at the given position
+	 * @throws IOException
+	 */
+	int getTextIndex(int page, long position) throws IOException {
+		int offset = (int) (position - getPageStart(page));
+		if (mode == Mode.HEX) {
+			return offset / BYTES_PER_LINE * HEX_LINE_LENGTH + HEX_COLUMN + offset % BYTES_PER_LINE * 3;
+		}
+
+		ByteBuffer bytes = payload.map(getPageStart(page), getPageSize() + MAX_UTF8_LENGTH - 1);
+		int start = getSkippedBytes(page, bytes);
+		if (offset <= start) {
+			return 0;
+		}
+		bytes.limit(Math.min(offset, bytes.limit()));
+		bytes.position(start);
+		return newDecoder().decode(bytes).length();
+	}
+
+	/**
+	 * Formats the given bytes like {@code hexdump -C}.
+	 * 
+	 * @param bytes from position to limit
+	 * @param position of the first byte within the payload
+	 * @return lines of {@link #HEX_LINE_LENGTH} characters, the last one
+	 *         possibly shorter
+	 */
+	static String toHex(ByteBuffer bytes, long position) {
+		int length = bytes.remaining();
+		int lines = (length + BYTES_PER_LINE - 1) / BYTES_PER_LINE;
+		StringBuilder sb = new StringBuilder(lines * HEX_LINE_LENGTH);
+		for (int line = 0; line < lines; line++) {
+			int lineStart = bytes.position() + line * BYTES_PER_LINE;
+			int count = Math.min(BYTES_PER_LINE, length - line * BYTES_PER_LINE);
+
+			long address = position + line * BYTES_PER_LINE;
+			for (int shift = 28; shift >= 0; shift -= 4) {
+				sb.append(HEX_DIGITS[(int) (address >>> shift) & 0xF]);
+			}
+			sb.append("  ");
+
+			for (int i = 0; i < BYTES_PER_LINE; i++) {
+				if (i < count) {
+					int b = bytes.get(lineStart + i) & 0xFF;
+					sb.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0xF]).append(' ');
+				} else {
+					sb.append("   ");
+				}
+			}
+
+			sb.append(" |");
+			for (int i = 0; i < count; i++) {
+				int b = bytes.get(lineStart + i) & 0xFF;
+				sb.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+			}
+			sb.append("|\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param query entered by the user
+	 * @param mode current mode
+	 * @return the bytes of the hex string in {@link Mode#HEX} (e.g.
+	 *         {@code "de ad be ef"}), otherwise the UTF-8 encoded query
+	 */
+	static byte[] toSearchPattern(String query, Mode mode) {
+		if (mode == Mode.HEX && HEX_PATTERN.matcher(query).matches()) {
+			String digits = query.replaceAll("\\s", "");
+			byte[] pattern = new byte[digits.length() / 2];
+			for (int i = 0; i < pattern.length; i++) {
+				pattern[i] = (byte) Integer.parseInt(digits.substring(i * 2, i * 2 + 2), 16);
+			}
+			return pattern;
+		}
+		return query.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Zed Attack Proxy (ZAP) and its related class files.
+ * 
+ * ZAP is an HTTP/HTTPS proxy for assessing web application security.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at 
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0 
+ *   
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License. 
+ */
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Masks or unmasks WebSocket payloads as specified in <a
+ * href="http://tools.ietf.org/html/rfc6455#section-5.3">RFC6455 (Section
+ * 5.3)</a>. As masking is done by XOR, the same method is used to unmask.
+ * <p>
+ * Larger payloads are processed 8 bytes at once using a mask expanded to a
+ * {@code long}, which is a lot faster than masking byte by byte.
+ */
+public final class MaskUtil {
+
+	/**
+	 * Below this length, the overhead of preparing the expanded mask is not
+	 * worth it.
+	 */
+	private static final int MIN_LENGTH_WORD_AT_A_TIME = 16;
+
+	private MaskUtil() {
+	}
+
+	/**
+	 * Applies the given mask to the given range of bytes, in place.
+	 * 
+	 * @param mask 4 bytes masking key
+	 * @param data bytes that are (un)masked
+	 * @param offset index of first byte to (un)mask
+	 * @param length number of bytes to (un)mask
+	 * @param maskOffset number of payload bytes preceding the given range, used
+	 *            if a payload is (un)masked in several chunks
+	 */
+	public static void mask(byte[] mask, byte[] data, int offset, int length, int maskOffset) {
+		int end = offset + length;
+		int index = offset;
+
+		if (length >= MIN_LENGTH_WORD_AT_A_TIME) {
+			long expandedMask = expandMask(mask, maskOffset);
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			// 8 is a multiple of the mask length, hence the mask stays aligned
+			for (int wordEnd = end - 7; index < wordEnd; index += 8) {
+				buffer.putLong(index, buffer.getLong(index) ^ expandedMask);
+			}
+		}
+
+		for (; index < end; index++) {
+			data[index] ^= mask[(maskOffset + index - offset) & 3];
+		}
+	}
+
+	/**
+	 * Repeats the given mask twice in a {@code long}, in big-endian order as
+	 * used by {@link ByteBuffer}, starting with the mask byte at given offset.
+	 */
+	private static long expandMask(byte[] mask, int maskOffset) {
+		long expandedMask = 0;
+		for (int i = 0; i < 8; i++) {
+			expandedMask = (expandedMask << 8) | (mask[(maskOffset + i) & 3] & 0xFF);
+		}
+		return expandedMask;
+	}
+}
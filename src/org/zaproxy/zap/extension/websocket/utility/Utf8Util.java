@@ -24,12 +24,24 @@ package org.zaproxy.zap.extension.websocket.utility;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 
 /**
  * Encode or decode from byte[] to Utf8 and vice versa.
+ * <p>
+ * ASCII bytes are converted without decoder, other bytes are validated and
+ * decoded with a decoder reused per thread.
  */
 public final class Utf8Util {
+
+	private static final ThreadLocal<CharsetDecoder> DECODERS = new ThreadLocal<CharsetDecoder>() {
+
+		@Override
+		protected CharsetDecoder initialValue() {
+			return StandardCharsets.UTF_8.newDecoder();
+		}
+	};
 	
 	private Utf8Util() {
 	}
@@ -55,13 +67,37 @@ public final class Utf8Util {
 	 * @throws InvalidUtf8Exception 
 	 */
 	public static String encodePayloadToUtf8(byte[] utf8bytes, int offset, int length) throws InvalidUtf8Exception {
+		if (isAscii(utf8bytes, offset, length)) {
+			// valid UTF-8, each byte is one character
+			return new String(utf8bytes, offset, length, StandardCharsets.ISO_8859_1);
+		}
+
 		try {
-			return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(utf8bytes, offset, length)).toString();
+			// decode() resets the decoder before use
+			return DECODERS.get().decode(ByteBuffer.wrap(utf8bytes, offset, length)).toString();
 		} catch (CharacterCodingException e) {
 			throw new InvalidUtf8Exception("Unable to decode given bytes as UTF-8!", e);
 		}
 	}
 	
+	/**
+	 * Tells whether the given bytes are all ASCII characters, hence valid
+	 * UTF-8 with one character per byte.
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @return True if no byte has its most significant bit set.
+	 */
+	public static boolean isAscii(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Helper method that takes an UTF-8 string and returns its byte
 	 * representation.
@@ -0,0 +1,70 @@
+package org.zaproxy.zap.extension.websocket;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChannelDecisionCacheUnitTest {
+
+	@Test
+	public void shouldDecideOncePerChannelUntilInvalidated() throws Exception {
+		// given
+		CountingCache cache = new CountingCache();
+		WebSocketChannelDTO channel = createChannel(1, "example.com");
+		// when
+		cache.get(channel);
+		cache.get(channel);
+		cache.invalidate();
+		cache.get(channel);
+		// then
+		assertThat(cache.decisions, is(equalTo(2)));
+	}
+
+	@Test
+	public void shouldDecideAgainAfterChannelWasEvicted() throws Exception {
+		// given
+		CountingCache cache = new CountingCache();
+		WebSocketChannelDTO channel = createChannel(1, "example.com");
+		WebSocketChannelDTO otherChannel = createChannel(2, "example.org");
+		cache.get(channel);
+		cache.get(otherChannel);
+		// when
+		cache.evict(1);
+		cache.get(channel);
+		cache.get(otherChannel);
+		// then
+		assertThat(cache.decisions, is(equalTo(3)));
+	}
+
+	@Test
+	public void shouldNotCacheChannelsWithoutUrl() throws Exception {
+		// given
+		CountingCache cache = new CountingCache();
+		WebSocketChannelDTO channel = createChannel(1, null);
+		// when
+		cache.get(channel);
+		cache.get(channel);
+		// then
+		assertThat(cache.decisions, is(equalTo(2)));
+	}
+
+	private static WebSocketChannelDTO createChannel(Integer id, String url) {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = id;
+		channel.url = url;
+		return channel;
+	}
+
+	private static class CountingCache extends ChannelDecisionCache {
+
+		private int decisions;
+
+		@Override
+		protected boolean decide(WebSocketChannelDTO channel) {
+			decisions++;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.parosproxy.paros.model.HistoryReference;
+import org.parosproxy.paros.network.HttpMessage;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class HandshakeReferenceResolverUnitTest {
+
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Test
+	public void shouldCallBackOnceReferenceIsSet() throws Exception {
+		// given
+		HandshakeReferenceResolver resolver = new HandshakeReferenceResolver(DIRECT_EXECUTOR);
+		HttpMessage handshake = new HttpMessage();
+		HistoryReference reference = Mockito.mock(HistoryReference.class);
+		RecordingCallback callback = new RecordingCallback();
+		resolver.resolve(handshake, callback);
+		// when
+		handshake.setHistoryRef(reference);
+		// then
+		assertThat(callback.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(callback.reference.get(), is(sameInstance(reference)));
+		resolver.stop();
+	}
+
+	@Test
+	public void shouldRunCallbackWithGivenExecutor() throws Exception {
+		// given
+		final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+		HandshakeReferenceResolver resolver = new HandshakeReferenceResolver(new Executor() {
+
+			@Override
+			public void execute(Runnable command) {
+				Thread thread = new Thread(command, "callback");
+				callbackThread.set(thread);
+				thread.start();
+			}
+		});
+		HttpMessage handshake = new HttpMessage();
+		final AtomicReference<Thread> calledBy = new AtomicReference<>();
+		RecordingCallback callback = new RecordingCallback() {
+
+			@Override
+			public void referenceAvailable(HistoryReference handshakeReference) {
+				calledBy.set(Thread.currentThread());
+				super.referenceAvailable(handshakeReference);
+			}
+		};
+		resolver.resolve(handshake, callback);
+		// when
+		handshake.setHistoryRef(Mockito.mock(HistoryReference.class));
+		// then
+		assertThat(callback.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(calledBy.get(), is(sameInstance(callbackThread.get())));
+		resolver.stop();
+	}
+
+	@Test
+	public void shouldTellPendingHandshakesOnStop() throws Exception {
+		// given
+		HandshakeReferenceResolver resolver = new HandshakeReferenceResolver(DIRECT_EXECUTOR);
+		RecordingCallback callback = new RecordingCallback();
+		resolver.resolve(new HttpMessage(), callback);
+		// when
+		resolver.stop();
+		// then
+		assertThat(callback.done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(callback.reference.get(), is((HistoryReference) null));
+	}
+
+	private static class RecordingCallback implements HandshakeReferenceResolver.Callback {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private final AtomicReference<HistoryReference> reference = new AtomicReference<>();
+
+		@Override
+		public void referenceAvailable(HistoryReference handshakeReference) {
+			reference.set(handshakeReference);
+			done.countDown();
+		}
+
+		@Override
+		public void referenceUnavailable() {
+			done.countDown();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.emptyArray;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ObserverListUnitTest {
+
+	private static final Comparator<String> FIRST_CHAR = new Comparator<String>() {
+
+		@Override
+		public int compare(String o1, String o2) {
+			return Character.compare(o1.charAt(0), o2.charAt(0));
+		}
+	};
+
+	@Test
+	public void shouldKeepElementsSortedAndStable() throws Exception {
+		// given
+		ObserverList<String> list = new ObserverList<>(new String[0], FIRST_CHAR);
+		// when
+		list.add("b1");
+		list.add("a1");
+		list.add("b2");
+		list.add("a2");
+		// then
+		assertThat(list.get(), is(arrayContaining("a1", "a2", "b1", "b2")));
+	}
+
+	@Test
+	public void shouldNotChangePreviousSnapshotOnRemove() throws Exception {
+		// given
+		ObserverList<String> list = new ObserverList<>(new String[0], FIRST_CHAR);
+		list.add("a");
+		list.add("b");
+		String[] snapshot = list.get();
+		// when
+		boolean removed = list.remove("a");
+		// then
+		assertThat(removed, is(true));
+		assertThat(snapshot, is(arrayContaining("a", "b")));
+		assertThat(list.get(), is(arrayContaining("b")));
+		assertThat(list.remove("a"), is(false));
+	}
+
+	@Test
+	public void shouldMergeSharedElementsBeforeOwnOfSameOrder() throws Exception {
+		// given
+		ObserverList<String> shared = new ObserverList<>(new String[0], FIRST_CHAR);
+		ObserverList<String> list = new ObserverList<>(new String[0], FIRST_CHAR);
+		list.setShared(shared);
+		list.add("b-own");
+		shared.add("b-shared");
+		shared.add("c-shared");
+		// when
+		list.add("a-own");
+		// then
+		assertThat(list.get(), is(arrayContaining("a-own", "b-shared", "b-own", "c-shared")));
+	}
+
+	@Test
+	public void shouldReuseMergedSnapshotUntilChanged() throws Exception {
+		// given
+		ObserverList<String> shared = new ObserverList<>(new String[0], FIRST_CHAR);
+		ObserverList<String> list = new ObserverList<>(new String[0], FIRST_CHAR);
+		list.setShared(shared);
+		shared.add("a");
+		list.add("b");
+		String[] snapshot = list.get();
+		// when
+		String[] unchanged = list.get();
+		shared.remove("a");
+		String[] changed = list.get();
+		// then
+		assertThat(unchanged, is(sameInstance(snapshot)));
+		assertThat(changed, is(not(sameInstance(snapshot))));
+		assertThat(changed, is(arrayContaining("b")));
+		shared.remove("x");
+		list.remove("b");
+		assertThat(list.get(), is(emptyArray()));
+	}
+}
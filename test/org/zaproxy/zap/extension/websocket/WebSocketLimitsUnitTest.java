@@ -0,0 +1,39 @@
+package org.zaproxy.zap.extension.websocket;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketLimitsUnitTest {
+
+	@Test
+	public void shouldNotExceedUnlimited() throws Exception {
+		// given
+		WebSocketLimits limits = WebSocketLimits.UNLIMITED;
+		// when / then
+		assertThat(limits.isMessageSizeExceeded(Long.MAX_VALUE), is(false));
+		assertThat(limits.isFramesInFlightExceeded(Integer.MAX_VALUE), is(false));
+		assertThat(limits.isBufferedBytesExceeded(Long.MAX_VALUE), is(false));
+	}
+
+	@Test
+	public void shouldExceedOnlyAboveLimit() throws Exception {
+		// given
+		WebSocketLimits limits = new WebSocketLimits(1024, 4, 2048, WebSocketLimits.Policy.BLOCK);
+		// when / then
+		assertThat(limits.isMessageSizeExceeded(1024), is(false));
+		assertThat(limits.isMessageSizeExceeded(1025), is(true));
+		assertThat(limits.isFramesInFlightExceeded(4), is(false));
+		assertThat(limits.isFramesInFlightExceeded(5), is(true));
+		assertThat(limits.isBufferedBytesExceeded(2048), is(false));
+		assertThat(limits.isBufferedBytesExceeded(2049), is(true));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldFailToCreateWithNegativeLimit() throws Exception {
+		// given / when
+		new WebSocketLimits(-1, 0, 0, WebSocketLimits.Policy.CLOSE);
+		// then = IllegalArgumentException
+	}
+}
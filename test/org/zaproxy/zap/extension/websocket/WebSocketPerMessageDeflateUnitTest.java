@@ -0,0 +1,86 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPerMessageDeflateUnitTest {
+
+	@Test
+	public void shouldNotBeCreatedIfNotNegotiated() throws Exception {
+		// given
+		Map<String, String> extensions = Collections.singletonMap("x-webkit-deflate-frame", "");
+		// when
+		WebSocketPerMessageDeflate codec = WebSocketPerMessageDeflate.create(extensions);
+		// then
+		assertThat(codec, is(nullValue()));
+		assertThat(WebSocketPerMessageDeflate.create(null), is(nullValue()));
+	}
+
+	@Test
+	public void shouldInflateWhatWasDeflatedWithContextTakeover() throws Exception {
+		// given
+		WebSocketPerMessageDeflate sender = createCodec("");
+		WebSocketPerMessageDeflate receiver = createCodec("");
+		byte[] first = "hello hello hello world".getBytes("UTF-8");
+		byte[] second = "hello world hello world hello".getBytes("UTF-8");
+		sender.getContext(Direction.INCOMING).canForwardOriginal(true);
+		// when
+		byte[] compressedFirst = sender.getContext(Direction.INCOMING).deflate(first, 0, first.length);
+		byte[] compressedSecond = sender.getContext(Direction.INCOMING).deflate(second, 0, second.length);
+		// then
+		assertThat(inflate(receiver, compressedFirst), is(equalTo(first)));
+		assertThat(inflate(receiver, compressedSecond), is(equalTo(second)));
+	}
+
+	@Test
+	public void shouldInflateFrameByFrame() throws Exception {
+		// given
+		WebSocketPerMessageDeflate sender = createCodec("server_no_context_takeover");
+		WebSocketPerMessageDeflate receiver = createCodec("server_no_context_takeover");
+		byte[] payload = "fragmented fragmented fragmented message".getBytes("UTF-8");
+		byte[] compressed = sender.getContext(Direction.INCOMING).deflate(payload, 0, payload.length);
+		WebSocketPerMessageDeflate.Context context = receiver.getContext(Direction.INCOMING);
+		int half = compressed.length / 2;
+		// when
+		ByteBuffer buffer = context.inflate(compressed, 0, half, false, null, Integer.MAX_VALUE);
+		buffer = context.inflate(compressed, half, compressed.length - half, true, buffer, Integer.MAX_VALUE);
+		buffer.flip();
+		// then
+		assertThat(Arrays.copyOf(buffer.array(), buffer.limit()), is(equalTo(payload)));
+	}
+
+	@Test(expected = WebSocketException.class)
+	public void shouldFailToInflateMoreThanMaximumLength() throws Exception {
+		// given
+		WebSocketPerMessageDeflate codec = createCodec("server_no_context_takeover");
+		byte[] payload = new byte[4096];
+		byte[] compressed = codec.getContext(Direction.INCOMING).deflate(payload, 0, payload.length);
+		// when
+		codec.getContext(Direction.INCOMING).inflate(compressed, 0, compressed.length, true, null, 1024);
+		// then = WebSocketException
+	}
+
+	private static WebSocketPerMessageDeflate createCodec(String params) {
+		WebSocketPerMessageDeflate codec = WebSocketPerMessageDeflate.create(
+				Collections.singletonMap(WebSocketPerMessageDeflate.EXTENSION_NAME, params));
+		assertThat(codec, is(notNullValue()));
+		return codec;
+	}
+
+	private static byte[] inflate(WebSocketPerMessageDeflate codec, byte[] compressed) throws Exception {
+		ByteBuffer buffer = codec.getContext(Direction.INCOMING).inflate(compressed, 0, compressed.length, true, null, Integer.MAX_VALUE);
+		buffer.flip();
+		return Arrays.copyOf(buffer.array(), buffer.limit());
+	}
+}
@@ -0,0 +1,73 @@
+package org.zaproxy.zap.extension.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.parosproxy.paros.Constant;
+import org.zaproxy.zap.extension.websocket.WebSocketProxy.State;
+import org.zaproxy.zap.utils.I18N;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketProxyV13UnitTest {
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		// messages format their timestamps with the locale
+		I18N i18n = Mockito.mock(I18N.class);
+		Mockito.when(i18n.getLocal()).thenReturn(Locale.ROOT);
+		Constant.messages = i18n;
+	}
+
+	@Test(expected = WebSocketProtocolException.class)
+	public void shouldRejectOversizedPingBeforeReadingPayload() throws Exception {
+		// given
+		WebSocketProxyV13 proxy = new WebSocketProxyV13(null, null, "example.com", 80);
+		// unmasked ping, declaring a payload of almost 2 GiB (64 bit length)
+		InputStream in = new ByteArrayInputStream(new byte[] { 127, 0, 0, 0, 0, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xF0 });
+		// when
+		proxy.createWebSocketMessage(in, (byte) 0x89);
+		// then = WebSocketProtocolException
+	}
+
+	@Test(expected = WebSocketProtocolException.class)
+	public void shouldRejectFragmentedPing() throws Exception {
+		// given
+		WebSocketProxyV13 proxy = new WebSocketProxyV13(null, null, "example.com", 80);
+		InputStream in = new ByteArrayInputStream(new byte[] { 1, 42 });
+		// when
+		proxy.createWebSocketMessage(in, (byte) 0x09);
+		// then = WebSocketProtocolException
+	}
+
+	@Test
+	public void shouldReadPingWithMaximumPayload() throws Exception {
+		// given
+		WebSocketProxyV13 proxy = new WebSocketProxyV13(null, null, "example.com", 80);
+		byte[] frame = new byte[1 + 125];
+		frame[0] = 125;
+		// when
+		WebSocketMessage message = proxy.createWebSocketMessage(new ByteArrayInputStream(frame), (byte) 0x89);
+		// then
+		assertThat(message.getPayloadLength(), is(125));
+		assertThat(message.isFinished(), is(true));
+	}
+
+	@Test
+	public void shouldNotifySenderListenersWhenForwardOnlyChannelIsClosed() throws Exception {
+		// given
+		WebSocketProxyV13 proxy = new WebSocketProxyV13(null, null, "example.com", 80);
+		WebSocketSenderListener listener = Mockito.mock(WebSocketSenderListener.class);
+		proxy.addSenderListener(listener);
+		proxy.setForwardOnly(true);
+		// when
+		proxy.setState(State.CLOSED);
+		// then
+		Mockito.verify(listener).onStateChange(State.CLOSED, proxy);
+	}
+}
@@ -0,0 +1,111 @@
+package org.zaproxy.zap.extension.websocket.brk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.parosproxy.paros.Constant;
+import org.zaproxy.zap.extension.brk.BreakpointMessageInterface;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage.Direction;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.utils.I18N;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+
+public class WebSocketBreakpointsMatcherUnitTest {
+
+	@BeforeClass
+	public static void setUp() {
+		// WebSocketMessageDTO requires the locale
+		I18N i18n = Mockito.mock(I18N.class);
+		given(i18n.getLocal()).willReturn(Locale.getDefault());
+		Constant.messages = i18n;
+	}
+
+	@Test
+	public void shouldMatchAnyOfTheJoinedPatterns() throws Exception {
+		// given
+		WebSocketBreakpointsMatcher matcher = createMatcher(
+				new WebSocketBreakpointMessage(null, null, "(?i)login", null),
+				new WebSocketBreakpointMessage(null, null, "^token=(\\d+)$", null),
+				new WebSocketBreakpointMessage(null, null, "(a)\\1", null));
+		// when / then
+		assertThat(matcher.match(createMessage(1, "Text", true, "LOGIN"), true, false), is(true));
+		assertThat(matcher.match(createMessage(1, "Text", true, "x\ntoken=42"), true, false), is(true));
+		assertThat(matcher.match(createMessage(1, "Text", true, "baa"), true, false), is(true));
+		assertThat(matcher.match(createMessage(1, "Text", true, "TOKEN=42 a"), true, false), is(false));
+	}
+
+	@Test
+	public void shouldOnlyMatchBreakpointsOfSameChannelOpcodeAndDirection() throws Exception {
+		// given
+		WebSocketBreakpointsMatcher matcher = createMatcher(
+				new WebSocketBreakpointMessage("Text", 2, null, Direction.INCOMING));
+		// when / then
+		assertThat(matcher.match(createMessage(2, "Text", false, "x"), false, false), is(true));
+		assertThat(matcher.match(createMessage(3, "Text", false, "x"), false, false), is(false));
+		assertThat(matcher.match(createMessage(2, "Binary", false, "x"), false, false), is(false));
+		assertThat(matcher.match(createMessage(2, "Text", true, "x"), true, false), is(false));
+	}
+
+	@Test
+	public void shouldNotMatchPatternOnBinaryPayload() throws Exception {
+		// given
+		WebSocketBreakpointsMatcher matcher = createMatcher(new WebSocketBreakpointMessage(null, null, "a", null));
+		WebSocketMessageDTO message = createMessage(1, "Binary", true, null);
+		message.payload = new byte[] { 'a' };
+		// when
+		boolean match = matcher.match(message, true, false);
+		// then
+		assertThat(match, is(false));
+	}
+
+	@Test
+	public void shouldNoLongerBeValidWhenBreakpointsChange() throws Exception {
+		// given
+		WebSocketBreakpointMessage breakpoint = new WebSocketBreakpointMessage(null, null, "a", null);
+		List<BreakpointMessageInterface> breakpoints = new ArrayList<>();
+		breakpoints.add(breakpoint);
+		WebSocketBreakpointsMatcher matcher = new WebSocketBreakpointsMatcher(breakpoints, WebSocketBreakpointMessage.getVersion());
+		boolean validBefore = matcher.isCompiledFrom(WebSocketBreakpointMessage.getVersion(), breakpoints.size());
+		// when
+		breakpoint.setPayloadPattern("b");
+		// then
+		assertThat(validBefore, is(true));
+		assertThat(matcher.isCompiledFrom(WebSocketBreakpointMessage.getVersion(), breakpoints.size()), is(false));
+	}
+
+	@Test
+	public void shouldNoLongerBeValidWhenNumberOfEnabledBreakpointsChanges() throws Exception {
+		// given
+		List<BreakpointMessageInterface> breakpoints = new ArrayList<>();
+		breakpoints.add(new WebSocketBreakpointMessage(null, null, "a", null));
+		WebSocketBreakpointsMatcher matcher = new WebSocketBreakpointsMatcher(breakpoints, 7);
+		// when
+		breakpoints.add(Mockito.mock(BreakpointMessageInterface.class));
+		// then
+		assertThat(matcher.isCompiledFrom(7, 1), is(true));
+		assertThat(matcher.isCompiledFrom(7, breakpoints.size()), is(false));
+	}
+
+	private static WebSocketBreakpointsMatcher createMatcher(BreakpointMessageInterface... breakpoints) {
+		return new WebSocketBreakpointsMatcher(Arrays.asList(breakpoints), WebSocketBreakpointMessage.getVersion());
+	}
+
+	private static WebSocketMessageDTO createMessage(int channelId, String opcode, boolean outgoing, String payload) {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = channelId;
+		WebSocketMessageDTO message = new WebSocketMessageDTO(channel);
+		message.readableOpcode = opcode;
+		message.isOutgoing = outgoing;
+		message.payload = payload;
+		return message;
+	}
+}
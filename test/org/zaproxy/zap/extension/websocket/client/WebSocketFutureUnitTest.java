@@ -0,0 +1,95 @@
+package org.zaproxy.zap.extension.websocket.client;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class WebSocketFutureUnitTest {
+
+	@Test
+	public void shouldCallBackWhenCompletedAndAfterwards() throws Exception {
+		// given
+		WebSocketFuture<String> future = new WebSocketFuture<>();
+		RecordingCallback before = new RecordingCallback();
+		future.addCallback(before);
+		// when
+		boolean completed = future.complete("reply");
+		RecordingCallback after = new RecordingCallback();
+		future.addCallback(after);
+		// then
+		assertThat(completed, is(true));
+		assertThat(future.get(), is("reply"));
+		assertThat(before.result.get(), is("reply"));
+		assertThat(after.result.get(), is("reply"));
+	}
+
+	@Test
+	public void shouldKeepFirstOutcome() throws Exception {
+		// given
+		WebSocketFuture<String> future = new WebSocketFuture<>();
+		future.fail(new IOException("write failed"));
+		// when
+		boolean completed = future.complete("reply");
+		boolean cancelled = future.cancel(false);
+		// then
+		assertThat(completed, is(false));
+		assertThat(cancelled, is(false));
+		assertThat(future.isCancelled(), is(false));
+		try {
+			future.get();
+			fail("Expected ExecutionException.");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), is(instanceOf(IOException.class)));
+		}
+	}
+
+	@Test
+	public void shouldTellCallbacksOfCancellation() throws Exception {
+		// given
+		WebSocketFuture<String> future = new WebSocketFuture<>();
+		RecordingCallback callback = new RecordingCallback();
+		future.addCallback(callback);
+		// when
+		future.cancel(true);
+		// then
+		assertThat(future.isCancelled(), is(true));
+		assertThat(future.isDone(), is(true));
+		assertThat(callback.cause.get(), is(instanceOf(CancellationException.class)));
+	}
+
+	@Test(expected = TimeoutException.class)
+	public void shouldTimeOutIfNotDone() throws Exception {
+		// given
+		WebSocketFuture<String> future = new WebSocketFuture<>();
+		// when
+		future.get(10, TimeUnit.MILLISECONDS);
+		// then = TimeoutException
+	}
+
+	private static class RecordingCallback implements WebSocketFuture.Callback<String> {
+
+		private final AtomicReference<String> result = new AtomicReference<>();
+
+		private final AtomicReference<Throwable> cause = new AtomicReference<>();
+
+		@Override
+		public void completed(String value) {
+			result.set(value);
+		}
+
+		@Override
+		public void failed(Throwable failure) {
+			cause.set(failure);
+		}
+	}
+}
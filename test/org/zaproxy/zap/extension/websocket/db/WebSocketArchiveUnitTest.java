@@ -0,0 +1,172 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.parosproxy.paros.Constant;
+import org.zaproxy.zap.extension.websocket.WebSocketChannelDTO;
+import org.zaproxy.zap.extension.websocket.WebSocketException;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.utils.I18N;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+
+public class WebSocketArchiveUnitTest {
+
+	private static final String TEXT = "{\"json\":[1]} \"quoted\"\\\né€😀";
+
+	private static final byte[] BYTES = { 0, 1, (byte) 0xff, '\n', '{' };
+
+	@BeforeClass
+	public static void setUp() {
+		// WebSocketMessageDTO requires the locale
+		I18N i18n = Mockito.mock(I18N.class);
+		given(i18n.getLocal()).willReturn(Locale.getDefault());
+		Constant.messages = i18n;
+	}
+
+	@Test
+	public void shouldReadWhatWasWrittenAsNdjson() throws Exception {
+		shouldReadWhatWasWritten(WebSocketArchive.Format.NDJSON);
+	}
+
+	@Test
+	public void shouldReadWhatWasWrittenAsBinary() throws Exception {
+		shouldReadWhatWasWritten(WebSocketArchive.Format.BINARY);
+	}
+
+	private static void shouldReadWhatWasWritten(WebSocketArchive.Format format) throws Exception {
+		// given
+		WebSocketChannelDTO channel = createChannel();
+		byte[] archive = write(format, channel,
+				createMessage(channel, 1, WebSocketMessage.OPCODE_TEXT, TEXT),
+				createMessage(channel, 2, WebSocketMessage.OPCODE_BINARY, BYTES));
+		RecordingHandler handler = new RecordingHandler();
+		// when
+		WebSocketArchive.read(new ByteArrayInputStream(archive), handler);
+		// then
+		assertThat(handler.channels.size(), is(equalTo(1)));
+		WebSocketChannelDTO readChannel = handler.channels.get(0);
+		assertThat(readChannel.id, is(equalTo(7)));
+		assertThat(readChannel.host, is(equalTo("example.com")));
+		assertThat(readChannel.port, is(equalTo(443)));
+		assertThat(readChannel.url, is(equalTo("https://example.com/ws?a=\"b\"")));
+		assertThat(readChannel.startTimestamp, is(equalTo(1000L)));
+		assertThat(readChannel.endTimestamp, is(nullValue()));
+
+		assertThat(handler.messages.size(), is(equalTo(2)));
+		WebSocketMessageDTO text = handler.messages.get(0);
+		assertThat(text.channel.id, is(equalTo(7)));
+		assertThat(text.id, is(equalTo(1)));
+		assertThat(text.timestamp, is(equalTo(2001L)));
+		assertThat(text.opcode, is(equalTo(WebSocketMessage.OPCODE_TEXT)));
+		assertThat(text.isOutgoing, is(equalTo(Boolean.TRUE)));
+		assertThat(text.payload, is(equalTo((Object) TEXT)));
+		WebSocketMessageDTO binary = handler.messages.get(1);
+		assertThat(binary.opcode, is(equalTo(WebSocketMessage.OPCODE_BINARY)));
+		assertThat((byte[]) binary.payload, is(equalTo(BYTES)));
+		assertThat(binary.payloadLength, is(equalTo(BYTES.length)));
+	}
+
+	@Test
+	public void shouldDetectCompressedArchive() throws Exception {
+		// given
+		WebSocketChannelDTO channel = createChannel();
+		byte[] archive = write(WebSocketArchive.Format.NDJSON, channel,
+				createMessage(channel, 1, WebSocketMessage.OPCODE_TEXT, TEXT));
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+			out.write(archive);
+		}
+		RecordingHandler handler = new RecordingHandler();
+		// when
+		WebSocketArchive.read(new ByteArrayInputStream(compressed.toByteArray()), handler);
+		// then
+		assertThat(handler.channels.size(), is(equalTo(1)));
+		assertThat(handler.messages.get(0).payload, is(equalTo((Object) TEXT)));
+	}
+
+	@Test(expected = WebSocketException.class)
+	public void shouldRejectUnknownFormat() throws Exception {
+		// given
+		byte[] archive = "[]\n".getBytes(StandardCharsets.UTF_8);
+		// when
+		WebSocketArchive.read(new ByteArrayInputStream(archive), new RecordingHandler());
+		// then = WebSocketException
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectNestedJsonValues() throws Exception {
+		// given
+		String json = "{\"type\":\"message\",\"text\":{\"a\":1}}";
+		// when
+		WebSocketNdjsonArchive.parseObject(json);
+		// then = IllegalArgumentException
+	}
+
+	private static WebSocketChannelDTO createChannel() {
+		WebSocketChannelDTO channel = new WebSocketChannelDTO();
+		channel.id = 7;
+		channel.host = "example.com";
+		channel.port = 443;
+		channel.url = "https://example.com/ws?a=\"b\"";
+		channel.startTimestamp = 1000L;
+		return channel;
+	}
+
+	private static WebSocketMessageDTO createMessage(WebSocketChannelDTO channel, int id, int opcode, Object payload) {
+		WebSocketMessageDTO message = new WebSocketMessageDTO(channel);
+		message.id = id;
+		message.timestamp = 2000L + id;
+		message.opcode = opcode;
+		message.isOutgoing = id % 2 == 1;
+		message.payload = payload;
+		message.payloadLength = (payload instanceof byte[])
+				? ((byte[]) payload).length
+				: ((String) payload).getBytes(StandardCharsets.UTF_8).length;
+		return message;
+	}
+
+	private static byte[] write(WebSocketArchive.Format format, WebSocketChannelDTO channel, WebSocketMessageDTO... messages)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (WebSocketArchive.Writer writer = WebSocketArchive.createWriter(out, format)) {
+			writer.writeChannel(channel);
+			for (WebSocketMessageDTO message : messages) {
+				writer.writeMessage(message);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static class RecordingHandler implements WebSocketArchive.Handler {
+
+		private final List<WebSocketChannelDTO> channels = new ArrayList<>();
+
+		private final List<WebSocketMessageDTO> messages = new ArrayList<>();
+
+		@Override
+		public void channel(WebSocketChannelDTO channel) {
+			channels.add(channel);
+		}
+
+		@Override
+		public void message(WebSocketMessageDTO message) {
+			messages.add(message);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.parosproxy.paros.Constant;
+import org.zaproxy.zap.extension.websocket.WebSocketMessageDTO;
+import org.zaproxy.zap.utils.I18N;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WebSocketMessageWriterUnitTest {
+
+	private static final long MAX_WAIT_MS = 5000;
+
+	private TableWebSocket table;
+	private WebSocketMessageWriter writer;
+
+	@BeforeClass
+	public static void setUpClass() {
+		// WebSocketMessageDTO requires the locale
+		I18N i18n = Mockito.mock(I18N.class);
+		given(i18n.getLocal()).willReturn(Locale.ROOT);
+		Constant.messages = i18n;
+	}
+
+	@Before
+	public void setUp() {
+		table = Mockito.mock(TableWebSocket.class);
+		writer = new WebSocketMessageWriter(table);
+	}
+
+	@After
+	public void tearDown() {
+		writer.stop();
+	}
+
+	@Test
+	public void shouldNotWriteWhenFlushingWithoutQueuedMessages() throws Exception {
+		// given no queued messages
+		// when
+		boolean flushed = writer.flush(1, TimeUnit.SECONDS);
+		// then
+		assertThat(flushed, is(true));
+		verify(table, never()).insertMessages(anyListOf(WebSocketMessageDTO.class));
+	}
+
+	@Test
+	public void shouldWriteQueuedMessagesWhenFlushing() throws Exception {
+		// given
+		writer.queue(createMessage(1));
+		writer.queue(createMessage(2));
+		// when
+		boolean flushed = writer.flush(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+		// then
+		assertThat(flushed, is(true));
+		assertThat(writer.getQueuedCount(), is(0));
+		assertThat(writer.getWrittenCount(), is(2L));
+	}
+
+	@Test
+	public void shouldWriteQueuedMessagesOnceWhenFlushingAgain() throws Exception {
+		// given
+		writer.queue(createMessage(1));
+		writer.flush(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+		// when
+		boolean flushed = writer.flush(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+		// then
+		assertThat(flushed, is(true));
+		verify(table, times(1)).insertMessages(anyListOf(WebSocketMessageDTO.class));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void shouldNotFlushWhileHoldingTheLockOfTheTable() throws Exception {
+		// given
+		writer.queue(createMessage(1));
+		synchronized (table) {
+			// when
+			writer.flush(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+		}
+		// then = IllegalStateException
+	}
+
+	private static WebSocketMessageDTO createMessage(int id) {
+		WebSocketMessageDTO message = new WebSocketMessageDTO();
+		message.id = id;
+		message.channel.id = 1;
+		message.payload = "payload " + id;
+		return message;
+	}
+}
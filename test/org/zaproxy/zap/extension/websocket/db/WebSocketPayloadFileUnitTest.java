@@ -0,0 +1,77 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadFileUnitTest {
+
+	private static final byte[] PAYLOAD = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void shouldFindPatternAcrossWindows() throws Exception {
+		// given
+		try (WebSocketPayloadFile payload = WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(PAYLOAD), false)) {
+			byte[] pattern = "6789".getBytes(StandardCharsets.UTF_8);
+			// when
+			long position = payload.indexOf(pattern, 0, null, 8);
+			// then
+			assertThat(position, is(6L));
+		}
+	}
+
+	@Test
+	public void shouldNotFindPatternBeforeStart() throws Exception {
+		// given
+		try (WebSocketPayloadFile payload = WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(PAYLOAD), false)) {
+			byte[] pattern = "012".getBytes(StandardCharsets.UTF_8);
+			// when
+			long position = payload.indexOf(pattern, 1, null, 8);
+			// then
+			assertThat(position, is(-1L));
+		}
+	}
+
+	@Test
+	public void shouldMapOnlyRegionOfFile() throws Exception {
+		// given
+		File file = File.createTempFile("payload", ".tmp");
+		file.deleteOnExit();
+		Files.write(file.toPath(), PAYLOAD);
+		try (WebSocketPayloadFile payload = new WebSocketPayloadFile(file, 10, 6, false, true)) {
+			// when
+			ByteBuffer window = payload.map(2, 100);
+			// then
+			byte[] bytes = new byte[window.remaining()];
+			window.get(bytes);
+			assertThat(payload.getLength(), is(6L));
+			assertThat(new String(bytes, StandardCharsets.UTF_8), is(equalTo("cdef")));
+			assertThat(payload.indexOf("ab".getBytes(StandardCharsets.UTF_8), 0, null), is(0L));
+		}
+		assertThat(file.exists(), is(false));
+	}
+
+	@Test
+	public void shouldCreateTemporaryFilesInOneDirectoryAndDeleteThemOnClose() throws Exception {
+		// given
+		WebSocketPayloadFile payload = WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(PAYLOAD), false);
+		WebSocketPayloadFile otherPayload = WebSocketPayloadFile.createTemporary(new StringReader("text"));
+		File file = payload.getFile();
+		// when
+		payload.close();
+		otherPayload.close();
+		// then
+		assertThat(file.getParentFile(), is(equalTo(otherPayload.getFile().getParentFile())));
+		assertThat(file.exists(), is(false));
+		assertThat(otherPayload.getFile().exists(), is(false));
+	}
+}
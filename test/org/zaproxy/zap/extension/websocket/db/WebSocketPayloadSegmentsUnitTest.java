@@ -0,0 +1,66 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadSegmentsUnitTest {
+
+	private static final byte[] PAYLOAD = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shouldStoreSegmentsNextToDatabaseWithRelativePaths() throws Exception {
+		// given
+		WebSocketPayloadSegments segments = new WebSocketPayloadSegments(folder.getRoot(), "session");
+		// when
+		String path = segments.startSegment(1);
+		long offset = segments.append(PAYLOAD);
+		segments.close();
+		// then
+		File file = segments.getFile(path);
+		assertThat(new File(path).isAbsolute(), is(false));
+		assertThat(file.getParentFile(), is(equalTo(folder.getRoot())));
+		assertThat(file.getName().startsWith("session."), is(true));
+		assertThat(segments.read(path, offset + 10, 4), is(equalTo("abcd".getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void shouldDeleteCurrentSegment() throws Exception {
+		// given
+		WebSocketPayloadSegments segments = new WebSocketPayloadSegments(folder.getRoot(), "session");
+		String path = segments.startSegment(1);
+		segments.append(PAYLOAD);
+		// when
+		boolean deleted = segments.delete(path);
+		// then
+		assertThat(deleted, is(true));
+		assertThat(segments.getFile(path).exists(), is(false));
+		assertThat(segments.isNewSegmentRequired(), is(true));
+	}
+
+	@Test
+	public void shouldCopySegmentOfPreviousDatabase() throws Exception {
+		// given
+		WebSocketPayloadSegments previous = new WebSocketPayloadSegments(folder.getRoot(), "untitled1");
+		String path = previous.startSegment(1);
+		long offset = previous.append(PAYLOAD);
+		previous.close();
+		WebSocketPayloadSegments segments = new WebSocketPayloadSegments(folder.newFolder("saved"), "session");
+		// when
+		boolean copied = segments.copyFrom(previous, path);
+		// then
+		assertThat(copied, is(true));
+		assertThat(segments.read(path, offset, PAYLOAD.length), is(equalTo(PAYLOAD)));
+		assertThat(segments.copyFrom(previous, path), is(false));
+	}
+}
@@ -0,0 +1,91 @@
+package org.zaproxy.zap.extension.websocket.db;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadTokenizerUnitTest {
+
+	@Test
+	public void shouldTokenizeDistinctWordsCaseInsensitively() throws Exception {
+		// given
+		String payload = "{\"Session_Id\":\"abc123\",\"op\":\"SUBSCRIBE\",\"x\":\"subscribe\"}";
+		// when
+		Set<Integer> tokens = WebSocketPayloadTokenizer.tokenize(payload, 10);
+		// then
+		assertThat(tokens, containsInAnyOrder(hash("session_id"), hash("abc123"), hash("subscribe")));
+	}
+
+	@Test
+	public void shouldNotTokenizeMoreThanMaximum() throws Exception {
+		// given
+		String payload = "one two three four";
+		// when
+		Set<Integer> tokens = WebSocketPayloadTokenizer.tokenize(payload, 3);
+		// then
+		assertThat(tokens, is(nullValue()));
+	}
+
+	@Test
+	public void shouldRequireDelimitedLiteralTokens() throws Exception {
+		// given
+		Pattern pattern = Pattern.compile("\"op\":\"subscribe\",\\s+\"channel\":\"[a-z]+\"");
+		// when
+		Set<Integer> tokens = WebSocketPayloadTokenizer.getRequiredTokens(pattern);
+		// then
+		assertThat(tokens, containsInAnyOrder(hash("subscribe"), hash("channel")));
+	}
+
+	@Test
+	public void shouldNotRequireTokensAtEdgesOfLiteralPattern() throws Exception {
+		// given
+		Pattern pattern = Pattern.compile("ession user=admin token=1234 a", Pattern.LITERAL);
+		// when
+		Set<Integer> tokens = WebSocketPayloadTokenizer.getRequiredTokens(pattern);
+		// then
+		assertThat(tokens, containsInAnyOrder(hash("user"), hash("admin"), hash("token"), hash("1234")));
+	}
+
+	@Test
+	public void shouldRequireTokensBetweenWordBoundaries() throws Exception {
+		// given
+		Pattern pattern = Pattern.compile("(?i)\\btoken\\b.*?\\bsecret_[0-9]+");
+		// when
+		Set<Integer> tokens = WebSocketPayloadTokenizer.getRequiredTokens(pattern);
+		// then
+		assertThat(tokens, containsInAnyOrder(hash("token")));
+	}
+
+	@Test
+	public void shouldNotRequireOptionalOrRepeatedCharacters() throws Exception {
+		// given
+		Pattern optional = Pattern.compile(" colou?r ");
+		Pattern repeated = Pattern.compile(" hello+ ");
+		Pattern spaces = Pattern.compile(" hello\\s*world ");
+		// when / then
+		assertThat(WebSocketPayloadTokenizer.getRequiredTokens(optional), is(empty()));
+		assertThat(WebSocketPayloadTokenizer.getRequiredTokens(repeated), is(empty()));
+		assertThat(WebSocketPayloadTokenizer.getRequiredTokens(spaces), is(empty()));
+	}
+
+	@Test
+	public void shouldNotRequireTokensOfAlternationsOrGroups() throws Exception {
+		// given
+		Pattern alternation = Pattern.compile(" foo | bar ");
+		Pattern group = Pattern.compile(" (foo|bar) baz");
+		// when / then
+		assertThat(WebSocketPayloadTokenizer.getRequiredTokens(alternation), is(empty()));
+		assertThat(WebSocketPayloadTokenizer.getRequiredTokens(group), is(empty()));
+	}
+
+	private static Integer hash(String token) {
+		return WebSocketPayloadTokenizer.hash(token, 0, token.length());
+	}
+}
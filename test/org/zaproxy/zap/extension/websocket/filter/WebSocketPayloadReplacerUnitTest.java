@@ -0,0 +1,86 @@
+package org.zaproxy.zap.extension.websocket.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadReplacerUnitTest {
+
+	private static final int FILTER_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE;
+
+	@Test
+	public void shouldReplaceLikeReplaceAll() throws Exception {
+		String[][] cases = {
+				{ "token=\\d+", "token=0", "{\"token=123\",\"TOKEN=4\"}" },
+				{ "a*", "X", "baaac" },
+				{ "(\\w+)@(\\w+)", "$2 at $1", "mail: user@host, admin@häst" },
+				{ "^id", "\\$id", "id: 1\nid: 2" },
+				{ "ä", "ae", "häst Ä" } };
+		for (String[] c : cases) {
+			// given
+			Pattern pattern = Pattern.compile(c[0], FILTER_FLAGS);
+			String expected = pattern.matcher(c[2]).replaceAll(c[1]);
+			// when
+			byte[] replaced = replace(createReplacer(pattern, c[1]), c[2]);
+			// then
+			assertThat(c[0], new String(replaced, StandardCharsets.UTF_8), is(equalTo(expected)));
+		}
+	}
+
+	@Test
+	public void shouldNotChangePayloadWithoutMatch() throws Exception {
+		// given
+		WebSocketPayloadReplacer replacer = createReplacer(Pattern.compile("secret\\s*=", FILTER_FLAGS), "x");
+		// when / then
+		assertThat(replace(replacer, "{\"public\": \"secret\"}"), is(nullValue()));
+		assertThat(replace(replacer, "no prefix here"), is(nullValue()));
+		assertThat(replacer.replace(new byte[] { 's', 'e', 'c', (byte) 0xC3 }, 0, 4), is(nullValue()));
+	}
+
+	@Test
+	public void shouldApplyAllRulesInOnePass() throws Exception {
+		// given
+		WebSocketPayloadReplacer replacer = new WebSocketPayloadReplacer(
+				Arrays.asList(Pattern.compile("a"), Pattern.compile("ab"), Pattern.compile("b")),
+				Arrays.asList("b", "x", "c"));
+		// when
+		byte[] replaced = replace(replacer, "aab b");
+		// then
+		assertThat(new String(replaced, StandardCharsets.UTF_8), is(equalTo("bbc c")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldFailOnUnknownGroupReference() throws Exception {
+		// given
+		Pattern pattern = Pattern.compile("(a)");
+		// when
+		createReplacer(pattern, "$2");
+		// then = IllegalArgumentException
+	}
+
+	@Test
+	public void shouldExtractLiteralPrefix() throws Exception {
+		assertThat(WebSocketPayloadReplacer.getLiteralPrefix(Pattern.compile("abc\\.d+e")), is(equalTo("abc.d")));
+		assertThat(WebSocketPayloadReplacer.getLiteralPrefix(Pattern.compile("abc?")), is(equalTo("ab")));
+		assertThat(WebSocketPayloadReplacer.getLiteralPrefix(Pattern.compile("ab\\dc")), is(equalTo("ab")));
+		assertThat(WebSocketPayloadReplacer.getLiteralPrefix(Pattern.compile("ab|cd")), is(equalTo("")));
+		assertThat(WebSocketPayloadReplacer.getLiteralPrefix(Pattern.compile("a.b", Pattern.LITERAL)), is(equalTo("a.b")));
+	}
+
+	private static WebSocketPayloadReplacer createReplacer(Pattern pattern, String replacement) {
+		return new WebSocketPayloadReplacer(Collections.singletonList(pattern), Collections.singletonList(replacement));
+	}
+
+	private static byte[] replace(WebSocketPayloadReplacer replacer, String payload) {
+		byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		return replacer.replace(bytes, 0, bytes.length);
+	}
+}
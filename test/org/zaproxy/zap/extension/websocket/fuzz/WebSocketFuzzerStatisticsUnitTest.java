@@ -0,0 +1,80 @@
+package org.zaproxy.zap.extension.websocket.fuzz;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.WebSocketMessage;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketFuzzerStatisticsUnitTest {
+
+    private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    @Test
+    public void shouldAttributeIncomingMessagesToLastFuzzedMessageOfChannel() throws Exception {
+        // given
+        WebSocketFuzzerStatistics statistics = new WebSocketFuzzerStatistics(1000);
+        WebSocketFuzzerStatistics.Response first = statistics.messageSending(1, 0);
+        statistics.messageSent(1, first, 10);
+        WebSocketFuzzerStatistics.Response second = statistics.messageSending(1, 100 * MICROS);
+        statistics.messageSent(1, second, 11);
+        // when
+        boolean attributed = statistics.messageReceived(1, WebSocketMessage.OPCODE_TEXT, 42, 350 * MICROS);
+        // then
+        assertThat(attributed, is(true));
+        assertThat(statistics.getResponse(1, 10).getCount(), is(equalTo(0)));
+        assertThat(statistics.getResponse(1, 11).getCount(), is(equalTo(1)));
+        assertThat(statistics.getResponse(1, 11).getBytes(), is(equalTo(42L)));
+        assertThat(statistics.getResponse(1, 11).getRoundTripMicros(), is(equalTo(250L)));
+        assertThat(statistics.getUnansweredCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void shouldNotAttributeIncomingMessagesOutsideWindow() throws Exception {
+        // given
+        WebSocketFuzzerStatistics statistics = new WebSocketFuzzerStatistics(1);
+        statistics.messageSent(1, statistics.messageSending(1, 0), 10);
+        // when
+        boolean otherChannel = statistics.messageReceived(2, WebSocketMessage.OPCODE_TEXT, 1, 10 * MICROS);
+        boolean tooLate = statistics.messageReceived(1, WebSocketMessage.OPCODE_TEXT, 1, 2000 * MICROS);
+        // then
+        assertThat(otherChannel, is(false));
+        assertThat(tooLate, is(false));
+        assertThat(statistics.getResponseCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void shouldEstimatePercentilesOfRoundTripTimes() throws Exception {
+        // given
+        WebSocketFuzzerStatistics statistics = new WebSocketFuzzerStatistics(60000);
+        // when
+        for (int i = 1; i <= 100; i++) {
+            long sent = i * 1000000 * MICROS;
+            statistics.messageSent(i, statistics.messageSending(i, sent), 1);
+            statistics.messageReceived(i, WebSocketMessage.OPCODE_TEXT, 1, sent + i * 1000 * MICROS);
+        }
+        // then
+        assertThat(statistics.getRoundTripMicros(50), is(allOf(greaterThanOrEqualTo(50000L), lessThan(56250L))));
+        assertThat(statistics.getRoundTripMicros(99), is(allOf(greaterThanOrEqualTo(99000L), lessThan(111375L))));
+        assertThat(statistics.getAnsweredCount(), is(equalTo(100L)));
+    }
+
+    @Test
+    public void shouldCountValuesIntoBucketsWithinBounds() throws Exception {
+        for (long micros : new long[] { 0, 7, 8, 9, 100, 1023, 1024, 123456789L, Long.MAX_VALUE }) {
+            // when
+            int bucket = WebSocketFuzzerStatistics.bucket(micros);
+            // then
+            assertThat(WebSocketFuzzerStatistics.upperBound(bucket), is(greaterThanOrEqualTo(micros)));
+            if (bucket > 0) {
+                assertThat(WebSocketFuzzerStatistics.upperBound(bucket - 1), is(lessThan(micros)));
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.zaproxy.zap.extension.websocket.replay;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketReplayStatisticsUnitTest {
+
+	private static final long MICROS = TimeUnit.MICROSECONDS.toNanos(1);
+
+	@Test
+	public void shouldAggregateRoundTrips() throws Exception {
+		// given
+		WebSocketReplayStatistics statistics = new WebSocketReplayStatistics();
+		// when
+		statistics.roundTrip(100 * MICROS);
+		statistics.roundTrip(300 * MICROS);
+		// then
+		assertThat(statistics.getRoundTripCount(), is(equalTo(2L)));
+		assertThat(statistics.getAverageRoundTripMicros(), is(equalTo(200.0)));
+		assertThat(statistics.getMaxRoundTripMicros(), is(equalTo(300L)));
+		long[] histogram = statistics.getRoundTripHistogram();
+		assertThat(histogram[7], is(equalTo(1L)));
+		assertThat(histogram[9], is(equalTo(1L)));
+	}
+
+	@Test
+	public void shouldPutSlowRoundTripsInLastBucket() throws Exception {
+		// given
+		WebSocketReplayStatistics statistics = new WebSocketReplayStatistics();
+		// when
+		statistics.roundTrip(TimeUnit.HOURS.toNanos(2));
+		// then
+		long[] histogram = statistics.getRoundTripHistogram();
+		assertThat(histogram[WebSocketReplayStatistics.ROUND_TRIP_BUCKETS - 1], is(equalTo(1L)));
+	}
+
+	@Test
+	public void shouldStopClockWhenFinished() throws Exception {
+		// given
+		WebSocketReplayStatistics statistics = new WebSocketReplayStatistics();
+		statistics.messageSent(10);
+		statistics.messageSent(20);
+		// when
+		statistics.finished();
+		double elapsed = statistics.getElapsedSeconds();
+		Thread.sleep(5);
+		// then
+		assertThat(statistics.isFinished(), is(true));
+		assertThat(statistics.getElapsedSeconds(), is(equalTo(elapsed)));
+		assertThat(statistics.getMessagesSent(), is(equalTo(2L)));
+		assertThat(statistics.getBytesSent(), is(equalTo(30L)));
+	}
+}
@@ -0,0 +1,57 @@
+package org.zaproxy.zap.extension.websocket.ui;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class RecentRowsBufferUnitTest {
+
+	@Test
+	public void shouldAppendRowsAfterGivenRowIndex() throws Exception {
+		// given
+		RecentRowsBuffer<String> buffer = new RecentRowsBuffer<>(4);
+		buffer.reset(10);
+		// when
+		int first = buffer.add("a");
+		int second = buffer.add("b");
+		// then
+		assertThat(first, is(equalTo(10)));
+		assertThat(second, is(equalTo(11)));
+		assertThat(buffer.get(10), is(equalTo("a")));
+		assertThat(buffer.get(11), is(equalTo("b")));
+		assertThat(buffer.get(9), is(nullValue()));
+		assertThat(buffer.get(12), is(nullValue()));
+	}
+
+	@Test
+	public void shouldReplaceOldestRowsOnceFull() throws Exception {
+		// given
+		RecentRowsBuffer<String> buffer = new RecentRowsBuffer<>(3);
+		// when
+		for (String row : new String[] { "a", "b", "c", "d", "e" }) {
+			buffer.add(row);
+		}
+		// then
+		assertThat(buffer.size(), is(equalTo(3)));
+		assertThat(buffer.getFirstRowIndex(), is(equalTo(2)));
+		assertThat(buffer.get(1), is(nullValue()));
+		assertThat(buffer.get(2), is(equalTo("c")));
+		assertThat(buffer.get(4), is(equalTo("e")));
+	}
+
+	@Test
+	public void shouldForgetAllRowsOnReset() throws Exception {
+		// given
+		RecentRowsBuffer<String> buffer = new RecentRowsBuffer<>(3);
+		buffer.add("a");
+		// when
+		buffer.reset(0);
+		// then
+		assertThat(buffer.size(), is(equalTo(0)));
+		assertThat(buffer.get(0), is(nullValue()));
+		assertThat(buffer.getNextRowIndex(), is(equalTo(0)));
+	}
+}
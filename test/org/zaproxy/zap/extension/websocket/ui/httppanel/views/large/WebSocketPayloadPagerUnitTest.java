@@ -0,0 +1,64 @@
+package org.zaproxy.zap.extension.websocket.ui.httppanel.views.large;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.zaproxy.zap.extension.websocket.db.WebSocketPayloadFile;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WebSocketPayloadPagerUnitTest {
+
+	@Test
+	public void shouldFormatHexDump() throws Exception {
+		// given
+		ByteBuffer bytes = ByteBuffer.wrap("Hello\n".getBytes(StandardCharsets.UTF_8));
+		// when
+		String hex = WebSocketPayloadPager.toHex(bytes, 16);
+		// then
+		assertThat(hex, is(equalTo("00000010  48 65 6c 6c 6f 0a" + spaces(30) + "  |Hello.|\n")));
+	}
+
+	@Test
+	public void shouldParseHexSearchPatternOnlyInHexMode() throws Exception {
+		// given
+		String query = "de ad BE ef";
+		// when
+		byte[] hex = WebSocketPayloadPager.toSearchPattern(query, WebSocketPayloadPager.Mode.HEX);
+		byte[] text = WebSocketPayloadPager.toSearchPattern(query, WebSocketPayloadPager.Mode.TEXT);
+		// then
+		assertThat(hex, is(equalTo(new byte[] { (byte) 0xde, (byte) 0xad, (byte) 0xbe, (byte) 0xef })));
+		assertThat(text, is(equalTo(query.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void shouldNotSplitCharactersAcrossTextPages() throws Exception {
+		// given
+		byte[] payload = new byte[WebSocketPayloadPager.TEXT_PAGE_SIZE + 10];
+		Arrays.fill(payload, (byte) 'a');
+		byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(euro, 0, payload, WebSocketPayloadPager.TEXT_PAGE_SIZE - 1, euro.length);
+		try (WebSocketPayloadFile file = WebSocketPayloadFile.createTemporary(new ByteArrayInputStream(payload), true)) {
+			WebSocketPayloadPager pager = new WebSocketPayloadPager(file, WebSocketPayloadPager.Mode.TEXT);
+			// when
+			String first = pager.getPageText(0);
+			String second = pager.getPageText(1);
+			// then
+			assertThat(pager.getPageCount(), is(2));
+			assertThat(first.endsWith("a€"), is(true));
+			assertThat(second, is(equalTo("aaaaaaaa")));
+			assertThat(pager.getTextIndex(1, WebSocketPayloadPager.TEXT_PAGE_SIZE + 4), is(2));
+		}
+	}
+
+	private static String spaces(int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, ' ');
+		return new String(chars);
+	}
+}
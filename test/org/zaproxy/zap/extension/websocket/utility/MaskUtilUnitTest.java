@@ -0,0 +1,79 @@
+package org.zaproxy.zap.extension.websocket.utility;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MaskUtilUnitTest {
+
+	private static final byte[] MASK = new byte[] {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+	@Test
+	public void shouldMaskShortPayloadAsSpecified() throws Exception {
+		// given
+		byte[] payload = new byte[] {0x48, 0x65, 0x6c, 0x6c, 0x6f};
+		// when
+		MaskUtil.mask(MASK, payload, 0, payload.length, 0);
+		// then (example of RFC6455, section 5.7)
+		assertThat(payload, is(equalTo(new byte[] {0x7f, (byte) 0x9f, 0x4d, 0x51, 0x58})));
+	}
+
+	@Test
+	public void shouldMaskLikeByteByByteForAnyLengthAndOffset() throws Exception {
+		Random random = new Random(13);
+		for (int length = 0; length < 70; length++) {
+			for (int offset = 0; offset < 9; offset++) {
+				for (int maskOffset = 0; maskOffset < 4; maskOffset++) {
+					// given
+					byte[] data = new byte[offset + length + 3];
+					random.nextBytes(data);
+					byte[] expected = maskByteByByte(data, offset, length, maskOffset);
+					// when
+					MaskUtil.mask(MASK, data, offset, length, maskOffset);
+					// then
+					assertThat(data, is(equalTo(expected)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldUnmaskPreviouslyMaskedPayload() throws Exception {
+		// given
+		byte[] payload = new byte[16 * 1024 + 5];
+		new Random(7).nextBytes(payload);
+		byte[] original = payload.clone();
+		// when
+		MaskUtil.mask(MASK, payload, 0, payload.length, 0);
+		MaskUtil.mask(MASK, payload, 0, payload.length, 0);
+		// then
+		assertThat(payload, is(equalTo(original)));
+	}
+
+	@Test
+	public void shouldMaskInChunksLikeAtOnce() throws Exception {
+		// given
+		byte[] atOnce = new byte[1000];
+		new Random(3).nextBytes(atOnce);
+		byte[] inChunks = atOnce.clone();
+		// when
+		MaskUtil.mask(MASK, atOnce, 0, atOnce.length, 0);
+		MaskUtil.mask(MASK, inChunks, 0, 333, 0);
+		MaskUtil.mask(MASK, inChunks, 333, 667, 333);
+		// then
+		assertThat(inChunks, is(equalTo(atOnce)));
+	}
+
+	private static byte[] maskByteByByte(byte[] data, int offset, int length, int maskOffset) {
+		byte[] result = Arrays.copyOf(data, data.length);
+		for (int i = 0; i < length; i++) {
+			result[offset + i] = (byte) (result[offset + i] ^ MASK[(maskOffset + i) % 4]);
+		}
+		return result;
+	}
+}
@@ -37,4 +37,33 @@ public class Utf8UtilUnitTest {
 		assertThat(s, is(equalTo("123")));
 	}
 
+	@Test
+	public void shouldEncodeRangeOfMultiByteUtf8Bytes() throws Exception {
+		// given
+		byte[] utf8 = "{\"name\":\"h\u00e4st \u20ac\"}".getBytes("UTF-8");
+		// when
+		String s = Utf8Util.encodePayloadToUtf8(utf8, 9, utf8.length - 11);
+		// then
+		assertThat(s, is(equalTo("h\u00e4st \u20ac")));
+	}
+
+	@Test(expected = InvalidUtf8Exception.class)
+	public void shouldFailOnTruncatedMultiByteSequenceAfterValidDecoding() throws Exception {
+		// given
+		byte[] utf8 = "\u00e4".getBytes("UTF-8");
+		Utf8Util.encodePayloadToUtf8(utf8);
+		// when
+		Utf8Util.encodePayloadToUtf8(utf8, 0, 1);
+		// then InvalidUtf8Exception
+	}
+
+	@Test
+	public void shouldDetectAsciiBytes() throws Exception {
+		// given
+		byte[] bytes = new byte[] {'a', 0x7F, (byte) 0x80};
+		// when / then
+		assertThat(Utf8Util.isAscii(bytes, 0, 2), is(true));
+		assertThat(Utf8Util.isAscii(bytes, 1, 2), is(false));
+	}
+
 }